@@ -0,0 +1,107 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.LocaleUtils;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.TestFileUtil;
+import org.jamwiki.WikiException;
+import org.jamwiki.model.Topic;
+import org.jamwiki.parser.ParserInput;
+
+/**
+ * Shared set-up for benchmarks that require a working JAMWiki instance.  The
+ * instance is created using the same HSQL database and topic fixtures as the
+ * unit tests, and is created only once per benchmark JVM.
+ */
+public class BenchmarkEnvironment extends JAMWikiUnitTest {
+
+	private static BenchmarkEnvironment instance = null;
+
+	/**
+	 *
+	 */
+	private BenchmarkEnvironment() {
+	}
+
+	/**
+	 * Return the benchmark environment, creating the test JAMWiki instance if
+	 * it does not yet exist.  Any data directory left behind by a previous
+	 * benchmark fork is deleted first, since the unit test set-up skips
+	 * configuring the database for an existing installation.
+	 */
+	public static synchronized BenchmarkEnvironment getInstance() throws Exception {
+		if (instance == null) {
+			FileUtils.deleteDirectory(new File("target", "data"));
+			BenchmarkEnvironment environment = new BenchmarkEnvironment();
+			environment.setup();
+			instance = environment;
+		}
+		return instance;
+	}
+
+	/**
+	 * Generate a ParserInput object matching the one used by the parser unit
+	 * tests.
+	 */
+	public static ParserInput parserInput(String topicName) {
+		ParserInput parserInput = new ParserInput("en", topicName);
+		parserInput.setContext("/wiki");
+		parserInput.setLocale(LocaleUtils.toLocale("en_US"));
+		parserInput.setWikiUser(null);
+		parserInput.setUserDisplay("0.0.0.0");
+		parserInput.setAllowSectionEdit(true);
+		return parserInput;
+	}
+
+	/**
+	 * Return the file names of all topic fixtures, sorted so that benchmark
+	 * runs are repeatable.
+	 */
+	public static List<String> retrieveTopicFileNames() throws IOException {
+		File[] topicFiles = TestFileUtil.getClassLoaderFile(TestFileUtil.TEST_TOPICS_DIR).listFiles();
+		List<String> fileNames = new ArrayList<String>();
+		if (topicFiles != null) {
+			for (File topicFile : topicFiles) {
+				fileNames.add(topicFile.getName());
+			}
+		}
+		String[] sorted = fileNames.toArray(new String[fileNames.size()]);
+		Arrays.sort(sorted);
+		return Arrays.asList(sorted);
+	}
+
+	/**
+	 * Return the raw content of a topic fixture.
+	 */
+	public static String retrieveTopicContent(String fileName) throws IOException {
+		return FileUtils.readFileToString(new File(TestFileUtil.getClassLoaderFile(TestFileUtil.TEST_TOPICS_DIR), fileName), "UTF-8");
+	}
+
+	/**
+	 * Create or update a topic in the "en" virtual wiki.
+	 */
+	public Topic writeTopic(String topicName, String contents) throws IOException, WikiException {
+		return this.setupTopic(null, topicName, contents);
+	}
+}
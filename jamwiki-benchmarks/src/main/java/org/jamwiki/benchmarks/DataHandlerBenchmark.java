@@ -0,0 +1,112 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.TestFileUtil;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.utils.WikiCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for topic lookups against the embedded HSQL test database.  The
+ * "hot" benchmark measures lookups that are served from the topic caches,
+ * while the "cold" benchmark flushes all caches before each invocation so
+ * that every lookup queries the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class DataHandlerBenchmark {
+
+	/**
+	 * The names of all topics in the test instance.
+	 */
+	@State(Scope.Benchmark)
+	public static class TopicNames {
+
+		final List<String> names = new ArrayList<String>();
+
+		/**
+		 *
+		 */
+		@Setup
+		public void setup() throws Exception {
+			BenchmarkEnvironment.getInstance();
+			for (String fileName : BenchmarkEnvironment.retrieveTopicFileNames()) {
+				this.names.add(TestFileUtil.decodeTopicName(fileName));
+			}
+		}
+	}
+
+	/**
+	 * Flushes all caches before each benchmark invocation.
+	 */
+	@State(Scope.Thread)
+	public static class ColdCache {
+
+		/**
+		 *
+		 */
+		@Setup(Level.Invocation)
+		public void flush() {
+			WikiCache.initialize();
+		}
+	}
+
+	/**
+	 * Look up every test topic with empty caches.
+	 */
+	@Benchmark
+	public void lookupTopicCold(TopicNames topicNames, ColdCache coldCache, Blackhole blackhole) {
+		this.lookupTopics(topicNames, blackhole);
+	}
+
+	/**
+	 * Look up every test topic with warm caches.
+	 */
+	@Benchmark
+	public void lookupTopicHot(TopicNames topicNames, Blackhole blackhole) {
+		this.lookupTopics(topicNames, blackhole);
+	}
+
+	/**
+	 *
+	 */
+	private void lookupTopics(TopicNames topicNames, Blackhole blackhole) {
+		for (String topicName : topicNames.names) {
+			Topic topic = WikiBase.getDataHandler().lookupTopic("en", topicName, false);
+			blackhole.consume(topic);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.web.model.WikiDiff;
+import org.jamwiki.web.utils.DiffUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for generating the diff between two topic versions.  The old
+ * version is built from the topic fixtures, and the new version changes,
+ * inserts and deletes lines throughout the content.  Diffs between saved topic
+ * versions are cached by topic version ID, so the "cold" benchmark diffs the
+ * content directly while the "hot" benchmark reads from the diff cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class DiffBenchmark {
+
+	/** The number of lines in the old version. */
+	@Param({"100", "1000", "5000"})
+	public int lineCount;
+	private String newVersion;
+	private String oldVersion;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkEnvironment.getInstance();
+		StringBuilder oldBuilder = new StringBuilder();
+		StringBuilder newBuilder = new StringBuilder();
+		int count = 0;
+		while (count < this.lineCount) {
+			for (String fileName : BenchmarkEnvironment.retrieveTopicFileNames()) {
+				for (String line : BenchmarkEnvironment.retrieveTopicContent(fileName).split("\n")) {
+					if (count == this.lineCount) {
+						break;
+					}
+					oldBuilder.append(line).append('\n');
+					if (count % 25 == 0) {
+						// deleted line
+					} else if (count % 10 == 0) {
+						newBuilder.append("changed: ").append(line).append('\n');
+					} else if (count % 40 == 1) {
+						newBuilder.append(line).append('\n').append("inserted line ").append(count).append('\n');
+					} else {
+						newBuilder.append(line).append('\n');
+					}
+					count++;
+				}
+			}
+		}
+		this.oldVersion = oldBuilder.toString();
+		this.newVersion = newBuilder.toString();
+	}
+
+	/**
+	 * Generate a diff that has not previously been cached.
+	 */
+	@Benchmark
+	public List<WikiDiff> diffCold() {
+		return DiffUtil.diff(this.newVersion, this.oldVersion);
+	}
+
+	/**
+	 * Generate a diff that is served from the diff cache.
+	 */
+	@Benchmark
+	public List<WikiDiff> diffHot() {
+		return DiffUtil.diff(this.newVersion, this.oldVersion, this.lineCount + 1, this.lineCount);
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.utils.DateUtil;
+import org.jamwiki.utils.Utilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the date and message formatting done for each row of the
+ * recent changes, history and log pages.  The "uncached" benchmark creates a
+ * new formatter for every row, as was done prior to caching thread-safe
+ * formatters, and is included as a baseline.  Benchmarks run with multiple
+ * threads since formatters are shared between request threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@Threads(4)
+public class FormattingBenchmark {
+
+	private static final String DATE_PATTERN = "HH:mm, dd MMMM yyyy";
+	private static final String LOCALE = "en_US";
+	private static final String MESSAGE_KEY = "log.message.move";
+	/** The number of rows on a default recent changes page. */
+	private static final int ROWS = 100;
+	private static final String TIME_ZONE = "America/New_York";
+	private final Date[] dates = new Date[ROWS];
+	private final Object[][] params = new Object[ROWS][];
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkEnvironment.getInstance();
+		long time = 1262349296000L;
+		for (int i = 0; i < ROWS; i++) {
+			this.dates[i] = new Date(time - i * 600000L);
+			this.params[i] = new Object[] {"Topic " + i, "Renamed Topic " + i};
+		}
+	}
+
+	/**
+	 * Format a page of recent changes using the cached formatters.
+	 */
+	@Benchmark
+	public void formatRecentChanges(Blackhole blackhole) {
+		Locale locale = DateUtil.stringToLocale(LOCALE);
+		for (int i = 0; i < ROWS; i++) {
+			blackhole.consume(DateUtil.formatDate(this.dates[i], DATE_PATTERN, LOCALE, TIME_ZONE, DateUtil.DateFormatType.DATE_AND_TIME));
+			blackhole.consume(Utilities.formatMessage(MESSAGE_KEY, locale, this.params[i]));
+		}
+	}
+
+	/**
+	 * Format a page of recent changes, creating new formatters for each row.
+	 */
+	@Benchmark
+	public void formatRecentChangesUncached(Blackhole blackhole) {
+		Locale locale = DateUtil.stringToLocale(LOCALE);
+		for (int i = 0; i < ROWS; i++) {
+			SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN, locale);
+			dateFormat.setTimeZone(TimeZone.getTimeZone(TIME_ZONE));
+			blackhole.consume(dateFormat.format(this.dates[i]));
+			MessageFormat messageFormat = new MessageFormat(Utilities.formatMessage(MESSAGE_KEY, locale), locale);
+			blackhole.consume(messageFormat.format(this.params[i]));
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.parser.ParserInput;
+import org.jamwiki.parser.ParserOutput;
+import org.jamwiki.parser.jflex.JFlexParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks for parsing the topic fixtures used by the parser unit tests.
+ * The fixtures are concatenated into articles of roughly
+ * <code>articleSize</code> characters, and each benchmark invocation parses
+ * all articles, so every invocation parses the entire corpus regardless of
+ * the article size.  Redirect fixtures are skipped since a redirect would
+ * turn the entire article into a redirect.  Run the {@link #main} method to
+ * also report allocation rates, or pass <code>-prof gc</code> to the JMH
+ * runner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class ParserBenchmark {
+
+	private final JFlexParser parser = new JFlexParser();
+	private final List<String> topicContents = new ArrayList<String>();
+	private final List<String> topicNames = new ArrayList<String>();
+	/** Approximate size (in characters) of each parsed article. */
+	@Param({"1000", "10000", "60000"})
+	private int articleSize;
+	/** Value of the {@link Environment#PROP_PARSER_STREAMING} property. */
+	@Param({"true", "false"})
+	private boolean streaming;
+
+	/**
+	 * Run the parser benchmarks with the GC profiler enabled.
+	 */
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(ParserBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkEnvironment.getInstance();
+		Environment.setBooleanValue(Environment.PROP_PARSER_STREAMING, this.streaming);
+		StringBuilder article = new StringBuilder();
+		for (String fileName : BenchmarkEnvironment.retrieveTopicFileNames()) {
+			String content = BenchmarkEnvironment.retrieveTopicContent(fileName);
+			if (StringUtils.startsWithIgnoreCase(content.trim(), "#redirect")) {
+				continue;
+			}
+			article.append(content).append("\n\n");
+			if (article.length() >= this.articleSize) {
+				this.addArticle(article.toString());
+				article.setLength(0);
+			}
+		}
+		if (article.length() > 0) {
+			this.addArticle(article.toString());
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void addArticle(String content) {
+		this.topicNames.add("Parser Benchmark " + (this.topicNames.size() + 1));
+		this.topicContents.add(content);
+	}
+
+	/**
+	 * Parse all topics to HTML.
+	 */
+	@Benchmark
+	public void parseHTML(Blackhole blackhole) throws Exception {
+		for (int i = 0; i < this.topicNames.size(); i++) {
+			ParserInput parserInput = BenchmarkEnvironment.parserInput(this.topicNames.get(i));
+			blackhole.consume(this.parser.parseHTML(parserInput, new ParserOutput(), this.topicContents.get(i)));
+		}
+	}
+
+	/**
+	 * Parse all topics for metadata (links, categories, etc) only, as is done
+	 * when saving topics and updating the search index.
+	 */
+	@Benchmark
+	public void parseMetadata(Blackhole blackhole) throws Exception {
+		for (int i = 0; i < this.topicNames.size(); i++) {
+			ParserInput parserInput = BenchmarkEnvironment.parserInput(this.topicNames.get(i));
+			ParserOutput parserOutput = new ParserOutput();
+			this.parser.parseMetadata(parserInput, parserOutput, this.topicContents.get(i));
+			blackhole.consume(parserOutput);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.search.LuceneSearchEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for search queries against a Lucene index of the test topics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class SearchBenchmark {
+
+	/** Search text, covering single terms, multiple terms and phrases. */
+	@Param({"template", "link image", "\"lorem ipsum\""})
+	public String query;
+	private LuceneSearchEngine searchEngine;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkEnvironment.getInstance();
+		this.searchEngine = new LuceneSearchEngine();
+		this.searchEngine.refreshIndex();
+	}
+
+	/**
+	 *
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		this.searchEngine.shutdown();
+	}
+
+	/**
+	 * Search the "en" virtual wiki in all namespaces.
+	 */
+	@Benchmark
+	public List<SearchResultEntry> findResults() {
+		return this.searchEngine.findResults("en", this.query, null);
+	}
+}
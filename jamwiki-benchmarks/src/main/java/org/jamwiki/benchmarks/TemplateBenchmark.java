@@ -0,0 +1,90 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.WikiBase;
+import org.jamwiki.parser.ParserInput;
+import org.jamwiki.parser.ParserOutput;
+import org.jamwiki.parser.jflex.JFlexParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for parsing synthetic pages that make heavy use of templates,
+ * including nested templates, template parameters and parser functions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class TemplateBenchmark {
+
+	private static final String TEMPLATE_BOX = "Template:Benchmark Box";
+	private static final String TEMPLATE_BOX_CONTENT = "{| class=\"infobox\"\n|-\n! {{{title|Untitled}}}\n|-\n| {{Benchmark Row|label=Value|value={{{value}}}}}\n|-\n| {{#if:{{{note|}}}|Note: {{{note}}}|No note}}\n|}\n";
+	private static final String TEMPLATE_ROW = "Template:Benchmark Row";
+	private static final String TEMPLATE_ROW_CONTENT = "'''{{{label}}}''': {{{value}}} ([[{{{value}}}]])";
+	/** The number of template calls on the page being parsed. */
+	@Param({"10", "100", "500"})
+	public int templateCount;
+	private String content;
+	private final JFlexParser parser = new JFlexParser();
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkEnvironment environment = BenchmarkEnvironment.getInstance();
+		if (WikiBase.getDataHandler().lookupTopic("en", TEMPLATE_BOX, false) == null) {
+			environment.writeTopic(TEMPLATE_BOX, TEMPLATE_BOX_CONTENT);
+		}
+		if (WikiBase.getDataHandler().lookupTopic("en", TEMPLATE_ROW, false) == null) {
+			environment.writeTopic(TEMPLATE_ROW, TEMPLATE_ROW_CONTENT);
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < this.templateCount; i++) {
+			builder.append("== Section ").append(i).append(" ==\n");
+			builder.append("{{Benchmark Box|title=Item ").append(i).append("|value=Topic ").append(i);
+			if (i % 2 == 0) {
+				builder.append("|note=Even item");
+			}
+			builder.append("}}\n\n");
+		}
+		this.content = builder.toString();
+	}
+
+	/**
+	 * Parse a page containing the configured number of template calls.
+	 */
+	@Benchmark
+	public String parseTemplates() throws Exception {
+		ParserInput parserInput = BenchmarkEnvironment.parserInput("Template Benchmark");
+		return this.parser.parseHTML(parserInput, new ParserOutput(), this.content);
+	}
+}
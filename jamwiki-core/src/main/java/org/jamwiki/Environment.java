@@ -49,7 +49,21 @@ public class Environment {
 	public static final String PROP_BASE_PERSISTENCE_TYPE = "persistenceType";
 	public static final String PROP_BASE_SEARCH_ENGINE = "search-engine";
 	public static final String PROP_BASE_WIKI_VERSION = "wiki-version";
+	/** Interval (in seconds) between checks for cache invalidations published by other wiki servers. */
+	public static final String PROP_CACHE_INVALIDATION_POLL_INTERVAL = "cache-invalidation-poll-interval";
+	/** Class name of the {@link org.jamwiki.utils.CacheInvalidationTransport} used to send cache invalidations to other wiki servers, or blank to disable. */
+	public static final String PROP_CACHE_INVALIDATION_TRANSPORT = "cache-invalidation-transport";
+	/** Class name of the {@link org.jamwiki.utils.CacheProvider} implementation used to create caches. */
+	public static final String PROP_CACHE_PROVIDER = "cache-provider";
+	/** Maximum number of entries in each cache for cache providers that limit caches by entry count, unless configured otherwise for a specific cache. */
+	public static final String PROP_CACHE_MAX_ENTRIES = "cache-max-entries";
 	public static final String PROP_DB_DRIVER = "driver";
+	/** Number of IDs reserved at a time for each table on databases that do not generate primary keys. */
+	public static final String PROP_DB_ID_BLOCK_SIZE = "db-id-block-size";
+	/** Number of rows written per batch, and per commit, when migrating to a new database. */
+	public static final String PROP_DB_MIGRATION_BATCH_SIZE = "db-migration-batch-size";
+	/** Number of tables copied in parallel when migrating to a new database. */
+	public static final String PROP_DB_MIGRATION_THREADS = "db-migration-threads";
 	public static final String PROP_DB_PASSWORD = "db-password";
 	public static final String PROP_DB_TYPE = "database-type";
 	public static final String PROP_DB_URL = "url";
@@ -92,8 +106,20 @@ public class Environment {
 	public static final String PROP_HONEYPOT_ACCESS_KEY = "honeypot-access-key";
 	public static final String PROP_HONEYPOT_FILTER_ENABLED = "honeypot-enabled";
 	public static final String PROP_IMAGE_RESIZE_INCREMENT = "image-resize-increment";
+	/** Number of background threads used to generate resized images. */
+	public static final String PROP_IMAGE_RESIZE_THREADS = "image-resize-threads";
+	/** Maximum number of milliseconds to wait for a resized image before displaying the original image scaled by the browser, or -1 to always wait. */
+	public static final String PROP_IMAGE_RESIZE_WAIT = "image-resize-wait";
+	/** Comma-separated list of image widths for which resized images are generated in the background when an image is uploaded. */
+	public static final String PROP_IMAGE_RESIZE_WIDTHS = "image-resize-widths";
+	/** Maximum number of batches of imported topic versions waiting to be written to the database during a topic import. */
+	public static final String PROP_IMPORT_QUEUE_SIZE = "import-queue-size";
+	/** Number of background threads used to parse imported topics. */
+	public static final String PROP_IMPORT_THREADS = "import-threads";
 	public static final String PROP_MAX_RECENT_CHANGES = "max-recent-changes";
 	public static final String PROP_MAX_TOPIC_VERSION_EXPORT = "max-topic-version-export";
+	/** Number of background threads used to parse topics when regenerating topic metadata. */
+	public static final String PROP_METADATA_REBUILD_THREADS = "metadata-rebuild-threads";
 	public static final String PROP_PARSER_ALLOW_CAPITALIZATION = "allow-capitalization";
 	public static final String PROP_PARSER_ALLOW_HTML = "allowHTML";
 	public static final String PROP_PARSER_ALLOW_JAVASCRIPT = "allow-javascript";
@@ -110,6 +136,10 @@ public class Environment {
 	public static final String PROP_PARSER_MAX_PARSER_ITERATIONS = "parser-max-iterations";
 	/** Maximum depth to which templates can be included for a single parsing run. */
 	public static final String PROP_PARSER_MAX_TEMPLATE_DEPTH = "parser-max-template-depth";
+	/** Flag indicating whether the parsed output of topics should be cached and re-used until the topic or a topic it depends on changes. */
+	public static final String PROP_PARSER_CACHE_TOPICS = "parser-cache-topics";
+	/** Flag indicating whether parser stages should be chained so that each stage consumes the output of the previous stage as it is produced. */
+	public static final String PROP_PARSER_STREAMING = "parser-streaming";
 	public static final String PROP_PARSER_SIGNATURE_DATE_PATTERN = "signature-date";
 	public static final String PROP_PARSER_SIGNATURE_USER_PATTERN = "signature-user";
 	public static final String PROP_PARSER_TOC = "allow-toc";
@@ -128,13 +158,29 @@ public class Environment {
 	public static final String PROP_RECENT_CHANGES_NUM = "recent-changes-days";
 	public static final String PROP_RSS_ALLOWED = "rss-allowed";
 	public static final String PROP_RSS_TITLE = "rss-title";
+	/** Maximum number of seconds that search index updates may remain uncommitted. */
+	public static final String PROP_SEARCH_COMMIT_INTERVAL = "search-commit-interval";
+	/** Number of pending search index updates that will trigger an immediate commit. */
+	public static final String PROP_SEARCH_COMMIT_THRESHOLD = "search-commit-threshold";
+	/** Number of topics retrieved from the database in each batch when rebuilding the search index. */
+	public static final String PROP_SEARCH_REBUILD_BATCH_SIZE = "search-rebuild-batch-size";
+	/** Number of worker threads used to build search index documents when rebuilding the search index. */
+	public static final String PROP_SEARCH_REBUILD_THREADS = "search-rebuild-threads";
+	/** Number of milliseconds between refreshes of the search index searchers. */
+	public static final String PROP_SEARCH_REFRESH_INTERVAL = "search-refresh-interval";
 	public static final String PROP_SERVER_URL = "server-url";
 	public static final String PROP_SHARED_UPLOAD_VIRTUAL_WIKI = "shared-upload-virtual-wiki";
 	public static final String PROP_SITE_NAME = "site-name";
+	/** Interval (in seconds) between reconciliations of in-memory site statistics against the database, or 0 to disable reconciliation. */
+	public static final String PROP_SITE_STATISTICS_RECONCILE_INTERVAL = "site-statistics-reconcile-interval";
 	public static final String PROP_TOPIC_EDITOR = "default-editor";
 	public static final String PROP_TOPIC_SPAM_FILTER = "use-spam-filter";
 	public static final String PROP_TOPIC_USE_PREVIEW = "use-preview";
 	public static final String PROP_TOPIC_USE_SHOW_CHANGES = "use-show-changes";
+	/** Flag indicating whether non-current topic versions are stored as compressed deltas against the previous version. */
+	public static final String PROP_TOPIC_VERSION_DELTA_STORAGE = "topic-version-delta-storage";
+	/** Maximum number of consecutive delta-encoded topic versions between full snapshots. */
+	public static final String PROP_TOPIC_VERSION_SNAPSHOT_INTERVAL = "topic-version-snapshot-interval";
 	public static final String PROP_VIRTUAL_WIKI_DEFAULT = "virtual-wiki-default";
 	// Lookup properties file location from system properties first.
 	private static final String PROPERTY_FILE_NAME = System.getProperty("jamwiki.property.file", "jamwiki.properties");
@@ -223,7 +269,14 @@ public class Environment {
 		this.defaults.setProperty(PROP_BASE_PERSISTENCE_TYPE, WikiBase.PERSISTENCE_INTERNAL);
 		this.defaults.setProperty(PROP_BASE_SEARCH_ENGINE, SearchEngine.SEARCH_ENGINE_LUCENE);
 		this.defaults.setProperty(PROP_BASE_WIKI_VERSION, "0.0.0");
+		this.defaults.setProperty(PROP_CACHE_INVALIDATION_POLL_INTERVAL, "5");
+		this.defaults.setProperty(PROP_CACHE_INVALIDATION_TRANSPORT, "org.jamwiki.db.DatabaseCacheInvalidationTransport");
+		this.defaults.setProperty(PROP_CACHE_MAX_ENTRIES, "10000");
+		this.defaults.setProperty(PROP_CACHE_PROVIDER, "org.jamwiki.utils.EhcacheCacheProvider");
 		this.defaults.setProperty(PROP_DB_DRIVER, "");
+		this.defaults.setProperty(PROP_DB_ID_BLOCK_SIZE, "20");
+		this.defaults.setProperty(PROP_DB_MIGRATION_BATCH_SIZE, "1000");
+		this.defaults.setProperty(PROP_DB_MIGRATION_THREADS, "4");
 		this.defaults.setProperty(PROP_DB_PASSWORD, "");
 		this.defaults.setProperty(PROP_DB_TYPE, QueryHandler.QUERY_HANDLER_HSQL);
 		this.defaults.setProperty(PROP_DB_URL, "");
@@ -267,8 +320,14 @@ public class Environment {
 		this.defaults.setProperty(PROP_HONEYPOT_ACCESS_KEY, "");
 		this.defaults.setProperty(PROP_HONEYPOT_FILTER_ENABLED, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_IMAGE_RESIZE_INCREMENT, "100");
+		this.defaults.setProperty(PROP_IMAGE_RESIZE_THREADS, "2");
+		this.defaults.setProperty(PROP_IMAGE_RESIZE_WAIT, "0");
+		this.defaults.setProperty(PROP_IMAGE_RESIZE_WIDTHS, "120,220");
+		this.defaults.setProperty(PROP_IMPORT_QUEUE_SIZE, "20");
+		this.defaults.setProperty(PROP_IMPORT_THREADS, "2");
 		this.defaults.setProperty(PROP_MAX_RECENT_CHANGES, "10000");
 		this.defaults.setProperty(PROP_MAX_TOPIC_VERSION_EXPORT, "1000");
+		this.defaults.setProperty(PROP_METADATA_REBUILD_THREADS, "2");
 		this.defaults.setProperty(PROP_PARSER_ALLOW_CAPITALIZATION, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_PARSER_ALLOW_HTML, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_PARSER_ALLOW_JAVASCRIPT, Boolean.FALSE.toString());
@@ -281,6 +340,8 @@ public class Environment {
 		this.defaults.setProperty(PROP_PARSER_MAXIMUM_INFINITE_LOOP_LIMIT, "5");
 		this.defaults.setProperty(PROP_PARSER_MAX_PARSER_ITERATIONS, "100");
 		this.defaults.setProperty(PROP_PARSER_MAX_TEMPLATE_DEPTH, "100");
+		this.defaults.setProperty(PROP_PARSER_CACHE_TOPICS, Boolean.TRUE.toString());
+		this.defaults.setProperty(PROP_PARSER_STREAMING, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_PARSER_SIGNATURE_DATE_PATTERN, "HH:mm, dd MMMM yyyy (z)");
 		this.defaults.setProperty(PROP_PARSER_SIGNATURE_USER_PATTERN, "[[{0}|{4}]]");
 		this.defaults.setProperty(PROP_PARSER_TOC, Boolean.TRUE.toString());
@@ -299,14 +360,22 @@ public class Environment {
 		this.defaults.setProperty(PROP_RECENT_CHANGES_NUM, "100");
 		this.defaults.setProperty(PROP_RSS_ALLOWED, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_RSS_TITLE, "Wiki Recent Changes");
+		this.defaults.setProperty(PROP_SEARCH_COMMIT_INTERVAL, "30");
+		this.defaults.setProperty(PROP_SEARCH_COMMIT_THRESHOLD, "100");
+		this.defaults.setProperty(PROP_SEARCH_REBUILD_BATCH_SIZE, "500");
+		this.defaults.setProperty(PROP_SEARCH_REBUILD_THREADS, "4");
+		this.defaults.setProperty(PROP_SEARCH_REFRESH_INTERVAL, "1000");
 		this.defaults.setProperty(PROP_SERVER_URL, "");
 		this.defaults.setProperty(PROP_SHARED_UPLOAD_VIRTUAL_WIKI, "");
 		this.defaults.setProperty(PROP_SITE_NAME, "JAMWiki");
+		this.defaults.setProperty(PROP_SITE_STATISTICS_RECONCILE_INTERVAL, "3600");
 		// FIXME - hard coding
 		this.defaults.setProperty(PROP_TOPIC_EDITOR, "toolbar");
 		this.defaults.setProperty(PROP_TOPIC_SPAM_FILTER, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_PREVIEW, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_SHOW_CHANGES, Boolean.TRUE.toString());
+		this.defaults.setProperty(PROP_TOPIC_VERSION_DELTA_STORAGE, Boolean.FALSE.toString());
+		this.defaults.setProperty(PROP_TOPIC_VERSION_SNAPSHOT_INTERVAL, "10");
 		this.defaults.setProperty(PROP_VIRTUAL_WIKI_DEFAULT, "en");
 		this.defaults.setProperty(PROP_ROLE_ADMIN, "ROLE_ADMIN");
 		this.defaults.setProperty(PROP_ROLE_ANONYMOUS, "ROLE_ANONYMOUS");
@@ -17,14 +17,22 @@
 package org.jamwiki.db;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
@@ -40,6 +48,7 @@ import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.Role;
 import org.jamwiki.model.RoleMap;
 import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicMetadata;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.TopicVersion;
 import org.jamwiki.model.UserBlock;
@@ -51,9 +60,11 @@ import org.jamwiki.model.WikiGroup;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.model.WikiUserDetails;
 import org.jamwiki.parser.LinkUtil;
+import org.jamwiki.parser.ParsedTopicCache;
 import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.ParserUtil;
+import org.jamwiki.utils.CacheLoader;
 import org.jamwiki.utils.Encryption;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.ResourceUtil;
@@ -73,24 +84,33 @@ public class AnsiDataHandler {
 
 	/** Any topic lookup that takes longer than the specified time (in ms) will trigger a log message. */
 	private static final int TIME_LIMIT_TOPIC_LOOKUP = 20;
-	private static final WikiCache<String, List<Interwiki>> CACHE_INTERWIKI_LIST = new WikiCache<String, List<Interwiki>>("org.jamwiki.db.AnsiDataHandler.CACHE_INTERWIKI_LIST");
-	private static final WikiCache<String, List<Namespace>> CACHE_NAMESPACE_LIST = new WikiCache<String, List<Namespace>>("org.jamwiki.db.AnsiDataHandler.CACHE_NAMESPACE_LIST");
+	/**
+	 * Age (in ms) after which the wiki-wide lists that are read on every request
+	 * are reloaded in the background.  This value must be less than the ten
+	 * minute time-to-live configured for those caches in ehcache-jamwiki.xml.
+	 */
+	private static final long CACHE_REFRESH_AFTER = 8 * 60 * 1000;
+	private static final WikiCache<String, Map<TopicType, Integer>> CACHE_CATEGORY_TOPIC_COUNTS = new WikiCache<String, Map<TopicType, Integer>>("org.jamwiki.db.AnsiDataHandler.CACHE_CATEGORY_TOPIC_COUNTS");
+	private static final WikiCache<String, List<Interwiki>> CACHE_INTERWIKI_LIST = new WikiCache<String, List<Interwiki>>("org.jamwiki.db.AnsiDataHandler.CACHE_INTERWIKI_LIST", CACHE_REFRESH_AFTER);
+	private static final WikiCache<String, List<Namespace>> CACHE_NAMESPACE_LIST = new WikiCache<String, List<Namespace>>("org.jamwiki.db.AnsiDataHandler.CACHE_NAMESPACE_LIST", CACHE_REFRESH_AFTER);
 	private static final WikiCache<String, List<RoleMap>> CACHE_ROLE_MAP_GROUP = new WikiCache<String, List<RoleMap>>("org.jamwiki.db.AnsiDataHandler.CACHE_ROLE_MAP_GROUP");
 	/**
 	 * Cache a topic name lookup to the actual topic name, useful for cases where
 	 * a topic name may vary by case.  This cache should not include deleted topics.
 	 */
 	private static final WikiCache<String, String> CACHE_TOPIC_NAMES_BY_NAME = new WikiCache<String, String>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_NAMES_BY_NAME");
-	/** Cache a topic object by its ID value.  This cache may include deleted topics. */
-	private static final WikiCache<Integer, Topic> CACHE_TOPICS_BY_ID = new WikiCache<Integer, Topic>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPICS_BY_ID");
 	/** Cache topic IDs by the topic name.  This cache may include deleted topics. */
 	private static final WikiCache<String, Integer> CACHE_TOPIC_IDS_BY_NAME = new WikiCache<String, Integer>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_IDS_BY_NAME");
+	/** Cache topic metadata by topic ID.  Topic content is not included, and this cache may include deleted topics. */
+	private static final WikiCache<Integer, TopicMetadata> CACHE_TOPIC_METADATA = new WikiCache<Integer, TopicMetadata>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_METADATA");
 	private static final WikiCache<Integer, TopicVersion> CACHE_TOPIC_VERSIONS = new WikiCache<Integer, TopicVersion>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_VERSIONS");
-	private static final WikiCache<String, Map<Object, UserBlock>> CACHE_USER_BLOCKS_ACTIVE = new WikiCache<String, Map<Object, UserBlock>>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BLOCKS_ACTIVE");
+	private static final WikiCache<String, UserBlockIndex> CACHE_USER_BLOCKS_ACTIVE = new WikiCache<String, UserBlockIndex>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BLOCKS_ACTIVE");
 	private static final WikiCache<Integer, WikiUser> CACHE_USER_BY_USER_ID = new WikiCache<Integer, WikiUser>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BY_USER_ID");
 	private static final WikiCache<String, WikiUser> CACHE_USER_BY_USER_NAME = new WikiCache<String, WikiUser>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BY_USER_NAME");
-	private static final WikiCache<String, List<VirtualWiki>> CACHE_VIRTUAL_WIKI_LIST = new WikiCache<String, List<VirtualWiki>>("org.jamwiki.db.AnsiDataHandler.CACHE_VIRTUAL_WIKI_LIST");
+	private static final WikiCache<String, List<VirtualWiki>> CACHE_VIRTUAL_WIKI_LIST = new WikiCache<String, List<VirtualWiki>>("org.jamwiki.db.AnsiDataHandler.CACHE_VIRTUAL_WIKI_LIST", CACHE_REFRESH_AFTER);
 	private static final WikiLogger logger = WikiLogger.getLogger(AnsiDataHandler.class.getName());
+	/** Executor used to remove expired blocks from the cached user block index. */
+	private static ScheduledExecutorService userBlockPruner = null;
 
 	// TODO - remove when the ability to upgrade to 1.3 is deprecated
 	private static final Map<String, String> LEGACY_DATA_HANDLER_MAP = new HashMap<String, String>();
@@ -183,6 +203,14 @@ public class AnsiDataHandler {
 		return cacheKey.toString();
 	}
 
+	/**
+	 * Utility method for retrieving a key for the category topic count cache.
+	 */
+	private String cacheCategoryKey(String virtualWiki, String categoryName) {
+		// category lookups are case-insensitive
+		return virtualWiki + '/' + categoryName.toLowerCase();
+	}
+
 	/**
 	 * Call this method whenever a topic is updated to update all relevant caches
 	 * for the topic.
@@ -201,17 +229,19 @@ public class AnsiDataHandler {
 		if (removeExisting) {
 			// because some topics may be cached in a case-insensitive manner remove
 			// all possible cache keys for the topic, regardless of case
-			WikiBase.CACHE_PARSED_TOPIC_CONTENT.removeFromCacheCaseInsensitive(key);
-			CACHE_TOPIC_NAMES_BY_NAME.removeFromCacheCaseInsensitive(key);
-			CACHE_TOPIC_IDS_BY_NAME.removeFromCacheCaseInsensitive(key);
+			WikiBase.CACHE_PARSED_TOPIC_CONTENT.invalidateCaseInsensitive(key);
+			CACHE_TOPIC_NAMES_BY_NAME.invalidateCaseInsensitive(key);
+			CACHE_TOPIC_IDS_BY_NAME.invalidateCaseInsensitive(key);
+			ParsedTopicCache.invalidateTopic(topic.getName());
 			if (useAltKey && !key.equalsIgnoreCase(altKey)) {
 				// if the two keys differ only by case then the previous remove
 				// will have already removed the alt version, otherwise perform
 				// a second remove
-				WikiBase.CACHE_PARSED_TOPIC_CONTENT.removeFromCacheCaseInsensitive(altKey);
-				CACHE_TOPIC_NAMES_BY_NAME.removeFromCacheCaseInsensitive(altKey);
-				CACHE_TOPIC_IDS_BY_NAME.removeFromCacheCaseInsensitive(altKey);
+				WikiBase.CACHE_PARSED_TOPIC_CONTENT.invalidateCaseInsensitive(altKey);
+				CACHE_TOPIC_NAMES_BY_NAME.invalidateCaseInsensitive(altKey);
+				CACHE_TOPIC_IDS_BY_NAME.invalidateCaseInsensitive(altKey);
 			}
+			CACHE_TOPIC_METADATA.invalidate(topic.getTopicId());
 		}
 		if (topic.getDeleteDate() == null) {
 			// topic name cache does not include deleted topics
@@ -224,7 +254,7 @@ public class AnsiDataHandler {
 		if (useAltKey) {
 			CACHE_TOPIC_IDS_BY_NAME.addToCache(altKey, topic.getTopicId());
 		}
-		CACHE_TOPICS_BY_ID.addToCache(topic.getTopicId(), new Topic(topic));
+		CACHE_TOPIC_METADATA.addToCache(topic.getTopicId(), new TopicMetadata(topic));
 	}
 
 	/**
@@ -255,6 +285,108 @@ public class AnsiDataHandler {
 		return false;
 	}
 
+	/**
+	 * If topic version delta storage is enabled, replace the stored content of a
+	 * topic version with a compressed delta against the previous version of the
+	 * topic.  The version is left in full if it has no previous version, if the
+	 * previous version belongs to a different topic, if the delta would not be
+	 * smaller than the full content, or if the number of
+	 * consecutive deltas would reach the snapshot interval.  This method must only
+	 * be called for versions that are no longer the current version of a topic, as
+	 * current versions are always stored in full.
+	 */
+	private void compressTopicVersion(Integer topicVersionId) {
+		if (topicVersionId == null || !Environment.getBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE)) {
+			return;
+		}
+		TopicVersion topicVersion = this.queryHandler().lookupTopicVersion(topicVersionId);
+		if (topicVersion == null || topicVersion.getPreviousTopicVersionId() == null || TopicVersionDelta.depth(topicVersion.getVersionContent()) > 0) {
+			return;
+		}
+		TopicVersion baseTopicVersion = this.queryHandler().lookupTopicVersion(topicVersion.getPreviousTopicVersionId());
+		if (baseTopicVersion == null || baseTopicVersion.getTopicId() != topicVersion.getTopicId()) {
+			return;
+		}
+		int depth = TopicVersionDelta.depth(baseTopicVersion.getVersionContent()) + 1;
+		if (depth >= Environment.getIntValue(Environment.PROP_TOPIC_VERSION_SNAPSHOT_INTERVAL)) {
+			return;
+		}
+		String baseContent = this.expandTopicVersionContent(baseTopicVersion);
+		String delta = TopicVersionDelta.encode(baseTopicVersion.getTopicVersionId(), depth, baseContent, topicVersion.getVersionContent());
+		if (delta != null) {
+			topicVersion.setVersionContent(delta);
+			this.queryHandler().updateTopicVersion(topicVersion);
+		}
+	}
+
+	/**
+	 * Rewrite the stored content of all versions of a topic using the current
+	 * topic version storage setting.  If delta storage is enabled then every
+	 * version other than the current version is stored as a compressed delta
+	 * against its previous version, with a full snapshot stored after every
+	 * snapshot interval.  If delta storage is disabled then all versions are
+	 * rewritten in full.  This method is intended to convert existing data after
+	 * the storage setting has been changed.
+	 *
+	 * @param topic The topic whose versions are to be rewritten.
+	 * @return The number of topic versions whose stored content was modified.
+	 */
+	public int compressTopicVersions(final Topic topic) {
+		final int[] updated = new int[1];
+		if (topic.getCurrentVersionId() == null) {
+			return 0;
+		}
+		DatabaseConnection.getTransactionTemplate().execute(
+			new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					// walk backwards from the current version to retrieve all versions
+					List<TopicVersion> topicVersions = new ArrayList<TopicVersion>();
+					Set<Integer> topicVersionIds = new HashSet<Integer>();
+					Integer topicVersionId = topic.getCurrentVersionId();
+					while (topicVersionId != null && topicVersionIds.add(topicVersionId)) {
+						TopicVersion topicVersion = queryHandler().lookupTopicVersion(topicVersionId);
+						if (topicVersion == null) {
+							break;
+						}
+						topicVersions.add(topicVersion);
+						topicVersionId = topicVersion.getPreviousTopicVersionId();
+					}
+					Collections.reverse(topicVersions);
+					boolean deltaStorage = Environment.getBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE);
+					int snapshotInterval = Environment.getIntValue(Environment.PROP_TOPIC_VERSION_SNAPSHOT_INTERVAL);
+					TopicVersion previousTopicVersion = null;
+					String previousContent = null;
+					int depth = 0;
+					for (int i = 0; i < topicVersions.size(); i++) {
+						TopicVersion topicVersion = topicVersions.get(i);
+						String storedContent = topicVersion.getVersionContent();
+						String content = null;
+						if (previousTopicVersion != null && TopicVersionDelta.baseTopicVersionId(storedContent) == previousTopicVersion.getTopicVersionId()) {
+							content = TopicVersionDelta.decode(previousContent, storedContent);
+						}
+						if (content == null) {
+							content = expandTopicVersionContent(topicVersion);
+						}
+						String delta = null;
+						if (deltaStorage && previousTopicVersion != null && previousTopicVersion.getTopicId() == topicVersion.getTopicId() && (i + 1) < topicVersions.size() && (depth + 1) < snapshotInterval) {
+							delta = TopicVersionDelta.encode(previousTopicVersion.getTopicVersionId(), depth + 1, previousContent, content);
+						}
+						depth = (delta != null) ? depth + 1 : 0;
+						String newContent = (delta != null) ? delta : content;
+						if (!newContent.equals(storedContent)) {
+							topicVersion.setVersionContent(newContent);
+							queryHandler().updateTopicVersion(topicVersion);
+							updated[0]++;
+						}
+						previousTopicVersion = topicVersion;
+						previousContent = content;
+					}
+				}
+			}
+		);
+		return updated[0];
+	}
+
 	/**
 	 * Delete an interwiki record from the interwiki table.
 	 *
@@ -262,7 +394,7 @@ public class AnsiDataHandler {
 	 */
 	public void deleteInterwiki(Interwiki interwiki) {
 		this.queryHandler().deleteInterwiki(interwiki);
-		CACHE_INTERWIKI_LIST.removeAllFromCache();
+		CACHE_INTERWIKI_LIST.invalidateAll();
 	}
 
 	/**
@@ -302,6 +434,36 @@ public class AnsiDataHandler {
 		);
 	}
 
+	/**
+	 * Return the full content of a topic version, rebuilding the content from
+	 * its base version if the version is stored as a delta.  The base version
+	 * is retrieved using {@link #lookupTopicVersion}, so recently rebuilt
+	 * versions are served from the topic version cache.
+	 */
+	private String expandTopicVersionContent(TopicVersion topicVersion) {
+		String content = topicVersion.getVersionContent();
+		int baseTopicVersionId = TopicVersionDelta.baseTopicVersionId(content);
+		// deltas are always generated against the previous version of the same topic.
+		// version IDs are not necessarily in edit order, so the base ID may be higher
+		// than the version ID.
+		if (baseTopicVersionId <= 0 || topicVersion.getPreviousTopicVersionId() == null || baseTopicVersionId != topicVersion.getPreviousTopicVersionId().intValue()) {
+			return content;
+		}
+		TopicVersion baseTopicVersion = this.lookupTopicVersion(baseTopicVersionId);
+		if (baseTopicVersion == null || baseTopicVersion.getTopicId() != topicVersion.getTopicId()) {
+			return content;
+		}
+		String expandedContent = TopicVersionDelta.decode(baseTopicVersion.getVersionContent(), content);
+		if (expandedContent == null) {
+			// either corrupt data or content that merely resembles a delta
+			if (logger.isDebugEnabled()) {
+				logger.debug("Topic version " + topicVersion.getTopicVersionId() + " content is not a valid delta against version " + baseTopicVersionId);
+			}
+			return content;
+		}
+		return expandedContent;
+	}
+
 	/**
 	 * Determine the largest namespace ID for all current defined namespaces.
 	 */
@@ -495,16 +657,12 @@ public class AnsiDataHandler {
 	 *  matches are found then this method returns an empty List.  This
 	 *  method will never return <code>null</code>.
 	 */
-	public List<RoleMap> getRoleMapByRole(String authority, boolean includeInheritedRoles) {
-		// first check the cache
-		List<RoleMap> roleMapList = CACHE_ROLE_MAP_GROUP.retrieveFromCache(authority + includeInheritedRoles);
-		if (roleMapList != null || CACHE_ROLE_MAP_GROUP.isKeyInCache(authority + includeInheritedRoles)) {
-			return roleMapList;
-		}
-		// if not in the cache, go to the database
-		roleMapList = this.queryHandler().getRoleMapByRole(authority,includeInheritedRoles);
-		CACHE_ROLE_MAP_GROUP.addToCache(authority + includeInheritedRoles, roleMapList);
-		return roleMapList;
+	public List<RoleMap> getRoleMapByRole(final String authority, final boolean includeInheritedRoles) {
+		return CACHE_ROLE_MAP_GROUP.get(authority + includeInheritedRoles, new CacheLoader<String, List<RoleMap>>() {
+			public List<RoleMap> load(String key) {
+				return queryHandler().getRoleMapByRole(authority, includeInheritedRoles);
+			}
+		});
 	}
 
 	/**
@@ -587,31 +745,73 @@ public class AnsiDataHandler {
 	 * of the blocked user and the value is the UserBlock object.
 	 */
 	public Map<Object, UserBlock> getUserBlocks() {
-		// for performance reasons cache all active blocks.  in general there
-		// shouldn't be a huge number of active blocks at any given time, so
-		// rather than hit the database for every page request to verify whether
-		// or not the user is blocked it is far more efficient to cache the few
-		// active blocks and query against that cached list.
-		Map<Object, UserBlock> userBlockMap = CACHE_USER_BLOCKS_ACTIVE.retrieveFromCache(CACHE_USER_BLOCKS_ACTIVE.getCacheName());
-		if (userBlockMap != null || CACHE_USER_BLOCKS_ACTIVE.isKeyInCache(CACHE_USER_BLOCKS_ACTIVE.getCacheName())) {
-			// note that due to caching some blocks may have expired, so the caller
-			// should be sure to check whether a result is still active or not
-			return userBlockMap;
-		}
-		List<UserBlock> userBlocks = this.queryHandler().getUserBlocks();
-		userBlockMap = new LinkedHashMap<Object, UserBlock>();
-		if (userBlocks != null) {
-			for (UserBlock userBlock : userBlocks) {
-				if (userBlock.getWikiUserId() != null) {
-					userBlockMap.put(userBlock.getWikiUserId(), userBlock);
+		// note that due to caching some blocks may have expired, so the caller
+		// should be sure to check whether a result is still active or not
+		return this.getUserBlockIndex().getUserBlocks();
+	}
+
+	/**
+	 * Return the index of all active user blocks.  For performance reasons all
+	 * active blocks are cached, since the index is checked on every request.
+	 * Expired blocks are removed from the cached index by a background task.
+	 */
+	private UserBlockIndex getUserBlockIndex() {
+		return CACHE_USER_BLOCKS_ACTIVE.get(CACHE_USER_BLOCKS_ACTIVE.getCacheName(), new CacheLoader<String, UserBlockIndex>() {
+			public UserBlockIndex load(String key) {
+				UserBlockIndex index = new UserBlockIndex(queryHandler().getUserBlocks());
+				AnsiDataHandler.scheduleUserBlockPruning(index.getNextExpiration());
+				return index;
+			}
+		});
+	}
+
+	/**
+	 * Replace the cached user block index with an index that does not include
+	 * expired blocks.
+	 */
+	private static void pruneUserBlocks() {
+		UserBlockIndex pruned;
+		// synchronize to avoid replacing an index that has just been invalidated
+		synchronized (CACHE_USER_BLOCKS_ACTIVE) {
+			UserBlockIndex index = CACHE_USER_BLOCKS_ACTIVE.retrieveFromCache(CACHE_USER_BLOCKS_ACTIVE.getCacheName());
+			if (index == null || index.getNextExpiration() > System.currentTimeMillis()) {
+				return;
+			}
+			pruned = index.prune();
+			CACHE_USER_BLOCKS_ACTIVE.addToCache(CACHE_USER_BLOCKS_ACTIVE.getCacheName(), pruned);
+		}
+		AnsiDataHandler.scheduleUserBlockPruning(pruned.getNextExpiration());
+	}
+
+	/**
+	 * Schedule removal of expired blocks from the cached user block index.
+	 *
+	 * @param expiration The time at which the earliest block in the index
+	 *  expires.
+	 */
+	private static synchronized void scheduleUserBlockPruning(long expiration) {
+		if (expiration == Long.MAX_VALUE) {
+			return;
+		}
+		if (userBlockPruner == null) {
+			userBlockPruner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "jamwiki-user-block-pruner");
+					thread.setDaemon(true);
+					return thread;
 				}
-				if (userBlock.getIpAddress() != null) {
-					userBlockMap.put(userBlock.getIpAddress(), userBlock);
+			});
+		}
+		long delay = Math.max(expiration - System.currentTimeMillis(), 0) + 1;
+		userBlockPruner.schedule(new Runnable() {
+			public void run() {
+				try {
+					AnsiDataHandler.pruneUserBlocks();
+				} catch (RuntimeException e) {
+					logger.warn("Failure while removing expired user blocks", e);
 				}
 			}
-		}
-		CACHE_USER_BLOCKS_ACTIVE.addToCache(CACHE_USER_BLOCKS_ACTIVE.getCacheName(), userBlockMap);
-		return userBlockMap;
+		}, delay, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -646,13 +846,11 @@ public class AnsiDataHandler {
 	 *  wiki.
 	 */
 	public List<VirtualWiki> getVirtualWikiList() {
-		List<VirtualWiki> virtualWikis = CACHE_VIRTUAL_WIKI_LIST.retrieveFromCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName());
-		if (virtualWikis != null || CACHE_VIRTUAL_WIKI_LIST.isKeyInCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName())) {
-			return virtualWikis;
-		}
-		virtualWikis = this.queryHandler().getVirtualWikis();
-		CACHE_VIRTUAL_WIKI_LIST.addToCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName(), virtualWikis);
-		return virtualWikis;
+		return CACHE_VIRTUAL_WIKI_LIST.get(CACHE_VIRTUAL_WIKI_LIST.getCacheName(), new CacheLoader<String, List<VirtualWiki>>() {
+			public List<VirtualWiki> load(String key) {
+				return queryHandler().getVirtualWikis();
+			}
+		});
 	}
 
 	/**
@@ -703,6 +901,44 @@ public class AnsiDataHandler {
 		return this.queryHandler().lookupCategoryTopics(virtualWikiId, virtualWiki, categoryName);
 	}
 
+	/**
+	 * Retrieve a List of Category objects corresponding to a subset of the
+	 * topics of the specified types that belong to the category, sorted by
+	 * either the topic name, or category sort key (if specified).
+	 *
+	 * @param virtualWiki The virtual wiki for the category being queried.
+	 * @param categoryName The name of the category being queried.
+	 * @param topicTypes The types of topics to retrieve.
+	 * @param pagination A Pagination object that specifies the number of results
+	 *  and starting result offset for the result set to be retrieved.
+	 * @return A List of Category objects corresponding to the topics of the
+	 *  specified types that belong to the category, sorted by either the topic
+	 *  name, or category sort key (if specified).
+	 */
+	public List<Category> lookupCategoryTopics(String virtualWiki, String categoryName, List<TopicType> topicTypes, Pagination pagination) {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		return this.queryHandler().lookupCategoryTopics(virtualWikiId, virtualWiki, categoryName, topicTypes, pagination);
+	}
+
+	/**
+	 * Retrieve the number of topics of each topic type that belong to a
+	 * category.
+	 *
+	 * @param virtualWiki The virtual wiki for the category being queried.
+	 * @param categoryName The name of the category being queried.
+	 * @return A map of topic type and the number of topics of that type that
+	 *  belong to the category.  Topic types with no topics in the category
+	 *  are not included in the map.
+	 */
+	public Map<TopicType, Integer> lookupCategoryTopicCounts(final String virtualWiki, final String categoryName) {
+		return CACHE_CATEGORY_TOPIC_COUNTS.get(this.cacheCategoryKey(virtualWiki, categoryName), new CacheLoader<String, Map<TopicType, Integer>>() {
+			public Map<TopicType, Integer> load(String key) {
+				int virtualWikiId = lookupVirtualWikiId(virtualWiki);
+				return Collections.unmodifiableMap(queryHandler().lookupCategoryTopicCounts(virtualWikiId, categoryName));
+			}
+		});
+	}
+
 	/**
 	 * Return a map of key-value pairs corresponding to all configuration values
 	 * currently set up for the system.
@@ -742,18 +978,15 @@ public class AnsiDataHandler {
 	 * @return A list of all Interwiki records currently available for the wiki.
 	 */
 	public List<Interwiki> lookupInterwikis() {
-		// first check the cache
-		List<Interwiki> interwikis = CACHE_INTERWIKI_LIST.retrieveFromCache(CACHE_INTERWIKI_LIST.getCacheName());
-		if (interwikis != null || CACHE_INTERWIKI_LIST.isKeyInCache(CACHE_INTERWIKI_LIST.getCacheName())) {
-			return interwikis;
-		}
-		// if not in the cache, go to the database
-		interwikis = this.queryHandler().lookupInterwikis();
-		if (interwikis != null) {
-			Collections.sort(interwikis);
-		}
-		CACHE_INTERWIKI_LIST.addToCache(CACHE_INTERWIKI_LIST.getCacheName(), interwikis);
-		return interwikis;
+		return CACHE_INTERWIKI_LIST.get(CACHE_INTERWIKI_LIST.getCacheName(), new CacheLoader<String, List<Interwiki>>() {
+			public List<Interwiki> load(String key) {
+				List<Interwiki> interwikis = queryHandler().lookupInterwikis();
+				if (interwikis != null) {
+					Collections.sort(interwikis);
+				}
+				return interwikis;
+			}
+		});
 	}
 
 	/**
@@ -802,15 +1035,11 @@ public class AnsiDataHandler {
 	 * @return A list of all Namespace objects currently available for the wiki.
 	 */
 	public List<Namespace> lookupNamespaces() {
-		// first check the cache
-		List<Namespace> namespaces = CACHE_NAMESPACE_LIST.retrieveFromCache(CACHE_NAMESPACE_LIST.getCacheName());
-		if (namespaces != null || CACHE_NAMESPACE_LIST.isKeyInCache(CACHE_NAMESPACE_LIST.getCacheName())) {
-			return namespaces;
-		}
-		// if not in the cache, go to the database
-		namespaces = this.queryHandler().lookupNamespaces();
-		CACHE_NAMESPACE_LIST.addToCache(CACHE_NAMESPACE_LIST.getCacheName(), namespaces);
-		return namespaces;
+		return CACHE_NAMESPACE_LIST.get(CACHE_NAMESPACE_LIST.getCacheName(), new CacheLoader<String, List<Namespace>>() {
+			public List<Namespace> load(String key) {
+				return queryHandler().lookupNamespaces();
+			}
+		});
 	}
 
 	/**
@@ -865,48 +1094,28 @@ public class AnsiDataHandler {
 	/**
 	 *
 	 */
-	private Topic lookupTopic(String virtualWiki, Namespace namespace, String pageName, boolean deleteOK, boolean useCache) {
+	private Topic lookupTopic(final String virtualWiki, final Namespace namespace, final String pageName, boolean deleteOK, final boolean useCache) {
 		long start = System.currentTimeMillis();
-		String key = this.cacheTopicKey(virtualWiki, namespace, pageName);
-		if (useCache) {
-			// retrieve topic from the cache only if this call is not currently a part
-			// of a transaction to avoid retrieving data that might have been updated
-			// as part of this transaction and would thus now be out of date
-			Integer cacheTopicId = CACHE_TOPIC_IDS_BY_NAME.retrieveFromCache(key);
-			if (cacheTopicId != null || CACHE_TOPIC_IDS_BY_NAME.isKeyInCache(key)) {
-				Topic cacheTopic = (cacheTopicId != null) ? this.lookupTopicById(cacheTopicId.intValue()) : null;
-				return (cacheTopic == null || (!deleteOK && cacheTopic.getDeleteDate() != null)) ? null : cacheTopic;
-			}
-		}
-		boolean checkSharedVirtualWiki = this.useSharedVirtualWiki(virtualWiki, namespace);
-		String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
-		if (useCache && checkSharedVirtualWiki) {
-			String sharedKey = this.cacheTopicKey(sharedVirtualWiki, namespace, pageName);
-			Integer cacheTopicId = CACHE_TOPIC_IDS_BY_NAME.retrieveFromCache(sharedKey);
-			if (cacheTopicId != null || CACHE_TOPIC_IDS_BY_NAME.isKeyInCache(sharedKey)) {
-				Topic cacheTopic = (cacheTopicId != null) ? this.lookupTopicById(cacheTopicId.intValue()) : null;
-				return (cacheTopic == null || (!deleteOK && cacheTopic.getDeleteDate() != null)) ? null : cacheTopic;
-			}
-		}
 		Topic topic = null;
-		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, pageName);
-		if (topic == null && Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION)) {
-			String alternativePageName = (StringUtils.equals(pageName, StringUtils.capitalize(pageName))) ? StringUtils.lowerCase(pageName) : StringUtils.capitalize(pageName);
-			topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, alternativePageName);
-		}
-		if (topic == null && checkSharedVirtualWiki) {
-			topic = this.lookupTopic(sharedVirtualWiki, namespace, pageName, deleteOK, useCache);
-		}
 		if (useCache) {
-			// add topic to the cache only if it is not currently a part of a transaction
-			// to avoid caching something that might need to be rolled back.
-			if (topic == null) {
-				CACHE_TOPIC_IDS_BY_NAME.addToCache(key, null);
-				CACHE_TOPIC_NAMES_BY_NAME.addToCache(key, null);
-			} else {
-				this.cacheTopicRefresh(topic, false, key);
-			}
+			// use the cache only if this call is not currently a part of a transaction
+			// to avoid retrieving data that might have been updated as part of this
+			// transaction and would thus now be out of date, or caching something that
+			// might need to be rolled back.
+			Integer topicId = CACHE_TOPIC_IDS_BY_NAME.get(this.cacheTopicKey(virtualWiki, namespace, pageName), new CacheLoader<String, Integer>() {
+				public Integer load(String key) {
+					Topic result = lookupTopicFromDatabase(virtualWiki, namespace, pageName, useCache);
+					if (result == null) {
+						CACHE_TOPIC_NAMES_BY_NAME.addToCache(key, null);
+						return null;
+					}
+					cacheTopicRefresh(result, false, key);
+					return result.getTopicId();
+				}
+			});
+			topic = (topicId != null) ? this.lookupTopicById(topicId.intValue()) : null;
+		} else {
+			topic = this.lookupTopicFromDatabase(virtualWiki, namespace, pageName, useCache);
 		}
 		if (logger.isDebugEnabled()) {
 			long execution = (System.currentTimeMillis() - start);
@@ -918,20 +1127,59 @@ public class AnsiDataHandler {
 	}
 
 	/**
-	 *
+	 * Retrieve a topic from the database, including deleted topics.  If the
+	 * topic does not exist and a shared image repository is in use then the
+	 * shared virtual wiki is also searched.
 	 */
-	public Topic lookupTopicById(int topicId) {
-		Topic result = CACHE_TOPICS_BY_ID.retrieveFromCache(topicId);
-		if (result != null || CACHE_TOPICS_BY_ID.isKeyInCache(topicId)) {
-			return (result == null) ? null : new Topic(result);
+	private Topic lookupTopicFromDatabase(String virtualWiki, Namespace namespace, String pageName, boolean useCache) {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		Topic topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, pageName);
+		if (topic == null && Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION)) {
+			String alternativePageName = (StringUtils.equals(pageName, StringUtils.capitalize(pageName))) ? StringUtils.lowerCase(pageName) : StringUtils.capitalize(pageName);
+			topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, alternativePageName);
 		}
-		result = this.queryHandler().lookupTopicById(topicId);
-		if (result == null) {
-			logger.info("Attempt to look up topic with non-existent ID: " + topicId + ".  This may indicate a code error");
-		} else {
-			this.cacheTopicRefresh(result, false, null);
+		if (topic == null && this.useSharedVirtualWiki(virtualWiki, namespace)) {
+			String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
+			topic = this.lookupTopic(sharedVirtualWiki, namespace, pageName, true, useCache);
 		}
-		return result;
+		return topic;
+	}
+
+	/**
+	 *
+	 */
+	public Topic lookupTopicById(final int topicId) {
+		TopicMetadata topicMetadata = CACHE_TOPIC_METADATA.get(topicId, new CacheLoader<Integer, TopicMetadata>() {
+			public TopicMetadata load(Integer key) {
+				Topic result = queryHandler().lookupTopicById(topicId);
+				if (result == null) {
+					logger.info("Attempt to look up topic with non-existent ID: " + topicId + ".  This may indicate a code error");
+					return null;
+				}
+				cacheTopicRefresh(result, false, null);
+				return new TopicMetadata(result);
+			}
+		});
+		return (topicMetadata == null) ? null : new LazyContentTopic(topicMetadata);
+	}
+
+	/**
+	 * Retrieve a batch of non-deleted topics for a virtual wiki, ordered by
+	 * topic ID.  Topics retrieved by this method are not cached, making it
+	 * suitable for iterating over all topics in a virtual wiki, such as when
+	 * rebuilding the search index.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being retrieved.
+	 * @param lastTopicId Only topics with an ID greater than this value are
+	 *  returned.  Use zero to retrieve the first batch, and the ID of the last
+	 *  topic in the previous batch to retrieve subsequent batches.
+	 * @param batchSize The maximum number of topics to return.
+	 * @return A list of topics ordered by topic ID, or an empty list if no
+	 *  further topics exist.
+	 */
+	public List<Topic> lookupTopicBatch(String virtualWiki, int lastTopicId, int batchSize) {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		return this.queryHandler().lookupTopicBatch(virtualWikiId, lastTopicId, batchSize);
 	}
 
 	/**
@@ -992,38 +1240,117 @@ public class AnsiDataHandler {
 	 * @return The name of the Topic object that matches the given virtual wiki and topic
 	 *  name, or <code>null</code> if no matching topic exists.
 	 */
-	public String lookupTopicName(String virtualWiki, Namespace namespace, String pageName) {
+	public String lookupTopicName(final String virtualWiki, final Namespace namespace, final String pageName) {
 		if (StringUtils.isBlank(virtualWiki) || StringUtils.isBlank(pageName)) {
 			return null;
 		}
-		long start = System.currentTimeMillis();
-		String key = this.cacheTopicKey(virtualWiki, namespace, pageName);
-		String topicName = CACHE_TOPIC_NAMES_BY_NAME.retrieveFromCache(key);
-		if (topicName != null || CACHE_TOPIC_NAMES_BY_NAME.isKeyInCache(key)) {
-			return topicName;
+		return CACHE_TOPIC_NAMES_BY_NAME.get(this.cacheTopicKey(virtualWiki, namespace, pageName), new CacheLoader<String, String>() {
+			public String load(String key) {
+				long start = System.currentTimeMillis();
+				int virtualWikiId = lookupVirtualWikiId(virtualWiki);
+				String topicName = queryHandler().lookupTopicName(virtualWikiId, virtualWiki, namespace, pageName);
+				if (topicName == null && useSharedVirtualWiki(virtualWiki, namespace)) {
+					String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
+					topicName = lookupTopicName(sharedVirtualWiki, namespace, pageName);
+				}
+				if (logger.isDebugEnabled()) {
+					long execution = (System.currentTimeMillis() - start);
+					if (execution > TIME_LIMIT_TOPIC_LOOKUP) {
+						logger.debug("Slow topic existence lookup for: " + Topic.buildTopicName(virtualWiki, namespace, pageName) + " (" +  (execution / 1000.000) + " s)");
+					}
+				}
+				return topicName;
+			}
+		});
+	}
+
+	/**
+	 * Determine the topic names for a group of topics in a single namespace,
+	 * returning the same results as calling {@link #lookupTopicName} for each
+	 * page name.  Page names that are not already cached are retrieved using a
+	 * constant number of database queries and added to the cache, so this
+	 * method can be used to avoid a separate query for each topic when a large
+	 * number of topics will be looked up, such as when checking the links on a
+	 * page.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being queried.
+	 * @param namespace The Namespace for the topics being retrieved.
+	 * @param pageNames The topic pageNames (topic names without the namespace)
+	 *  for the topics being retrieved.
+	 * @return A map of page name to the name of the matching topic, or to
+	 *  <code>null</code> if no matching topic exists.
+	 */
+	public Map<String, String> lookupTopicNames(String virtualWiki, Namespace namespace, Collection<String> pageNames) {
+		Map<String, String> results = new LinkedHashMap<String, String>();
+		if (StringUtils.isBlank(virtualWiki)) {
+			return results;
 		}
 		boolean checkSharedVirtualWiki = this.useSharedVirtualWiki(virtualWiki, namespace);
 		String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
-		if (checkSharedVirtualWiki) {
-			String sharedKey = this.cacheTopicKey(sharedVirtualWiki, namespace, pageName);
-			topicName = CACHE_TOPIC_NAMES_BY_NAME.retrieveFromCache(sharedKey);
-			if (topicName != null || CACHE_TOPIC_NAMES_BY_NAME.isKeyInCache(sharedKey)) {
-				return topicName;
+		List<String> uncached = new ArrayList<String>();
+		String key;
+		String topicName;
+		for (String pageName : pageNames) {
+			if (StringUtils.isBlank(pageName) || results.containsKey(pageName)) {
+				continue;
+			}
+			key = this.cacheTopicKey(virtualWiki, namespace, pageName);
+			topicName = CACHE_TOPIC_NAMES_BY_NAME.retrieveFromCache(key);
+			if (topicName != null || CACHE_TOPIC_NAMES_BY_NAME.isKeyInCache(key)) {
+				results.put(pageName, topicName);
+				continue;
 			}
+			if (checkSharedVirtualWiki) {
+				key = this.cacheTopicKey(sharedVirtualWiki, namespace, pageName);
+				topicName = CACHE_TOPIC_NAMES_BY_NAME.retrieveFromCache(key);
+				if (topicName != null || CACHE_TOPIC_NAMES_BY_NAME.isKeyInCache(key)) {
+					results.put(pageName, topicName);
+					continue;
+				}
+			}
+			// use a placeholder to preserve ordering and avoid duplicates
+			results.put(pageName, null);
+			uncached.add(pageName);
 		}
-		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		topicName = this.queryHandler().lookupTopicName(virtualWikiId, virtualWiki, namespace, pageName);
-		if (topicName == null && checkSharedVirtualWiki) {
-			topicName = this.lookupTopicName(sharedVirtualWiki, namespace, pageName);
+		if (uncached.isEmpty()) {
+			return results;
 		}
-		CACHE_TOPIC_NAMES_BY_NAME.addToCache(key, topicName);
-		if (logger.isDebugEnabled()) {
-			long execution = (System.currentTimeMillis() - start);
-			if (execution > TIME_LIMIT_TOPIC_LOOKUP) {
-				logger.debug("Slow topic existence lookup for: " + Topic.buildTopicName(virtualWiki, namespace, pageName) + " (" +  (execution / 1000.000) + " s)");
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		Map<String, String> topicNames = this.queryHandler().lookupTopicNameBatch(virtualWikiId, namespace, uncached);
+		if (checkSharedVirtualWiki && topicNames.size() < uncached.size()) {
+			List<String> missing = new ArrayList<String>();
+			for (String pageName : uncached) {
+				if (topicNames.get(pageName) == null) {
+					missing.add(pageName);
+				}
+			}
+			Map<String, String> sharedTopicNames = this.lookupTopicNames(sharedVirtualWiki, namespace, missing);
+			for (String pageName : missing) {
+				topicNames.put(pageName, sharedTopicNames.get(pageName));
 			}
 		}
-		return topicName;
+		for (String pageName : uncached) {
+			topicName = topicNames.get(pageName);
+			CACHE_TOPIC_NAMES_BY_NAME.addToCache(this.cacheTopicKey(virtualWiki, namespace, pageName), topicName);
+			results.put(pageName, topicName);
+		}
+		return results;
+	}
+
+	/**
+	 * Return the names of all topics in a virtual wiki that have been edited,
+	 * deleted, undeleted or moved on or after a given date.  Results are not
+	 * cached, and include the names of topics that have since been deleted.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being retrieved.
+	 * @param changedSince Only topics with a topic version created on or after
+	 *  this date are returned.
+	 * @return A list of the names of all topics changed since the given date,
+	 *  or an empty list if no topics have changed.
+	 */
+	public List<String> lookupTopicNamesChanged(String virtualWiki, Timestamp changedSince) {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		return this.queryHandler().lookupTopicNamesChanged(virtualWikiId, changedSince);
 	}
 
 	/**
@@ -1060,6 +1387,23 @@ public class AnsiDataHandler {
 		return this.queryHandler().lookupTopicLinkOrphans(virtualWikiId, namespaceId);
 	}
 
+	/**
+	 * Retrieve the content of a topic version.  Topics retrieved from the
+	 * database or the topic cache do not include their content, and use this
+	 * method to load it when it is first accessed.  The content is cached along
+	 * with the topic version, so topics that share a current version also
+	 * share the cached content.
+	 *
+	 * @param topicVersionId The ID of the topic version whose content is being
+	 *  retrieved.
+	 * @return The content of the topic version, or an empty string if no
+	 *  matching topic version is found.
+	 */
+	public String lookupTopicContent(int topicVersionId) {
+		TopicVersion topicVersion = this.lookupTopicVersion(topicVersionId);
+		return (topicVersion == null) ? "" : topicVersion.getVersionContent();
+	}
+
 	/**
 	 * Retrieve a TopicVersion object for a given topic version ID.
 	 *
@@ -1067,14 +1411,16 @@ public class AnsiDataHandler {
 	 * @return A TopicVersion object matching the given topic version ID,
 	 *  or <code>null</code> if no matching topic version is found.
 	 */
-	public TopicVersion lookupTopicVersion(int topicVersionId) {
-		TopicVersion topicVersion = CACHE_TOPIC_VERSIONS.retrieveFromCache(topicVersionId);
-		if (topicVersion != null || CACHE_TOPIC_VERSIONS.isKeyInCache(topicVersionId)) {
-			return topicVersion;
-		}
-		topicVersion = this.queryHandler().lookupTopicVersion(topicVersionId);
-		CACHE_TOPIC_VERSIONS.addToCache(topicVersionId, topicVersion);
-		return topicVersion;
+	public TopicVersion lookupTopicVersion(final int topicVersionId) {
+		return CACHE_TOPIC_VERSIONS.get(topicVersionId, new CacheLoader<Integer, TopicVersion>() {
+			public TopicVersion load(Integer key) {
+				TopicVersion topicVersion = queryHandler().lookupTopicVersion(topicVersionId);
+				if (topicVersion != null) {
+					topicVersion.setVersionContent(expandTopicVersionContent(topicVersion));
+				}
+				return topicVersion;
+			}
+		});
 	}
 
 	/**
@@ -1096,21 +1442,14 @@ public class AnsiDataHandler {
 	 * @param wikiUserId The wiki user ID, or <code>null</code> if the search is
 	 *  by IP address.
 	 * @param ipAddress The IP address, or <code>null</code> if the search is by
-	 *  user ID.
-	 * @return A currently-active user block for the ID or IP address, or
-	 *  <code>null</code> if no block is currently active.
+	 *  user ID.  If a CIDR address range is specified then only blocks that
+	 *  include the entire range are returned.
+	 * @return A currently-active user block for the ID, or the most specific
+	 *  currently-active block for an address range that includes the IP
+	 *  address, or <code>null</code> if no block is currently active.
 	 */
 	public UserBlock lookupUserBlock(Integer wikiUserId, String ipAddress) {
-		Map<Object, UserBlock> userBlocks = this.getUserBlocks();
-		UserBlock userBlock = null;
-		if (wikiUserId != null) {
-			userBlock = userBlocks.get(wikiUserId);
-		}
-		if (userBlock == null && ipAddress != null) {
-			userBlock = userBlocks.get(ipAddress);
-		}
-		// verify that the block has not expired since being cached
-		return (userBlock != null && userBlock.isExpired()) ? null : userBlock;
+		return this.getUserBlockIndex().lookup(wikiUserId, ipAddress);
 	}
 
 	/**
@@ -1212,14 +1551,12 @@ public class AnsiDataHandler {
 	 * @return The WikiUser object matching the given user ID, or
 	 *  <code>null</code> if no matching WikiUser exists.
 	 */
-	public WikiUser lookupWikiUser(int userId) {
-		WikiUser user = CACHE_USER_BY_USER_ID.retrieveFromCache(userId);
-		if (user != null || CACHE_USER_BY_USER_ID.isKeyInCache(userId)) {
-			return user;
-		}
-		user = this.queryHandler().lookupWikiUser(userId);
-		CACHE_USER_BY_USER_ID.addToCache(userId, user);
-		return user;
+	public WikiUser lookupWikiUser(final int userId) {
+		return CACHE_USER_BY_USER_ID.get(userId, new CacheLoader<Integer, WikiUser>() {
+			public WikiUser load(Integer key) {
+				return queryHandler().lookupWikiUser(userId);
+			}
+		});
 	}
 
 	/**
@@ -1230,16 +1567,12 @@ public class AnsiDataHandler {
 	 *  <code>null</code> if no matching WikiUser exists.
 	 */
 	public WikiUser lookupWikiUser(String username) {
-		WikiUser result = CACHE_USER_BY_USER_NAME.retrieveFromCache(username);
-		if (result != null || CACHE_USER_BY_USER_NAME.isKeyInCache(username)) {
-			return result;
-		}
-		int userId = this.queryHandler().lookupWikiUser(username);
-		if (userId != -1) {
-			result = lookupWikiUser(userId);
-		}
-		CACHE_USER_BY_USER_NAME.addToCache(username, result);
-		return result;
+		return CACHE_USER_BY_USER_NAME.get(username, new CacheLoader<String, WikiUser>() {
+			public WikiUser load(String key) {
+				int userId = queryHandler().lookupWikiUser(key);
+				return (userId != -1) ? lookupWikiUser(userId) : null;
+			}
+		});
 	}
 
 	/**
@@ -1411,6 +1744,11 @@ public class AnsiDataHandler {
 						// 3. get a reference to any topic which has this topic as its
 						// current_version_id, and update with the value from #2.
 						if (topicVersionId == topic.getCurrentVersionId().intValue()) {
+							// current versions are always stored in full
+							TopicVersion replacementTopicVersion = lookupTopicVersion(replacementTopicVersionId);
+							if (replacementTopicVersion != null) {
+								queryHandler().updateTopicVersion(replacementTopicVersion);
+							}
 							topic.setCurrentVersionId(replacementTopicVersionId);
 							int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
 							dataValidator.validateTopic(topic);
@@ -1418,6 +1756,7 @@ public class AnsiDataHandler {
 						}
 						// 4. if there is a topic version with this version as its
 						// previous_topic_version_id update it with the value from #2
+						// and rewrite its content in full since it may be a delta against this version
 						if (nextTopicVersionId != null) {
 							TopicVersion nextTopicVersion = lookupTopicVersion(nextTopicVersionId);
 							nextTopicVersion.setPreviousTopicVersionId(topicVersion.getPreviousTopicVersionId());
@@ -1434,9 +1773,9 @@ public class AnsiDataHandler {
 						int changeVirtualWikiId = lookupVirtualWikiId(change.getVirtualWiki());
 						dataValidator.validateRecentChange(change);
 						queryHandler().insertRecentChange(change, changeVirtualWikiId);
-						CACHE_TOPIC_VERSIONS.removeFromCache(topicVersionId);
-						CACHE_TOPIC_VERSIONS.removeFromCache(nextTopicVersionId);
-						CACHE_TOPICS_BY_ID.removeFromCache(topic.getTopicId());
+						CACHE_TOPIC_VERSIONS.invalidate(topicVersionId);
+						CACHE_TOPIC_VERSIONS.invalidate(nextTopicVersionId);
+						CACHE_TOPIC_METADATA.invalidate(topic.getTopicId());
 					} catch (WikiException e) {
 						status.setRollbackOnly();
 						throw new TransactionRuntimeException(e);
@@ -1700,6 +2039,9 @@ public class AnsiDataHandler {
 					try {
 						if (wikiFile.getFileId() <= 0) {
 							queryHandler().insertWikiFile(wikiFile, virtualWikiId);
+							if (wikiFile.getDeleteDate() == null) {
+								SiteStatistics.recordFileAdded(wikiFile.getVirtualWiki());
+							}
 						} else {
 							queryHandler().updateWikiFile(wikiFile, virtualWikiId);
 						}
@@ -1720,6 +2062,11 @@ public class AnsiDataHandler {
 				}
 			}
 		);
+		// parsed output of topics that display the file depends on the file dimensions
+		Topic topic = this.lookupTopicById(wikiFile.getTopicId());
+		if (topic != null) {
+			ParsedTopicCache.invalidateTopic(topic.getName());
+		}
 	}
 
 	/**
@@ -1738,7 +2085,7 @@ public class AnsiDataHandler {
 					queryHandler().deleteInterwiki(interwiki);
 					queryHandler().insertInterwiki(interwiki);
 					// only update the cache if no errors
-					CACHE_INTERWIKI_LIST.removeAllFromCache();
+					CACHE_INTERWIKI_LIST.invalidateAll();
 				}
 			}
 		);
@@ -1755,7 +2102,7 @@ public class AnsiDataHandler {
 	public void writeNamespace(Namespace namespace) throws WikiException {
 		this.dataValidator.validateNamespace(namespace);
 		this.queryHandler().updateNamespace(namespace);
-		CACHE_NAMESPACE_LIST.removeAllFromCache();
+		CACHE_NAMESPACE_LIST.invalidateAll();
 	}
 
 	/**
@@ -1773,7 +2120,7 @@ public class AnsiDataHandler {
 			this.dataValidator.validateNamespaceTranslation(namespace, virtualWiki);
 		}
 		this.queryHandler().updateNamespaceTranslations(namespaces, virtualWiki, virtualWikiId);
-		CACHE_NAMESPACE_LIST.removeAllFromCache();
+		CACHE_NAMESPACE_LIST.invalidateAll();
 	}
 
 	/**
@@ -1818,7 +2165,7 @@ public class AnsiDataHandler {
 							queryHandler().insertGroupAuthority(groupId, authority);
 						}
 						// flush the cache
-						CACHE_ROLE_MAP_GROUP.removeAllFromCache();
+						CACHE_ROLE_MAP_GROUP.invalidateAll();
 					} catch (WikiException e) {
 						status.setRollbackOnly();
 						throw new TransactionRuntimeException(e);
@@ -1849,7 +2196,7 @@ public class AnsiDataHandler {
 							queryHandler().insertUserAuthority(username, authority);
 						}
 						// flush the cache
-						CACHE_ROLE_MAP_GROUP.removeAllFromCache();
+						CACHE_ROLE_MAP_GROUP.invalidateAll();
 					} catch (WikiException e) {
 						status.setRollbackOnly();
 						throw new TransactionRuntimeException(e);
@@ -1881,10 +2228,22 @@ public class AnsiDataHandler {
 	public void writeTopic(final Topic topic, final TopicVersion topicVersion, final Map<String, String> categories, final List<String> links) throws WikiException {
 		long start = System.currentTimeMillis();
 		LinkUtil.validateTopicName(topic.getVirtualWiki(), topic.getName(), false);
+		// the previous topic state is needed to determine whether site statistics change
+		final Topic previous = (topic.getTopicId() > 0) ? this.lookupTopicById(topic.getTopicId()) : null;
+		// categories whose topic counts may be changed by this update
+		final Set<String> modifiedCategories = new HashSet<String>();
+		if (categories != null) {
+			modifiedCategories.addAll(categories.keySet());
+		}
 		DatabaseConnection.getTransactionTemplate().execute(
 			new TransactionCallbackWithoutResult() {
 				protected void doInTransactionWithoutResult(TransactionStatus status) {
 					try {
+						if (topic.getTopicId() > 0) {
+							// the topic type or delete status may have changed, so counts for
+							// existing categories must also be refreshed
+							modifiedCategories.addAll(queryHandler().lookupTopicCategoryNames(topic.getTopicId()));
+						}
 						if (topic.getTopicId() <= 0) {
 							// create the initial topic record
 							int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
@@ -1908,6 +2267,8 @@ public class AnsiDataHandler {
 							topicVersion.initializeVersionParams(topic);
 							dataValidator.validateTopicVersion(topicVersion);
 							queryHandler().insertTopicVersions(topicVersions);
+							// the previous version is no longer current and may be stored as a delta
+							compressTopicVersion(topicVersion.getPreviousTopicVersionId());
 							// update the topic AFTER creating the version so that the current_topic_version_id parameter is set properly
 							topic.setCurrentVersionId(topicVersion.getTopicVersionId());
 							int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
@@ -1930,40 +2291,14 @@ public class AnsiDataHandler {
 								queryHandler().insertRecentChange(change, changeVirtualWikiId);
 							}
 						}
-						if (categories != null) {
-							// add / remove categories associated with the topic
-							queryHandler().deleteTopicCategories(topic.getTopicId());
-							if (topic.getDeleteDate() == null && !categories.isEmpty()) {
-								List<Category> categoryList = new ArrayList<Category>();
-								for (Map.Entry<String, String> entry : categories.entrySet()) {
-									Category category = new Category();
-									category.setName(entry.getKey());
-									category.setSortKey(entry.getValue());
-									category.setVirtualWiki(topic.getVirtualWiki());
-									category.setChildTopicName(topic.getName());
-									categoryList.add(category);
-								}
-								int virtualWikiId = -1;
-								for (Category category : categoryList) {
-									virtualWikiId = lookupVirtualWikiId(category.getVirtualWiki());
-									dataValidator.validateCategory(category);
-								}
-								queryHandler().insertCategories(categoryList, virtualWikiId, topic.getTopicId());
-							}
-						}
-						if (links != null) {
-							// add / remove links associated with the topic
-							queryHandler().deleteTopicLinks(topic.getTopicId());
-							if (topic.getDeleteDate() == null && !links.isEmpty()) {
-								addTopicLinks(links, topic.getVirtualWiki(), topic.getTopicId());
-							}
-						}
+						writeTopicMetadataRecords(topic, categories, links);
 						if (topicVersion != null) {
 							// topic version is only null during changes that aren't user visible
 							WikiBase.getSearchEngine().updateInIndex(topic);
 						}
 						// update the cache only if update successful
 						cacheTopicRefresh(topic, true, null);
+						SiteStatistics.recordTopicChange(previous, topic);
 					} catch (WikiException e) {
 						status.setRollbackOnly();
 						throw new TransactionRuntimeException(e);
@@ -1971,11 +2306,94 @@ public class AnsiDataHandler {
 				}
 			}
 		);
+		// invalidate again after commit in case the topic was parsed and cached
+		// from stale data while the transaction was in progress
+		ParsedTopicCache.invalidateTopic(topic.getName());
+		for (String categoryName : modifiedCategories) {
+			CACHE_CATEGORY_TOPIC_COUNTS.invalidate(this.cacheCategoryKey(topic.getVirtualWiki(), categoryName));
+		}
 		if (logger.isDebugEnabled()) {
 			logger.debug("Wrote topic " + topic.getVirtualWiki() + ':' + topic.getName() + " with params [categories is null: " + (categories == null) + "] / [links is null: " + (links == null) + "] in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 		}
 	}
 
+	/**
+	 * Replace the category and link records for an existing topic without
+	 * modifying the topic record.  This method is intended for jobs that
+	 * regenerate topic metadata from previously parsed content, and it cannot
+	 * overwrite topic changes made after the content was parsed.
+	 *
+	 * @param topicId The ID of the topic whose metadata is being replaced.
+	 * @param categories A mapping of categories and their associated sort keys (if any)
+	 *  for all categories that are associated with the topic.
+	 * @param links A List of all topic names that are linked to from the topic.
+	 * @throws WikiException Thrown if the metadata is invalid.
+	 */
+	public void writeTopicMetadata(final int topicId, final Map<String, String> categories, final List<String> links) throws WikiException {
+		final Set<String> modifiedCategories = new HashSet<String>(categories.keySet());
+		final String[] virtualWiki = new String[1];
+		DatabaseConnection.getTransactionTemplate().execute(
+			new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					try {
+						// read the topic within the transaction so that the delete status is current
+						Topic topic = queryHandler().lookupTopicById(topicId);
+						if (topic == null) {
+							return;
+						}
+						virtualWiki[0] = topic.getVirtualWiki();
+						modifiedCategories.addAll(queryHandler().lookupTopicCategoryNames(topicId));
+						writeTopicMetadataRecords(topic, categories, links);
+					} catch (WikiException e) {
+						status.setRollbackOnly();
+						throw new TransactionRuntimeException(e);
+					}
+				}
+			}
+		);
+		if (virtualWiki[0] != null) {
+			for (String categoryName : modifiedCategories) {
+				CACHE_CATEGORY_TOPIC_COUNTS.invalidate(this.cacheCategoryKey(virtualWiki[0], categoryName));
+			}
+		}
+	}
+
+	/**
+	 * Replace the category and link records for a topic.  Deleted topics have
+	 * no category or link records.  This method must be called from within a
+	 * transaction.
+	 */
+	private void writeTopicMetadataRecords(Topic topic, Map<String, String> categories, List<String> links) throws WikiException {
+		if (categories != null) {
+			// add / remove categories associated with the topic
+			this.queryHandler().deleteTopicCategories(topic.getTopicId());
+			if (topic.getDeleteDate() == null && !categories.isEmpty()) {
+				List<Category> categoryList = new ArrayList<Category>();
+				for (Map.Entry<String, String> entry : categories.entrySet()) {
+					Category category = new Category();
+					category.setName(entry.getKey());
+					category.setSortKey(entry.getValue());
+					category.setVirtualWiki(topic.getVirtualWiki());
+					category.setChildTopicName(topic.getName());
+					categoryList.add(category);
+				}
+				int virtualWikiId = -1;
+				for (Category category : categoryList) {
+					virtualWikiId = this.lookupVirtualWikiId(category.getVirtualWiki());
+					this.dataValidator.validateCategory(category);
+				}
+				this.queryHandler().insertCategories(categoryList, virtualWikiId, topic.getTopicId());
+			}
+		}
+		if (links != null) {
+			// add / remove links associated with the topic
+			this.queryHandler().deleteTopicLinks(topic.getTopicId());
+			if (topic.getDeleteDate() == null && !links.isEmpty()) {
+				this.addTopicLinks(links, topic.getVirtualWiki(), topic.getTopicId());
+			}
+		}
+	}
+
 	/**
 	 * This method exists for performance reasons for scenarios such as topic
 	 * imports where many versions may be added without the need to update the
@@ -2035,7 +2453,9 @@ public class AnsiDataHandler {
 							queryHandler().insertRecentChange(change, changeVirtualWikiId);
 						}
 						// flush the cache if no errors
-						CACHE_USER_BLOCKS_ACTIVE.removeAllFromCache();
+						synchronized (CACHE_USER_BLOCKS_ACTIVE) {
+							CACHE_USER_BLOCKS_ACTIVE.invalidateAll();
+						}
 					} catch (WikiException e) {
 						status.setRollbackOnly();
 						throw new TransactionRuntimeException(e);
@@ -2067,7 +2487,7 @@ public class AnsiDataHandler {
 						queryHandler().updateVirtualWiki(virtualWiki);
 					}
 					// flush the cache if there were no errors
-					CACHE_VIRTUAL_WIKI_LIST.removeAllFromCache();
+					CACHE_VIRTUAL_WIKI_LIST.invalidateAll();
 				}
 			}
 		);
@@ -2192,10 +2612,11 @@ public class AnsiDataHandler {
 							queryHandler().updateWikiUserPreferences(user);
 							// add all users to the registered user group
 							queryHandler().insertGroupMember(user.getUsername(), WikiBase.getGroupRegisteredUser().getGroupId());
+							SiteStatistics.recordUserAdded();
 							// Flush cache to force reading from database for next search
 							// This should be more efficient than looping over the authorities of the
 							// group and update them individually
-							CACHE_ROLE_MAP_GROUP.removeAllFromCache();
+							CACHE_ROLE_MAP_GROUP.invalidateAll();
 							// FIXME - reconsider this approach of separate entries for every virtual wiki
 							List<VirtualWiki> virtualWikis = getVirtualWikiList();
 							for (VirtualWiki virtualWiki : virtualWikis) {
@@ -2217,6 +2638,8 @@ public class AnsiDataHandler {
 							queryHandler().updateWikiUserPreferences(user);
 						}
 						// update the cache only if everything else is successful
+						CACHE_USER_BY_USER_ID.invalidate(user.getUserId());
+						CACHE_USER_BY_USER_NAME.invalidate(user.getUsername());
 						CACHE_USER_BY_USER_ID.addToCache(user.getUserId(), user);
 						CACHE_USER_BY_USER_NAME.addToCache(user.getUsername(), user);
 					} catch (WikiException e) {
@@ -2286,4 +2709,40 @@ public class AnsiDataHandler {
 	public ImageData getImageVersionData(int fileVersionId, int resized) {
 		return this.queryHandler().getImageVersionData(fileVersionId, resized);
 	}
+
+	/**
+	 * Retrieve image metadata, including the file version, size and upload
+	 * date, without reading the image data.  This allows a request for a file
+	 * to be validated against a client's cached copy without reading the
+	 * image data at all.
+	 *
+	 * @param fileId File identifier.  Ignored if a file version identifier is
+	 *  specified.
+	 * @param fileVersionId File version identifier, or zero to retrieve the
+	 *  latest version of the file.
+	 * @param resized Image width or zero for original.
+	 * @return The image metadata or null if image not found.
+	 */
+	public ImageData getImageMetadata(int fileId, int fileVersionId, int resized) {
+		return this.queryHandler().getImageMetadata(fileId, fileVersionId, resized);
+	}
+
+	/**
+	 * Copy the data for an image version to an output stream.  Unlike
+	 * {@link #getImageVersionData} the image data is not loaded into memory,
+	 * but the database connection is held while the data is copied, so the
+	 * output stream should be a local buffer (such as a temporary file) rather
+	 * than a client connection.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @param out The stream to which the image data is copied.
+	 * @return <code>true</code> if a matching image was found, otherwise
+	 *  <code>false</code>.
+	 * @throws IOException Thrown if the data cannot be written to the output
+	 *  stream.
+	 */
+	public boolean copyImageData(int fileVersionId, int resized, OutputStream out) throws IOException {
+		return this.queryHandler().copyImageData(fileVersionId, resized, out);
+	}
 }
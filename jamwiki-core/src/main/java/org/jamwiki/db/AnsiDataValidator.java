@@ -150,6 +150,7 @@ public class AnsiDataValidator {
 	 * database.
 	 */
 	protected void validateUserBlock(UserBlock userBlock) throws WikiException {
+		checkLength(userBlock.getIpAddress(), 43);
 		checkLength(userBlock.getBlockReason(), 200);
 		checkLength(userBlock.getUnblockReason(), 200);
 	}
@@ -16,18 +16,26 @@
  */
 package org.jamwiki.db;
 
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.Properties;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.model.Category;
@@ -49,12 +57,16 @@ import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiGroup;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.model.WikiUserDetails;
+import org.jamwiki.utils.CacheInvalidation;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.WikiLogger;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
@@ -68,6 +80,10 @@ public class AnsiQueryHandler implements QueryHandler {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(AnsiQueryHandler.class.getName());
 	protected static final String SQL_PROPERTY_FILE_NAME = "sql/sql.ansi.properties";
+	/** Number of times to retry a cache invalidation insert that fails because another server used the same ID. */
+	private static final int CACHE_INVALIDATION_INSERT_ATTEMPTS = 5;
+	/** Maximum number of values in a single SQL "in" clause, since some databases limit the size of such lists. */
+	private static final int MAX_IN_CLAUSE_SIZE = 500;
 
 	protected static String STATEMENT_CONNECTION_VALIDATION_QUERY = null;
 	protected static String STATEMENT_CREATE_AUTHORITIES_TABLE = null;
@@ -78,9 +94,11 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_CREATE_GROUP_MEMBERS_TABLE = null;
 	protected static String STATEMENT_CREATE_GROUP_TABLE = null;
 	protected static String STATEMENT_CREATE_INTERWIKI_TABLE = null;
+	protected static String STATEMENT_CREATE_LOG_DATE_INDEX = null;
 	protected static String STATEMENT_CREATE_LOG_TABLE = null;
 	protected static String STATEMENT_CREATE_NAMESPACE_TABLE = null;
 	protected static String STATEMENT_CREATE_NAMESPACE_TRANSLATION_TABLE = null;
+	protected static String STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX = null;
 	protected static String STATEMENT_CREATE_RECENT_CHANGE_TABLE = null;
 	protected static String STATEMENT_CREATE_ROLE_TABLE = null;
 	protected static String STATEMENT_CREATE_TOPIC_CURRENT_VERSION_CONSTRAINT = null;
@@ -215,6 +233,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_PW_RESET_CHALLENGE_DATA = null;
 	protected static String STATEMENT_SELECT_RECENT_CHANGES = null;
 	protected static String STATEMENT_SELECT_ROLES = null;
+	protected static String STATEMENT_SELECT_TOPIC_BATCH = null;
 	protected static String STATEMENT_SELECT_TOPIC_BY_ID = null;
 	protected static String STATEMENT_SELECT_TOPIC_BY_TYPE = null;
 	protected static String STATEMENT_SELECT_TOPIC_COUNT = null;
@@ -225,7 +244,10 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_TOPIC_LOWER = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAME = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAME_LOWER = null;
+	protected static String STATEMENT_SELECT_TOPIC_NAME_BATCH = null;
+	protected static String STATEMENT_SELECT_TOPIC_NAME_LOWER_BATCH = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAMES = null;
+	protected static String STATEMENT_SELECT_TOPIC_NAMES_CHANGED = null;
 	protected static String STATEMENT_SELECT_TOPICS_ADMIN = null;
 	protected static String STATEMENT_SELECT_TOPIC_SEQUENCE = null;
 	protected static String STATEMENT_SELECT_TOPIC_VERSION = null;
@@ -275,8 +297,24 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_FILE_INFO = null;
 	protected static String STATEMENT_SELECT_FILE_DATA = null;
 	protected static String STATEMENT_SELECT_FILE_VERSION_DATA = null;
+	protected static String STATEMENT_SELECT_FILE_METADATA = null;
+	protected static String STATEMENT_SELECT_FILE_VERSION_METADATA = null;
 	protected static String STATEMENT_CREATE_SEQUENCES = null;
+	protected static String STATEMENT_CREATE_CACHE_INVALIDATION_TABLE = null;
+	protected static String STATEMENT_DELETE_CACHE_INVALIDATIONS = null;
+	protected static String STATEMENT_DROP_CACHE_INVALIDATION_TABLE = null;
+	protected static String STATEMENT_INSERT_CACHE_INVALIDATION = null;
+	protected static String STATEMENT_SELECT_CACHE_INVALIDATIONS = null;
+	protected static String STATEMENT_SELECT_CACHE_INVALIDATION_SEQUENCE = null;
 	protected static String STATEMENT_DROP_SEQUENCES = null;
+	protected static String STATEMENT_CREATE_ID_BLOCK_TABLE = null;
+	protected static String STATEMENT_DROP_ID_BLOCK_TABLE = null;
+	protected static String STATEMENT_INSERT_ID_BLOCK = null;
+	protected static String STATEMENT_SELECT_ID_BLOCK = null;
+	protected static String STATEMENT_UPDATE_ID_BLOCK = null;
+	protected static String STATEMENT_SELECT_CATEGORY_TOPIC_COUNTS = null;
+	protected static String STATEMENT_SELECT_CATEGORY_TOPICS_BY_TYPE = null;
+	protected static String STATEMENT_SELECT_TOPIC_CATEGORIES = null;
 	private Properties props = null;
 
 	/**
@@ -315,6 +353,16 @@ public class AnsiQueryHandler implements QueryHandler {
 		return STATEMENT_CONNECTION_VALIDATION_QUERY;
 	}
 
+	/**
+	 *
+	 */
+	public void deleteCacheInvalidations(int invalidationId) {
+		DatabaseConnection.getJdbcTemplate().update(
+				STATEMENT_DELETE_CACHE_INVALIDATIONS,
+				invalidationId
+		);
+	}
+
 	/**
 	 *
 	 */
@@ -495,6 +543,18 @@ public class AnsiQueryHandler implements QueryHandler {
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_FILE_VERSIONS, args, new WikiFileVersionMapper());
 	}
 
+	/**
+	 *
+	 */
+	public List<CacheInvalidation> getCacheInvalidations(int afterInvalidationId, int maxInvalidationId, String nodeId) {
+		Object[] args = {
+				afterInvalidationId,
+				maxInvalidationId,
+				nodeId
+		};
+		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_CACHE_INVALIDATIONS, args, new CacheInvalidationMapper());
+	}
+
 	/**
 	 *
 	 */
@@ -528,15 +588,18 @@ public class AnsiQueryHandler implements QueryHandler {
 		int index = 0;
 		if (logType == -1) {
 			sql = STATEMENT_SELECT_LOG_ITEMS;
-			args = new Object[3];
+			args = new Object[6];
 		} else {
 			sql = STATEMENT_SELECT_LOG_ITEMS_BY_TYPE;
-			args = new Object[4];
+			args = new Object[7];
 			args[index++] = logType;
 		}
 		args[index++] = virtualWikiId;
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekKey();
 		args[index++] = pagination.getNumResults();
-		args[index++] = pagination.getOffset();
+		args[index++] = pagination.getSeekOffset();
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
@@ -547,8 +610,11 @@ public class AnsiQueryHandler implements QueryHandler {
 		// FIXME - sort order ignored
 		Object[] args = {
 				virtualWiki,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
 				pagination.getNumResults(),
-				pagination.getOffset()
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
@@ -721,8 +787,11 @@ public class AnsiQueryHandler implements QueryHandler {
 		String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_HISTORY, params);
 		Object[] args = {
 				topicId,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
 				pagination.getNumResults(),
-				pagination.getOffset()
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
@@ -757,8 +826,11 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = {
 				virtualWiki,
 				login,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
 				pagination.getNumResults(),
-				pagination.getOffset()
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
@@ -771,8 +843,11 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = {
 				virtualWiki,
 				userDisplay,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
 				pagination.getNumResults(),
-				pagination.getOffset()
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
@@ -846,7 +921,9 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_CREATE_CATEGORY_INDEX          = props.getProperty("STATEMENT_CREATE_CATEGORY_INDEX");
 		STATEMENT_CREATE_GROUP_AUTHORITIES_TABLE = props.getProperty("STATEMENT_CREATE_GROUP_AUTHORITIES_TABLE");
 		STATEMENT_CREATE_GROUP_MEMBERS_TABLE     = props.getProperty("STATEMENT_CREATE_GROUP_MEMBERS_TABLE");
+		STATEMENT_CREATE_LOG_DATE_INDEX          = props.getProperty("STATEMENT_CREATE_LOG_DATE_INDEX");
 		STATEMENT_CREATE_LOG_TABLE               = props.getProperty("STATEMENT_CREATE_LOG_TABLE");
+		STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX = props.getProperty("STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX");
 		STATEMENT_CREATE_RECENT_CHANGE_TABLE     = props.getProperty("STATEMENT_CREATE_RECENT_CHANGE_TABLE");
 		STATEMENT_CREATE_WATCHLIST_TABLE         = props.getProperty("STATEMENT_CREATE_WATCHLIST_TABLE");
 		STATEMENT_DELETE_AUTHORITIES             = props.getProperty("STATEMENT_DELETE_AUTHORITIES");
@@ -956,6 +1033,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_PW_RESET_CHALLENGE_DATA = props.getProperty("STATEMENT_SELECT_PW_RESET_CHALLENGE_DATA");
 		STATEMENT_SELECT_RECENT_CHANGES          = props.getProperty("STATEMENT_SELECT_RECENT_CHANGES");
 		STATEMENT_SELECT_ROLES                   = props.getProperty("STATEMENT_SELECT_ROLES");
+		STATEMENT_SELECT_TOPIC_BATCH             = props.getProperty("STATEMENT_SELECT_TOPIC_BATCH");
 		STATEMENT_SELECT_TOPIC_BY_ID             = props.getProperty("STATEMENT_SELECT_TOPIC_BY_ID");
 		STATEMENT_SELECT_TOPIC_BY_TYPE           = props.getProperty("STATEMENT_SELECT_TOPIC_BY_TYPE");
 		STATEMENT_SELECT_TOPIC_COUNT             = props.getProperty("STATEMENT_SELECT_TOPIC_COUNT");
@@ -966,7 +1044,10 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_TOPIC_LOWER             = props.getProperty("STATEMENT_SELECT_TOPIC_LOWER");
 		STATEMENT_SELECT_TOPIC_NAME              = props.getProperty("STATEMENT_SELECT_TOPIC_NAME");
 		STATEMENT_SELECT_TOPIC_NAME_LOWER        = props.getProperty("STATEMENT_SELECT_TOPIC_NAME_LOWER");
+		STATEMENT_SELECT_TOPIC_NAME_BATCH        = props.getProperty("STATEMENT_SELECT_TOPIC_NAME_BATCH");
+		STATEMENT_SELECT_TOPIC_NAME_LOWER_BATCH  = props.getProperty("STATEMENT_SELECT_TOPIC_NAME_LOWER_BATCH");
 		STATEMENT_SELECT_TOPIC_NAMES             = props.getProperty("STATEMENT_SELECT_TOPIC_NAMES");
+		STATEMENT_SELECT_TOPIC_NAMES_CHANGED     = props.getProperty("STATEMENT_SELECT_TOPIC_NAMES_CHANGED");
 		STATEMENT_SELECT_TOPICS_ADMIN            = props.getProperty("STATEMENT_SELECT_TOPICS_ADMIN");
 		STATEMENT_SELECT_TOPIC_SEQUENCE          = props.getProperty("STATEMENT_SELECT_TOPIC_SEQUENCE");
 		STATEMENT_SELECT_TOPIC_VERSION           = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION");
@@ -1016,8 +1097,56 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_FILE_INFO               = props.getProperty("STATEMENT_SELECT_FILE_INFO");
 		STATEMENT_SELECT_FILE_DATA               = props.getProperty("STATEMENT_SELECT_FILE_DATA");
 		STATEMENT_SELECT_FILE_VERSION_DATA       = props.getProperty("STATEMENT_SELECT_FILE_VERSION_DATA");
+		STATEMENT_SELECT_FILE_METADATA           = props.getProperty("STATEMENT_SELECT_FILE_METADATA");
+		STATEMENT_SELECT_FILE_VERSION_METADATA   = props.getProperty("STATEMENT_SELECT_FILE_VERSION_METADATA");
 		STATEMENT_CREATE_SEQUENCES               = props.getProperty("STATEMENT_CREATE_SEQUENCES");
+		STATEMENT_CREATE_CACHE_INVALIDATION_TABLE = props.getProperty("STATEMENT_CREATE_CACHE_INVALIDATION_TABLE");
+		STATEMENT_DELETE_CACHE_INVALIDATIONS     = props.getProperty("STATEMENT_DELETE_CACHE_INVALIDATIONS");
+		STATEMENT_DROP_CACHE_INVALIDATION_TABLE  = props.getProperty("STATEMENT_DROP_CACHE_INVALIDATION_TABLE");
+		STATEMENT_INSERT_CACHE_INVALIDATION      = props.getProperty("STATEMENT_INSERT_CACHE_INVALIDATION");
+		STATEMENT_SELECT_CACHE_INVALIDATIONS     = props.getProperty("STATEMENT_SELECT_CACHE_INVALIDATIONS");
+		STATEMENT_SELECT_CACHE_INVALIDATION_SEQUENCE = props.getProperty("STATEMENT_SELECT_CACHE_INVALIDATION_SEQUENCE");
 		STATEMENT_DROP_SEQUENCES                 = props.getProperty("STATEMENT_DROP_SEQUENCES");
+		STATEMENT_CREATE_ID_BLOCK_TABLE          = props.getProperty("STATEMENT_CREATE_ID_BLOCK_TABLE");
+		STATEMENT_DROP_ID_BLOCK_TABLE            = props.getProperty("STATEMENT_DROP_ID_BLOCK_TABLE");
+		STATEMENT_INSERT_ID_BLOCK                = props.getProperty("STATEMENT_INSERT_ID_BLOCK");
+		STATEMENT_SELECT_ID_BLOCK                = props.getProperty("STATEMENT_SELECT_ID_BLOCK");
+		STATEMENT_UPDATE_ID_BLOCK                = props.getProperty("STATEMENT_UPDATE_ID_BLOCK");
+		STATEMENT_SELECT_CATEGORY_TOPIC_COUNTS   = props.getProperty("STATEMENT_SELECT_CATEGORY_TOPIC_COUNTS");
+		STATEMENT_SELECT_CATEGORY_TOPICS_BY_TYPE = props.getProperty("STATEMENT_SELECT_CATEGORY_TOPICS_BY_TYPE");
+		STATEMENT_SELECT_TOPIC_CATEGORIES        = props.getProperty("STATEMENT_SELECT_TOPIC_CATEGORIES");
+	}
+
+	/**
+	 * Invalidation IDs are assigned using the maximum existing ID, so two
+	 * servers inserting at the same time may attempt to use the same ID.  In
+	 * that case the primary key constraint causes one insert to fail, and that
+	 * insert is retried with a new ID.  Because a new ID is only assigned
+	 * after all lower IDs are visible, IDs become visible to other servers in
+	 * increasing order.
+	 */
+	public void insertCacheInvalidations(List<CacheInvalidation> invalidations, String nodeId) {
+		int[] types = {Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR};
+		for (CacheInvalidation invalidation : invalidations) {
+			for (int attempt = 1; ; attempt++) {
+				int invalidationId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_CACHE_INVALIDATION_SEQUENCE);
+				Object[] args = {
+						invalidationId,
+						nodeId,
+						invalidation.getCacheName(),
+						invalidation.getKey()
+				};
+				try {
+					DatabaseConnection.getJdbcTemplate().update(STATEMENT_INSERT_CACHE_INVALIDATION, args, types);
+					break;
+				} catch (DataIntegrityViolationException e) {
+					if (attempt >= CACHE_INVALIDATION_INSERT_ATTEMPTS) {
+						throw e;
+					}
+					logger.debug("Cache invalidation ID " + invalidationId + " already in use, retrying");
+				}
+			}
+		}
 	}
 
 	/**
@@ -1054,7 +1183,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[2] : new Object[3];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int groupMemberId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_GROUP_MEMBERS_SEQUENCE);
+			int groupMemberId = this.nextId("jam_group_members", STATEMENT_SELECT_GROUP_MEMBERS_SEQUENCE);
 			types[index] = Types.INTEGER;
 			args[index++] = groupMemberId;
 		}
@@ -1070,6 +1199,17 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void insertIdBlock(String idName, int nextId) {
+		DatabaseConnection.getJdbcTemplate().update(
+				STATEMENT_INSERT_ID_BLOCK,
+				idName,
+				nextId
+		);
+	}
+
 	/**
 	 *
 	 */
@@ -1145,7 +1285,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[11] : new Object[12];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int topicId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_TOPIC_SEQUENCE);
+			int topicId = this.nextId("jam_topic", STATEMENT_SELECT_TOPIC_SEQUENCE);
 			topic.setTopicId(topicId);
 			types[index] = Types.INTEGER;
 			args[index++] = topicId;
@@ -1207,7 +1347,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[10] : new Object[11];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int topicVersionId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE);
+			int topicVersionId = this.nextId("jam_topic_version", STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE);
 			topicVersion.setTopicVersionId(topicVersionId);
 			types[index] = Types.INTEGER;
 			args[index++] = topicVersionId;
@@ -1251,17 +1391,21 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 		// manually retrieve next topic version id when using batch
 		// mode or when the database doesn't support generated keys.
-		int topicVersionId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE);
+		int topicVersionId = (this.autoIncrementPrimaryKeys()) ? DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE) : -1;
 		List<Object[]> batchArgs = new ArrayList<Object[]>();
 		for (TopicVersion topicVersion : topicVersions) {
 			if (topicVersion.getEditDate() == null) {
 				topicVersion.setEditDate(new Timestamp(System.currentTimeMillis()));
 			}
-			// FIXME - if two threads update the database simultaneously then
-			// it is possible that this code could set the topic version ID
-			// to a value that is different from what the database ends up
-			// using.
-			topicVersion.setTopicVersionId(topicVersionId++);
+			if (!this.autoIncrementPrimaryKeys()) {
+				topicVersion.setTopicVersionId(this.nextId("jam_topic_version", STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE));
+			} else {
+				// FIXME - if two threads update the database simultaneously then
+				// it is possible that this code could set the topic version ID
+				// to a value that is different from what the database ends up
+				// using.
+				topicVersion.setTopicVersionId(topicVersionId++);
+			}
 			int index = 0;
 			Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[10] : new Object[11];
 			if (!this.autoIncrementPrimaryKeys()) {
@@ -1308,7 +1452,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[9] : new Object[10];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int blockId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_USER_BLOCK_SEQUENCE);
+			int blockId = this.nextId("jam_user_block", STATEMENT_SELECT_USER_BLOCK_SEQUENCE);
 			userBlock.setBlockId(blockId);
 			types[index] = Types.INTEGER;
 			args[index++] = blockId;
@@ -1359,7 +1503,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[5] : new Object[6];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int virtualWikiId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_VIRTUAL_WIKI_SEQUENCE);
+			int virtualWikiId = this.nextId("jam_virtual_wiki", STATEMENT_SELECT_VIRTUAL_WIKI_SEQUENCE);
 			virtualWiki.setVirtualWikiId(virtualWikiId);
 			types[index] = Types.INTEGER;
 			args[index++] = virtualWikiId;
@@ -1403,7 +1547,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[9] : new Object[10];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int fileId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_WIKI_FILE_SEQUENCE);
+			int fileId = this.nextId("jam_file", STATEMENT_SELECT_WIKI_FILE_SEQUENCE);
 			wikiFile.setFileId(fileId);
 			types[index] = Types.INTEGER;
 			args[index++] = fileId;
@@ -1447,7 +1591,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[8] : new Object[9];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int fileVersionId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE);
+			int fileVersionId = this.nextId("jam_file_version", STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE);
 			wikiFileVersion.setFileVersionId(fileVersionId);
 			types[index] = Types.INTEGER;
 			args[index++] = fileVersionId;
@@ -1485,7 +1629,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[2] : new Object[3];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int groupId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_GROUP_SEQUENCE);
+			int groupId = this.nextId("jam_group", STATEMENT_SELECT_GROUP_SEQUENCE);
 			group.setGroupId(groupId);
 			types[index] = Types.INTEGER;
 			args[index++] = groupId;
@@ -1511,7 +1655,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[7] : new Object[8];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
-			int userId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_WIKI_USER_SEQUENCE);
+			int userId = this.nextId("jam_wiki_user", STATEMENT_SELECT_WIKI_USER_SEQUENCE);
 			user.setUserId(userId);
 			types[index] = Types.INTEGER;
 			args[index++] = userId;
@@ -1585,6 +1729,84 @@ public class AnsiQueryHandler implements QueryHandler {
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_CATEGORY_TOPICS, args, new CategoryMapper(virtualWikiName));
 	}
 
+	/**
+	 *
+	 */
+	public List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, Pagination pagination) {
+		if (topicTypes.isEmpty()) {
+			return new ArrayList<Category>();
+		}
+		String sql = this.formatCategoryTopicsStatement(topicTypes);
+		Object[] args = this.buildCategoryTopicsArgs(virtualWikiId, categoryName, topicTypes, pagination.getNumResults(), pagination.getOffset());
+		return DatabaseConnection.getJdbcTemplate().query(sql, args, new CategoryMapper(virtualWikiName));
+	}
+
+	/**
+	 * Utility method for use by databases that cannot limit the results of the
+	 * paginated category topic query.  The query is executed without a limit
+	 * or offset, reading at most {@link Pagination#getEnd()} rows and discarding
+	 * all rows prior to the pagination offset.
+	 */
+	protected List<Category> lookupCategoryTopicsWithoutLimit(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, final Pagination pagination) {
+		final List<Category> results = new ArrayList<Category>();
+		if (topicTypes.isEmpty()) {
+			return results;
+		}
+		String sql = this.formatCategoryTopicsStatement(topicTypes);
+		Object[] args = this.buildCategoryTopicsArgs(virtualWikiId, categoryName, topicTypes);
+		final CategoryMapper mapper = new CategoryMapper(virtualWikiName);
+		DatabaseConnection.getJdbcTemplate().query(DatabaseConnection.maxRowsStatementCreator(sql, args, pagination.getEnd()), new RowCallbackHandler() {
+			private int rowNum = 0;
+			public void processRow(ResultSet rs) throws SQLException {
+				if (this.rowNum >= pagination.getOffset() && results.size() < pagination.getNumResults()) {
+					results.add(mapper.mapRow(rs, this.rowNum));
+				}
+				this.rowNum++;
+			}
+		});
+		return results;
+	}
+
+	/**
+	 * Format the paginated category topic statement with one query parameter
+	 * for each topic type.
+	 */
+	protected String formatCategoryTopicsStatement(List<TopicType> topicTypes) {
+		Object[] params = {StringUtils.repeat("?", ", ", topicTypes.size())};
+		return this.formatStatement(STATEMENT_SELECT_CATEGORY_TOPICS_BY_TYPE, params);
+	}
+
+	/**
+	 * Build the query parameters for the paginated category topic statement,
+	 * followed by any database-specific pagination parameters.
+	 */
+	protected Object[] buildCategoryTopicsArgs(int virtualWikiId, String categoryName, List<TopicType> topicTypes, Object... paginationArgs) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(virtualWikiId);
+		// category name must be lowercase since search is case-insensitive
+		args.add(categoryName.toLowerCase());
+		for (TopicType topicType : topicTypes) {
+			args.add(topicType.id());
+		}
+		args.addAll(Arrays.asList(paginationArgs));
+		return args.toArray();
+	}
+
+	/**
+	 *
+	 */
+	public Map<TopicType, Integer> lookupCategoryTopicCounts(int virtualWikiId, String categoryName) {
+		// category name must be lowercase since search is case-insensitive
+		Object[] args = { virtualWikiId, categoryName.toLowerCase() };
+		final Map<TopicType, Integer> results = new HashMap<TopicType, Integer>();
+		DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_CATEGORY_TOPIC_COUNTS, args, new RowCallbackHandler() {
+			public void processRow(ResultSet rs) throws SQLException {
+				results.put(TopicType.findTopicType(rs.getInt("topic_type")), rs.getInt("topic_count"));
+			}
+		});
+		return results;
+	}
+
 	/**
 	 *
 	 */
@@ -1604,6 +1826,18 @@ public class AnsiQueryHandler implements QueryHandler {
 		return configuration;
 	}
 
+	/**
+	 *
+	 */
+	public Integer lookupIdBlock(String idName) {
+		try {
+			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_ID_BLOCK, Integer.class, idName);
+		} catch (IncorrectResultSizeDataAccessException e) {
+			// no block reserved yet
+			return null;
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -1611,6 +1845,13 @@ public class AnsiQueryHandler implements QueryHandler {
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_INTERWIKIS, new InterwikiMapper());
 	}
 
+	/**
+	 *
+	 */
+	public int lookupMaxCacheInvalidationId() {
+		return DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_CACHE_INVALIDATION_SEQUENCE) - 1;
+	}
+
 	/**
 	 *
 	 */
@@ -1700,6 +1941,16 @@ public class AnsiQueryHandler implements QueryHandler {
 		return topic;
 	}
 
+	/**
+	 *
+	 */
+	public List<Topic> lookupTopicBatch(int virtualWikiId, int lastTopicId, int batchSize) {
+		Object[] args = { virtualWikiId, lastTopicId };
+		// limit the batch size using JDBC max rows rather than database-specific
+		// limit syntax so that the same query works on all databases
+		return DatabaseConnection.getJdbcTemplate().query(DatabaseConnection.maxRowsStatementCreator(STATEMENT_SELECT_TOPIC_BATCH, args, batchSize), new TopicMapper(true));
+	}
+
 	/**
 	 *
 	 */
@@ -1759,6 +2010,89 @@ public class AnsiQueryHandler implements QueryHandler {
 		return topicName;
 	}
 
+	/**
+	 * Topic names are retrieved using one query for every
+	 * {@link #MAX_IN_CLAUSE_SIZE} page names, plus the same number of queries
+	 * for case-insensitive matches in namespaces that are not case-sensitive.
+	 * As with {@link #lookupTopicName} a case-insensitive match is only used
+	 * if exactly one topic matches.
+	 */
+	public Map<String, String> lookupTopicNameBatch(int virtualWikiId, Namespace namespace, Collection<String> pageNames) {
+		Map<String, String> results = new HashMap<String, String>();
+		if (namespace.getId().equals(Namespace.SPECIAL_ID) || pageNames.isEmpty()) {
+			// invalid namespace
+			return results;
+		}
+		Set<String> remaining = new LinkedHashSet<String>(pageNames);
+		for (Map.Entry<String, String> match : this.lookupTopicNameBatch(STATEMENT_SELECT_TOPIC_NAME_BATCH, virtualWikiId, namespace, remaining).entrySet()) {
+			if (remaining.remove(match.getKey())) {
+				results.put(match.getKey(), match.getValue());
+			}
+		}
+		if (remaining.isEmpty() || namespace.isCaseSensitive()) {
+			return results;
+		}
+		Map<String, List<String>> pageNamesByLowerName = new HashMap<String, List<String>>();
+		for (String pageName : remaining) {
+			String lowerName = pageName.toLowerCase();
+			if (lowerName.equals(pageName)) {
+				continue;
+			}
+			List<String> matchingPageNames = pageNamesByLowerName.get(lowerName);
+			if (matchingPageNames == null) {
+				matchingPageNames = new ArrayList<String>();
+				pageNamesByLowerName.put(lowerName, matchingPageNames);
+			}
+			matchingPageNames.add(pageName);
+		}
+		if (pageNamesByLowerName.isEmpty()) {
+			return results;
+		}
+		for (Map.Entry<String, String> match : this.lookupTopicNameBatch(STATEMENT_SELECT_TOPIC_NAME_LOWER_BATCH, virtualWikiId, namespace, pageNamesByLowerName.keySet()).entrySet()) {
+			if (match.getValue() == null || !pageNamesByLowerName.containsKey(match.getKey())) {
+				// ambiguous match
+				continue;
+			}
+			for (String pageName : pageNamesByLowerName.get(match.getKey())) {
+				results.put(pageName, match.getValue());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Execute a topic name batch query, splitting the page names into groups
+	 * that do not exceed the maximum "in" clause size.  The returned map
+	 * contains the page name value from the query results and the matching
+	 * topic name, or <code>null</code> if more than one topic matched.
+	 */
+	private Map<String, String> lookupTopicNameBatch(String sql, int virtualWikiId, Namespace namespace, Collection<String> pageNames) {
+		final Map<String, String> results = new HashMap<String, String>();
+		List<String> batch = new ArrayList<String>(MAX_IN_CLAUSE_SIZE);
+		int count = 0;
+		for (String pageName : pageNames) {
+			batch.add(pageName);
+			count++;
+			if (batch.size() < MAX_IN_CLAUSE_SIZE && count < pageNames.size()) {
+				continue;
+			}
+			Object[] params = {StringUtils.repeat("?", ", ", batch.size())};
+			List<Object> args = new ArrayList<Object>(batch.size() + 2);
+			args.add(virtualWikiId);
+			args.add(namespace.getId());
+			args.addAll(batch);
+			DatabaseConnection.getJdbcTemplate().query(this.formatStatement(sql, params), args.toArray(), new RowCallbackHandler() {
+				public void processRow(ResultSet rs) throws SQLException {
+					String pageName = rs.getString(2);
+					// a page name that matches multiple topics is marked with a null value
+					results.put(pageName, (results.containsKey(pageName)) ? null : rs.getString(1));
+				}
+			});
+			batch.clear();
+		}
+		return results;
+	}
+
 	/**
 	 *
 	 */
@@ -1781,6 +2115,13 @@ public class AnsiQueryHandler implements QueryHandler {
 		return topicLinks;
 	}
 
+	/**
+	 *
+	 */
+	public List<String> lookupTopicCategoryNames(int topicId) {
+		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_TOPIC_CATEGORIES, String.class, topicId);
+	}
+
 	/**
 	 *
 	 */
@@ -1806,6 +2147,14 @@ public class AnsiQueryHandler implements QueryHandler {
 		return topicNames;
 	}
 
+	/**
+	 *
+	 */
+	public List<String> lookupTopicNamesChanged(int virtualWikiId, Timestamp changedSince) {
+		Object[] args = { virtualWikiId, changedSince };
+		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_TOPIC_NAMES_CHANGED, args, String.class);
+	}
+
 	/**
 	 *
 	 */
@@ -2027,6 +2376,24 @@ public class AnsiQueryHandler implements QueryHandler {
 		);
 	}
 
+	/**
+	 * Return the next available primary key value for a table.  Databases
+	 * that define native sequences retrieve the value from the sequence,
+	 * otherwise values are assigned from blocks of IDs reserved by the
+	 * {@link IdAllocator}.
+	 *
+	 * @param tableName The name of the table that the ID is being assigned for.
+	 * @param sequenceSql The SQL used to retrieve the next value from a native
+	 *  sequence, or the maximum existing ID if native sequences are not used.
+	 * @return The next available primary key value.
+	 */
+	protected int nextId(String tableName, String sequenceSql) {
+		if (!StringUtils.isBlank(STATEMENT_CREATE_SEQUENCES)) {
+			return DatabaseConnection.executeSequenceQuery(sequenceSql);
+		}
+		return IdAllocator.nextId(this, tableName, sequenceSql);
+	}
+
 	/**
 	 *
 	 */
@@ -2164,6 +2531,19 @@ public class AnsiQueryHandler implements QueryHandler {
 		DatabaseConnection.getJdbcTemplate().batchUpdate(STATEMENT_INSERT_CONFIGURATION, batchArgs);
 	}
 
+	/**
+	 *
+	 */
+	public boolean updateIdBlock(String idName, int previousNextId, int nextId) {
+		int count = DatabaseConnection.getJdbcTemplate().update(
+				STATEMENT_UPDATE_ID_BLOCK,
+				nextId,
+				idName,
+				previousNextId
+		);
+		return (count == 1);
+	}
+
 	/**
 	 *
 	 */
@@ -2503,6 +2883,65 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public ImageData getImageMetadata(int fileId, int fileVersionId, int resized) {
+		String sql = (fileVersionId != 0) ? STATEMENT_SELECT_FILE_VERSION_METADATA : STATEMENT_SELECT_FILE_METADATA;
+		Object[] args = { ((fileVersionId != 0) ? fileVersionId : fileId), resized };
+		try {
+			return DatabaseConnection.getJdbcTemplate().queryForObject(sql, args, new ImageMetadataMapper(resized));
+		} catch (IncorrectResultSizeDataAccessException e) {
+			// no matching result
+			return null;
+		}
+	}
+
+	/**
+	 *
+	 */
+	public boolean copyImageData(int fileVersionId, int resized, final OutputStream out) throws IOException {
+		Object[] args = { fileVersionId, resized };
+		// the extractor cannot throw IOException, so capture any failure and re-throw it
+		final IOException[] failure = new IOException[1];
+		Boolean found = DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_FILE_VERSION_DATA, args, new ResultSetExtractor<Boolean>() {
+			public Boolean extractData(ResultSet rs) throws SQLException {
+				if (!rs.next()) {
+					return false;
+				}
+				InputStream data = rs.getBinaryStream("file_data");
+				if (data == null) {
+					return false;
+				}
+				try {
+					IOUtils.copyLarge(data, out);
+				} catch (IOException e) {
+					failure[0] = e;
+				} finally {
+					IOUtils.closeQuietly(data);
+				}
+				return true;
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return (found != null && found);
+	}
+
+	/**
+	 * Inner class for converting result set to cache invalidation.
+	 */
+	static final class CacheInvalidationMapper implements RowMapper<CacheInvalidation> {
+
+		/**
+		 *
+		 */
+		public CacheInvalidation mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return new CacheInvalidation(rs.getString("cache_name"), rs.getString("cache_key"));
+		}
+	}
+
 	/**
 	 * Inner class for converting result set to category.
 	 */
@@ -2531,6 +2970,35 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 * Inner class for converting result set to image metadata, without the
+	 * file data.
+	 */
+	static final class ImageMetadataMapper implements RowMapper<ImageData> {
+
+		private final int resized;
+
+		/**
+		 *
+		 */
+		ImageMetadataMapper(int resized) {
+			this.resized = resized;
+		}
+
+		/**
+		 *
+		 */
+		public ImageData mapRow(ResultSet rs, int rowNum) throws SQLException {
+			ImageData imageData = new ImageData(rs.getString("mime_type"), rs.getInt("image_width"), rs.getInt("image_height"), null);
+			imageData.fileVersionId = rs.getInt("file_version_id");
+			// the file size is only recorded for the original file, not for resized images
+			imageData.fileSize = (this.resized == 0) ? rs.getLong("file_size") : -1;
+			Timestamp uploadDate = rs.getTimestamp("upload_date");
+			imageData.lastModified = (uploadDate != null) ? uploadDate.getTime() : -1;
+			return imageData;
+		}
+	}
+
 	/**
 	 * Inner class for converting result set to interwiki.
 	 */
@@ -2686,25 +3154,46 @@ public class AnsiQueryHandler implements QueryHandler {
 	}
 
 	/**
-	 * Inner class for converting result set to topic.
+	 * Inner class for converting result set to topic.  Unless the result set
+	 * includes the topic content the content of the resulting topic is loaded
+	 * from the current topic version when it is first accessed.
 	 */
 	static final class TopicMapper implements RowMapper<Topic> {
 
+		private final boolean includeContent;
+
+		/**
+		 *
+		 */
+		TopicMapper() {
+			this(false);
+		}
+
+		/**
+		 *
+		 */
+		TopicMapper(boolean includeContent) {
+			this.includeContent = includeContent;
+		}
+
 		/**
 		 *
 		 */
 		public Topic mapRow(ResultSet rs, int rowNum) throws SQLException {
-			Topic topic = new Topic(rs.getString("virtual_wiki_name"), Namespace.namespace(rs.getInt("namespace_id")), rs.getString("page_name"));
+			String virtualWiki = rs.getString("virtual_wiki_name");
+			Namespace namespace = Namespace.namespace(rs.getInt("namespace_id"));
+			String pageName = rs.getString("page_name");
+			Topic topic = (this.includeContent) ? new Topic(virtualWiki, namespace, pageName) : new LazyContentTopic(virtualWiki, namespace, pageName);
 			topic.setAdminOnly(rs.getInt("topic_admin_only") != 0);
 			int currentVersionId = rs.getInt("current_version_id");
 			if (currentVersionId > 0) {
 				topic.setCurrentVersionId(currentVersionId);
 			}
-			topic.setTopicContent(rs.getString("version_content"));
-			// FIXME - Oracle cannot store an empty string - it converts them
-			// to null - so add a hack to work around the problem.
-			if (topic.getTopicContent() == null) {
-				topic.setTopicContent("");
+			if (this.includeContent) {
+				// FIXME - Oracle cannot store an empty string - it converts them
+				// to null - so add a hack to work around the problem.
+				String topicContent = rs.getString("version_content");
+				topic.setTopicContent((topicContent == null) ? "" : topicContent);
 			}
 			topic.setTopicId(rs.getInt("topic_id"));
 			topic.setReadOnly(rs.getInt("topic_read_only") != 0);
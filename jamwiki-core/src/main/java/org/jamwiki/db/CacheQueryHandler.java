@@ -91,6 +91,14 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		return categories;
 	}
 
+	/**
+	 *
+	 */
+	@Override
+	public List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, Pagination pagination) {
+		return this.lookupCategoryTopicsWithoutLimit(virtualWikiId, virtualWikiName, categoryName, topicTypes, pagination);
+	}
+
 	/**
 	 *
 	 */
@@ -102,15 +110,18 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		int index = 0;
 		if (logType == -1) {
 			sql = STATEMENT_SELECT_LOG_ITEMS;
-			args = new Object[3];
+			args = new Object[6];
 		} else {
 			sql = STATEMENT_SELECT_LOG_ITEMS_BY_TYPE;
-			args = new Object[4];
+			args = new Object[7];
 			args[index++] = logType;
 		}
 		args[index++] = pagination.getNumResults();
 		args[index++] = virtualWikiId;
-		args[index++] = pagination.getOffset();
+		args[index++] = pagination.getSeekOffset();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekKey();
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
@@ -123,7 +134,10 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				pagination.getNumResults(),
 				virtualWiki,
-				pagination.getOffset()
+				pagination.getSeekOffset(),
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
@@ -143,7 +157,10 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				pagination.getNumResults(),
 				topicId,
-				pagination.getOffset()
+				pagination.getSeekOffset(),
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
@@ -171,7 +188,10 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				pagination.getNumResults(),
 				virtualWiki,
 				login,
-				pagination.getOffset()
+				pagination.getSeekOffset(),
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
@@ -186,7 +206,10 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				pagination.getNumResults(),
 				virtualWiki,
 				userDisplay,
-				pagination.getOffset()
+				pagination.getSeekOffset(),
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
@@ -225,13 +248,15 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				stmt = conn.prepareStatement(STATEMENT_INSERT_TOPIC_VERSION_AUTO_INCREMENT, Statement.RETURN_GENERATED_KEYS);
 			}
 			int topicVersionId = -1;
-			if (!this.autoIncrementPrimaryKeys() || useBatch) {
+			if (this.autoIncrementPrimaryKeys() && useBatch) {
 				// manually retrieve next topic version id when using batch
-				// mode or when the database doesn't support generated keys.
+				// mode with generated keys.
 				topicVersionId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE);
 			}
 			for (TopicVersion topicVersion : topicVersions) {
-				if (!this.autoIncrementPrimaryKeys() || useBatch) {
+				if (!this.autoIncrementPrimaryKeys()) {
+					topicVersion.setTopicVersionId(this.nextId("jam_topic_version", STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE));
+				} else if (useBatch) {
 					// FIXME - if two threads update the database simultaneously then
 					// it is possible that this code could set the topic version ID
 					// to a value that is different from what the database ends up
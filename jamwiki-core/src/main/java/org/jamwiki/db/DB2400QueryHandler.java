@@ -64,6 +64,22 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 		return this.formatStatement(sql, objects);
 	}
 
+	/**
+	 * Format the query limits for a date-ordered query that is bounded by
+	 * {@link Pagination#getSeekDate}, which requires the limits to be
+	 * calculated from the seek offset rather than the pagination offset.
+	 *
+	 * @param sql The SQL statement, with the last result parameter specified as
+	 *  {0} and the total number of rows parameter specified as {1}.
+	 * @param pagination A Pagination object that specifies the number of results
+	 *  and seek position for the result set to be retrieved.
+	 * @return A formatted SQL string.
+	 */
+	private String formatSeekStatement(String sql, Pagination pagination) {
+		Object[] objects = {pagination.getSeekEnd(), pagination.getNumResults()};
+		return this.formatStatement(sql, objects);
+	}
+
 	/**
 	 * DB2/400 will not allow query parameters such as "fetch ? rows only", so
 	 * this method provides a way of formatting the query limits without using
@@ -103,6 +119,14 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 		return categories;
 	}
 
+	/**
+	 *
+	 */
+	@Override
+	public List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, Pagination pagination) {
+		return this.lookupCategoryTopicsWithoutLimit(virtualWikiId, virtualWikiName, categoryName, topicTypes, pagination);
+	}
+
 	/**
 	 *
 	 */
@@ -113,14 +137,17 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 		Object[] args = null;
 		int index = 0;
 		if (logType == -1) {
-			sql = this.formatStatement(STATEMENT_SELECT_LOG_ITEMS, pagination);
-			args = new Object[1];
+			sql = this.formatSeekStatement(STATEMENT_SELECT_LOG_ITEMS, pagination);
+			args = new Object[4];
 		} else {
-			sql = this.formatStatement(STATEMENT_SELECT_LOG_ITEMS_BY_TYPE, pagination);
-			args = new Object[2];
+			sql = this.formatSeekStatement(STATEMENT_SELECT_LOG_ITEMS_BY_TYPE, pagination);
+			args = new Object[5];
 			args[index++] = logType;
 		}
 		args[index++] = virtualWikiId;
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekKey();
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
@@ -130,9 +157,12 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 	@Override
 	public List<RecentChange> getRecentChanges(String virtualWiki, Pagination pagination, boolean descending) {
 		// FIXME - sort order ignored
-		String sql = this.formatStatement(STATEMENT_SELECT_RECENT_CHANGES, pagination);
+		String sql = this.formatSeekStatement(STATEMENT_SELECT_RECENT_CHANGES, pagination);
 		Object[] args = {
-				virtualWiki
+				virtualWiki,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
@@ -144,13 +174,16 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 	public List<RecentChange> getTopicHistory(int topicId, Pagination pagination, boolean descending, boolean selectDeleted) {
 		// FIXME - sort order ignored
 		// the SQL contains the syntax "is {0} null", which needs to be formatted as a message.
-		Object[] params = {pagination.getEnd(), pagination.getNumResults(), ""};
+		Object[] params = {pagination.getSeekEnd(), pagination.getNumResults(), ""};
 		if (selectDeleted) {
 			params[2] = "not";
 		}
 		String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_HISTORY, params);
 		Object[] args = {
-				topicId
+				topicId,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
@@ -173,10 +206,13 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 	@Override
 	public List<RecentChange> getUserContributionsByLogin(String virtualWiki, String login, Pagination pagination, boolean descending) {
 		// FIXME - sort order ignored
-		String sql = this.formatStatement(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, pagination);
+		String sql = this.formatSeekStatement(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, pagination);
 		Object[] args = {
 				virtualWiki,
-				login
+				login,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
@@ -187,10 +223,13 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 	@Override
 	public List<RecentChange> getUserContributionsByUserDisplay(String virtualWiki, String userDisplay, Pagination pagination, boolean descending) {
 		// FIXME - sort order ignored
-		String sql = this.formatStatement(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, pagination);
+		String sql = this.formatSeekStatement(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, pagination);
 		Object[] args = {
 				virtualWiki,
-				userDisplay
+				userDisplay,
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
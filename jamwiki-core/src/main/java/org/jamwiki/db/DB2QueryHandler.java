@@ -72,6 +72,19 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 		return categories;
 	}
 
+	/**
+	 *
+	 */
+	@Override
+	public List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, Pagination pagination) {
+		if (topicTypes.isEmpty()) {
+			return new ArrayList<Category>();
+		}
+		String sql = this.formatCategoryTopicsStatement(topicTypes);
+		Object[] args = this.buildCategoryTopicsArgs(virtualWikiId, categoryName, topicTypes, pagination.getStart(), pagination.getEnd());
+		return DatabaseConnection.getJdbcTemplate().query(sql, args, new CategoryMapper(virtualWikiName));
+	}
+
 	/**
 	 *
 	 */
@@ -83,15 +96,18 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 		int index = 0;
 		if (logType == -1) {
 			sql = STATEMENT_SELECT_LOG_ITEMS;
-			args = new Object[3];
+			args = new Object[6];
 		} else {
 			sql = STATEMENT_SELECT_LOG_ITEMS_BY_TYPE;
-			args = new Object[4];
+			args = new Object[7];
 			args[index++] = logType;
 		}
 		args[index++] = virtualWikiId;
-		args[index++] = pagination.getStart();
-		args[index++] = pagination.getEnd();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekKey();
+		args[index++] = pagination.getSeekOffset();
+		args[index++] = pagination.getSeekEnd();
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
@@ -103,8 +119,11 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 		// FIXME - sort order ignored
 		Object[] args = {
 				virtualWiki,
-				pagination.getStart(),
-				pagination.getEnd()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekOffset(),
+				pagination.getSeekEnd()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
@@ -123,8 +142,11 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 		String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_HISTORY, params);
 		Object[] args = {
 				topicId,
-				pagination.getStart(),
-				pagination.getEnd()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekOffset(),
+				pagination.getSeekEnd()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
@@ -151,8 +173,11 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				virtualWiki,
 				login,
-				pagination.getStart(),
-				pagination.getEnd()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekOffset(),
+				pagination.getSeekEnd()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
@@ -166,8 +191,11 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				virtualWiki,
 				userDisplay,
-				pagination.getStart(),
-				pagination.getEnd()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekOffset(),
+				pagination.getSeekEnd()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
@@ -0,0 +1,209 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.utils.CacheInvalidation;
+import org.jamwiki.utils.CacheInvalidationBus;
+import org.jamwiki.utils.CacheInvalidationTransport;
+import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiUtil;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * Cache invalidation transport that uses the <code>jam_cache_invalidation</code>
+ * table to send invalidations between wiki servers that share a database.
+ * Published invalidations are written to the table and each server polls the
+ * table at the interval specified by the
+ * {@link Environment#PROP_CACHE_INVALIDATION_POLL_INTERVAL} property, applying
+ * any invalidations written by other servers since the previous poll.  Old
+ * records are deleted once they are no longer needed by any server that is
+ * polling regularly.
+ *
+ * All database access is performed by a single background thread so that
+ * publishing never blocks a request thread, and so that records are written
+ * outside of the transaction that modified the underlying data.
+ */
+public class DatabaseCacheInvalidationTransport implements CacheInvalidationTransport {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(DatabaseCacheInvalidationTransport.class.getName());
+	/** Number of invalidation records to retain after each poll, allowing slower servers to catch up. */
+	private static final int RETAINED_INVALIDATIONS = 10000;
+	private volatile ScheduledExecutorService executor = null;
+	/** The highest invalidation ID processed by this server, or -1 if the table has not yet been read. */
+	private int lastInvalidationId = -1;
+	private String nodeId = null;
+	/** Set to <code>true</code> after an attempt has been made to create a missing invalidation table. */
+	private boolean tableCreateAttempted = false;
+
+	/**
+	 *
+	 */
+	public DatabaseCacheInvalidationTransport() {
+	}
+
+	/**
+	 * Create a transport for the given node without starting the background
+	 * thread.  This constructor is intended for testing purposes.
+	 */
+	DatabaseCacheInvalidationTransport(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * Create the invalidation table for wikis that were set up before the
+	 * table existed.
+	 */
+	private void createTable() {
+		this.tableCreateAttempted = true;
+		String sql = this.queryHandler().sql("STATEMENT_CREATE_CACHE_INVALIDATION_TABLE");
+		DatabaseConnection.getJdbcTemplate().update(sql);
+		logger.info("Created cache invalidation table");
+	}
+
+	/**
+	 * Read and apply all invalidations published by other servers since the
+	 * previous poll, and delete records that are no longer needed.  The first
+	 * poll runs as soon as the transport is started, when the cache is empty,
+	 * and only records the current maximum invalidation ID.
+	 */
+	protected void poll() {
+		if (WikiUtil.isFirstUse() || WikiUtil.isUpgrade()) {
+			// database may not be set up
+			return;
+		}
+		int maxInvalidationId;
+		try {
+			maxInvalidationId = this.queryHandler().lookupMaxCacheInvalidationId();
+		} catch (DataAccessException e) {
+			if (this.tableCreateAttempted) {
+				throw e;
+			}
+			logger.warn("Unable to read cache invalidation table, attempting to create it: " + e.getMessage());
+			this.createTable();
+			maxInvalidationId = this.queryHandler().lookupMaxCacheInvalidationId();
+		}
+		this.tableCreateAttempted = true;
+		if (this.lastInvalidationId == -1 || maxInvalidationId < this.lastInvalidationId) {
+			// first poll, or the table has been re-created
+			this.lastInvalidationId = maxInvalidationId;
+			return;
+		}
+		if (maxInvalidationId == this.lastInvalidationId) {
+			return;
+		}
+		List<CacheInvalidation> invalidations = this.queryHandler().getCacheInvalidations(this.lastInvalidationId, maxInvalidationId, this.nodeId);
+		if (!invalidations.isEmpty()) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Applying " + invalidations.size() + " cache invalidations from other servers");
+			}
+			CacheInvalidationBus.receive(invalidations);
+		}
+		this.lastInvalidationId = maxInvalidationId;
+		if (maxInvalidationId > RETAINED_INVALIDATIONS) {
+			this.queryHandler().deleteCacheInvalidations(maxInvalidationId - RETAINED_INVALIDATIONS);
+		}
+	}
+
+	/**
+	 * Queue invalidations to be written to the invalidation table.
+	 */
+	public void publish(final List<CacheInvalidation> invalidations) {
+		ScheduledExecutorService executor = this.executor;
+		if (executor == null || executor.isShutdown()) {
+			return;
+		}
+		final List<CacheInvalidation> pending = new ArrayList<CacheInvalidation>(invalidations);
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					write(pending);
+				} catch (RuntimeException e) {
+					logger.error("Failure while writing cache invalidations " + pending, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	private QueryHandler queryHandler() {
+		return WikiBase.getDataHandler().queryHandler();
+	}
+
+	/**
+	 * Start the background thread that writes and polls for invalidations.
+	 */
+	public synchronized void start(String nodeId) {
+		this.nodeId = nodeId;
+		int pollInterval = Math.max(Environment.getIntValue(Environment.PROP_CACHE_INVALIDATION_POLL_INTERVAL), 1);
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jamwiki-cache-invalidation");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					poll();
+				} catch (RuntimeException e) {
+					// do not re-throw since that would cancel all future polls
+					logger.error("Failure while polling for cache invalidations", e);
+				}
+			}
+		}, 0, pollInterval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop the background thread, writing any queued invalidations first.
+	 */
+	public synchronized void stop() {
+		if (this.executor == null) {
+			return;
+		}
+		this.executor.shutdown();
+		try {
+			if (!this.executor.awaitTermination(5, TimeUnit.SECONDS)) {
+				logger.warn("Timed out while waiting for queued cache invalidations to be written");
+				this.executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.executor = null;
+	}
+
+	/**
+	 * Write invalidations to the invalidation table.
+	 */
+	protected void write(List<CacheInvalidation> invalidations) {
+		if (WikiUtil.isFirstUse() || WikiUtil.isUpgrade()) {
+			return;
+		}
+		this.queryHandler().insertCacheInvalidations(invalidations, this.nodeId);
+	}
+}
@@ -18,6 +18,7 @@ package org.jamwiki.db;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -36,6 +37,12 @@ import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.datasource.DelegatingDataSource;
 import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionTemplate;
 
@@ -104,6 +111,9 @@ public class DatabaseConnection {
 		// clear references to prevent them being reused (& allow garbage collection)
 		dataSource = null;
 		transactionManager = null;
+		// reserved IDs and statistics may not be valid for the next database
+		IdAllocator.reset();
+		SiteStatistics.reset();
 	}
 
 	/**
@@ -196,6 +206,19 @@ public class DatabaseConnection {
 		return jdbcTemplate;
 	}
 
+	/**
+	 * Return a statement creator for use with the shared JdbcTemplate that
+	 * creates a prepared statement returning at most the specified number of
+	 * rows.  The limit applies only to the created statement.
+	 *
+	 * @param sql The SQL query to execute.
+	 * @param args The query arguments.
+	 * @param maxRows The maximum number of rows that the query may return.
+	 */
+	protected static PreparedStatementCreator maxRowsStatementCreator(String sql, Object[] args, int maxRows) {
+		return new MaxRowsStatementCreator(sql, args, maxRows);
+	}
+
 	/**
 	 * Return a Spring TransactionTemplate suitable for executing transactional
 	 * database logic.
@@ -211,6 +234,21 @@ public class DatabaseConnection {
 		return transactionTemplate;
 	}
 
+	/**
+	 * Return a Spring TransactionTemplate that always executes in a new
+	 * transaction, suspending any transaction that is currently active until
+	 * the new transaction completes.
+	 */
+	protected static TransactionTemplate getNewTransactionTemplate() {
+		if (transactionManager == null) {
+			// DataSource has not yet been created, obtain it now
+			configDataSource();
+		}
+		TransactionTemplate newTransactionTemplate = new TransactionTemplate(transactionManager);
+		newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		return newTransactionTemplate;
+	}
+
 	/**
 	 * Test whether the database identified by the given parameters can be connected to.
 	 *
@@ -276,4 +314,49 @@ public class DatabaseConnection {
 			return testDataSource.getConnection();
 		}
 	}
+
+	/**
+	 * Create a prepared statement with a maximum row limit.  Unlike setting
+	 * max rows on a JdbcTemplate, this does not require a separate template
+	 * for each limit.
+	 */
+	private static class MaxRowsStatementCreator implements PreparedStatementCreator, SqlProvider {
+
+		private final Object[] args;
+		private final int maxRows;
+		private final String sql;
+
+		/**
+		 *
+		 */
+		MaxRowsStatementCreator(String sql, Object[] args, int maxRows) {
+			this.sql = sql;
+			this.args = args;
+			this.maxRows = maxRows;
+		}
+
+		/**
+		 *
+		 */
+		public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
+			PreparedStatement stmt = conn.prepareStatement(this.sql);
+			try {
+				stmt.setMaxRows(this.maxRows);
+				for (int i = 0; i < this.args.length; i++) {
+					StatementCreatorUtils.setParameterValue(stmt, i + 1, SqlTypeValue.TYPE_UNKNOWN, this.args[i]);
+				}
+			} catch (SQLException e) {
+				JdbcUtils.closeStatement(stmt);
+				throw e;
+			}
+			return stmt;
+		}
+
+		/**
+		 *
+		 */
+		public String getSql() {
+			return this.sql;
+		}
+	}
 }
\ No newline at end of file
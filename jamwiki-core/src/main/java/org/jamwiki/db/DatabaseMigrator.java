@@ -0,0 +1,581 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.Encryption;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Copy all JAMWiki data from the current database to a new database.  Rows
+ * are read using forward-only cursors and written using JDBC batches that are
+ * committed as they are written, so memory use does not depend on table size.
+ * Tables that do not depend on one another are copied in parallel using the
+ * number of threads specified by the {@link Environment#PROP_DB_MIGRATION_THREADS}
+ * property, and the batch size is specified by the
+ * {@link Environment#PROP_DB_MIGRATION_BATCH_SIZE} property.
+ *
+ * Migration progress is recorded in a checkpoint file in the JAMWiki system
+ * directory.  If a migration fails it can be resumed by migrating to the same
+ * database again: tables that were completely copied are skipped, and tables
+ * that were partially copied resume from the last committed batch.
+ */
+public class DatabaseMigrator {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(DatabaseMigrator.class.getName());
+	/** Name of the checkpoint file, relative to the JAMWiki system directory. */
+	private static final String CHECKPOINT_FILE_NAME = "database-migration.properties";
+	private static final String CHECKPOINT_COMPLETED_TABLES = "completed-tables";
+	private static final String CHECKPOINT_URL = "url";
+	/** Minimum number of milliseconds between progress messages for a table. */
+	private static final long PROGRESS_INTERVAL = 10000;
+	// array used in database migration - elements are table name, the column to sort
+	// results on (if any) in order to avoid foreign key constraint violations and to
+	// allow partially copied tables to be resumed, and then the names of any tables
+	// that must be copied before this table due to foreign key constraints.
+	private static final String[][] JAMWIKI_DB_TABLE_INFO = {
+		{"jam_virtual_wiki", "virtual_wiki_id"},
+		{"jam_users", null},
+		{"jam_wiki_user", "wiki_user_id", "jam_users"},
+		{"jam_user_preferences_defaults", null},
+		{"jam_user_preferences", "wiki_user_id", "jam_wiki_user", "jam_user_preferences_defaults"},
+		{"jam_namespace", "namespace_id"},
+		{"jam_namespace_translation", "namespace_id", "jam_namespace", "jam_virtual_wiki"},
+		{"jam_topic", "topic_id", "jam_virtual_wiki", "jam_namespace"},
+		{"jam_topic_version", "topic_version_id", "jam_topic", "jam_wiki_user"},
+		{"jam_file", "file_id", "jam_virtual_wiki", "jam_topic"},
+		{"jam_file_version", "file_version_id", "jam_file", "jam_wiki_user"},
+		{"jam_category", "child_topic_id", "jam_topic"},
+		{"jam_group", "group_id"},
+		{"jam_group_members", "id", "jam_users", "jam_group"},
+		{"jam_role", null},
+		{"jam_authorities", null, "jam_users", "jam_role"},
+		{"jam_group_authorities", null, "jam_group", "jam_role"},
+		{"jam_recent_change", null, "jam_topic_version", "jam_topic", "jam_wiki_user", "jam_virtual_wiki"},
+		{"jam_log", null, "jam_topic_version", "jam_topic", "jam_wiki_user", "jam_virtual_wiki"},
+		{"jam_watchlist", "wiki_user_id", "jam_wiki_user", "jam_virtual_wiki"},
+		{"jam_topic_links", "topic_id", "jam_namespace"},
+		{"jam_interwiki", null},
+		{"jam_configuration", null},
+		{"jam_user_block", "user_block_id", "jam_wiki_user"},
+		{"jam_file_data", "file_version_id", "jam_file_version"},
+		{"jam_id_block", null}
+	};
+	// columns that cannot be loaded on initial insert due to foreign key constraints and
+	// that are instead updated after all tables have been copied.  elements are table
+	// name, primary key column, deferred column, and the condition identifying rows for
+	// which the deferred column must be updated.
+	private static final String[][] JAMWIKI_DB_DEFERRED_COLUMN_INFO = {
+		// jam_topic.current_version_id references jam_topic_version, which is copied after jam_topic
+		{"jam_topic", "topic_id", "current_version_id", "current_version_id is not null"},
+		// imported topic versions may reference a previous version with a larger ID
+		{"jam_topic_version", "topic_version_id", "previous_topic_version_id", "previous_topic_version_id > topic_version_id"}
+	};
+
+	private final int batchSize;
+	private final File checkpointFile;
+	private final Properties checkpoint = new Properties();
+	private final QueryHandler newQueryHandler;
+	private final Properties props;
+
+	/**
+	 * Create a migrator for copying data to the database identified by the
+	 * given properties.
+	 *
+	 * @param props Properties object containing the new database properties.
+	 * @param newQueryHandler The query handler for the new database.
+	 */
+	protected DatabaseMigrator(Properties props, QueryHandler newQueryHandler) {
+		this.props = props;
+		this.newQueryHandler = newQueryHandler;
+		this.batchSize = Math.max(Environment.getIntValue(Environment.PROP_DB_MIGRATION_BATCH_SIZE), 1);
+		this.checkpointFile = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), CHECKPOINT_FILE_NAME);
+	}
+
+	/**
+	 * Add a parameter value for a row being inserted, replacing deferred column
+	 * values with <code>null</code> where necessary.
+	 */
+	private void bindColumn(ResultSet rs, ResultSetMetaData md, int column, String[] deferredColumnInfo, PreparedStatement insert) throws SQLException {
+		Object value = rs.getObject(column);
+		if (value != null && deferredColumnInfo != null && deferredColumnInfo[2].equalsIgnoreCase(md.getColumnLabel(column))) {
+			if (deferredColumnInfo[1].equals("topic_id") || ((Number)value).longValue() > rs.getLong(deferredColumnInfo[1])) {
+				value = null;
+			}
+		}
+		if (value == null) {
+			insert.setNull(column, md.getColumnType(column));
+		} else {
+			insert.setObject(column, value);
+		}
+	}
+
+	/**
+	 * Delete the checkpoint file after a successful migration.
+	 */
+	protected void clearCheckpoint() {
+		if (this.checkpointFile.exists() && !this.checkpointFile.delete()) {
+			logger.warn("Unable to delete database migration checkpoint file " + this.checkpointFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Copy all rows from a table in the current database to the new database.
+	 */
+	private void copyTable(String[] tableInfo) throws SQLException {
+		String tableName = tableInfo[0];
+		String orderColumn = tableInfo[1];
+		String[] deferredColumnInfo = null;
+		for (String[] info : JAMWIKI_DB_DEFERRED_COLUMN_INFO) {
+			if (info[0].equals(tableName)) {
+				deferredColumnInfo = info;
+			}
+		}
+		long start = System.currentTimeMillis();
+		Connection from = null;
+		Connection to = null;
+		PreparedStatement select = null;
+		PreparedStatement insert = null;
+		ResultSet rs = null;
+		try {
+			from = this.openSourceConnection();
+			to = this.openTargetConnection();
+			int total = this.countRows(from, tableName);
+			Object resumeKey = this.prepareTable(to, tableName, orderColumn);
+			StringBuilder sql = new StringBuilder("SELECT * FROM ").append(tableName);
+			if (!StringUtils.isBlank(orderColumn)) {
+				if (resumeKey != null) {
+					sql.append(" WHERE ").append(orderColumn).append(" >= ?");
+				}
+				sql.append(" ORDER BY ").append(orderColumn);
+			}
+			select = from.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			select.setFetchSize(this.batchSize);
+			if (resumeKey != null) {
+				select.setObject(1, resumeKey);
+			}
+			rs = select.executeQuery();
+			ResultSetMetaData md = rs.getMetaData();
+			insert = to.prepareStatement(this.insertSql(tableName, md));
+			int tableBatchSize = this.tableBatchSize(md);
+			int count = 0;
+			int pending = 0;
+			long lastProgress = start;
+			while (rs.next()) {
+				for (int i = 1; i <= md.getColumnCount(); i++) {
+					this.bindColumn(rs, md, i, deferredColumnInfo, insert);
+				}
+				insert.addBatch();
+				count++;
+				pending++;
+				if (pending >= tableBatchSize) {
+					insert.executeBatch();
+					to.commit();
+					pending = 0;
+					if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL) {
+						lastProgress = System.currentTimeMillis();
+						logger.info(this.progressMessage(tableName, count, total, start));
+					}
+				}
+			}
+			if (pending > 0) {
+				insert.executeBatch();
+				to.commit();
+			}
+			logger.info(this.progressMessage(tableName, count, total, start));
+		} finally {
+			DatabaseConnection.closeStatement(insert);
+			this.closeTargetConnection(to);
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {}
+			}
+			this.closeSourceConnection(from, select);
+		}
+		this.markCompleted(tableName);
+	}
+
+	/**
+	 * Release a connection to the current database.
+	 */
+	private void closeSourceConnection(Connection from, Statement stmt) {
+		DatabaseConnection.closeStatement(stmt);
+		if (from == null) {
+			return;
+		}
+		try {
+			from.rollback();
+			from.setAutoCommit(true);
+			from.setReadOnly(false);
+		} catch (SQLException e) {
+			logger.warn("Unable to reset connection after database migration", e);
+		}
+		DatabaseConnection.closeConnection(from, null, null);
+	}
+
+	/**
+	 * Close a connection to the new database.
+	 */
+	private void closeTargetConnection(Connection to) {
+		if (to != null) {
+			try {
+				to.close();
+			} catch (SQLException e) {}
+		}
+	}
+
+	/**
+	 * Return the number of rows in a table, used for reporting progress.
+	 */
+	private int countRows(Connection conn, String tableName) throws SQLException {
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tableName);
+			return (rs.next()) ? rs.getInt(1) : 0;
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {}
+			}
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 * Determine whether a previous failed migration to the same database can be
+	 * resumed.
+	 *
+	 * @return <code>true</code> if a checkpoint exists for the new database.
+	 */
+	protected boolean isResumable() {
+		if (!this.checkpointFile.exists()) {
+			return false;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(this.checkpointFile);
+			this.checkpoint.load(in);
+		} catch (IOException e) {
+			logger.warn("Unable to read database migration checkpoint file " + this.checkpointFile.getAbsolutePath(), e);
+			this.checkpoint.clear();
+			return false;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		if (!StringUtils.equals(this.checkpoint.getProperty(CHECKPOINT_URL), this.props.getProperty(Environment.PROP_DB_URL))) {
+			// checkpoint is for a different database
+			this.checkpoint.clear();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Build the parameterized insert statement for a table.
+	 */
+	private String insertSql(String tableName, ResultSetMetaData md) throws SQLException {
+		StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append('(');
+		StringBuilder values = new StringBuilder();
+		for (int i = 1; i <= md.getColumnCount(); i++) {
+			if (i > 1) {
+				insert.append(',');
+				values.append(',');
+			}
+			String columnName = md.getColumnLabel(i);
+			// special handling for Sybase ASA, which requires the "login" column name to be quoted
+			if (this.newQueryHandler instanceof org.jamwiki.db.SybaseASAQueryHandler && "login".equalsIgnoreCase(columnName)) {
+				columnName = "\"" + columnName + "\"";
+			}
+			insert.append(columnName);
+			values.append('?');
+		}
+		return insert.append(") VALUES (").append(values).append(')').toString();
+	}
+
+	/**
+	 * Record that a table has been completely copied.
+	 */
+	private synchronized void markCompleted(String tableName) {
+		Set<String> completed = this.completedTables();
+		completed.add(tableName);
+		this.checkpoint.setProperty(CHECKPOINT_COMPLETED_TABLES, StringUtils.join(completed, ','));
+		this.writeCheckpoint();
+	}
+
+	/**
+	 * Return the tables recorded as completely copied in the checkpoint.
+	 */
+	private synchronized Set<String> completedTables() {
+		Set<String> completed = new HashSet<String>();
+		String value = this.checkpoint.getProperty(CHECKPOINT_COMPLETED_TABLES);
+		if (!StringUtils.isBlank(value)) {
+			completed.addAll(Arrays.asList(StringUtils.split(value, ',')));
+		}
+		return completed;
+	}
+
+	/**
+	 * Copy all tables, running tables whose dependencies have already been
+	 * copied in parallel, and then update deferred columns.
+	 *
+	 * @throws Exception Thrown if any table cannot be copied.  Tables that
+	 *  were copied successfully are recorded in the checkpoint file.
+	 */
+	protected void migrate() throws Exception {
+		long start = System.currentTimeMillis();
+		this.checkpoint.setProperty(CHECKPOINT_URL, this.props.getProperty(Environment.PROP_DB_URL));
+		this.writeCheckpoint();
+		Set<String> completed = this.completedTables();
+		List<String[]> pending = new ArrayList<String[]>();
+		for (String[] tableInfo : JAMWIKI_DB_TABLE_INFO) {
+			if (completed.contains(tableInfo[0])) {
+				logger.info("Skipping table " + tableInfo[0] + ", which was copied by a previous migration attempt");
+			} else {
+				pending.add(tableInfo);
+			}
+		}
+		int threads = Math.max(Environment.getIntValue(Environment.PROP_DB_MIGRATION_THREADS), 1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jamwiki-migration-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+		try {
+			int running = 0;
+			while (!pending.isEmpty() || running > 0) {
+				// start all tables whose dependencies have been copied
+				for (int i = 0; i < pending.size(); i++) {
+					final String[] tableInfo = pending.get(i);
+					if (!completed.containsAll(Arrays.asList(tableInfo).subList(2, tableInfo.length))) {
+						continue;
+					}
+					pending.remove(i--);
+					running++;
+					completionService.submit(new Callable<String>() {
+						public String call() throws Exception {
+							copyTable(tableInfo);
+							return tableInfo[0];
+						}
+					});
+				}
+				if (running == 0) {
+					throw new IllegalStateException("Unable to resolve migration order for tables " + pending.size());
+				}
+				try {
+					completed.add(completionService.take().get());
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+				}
+				running--;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		for (String[] deferredColumnInfo : JAMWIKI_DB_DEFERRED_COLUMN_INFO) {
+			this.updateDeferredColumn(deferredColumnInfo);
+		}
+		logger.info("Database migration completed in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+	}
+
+	/**
+	 * Open a read-only connection to the current database.  Auto-commit is
+	 * disabled since some JDBC drivers only use cursors within a transaction.
+	 */
+	private Connection openSourceConnection() throws SQLException {
+		Connection from = DatabaseConnection.getConnection();
+		from.setAutoCommit(false);
+		from.setReadOnly(true);
+		return from;
+	}
+
+	/**
+	 * Open a connection to the new database.
+	 */
+	protected Connection openTargetConnection() throws SQLException {
+		String driver = this.props.getProperty(Environment.PROP_DB_DRIVER);
+		String url = this.props.getProperty(Environment.PROP_DB_URL);
+		String userName = this.props.getProperty(Environment.PROP_DB_USERNAME);
+		String password = Encryption.getEncryptedProperty(Environment.PROP_DB_PASSWORD, this.props);
+		Connection to = DatabaseConnection.getTestConnection(driver, url, userName, password);
+		to.setAutoCommit(false);
+		return to;
+	}
+
+	/**
+	 * Remove rows left in the new database by a previous failed attempt to copy
+	 * a table.  For tables with an order column, rows with the largest order
+	 * column value are removed since they may have been only partially copied,
+	 * and the value is returned so that copying resumes from that value.  For
+	 * other tables all rows are removed.
+	 */
+	private Object prepareTable(Connection to, String tableName, String orderColumn) throws SQLException {
+		Statement stmt = null;
+		ResultSet rs = null;
+		PreparedStatement delete = null;
+		try {
+			stmt = to.createStatement();
+			if (StringUtils.isBlank(orderColumn)) {
+				if (stmt.executeUpdate("DELETE FROM " + tableName) > 0) {
+					logger.info("Removed partially copied rows from table " + tableName);
+				}
+				to.commit();
+				return null;
+			}
+			rs = stmt.executeQuery("SELECT MAX(" + orderColumn + ") FROM " + tableName);
+			Object resumeKey = (rs.next()) ? rs.getObject(1) : null;
+			if (resumeKey == null) {
+				return null;
+			}
+			delete = to.prepareStatement("DELETE FROM " + tableName + " WHERE " + orderColumn + " = ?");
+			delete.setObject(1, resumeKey);
+			delete.executeUpdate();
+			to.commit();
+			logger.info("Resuming copy of table " + tableName + " from " + orderColumn + " " + resumeKey);
+			return resumeKey;
+		} finally {
+			DatabaseConnection.closeStatement(delete);
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {}
+			}
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 * Format a progress message including the number of rows copied and the
+	 * copy rate.
+	 */
+	private String progressMessage(String tableName, int count, int total, long start) {
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		return "Migrated " + count + " of " + total + " rows from table " + tableName + " in " + (elapsed / 1000.000) + " s. (" + ((count * 1000L) / elapsed) + " rows/s)";
+	}
+
+	/**
+	 * Return the batch size to use for a table.  Tables containing binary data
+	 * use smaller batches to limit memory use.
+	 */
+	private int tableBatchSize(ResultSetMetaData md) throws SQLException {
+		for (int i = 1; i <= md.getColumnCount(); i++) {
+			int type = md.getColumnType(i);
+			if (type == Types.BLOB || type == Types.BINARY || type == Types.VARBINARY || type == Types.LONGVARBINARY) {
+				return Math.max(this.batchSize / 100, 1);
+			}
+		}
+		return this.batchSize;
+	}
+
+	/**
+	 * Set the values of a deferred column in the new database once all tables
+	 * have been copied.
+	 */
+	private void updateDeferredColumn(String[] deferredColumnInfo) throws SQLException {
+		String tableName = deferredColumnInfo[0];
+		String keyColumn = deferredColumnInfo[1];
+		String deferredColumn = deferredColumnInfo[2];
+		long start = System.currentTimeMillis();
+		Connection from = null;
+		Connection to = null;
+		PreparedStatement select = null;
+		PreparedStatement update = null;
+		ResultSet rs = null;
+		try {
+			from = this.openSourceConnection();
+			to = this.openTargetConnection();
+			String sql = "SELECT " + keyColumn + ", " + deferredColumn + " FROM " + tableName + " WHERE " + deferredColumnInfo[3];
+			select = from.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			select.setFetchSize(this.batchSize);
+			rs = select.executeQuery();
+			update = to.prepareStatement("UPDATE " + tableName + " SET " + deferredColumn + " = ? WHERE " + keyColumn + " = ?");
+			int count = 0;
+			while (rs.next()) {
+				update.setObject(1, rs.getObject(2));
+				update.setObject(2, rs.getObject(1));
+				update.addBatch();
+				if (++count % this.batchSize == 0) {
+					update.executeBatch();
+					to.commit();
+				}
+			}
+			update.executeBatch();
+			to.commit();
+			logger.info("Updated " + count + " values of " + tableName + "." + deferredColumn + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+		} finally {
+			DatabaseConnection.closeStatement(update);
+			this.closeTargetConnection(to);
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {}
+			}
+			this.closeSourceConnection(from, select);
+		}
+	}
+
+	/**
+	 * Save the checkpoint file.
+	 */
+	private synchronized void writeCheckpoint() {
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(this.checkpointFile);
+			this.checkpoint.store(out, "JAMWiki database migration checkpoint");
+		} catch (IOException e) {
+			logger.warn("Unable to write database migration checkpoint file " + this.checkpointFile.getAbsolutePath(), e);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+}
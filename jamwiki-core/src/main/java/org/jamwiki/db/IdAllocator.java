@@ -0,0 +1,187 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiLogger;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+
+/**
+ * Assign primary key values for databases that do not generate keys.  Rather
+ * than executing a "select max(id)" query prior to every insert, which is
+ * slow for large tables and allows two threads or servers to use the same ID,
+ * ranges of IDs are reserved using the <code>jam_id_block</code> table and
+ * IDs are then handed out from the reserved range without accessing the
+ * database.  The size of each range is specified by the
+ * {@link Environment#PROP_DB_ID_BLOCK_SIZE} property.
+ *
+ * Ranges are reserved in a separate transaction that commits immediately, so
+ * the <code>jam_id_block</code> record is never locked for the duration of an
+ * edit, and IDs are never re-used if the transaction that uses them rolls
+ * back.  Unused IDs from a reserved range are discarded when the server is
+ * stopped, so IDs will contain gaps and, when multiple servers share a
+ * database, will not always be assigned in chronological order.
+ */
+public class IdAllocator {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(IdAllocator.class.getName());
+	/** Maximum number of attempts to reserve a range before giving up. */
+	private static final int MAX_RESERVE_ATTEMPTS = 20;
+	/** Ranges of reserved IDs that have not yet been used, keyed by ID name. */
+	private static final ConcurrentMap<String, IdBlock> ID_BLOCKS = new ConcurrentHashMap<String, IdBlock>();
+	/** Set to <code>true</code> after an attempt has been made to create a missing ID block table. */
+	private static volatile boolean tableCreateAttempted = false;
+
+	/**
+	 * This class has only static methods and is never instantiated.
+	 */
+	private IdAllocator() {
+	}
+
+	/**
+	 * Create the ID block table for wikis that were set up before the table
+	 * existed.
+	 */
+	private static synchronized void createTable(final QueryHandler queryHandler) {
+		if (tableCreateAttempted) {
+			return;
+		}
+		tableCreateAttempted = true;
+		// some databases commit the current transaction when executing DDL
+		DatabaseConnection.getNewTransactionTemplate().execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				DatabaseConnection.getJdbcTemplate().update(queryHandler.sql("STATEMENT_CREATE_ID_BLOCK_TABLE"));
+				return null;
+			}
+		});
+		logger.info("Created ID block table");
+	}
+
+	/**
+	 * Return the next available ID for the given ID name, reserving a new
+	 * range of IDs if all IDs from the current range have been used.
+	 *
+	 * @param queryHandler The query handler used to access the ID block table.
+	 * @param idName The name of the ID, generally the table name.
+	 * @param sequenceSql SQL that returns the maximum existing ID, used to
+	 *  initialize the ID block record the first time that an ID is requested.
+	 * @return The next available ID.
+	 */
+	protected static int nextId(QueryHandler queryHandler, String idName, String sequenceSql) {
+		IdBlock idBlock = ID_BLOCKS.get(idName);
+		if (idBlock == null) {
+			idBlock = new IdBlock();
+			IdBlock existing = ID_BLOCKS.putIfAbsent(idName, idBlock);
+			if (existing != null) {
+				idBlock = existing;
+			}
+		}
+		synchronized (idBlock) {
+			if (idBlock.nextId >= idBlock.limit) {
+				int blockSize = Math.max(Environment.getIntValue(Environment.PROP_DB_ID_BLOCK_SIZE), 1);
+				idBlock.nextId = IdAllocator.reserve(queryHandler, idName, sequenceSql, blockSize);
+				idBlock.limit = idBlock.nextId + blockSize;
+			}
+			return idBlock.nextId++;
+		}
+	}
+
+	/**
+	 * Reserve a range of IDs, returning the first ID in the range.
+	 */
+	private static int reserve(final QueryHandler queryHandler, final String idName, String sequenceSql, final int blockSize) {
+		for (int attempt = 1; attempt <= MAX_RESERVE_ATTEMPTS; attempt++) {
+			Integer nextId = null;
+			try {
+				nextId = IdAllocator.reserveExisting(queryHandler, idName, blockSize);
+			} catch (DataAccessException e) {
+				if (tableCreateAttempted) {
+					throw e;
+				}
+				logger.warn("Unable to read ID block table, attempting to create it: " + e.getMessage());
+				IdAllocator.createTable(queryHandler);
+				continue;
+			}
+			tableCreateAttempted = true;
+			if (nextId != null && nextId != -1) {
+				return nextId;
+			}
+			if (nextId == null) {
+				// no record exists, so initialize it from the maximum existing ID.  this
+				// query is executed in the current transaction so that it sees any
+				// uncommitted records.
+				final int initialId = DatabaseConnection.executeSequenceQuery(sequenceSql);
+				try {
+					DatabaseConnection.getNewTransactionTemplate().execute(new TransactionCallback<Object>() {
+						public Object doInTransaction(TransactionStatus status) {
+							queryHandler.insertIdBlock(idName, initialId + blockSize);
+							return null;
+						}
+					});
+					return initialId;
+				} catch (DataIntegrityViolationException e) {
+					// another thread or server created the record first
+				}
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("ID block for " + idName + " modified concurrently, retrying");
+			}
+		}
+		throw new IllegalStateException("Unable to reserve an ID block for " + idName + " after " + MAX_RESERVE_ATTEMPTS + " attempts");
+	}
+
+	/**
+	 * Reserve a range of IDs from an existing ID block record in a new
+	 * transaction.  Returns the first ID in the range, <code>null</code> if
+	 * no record exists, or -1 if the record was modified concurrently.
+	 */
+	private static Integer reserveExisting(final QueryHandler queryHandler, final String idName, final int blockSize) {
+		return DatabaseConnection.getNewTransactionTemplate().execute(new TransactionCallback<Integer>() {
+			public Integer doInTransaction(TransactionStatus status) {
+				Integer nextId = queryHandler.lookupIdBlock(idName);
+				if (nextId == null) {
+					return null;
+				}
+				return (queryHandler.updateIdBlock(idName, nextId, nextId + blockSize)) ? nextId : -1;
+			}
+		});
+	}
+
+	/**
+	 * Discard all reserved ranges.  This method must be called if the
+	 * database is changed or re-created.
+	 */
+	protected static void reset() {
+		ID_BLOCKS.clear();
+		tableCreateAttempted = false;
+	}
+
+	/**
+	 * A range of reserved IDs.
+	 */
+	private static class IdBlock {
+		/** The next ID to hand out. */
+		private int nextId = 0;
+		/** The first ID that is not part of the reserved range. */
+		private int limit = 0;
+	}
+}
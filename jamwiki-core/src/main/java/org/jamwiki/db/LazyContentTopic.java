@@ -0,0 +1,78 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicMetadata;
+
+/**
+ * Topic returned by topic lookups that do not read the topic content.  Most
+ * callers, such as existence checks and redirect resolution, never read the
+ * content, so it is loaded from the current topic version the first time that
+ * {@link #getTopicContent} is called.
+ */
+class LazyContentTopic extends Topic {
+
+	private static final long serialVersionUID = 1L;
+	/** Set to <code>true</code> once the topic content has been set or loaded from the current topic version. */
+	private boolean topicContentLoaded = false;
+
+	/**
+	 *
+	 */
+	LazyContentTopic(String virtualWiki, Namespace namespace, String pageName) {
+		super(virtualWiki, namespace, pageName);
+	}
+
+	/**
+	 * Create a new topic from a cached metadata record.
+	 */
+	LazyContentTopic(TopicMetadata topicMetadata) {
+		this(topicMetadata.getVirtualWiki(), Namespace.namespace(topicMetadata.getNamespaceId()), topicMetadata.getPageName());
+		this.setAdminOnly(topicMetadata.getAdminOnly());
+		this.setCurrentVersionId(topicMetadata.getCurrentVersionId());
+		this.setDeleteDate(topicMetadata.getDeleteDate());
+		this.setReadOnly(topicMetadata.getReadOnly());
+		this.setRedirectTo(topicMetadata.getRedirectTo());
+		this.setTopicId(topicMetadata.getTopicId());
+		this.setTopicType(topicMetadata.getTopicType());
+	}
+
+	/**
+	 * Return the topic content, loading the content of the current topic
+	 * version if no content has been set.
+	 */
+	public String getTopicContent() {
+		if (!this.topicContentLoaded) {
+			this.topicContentLoaded = true;
+			if (this.getCurrentVersionId() != null) {
+				super.setTopicContent(WikiBase.getDataHandler().lookupTopicContent(this.getCurrentVersionId()));
+			}
+		}
+		return super.getTopicContent();
+	}
+
+	/**
+	 *
+	 */
+	public void setTopicContent(String topicContent) {
+		super.setTopicContent(topicContent);
+		this.topicContentLoaded = true;
+	}
+}
@@ -74,6 +74,19 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 		return categories;
 	}
 
+	/**
+	 *
+	 */
+	@Override
+	public List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, Pagination pagination) {
+		if (topicTypes.isEmpty()) {
+			return new ArrayList<Category>();
+		}
+		String sql = this.formatCategoryTopicsStatement(topicTypes);
+		Object[] args = this.buildCategoryTopicsArgs(virtualWikiId, categoryName, topicTypes, pagination.getEnd(), pagination.getStart());
+		return DatabaseConnection.getJdbcTemplate().query(sql, args, new CategoryMapper(virtualWikiName));
+	}
+
 	/**
 	 *
 	 */
@@ -85,15 +98,18 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 		int index = 0;
 		if (logType == -1) {
 			sql = STATEMENT_SELECT_LOG_ITEMS;
-			args = new Object[3];
+			args = new Object[6];
 		} else {
 			sql = STATEMENT_SELECT_LOG_ITEMS_BY_TYPE;
-			args = new Object[4];
+			args = new Object[7];
 			args[index++] = logType;
 		}
 		args[index++] = virtualWikiId;
-		args[index++] = pagination.getEnd();
-		args[index++] = pagination.getStart();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekDate();
+		args[index++] = pagination.getSeekKey();
+		args[index++] = pagination.getSeekEnd();
+		args[index++] = pagination.getSeekOffset();
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
@@ -105,8 +121,11 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 		// FIXME - sort order ignored
 		Object[] args = {
 				virtualWiki,
-				pagination.getEnd(),
-				pagination.getStart()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekEnd(),
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
@@ -125,8 +144,11 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 		String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_HISTORY, params);
 		Object[] args = {
 				topicId,
-				pagination.getEnd(),
-				pagination.getStart()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekEnd(),
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
@@ -153,8 +175,11 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				virtualWiki,
 				login,
-				pagination.getEnd(),
-				pagination.getStart()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekEnd(),
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
@@ -168,8 +193,11 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				virtualWiki,
 				userDisplay,
-				pagination.getEnd(),
-				pagination.getStart()
+				pagination.getSeekDate(),
+				pagination.getSeekDate(),
+				pagination.getSeekKey(),
+				pagination.getSeekEnd(),
+				pagination.getSeekOffset()
 		};
 		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
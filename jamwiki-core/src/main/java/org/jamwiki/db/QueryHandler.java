@@ -16,6 +16,10 @@
  */
 package org.jamwiki.db;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import org.jamwiki.model.Category;
@@ -37,6 +41,7 @@ import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiGroup;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.model.WikiUserDetails;
+import org.jamwiki.utils.CacheInvalidation;
 import org.jamwiki.utils.Pagination;
 
 /**
@@ -99,6 +104,14 @@ public interface QueryHandler {
 	 */
 	String connectionValidationQuery();
 
+	/**
+	 * Delete all cache invalidation records up to and including the specified
+	 * invalidation ID.
+	 *
+	 * @param invalidationId The maximum invalidation ID to delete.
+	 */
+	void deleteCacheInvalidations(int invalidationId);
+
 	/**
 	 * Delete all authorities for a specific group.
 	 *
@@ -215,6 +228,20 @@ public interface QueryHandler {
 	 */
 	List<Category> getCategories(int virtualWikiId, String virtualWikiName, Pagination pagination);
 
+	/**
+	 * Retrieve the cache invalidations published by other wiki servers within
+	 * a range of invalidation IDs, ordered by invalidation ID.
+	 *
+	 * @param afterInvalidationId Only invalidations with an ID greater than this
+	 *  value are returned.
+	 * @param maxInvalidationId Only invalidations with an ID less than or equal
+	 *  to this value are returned.
+	 * @param nodeId Invalidations published by this node are not returned.
+	 * @return A list of cache invalidations, or an empty list if no matching
+	 *  invalidations exist.
+	 */
+	List<CacheInvalidation> getCacheInvalidations(int afterInvalidationId, int maxInvalidationId, String nodeId);
+
 	/**
 	 * Retrieve a list of all recent log items for a specific virtual wiki.
 	 *
@@ -426,6 +453,16 @@ public interface QueryHandler {
 	 */
 	List<RecentChange> getWatchlist(int virtualWikiId, int userId, Pagination pagination);
 
+	/**
+	 * Add cache invalidation records to the database so that they can be read
+	 * by other wiki servers.  Each record is assigned the next available
+	 * invalidation ID.
+	 *
+	 * @param invalidations The cache invalidations to add.
+	 * @param nodeId The ID of the wiki server publishing the invalidations.
+	 */
+	void insertCacheInvalidations(List<CacheInvalidation> invalidations, String nodeId);
+
 	/**
 	 * Add new category records for a topic to the database.  Note that this method will
 	 * fail if an existing category of the same name is already associated with the
@@ -455,6 +492,15 @@ public interface QueryHandler {
 	 */
 	void insertGroupMember(String username, int groupId);
 
+	/**
+	 * Add an ID block record to the database.  This method will fail if a
+	 * record with the same name already exists.
+	 *
+	 * @param idName The name of the ID, generally the table name.
+	 * @param nextId The first ID that has not yet been reserved.
+	 */
+	void insertIdBlock(String idName, int nextId);
+
 	/**
 	 * Add an interwiki record to the database.  Note that this method will fail if a
 	 * record with the same prefix already exists.
@@ -628,6 +674,39 @@ public interface QueryHandler {
 	 */
 	List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName);
 
+	/**
+	 * Retrieve a subset of the topics of the specified types that belong to a
+	 * category, sorted by the category sort key (if specified) and then by
+	 * topic name.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param virtualWikiName The name of the virtual wiki for the virtual wiki of
+	 *  the topic being retrieved.
+	 * @param categoryName The name of the category for which associated topics
+	 *  are to be retrieved.
+	 * @param topicTypes The types of topics to retrieve.  If this list is empty
+	 *  then no results are returned.
+	 * @param pagination A Pagination object that specifies the number of results
+	 *  and starting result offset for the result set to be retrieved.
+	 * @return A list of topics of the specified types associated with the
+	 *  category, or an empty list if no matching topics are found.
+	 */
+	List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, Pagination pagination);
+
+	/**
+	 * Count the topics that belong to a category, grouped by topic type.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the
+	 *  category being queried.
+	 * @param categoryName The name of the category for which topics are to be
+	 *  counted.
+	 * @return A map of topic type and the number of topics of that type that
+	 *  belong to the category.  Topic types with no topics in the category
+	 *  are not included in the map.
+	 */
+	Map<TopicType, Integer> lookupCategoryTopicCounts(int virtualWikiId, String categoryName);
+
 	/**
 	 * Return a map of key-value pairs corresponding to all configuration values
 	 * currently set up for the system.
@@ -644,6 +723,20 @@ public interface QueryHandler {
 	 */
 	List<Interwiki> lookupInterwikis();
 
+	/**
+	 * Return the first ID that has not yet been reserved for the given ID
+	 * name, or <code>null</code> if no ID block record exists.
+	 *
+	 * @param idName The name of the ID, generally the table name.
+	 */
+	Integer lookupIdBlock(String idName);
+
+	/**
+	 * Return the highest cache invalidation ID currently in the database, or
+	 * zero if no invalidations exist.
+	 */
+	int lookupMaxCacheInvalidationId();
+
 	/**
 	 * Retrieve a list of all current namespace objects.
 	 *
@@ -674,6 +767,22 @@ public interface QueryHandler {
 	 */
 	public Topic lookupTopicById(int topicId);
 
+	/**
+	 * Retrieve a batch of non-deleted topics for a virtual wiki, ordered by
+	 * topic ID.  This method is intended for use when iterating over all
+	 * topics in a virtual wiki, with each call retrieving the topics whose
+	 * IDs follow the last topic ID from the previous batch.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the
+	 *  topics being retrieved.
+	 * @param lastTopicId Only topics with an ID greater than this value are
+	 *  returned.  Use zero to retrieve the first batch.
+	 * @param batchSize The maximum number of topics to return.
+	 * @return A list of topics ordered by topic ID, or an empty list if no
+	 *  further topics exist.
+	 */
+	List<Topic> lookupTopicBatch(int virtualWikiId, int lastTopicId, int batchSize);
+
 	/**
 	 * Retrieve a list of all topic names of a given type within a virtual wiki.
 	 *
@@ -732,6 +841,23 @@ public interface QueryHandler {
 	 */
 	String lookupTopicName(int virtualWikiId, String virtualWikiName, Namespace namespace, String pageName);
 
+	/**
+	 * Given a group of page names in a single namespace, return the names of
+	 * the matching topics using a constant number of queries rather than one
+	 * query per page name.  Each page name is matched in the same way as by
+	 * {@link #lookupTopicName}.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param namespace The Namespace for the topics being retrieved.
+	 * @param pageNames The topic pageNames (topic names without the namespace)
+	 *  for the topics being retrieved.
+	 * @return A map of page name to topic name for every page name that matches
+	 *  a non-deleted topic.  Page names that do not match a topic are not
+	 *  included in the map.
+	 */
+	Map<String, String> lookupTopicNameBatch(int virtualWikiId, Namespace namespace, Collection<String> pageNames);
+
 	/**
 	 * Find the names for all topics that link to a specified topic.
 	 *
@@ -744,6 +870,15 @@ public interface QueryHandler {
 	 */
 	List<String[]> lookupTopicLinks(int virtualWikiId, Topic topic);
 
+	/**
+	 * Retrieve the names of all categories that a topic currently belongs to.
+	 *
+	 * @param topicId The ID of the topic being queried.
+	 * @return A list of category names, or an empty list if the topic does
+	 *  not belong to any categories.
+	 */
+	List<String> lookupTopicCategoryNames(int topicId);
+
 	/**
 	 * Find the names for all un-linked topics in the main namespace.
 	 *
@@ -785,6 +920,20 @@ public interface QueryHandler {
 	 */
 	Map<Integer, String> lookupTopicNames(int virtualWikiId, boolean includeDeleted);
 
+	/**
+	 * Retrieve the names of all topics within a virtual wiki that have a
+	 * topic version created on or after a given date, including topics that
+	 * have since been deleted.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param changedSince Only topics with a version created on or after this
+	 *  date are returned.
+	 * @return A list of the names of all matching topics.  If no results are
+	 *  found then an empty list is returned.
+	 */
+	List<String> lookupTopicNamesChanged(int virtualWikiId, Timestamp changedSince);
+
 	/**
 	 * Retrieve a result set containing all wiki file information for a given WikiFile.
 	 *
@@ -948,6 +1097,19 @@ public interface QueryHandler {
 	 */
 	public void updateConfiguration(Map<String, String> configuration);
 
+	/**
+	 * Update an ID block record, reserving all IDs lower than the new next ID.
+	 * The record is only updated if its next ID still matches the value
+	 * previously read, so two servers can never reserve the same IDs.
+	 *
+	 * @param idName The name of the ID, generally the table name.
+	 * @param previousNextId The next ID value previously read from the record.
+	 * @param nextId The new next ID value.
+	 * @return <code>true</code> if the record was updated, <code>false</code>
+	 *  if it was modified by another thread or server.
+	 */
+	boolean updateIdBlock(String idName, int previousNextId, int nextId);
+
 	/**
 	 * Add or update a namespace.  This method will add a new record if the
 	 * namespace does not already exist, otherwise it will update the existing
@@ -1098,4 +1260,34 @@ public interface QueryHandler {
 	 *  be negative when data are not an image. Result's image components may be null.
 	 */
 	public ImageData getImageVersionData(int fileVersionId, int resized);
+
+	/**
+	 * Retrieve image metadata, including the file version, size and upload
+	 * date, without reading the file data.
+	 *
+	 * @param fileId File identifier.  Ignored if a file version identifier is
+	 *  specified.
+	 * @param fileVersionId File version identifier, or zero to retrieve the
+	 *  latest version of the file.
+	 * @param resized Image width or zero for original.
+	 * @return The image metadata or null if image not found.  Result's data
+	 *  component is always null, and the file size is -1 for resized images.
+	 */
+	public ImageData getImageMetadata(int fileId, int fileVersionId, int resized);
+
+	/**
+	 * Copy the data for an image version to an output stream without loading
+	 * the entire file into memory.  The database connection is held while the
+	 * data is copied, so the output stream should be a local buffer rather
+	 * than a client connection.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @param out The stream to which the file data is copied.
+	 * @return <code>true</code> if a matching image was found, otherwise
+	 *  <code>false</code>.
+	 * @throws IOException Thrown if the data cannot be written to the output
+	 *  stream.
+	 */
+	public boolean copyImageData(int fileVersionId, int resized, OutputStream out) throws IOException;
 }
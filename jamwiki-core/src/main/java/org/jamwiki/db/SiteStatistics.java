@@ -0,0 +1,374 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
+import org.jamwiki.utils.CacheInvalidationBus;
+import org.jamwiki.utils.CacheInvalidationListener;
+import org.jamwiki.utils.WikiLogger;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory site statistics such as the number of articles, pages, files and
+ * users, used when displaying values such as <code>{{NUMBEROFARTICLES}}</code>
+ * without querying the database for every page view.  Counters are loaded
+ * from the database the first time they are needed and are then adjusted by
+ * the data handler as topics, files and users are added, deleted or
+ * undeleted.
+ *
+ * Because adjustments can be missed (for example, when data is changed
+ * directly in the database), counters are periodically reconciled against
+ * the database at the interval specified by the
+ * {@link Environment#PROP_SITE_STATISTICS_RECONCILE_INTERVAL} property.
+ * Changes made on other wiki servers are received through the
+ * {@link CacheInvalidationBus} and cause the counters for the affected
+ * virtual wiki to be reloaded on next use.
+ */
+public class SiteStatistics {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(SiteStatistics.class.getName());
+	/** Channel used to notify other wiki servers that statistics have changed. */
+	private static final String STATISTICS_CHANNEL = SiteStatistics.class.getName() + ".STATISTICS";
+	/** Key used in the statistics channel to indicate a change to the user count. */
+	private static final String USER_COUNT_KEY = "/users";
+	/** Topic counters keyed by virtual wiki name. */
+	private static final ConcurrentMap<String, TopicCounters> TOPIC_COUNTERS = new ConcurrentHashMap<String, TopicCounters>();
+	private static final UserCounter USER_COUNTER = new UserCounter();
+
+	static {
+		CacheInvalidationBus.addListener(STATISTICS_CHANNEL, new CacheInvalidationListener() {
+			public void invalidate(String key) {
+				if (key == null) {
+					SiteStatistics.reset();
+				} else if (key.equals(USER_COUNT_KEY)) {
+					USER_COUNTER.expire();
+				} else {
+					TopicCounters counters = TOPIC_COUNTERS.get(key);
+					if (counters != null) {
+						counters.expire();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * This class has only static methods and is never instantiated.
+	 */
+	private SiteStatistics() {
+	}
+
+	/**
+	 * Apply a change to the counters once the current transaction commits, or
+	 * immediately if no transaction is active, and notify other wiki servers
+	 * of the change.
+	 */
+	private static void afterCommit(final Counters counters, final int[] deltas, String channelKey) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				public void afterCommit() {
+					counters.adjust(deltas);
+				}
+			});
+		} else {
+			counters.adjust(deltas);
+		}
+		CacheInvalidationBus.publish(STATISTICS_CHANNEL, channelKey);
+	}
+
+	/**
+	 * Return the number of non-redirect, non-deleted topics in the main
+	 * namespace of a virtual wiki.
+	 *
+	 * @param virtualWiki The virtual wiki for which the count is being
+	 *  returned.
+	 * @return The number of articles in the virtual wiki.
+	 */
+	public static int getArticleCount(String virtualWiki) {
+		return topicCounters(virtualWiki).current()[TopicCounters.ARTICLES];
+	}
+
+	/**
+	 * Return the number of non-deleted files in a virtual wiki.
+	 *
+	 * @param virtualWiki The virtual wiki for which the count is being
+	 *  returned.
+	 * @return The number of files in the virtual wiki.
+	 */
+	public static int getFileCount(String virtualWiki) {
+		return topicCounters(virtualWiki).current()[TopicCounters.FILES];
+	}
+
+	/**
+	 * Return the number of non-redirect, non-deleted topics in all namespaces
+	 * of a virtual wiki, including comments pages and templates.
+	 *
+	 * @param virtualWiki The virtual wiki for which the count is being
+	 *  returned.
+	 * @return The number of pages in the virtual wiki.
+	 */
+	public static int getPageCount(String virtualWiki) {
+		return topicCounters(virtualWiki).current()[TopicCounters.PAGES];
+	}
+
+	/**
+	 * Return the number of registered wiki users.
+	 *
+	 * @return The number of registered wiki users.
+	 */
+	public static int getUserCount() {
+		return USER_COUNTER.current()[0];
+	}
+
+	/**
+	 * Determine whether a topic is included in the article count.
+	 */
+	private static boolean isArticle(Topic topic) {
+		return (isPage(topic) && topic.getNamespace().getId().equals(Namespace.MAIN_ID));
+	}
+
+	/**
+	 * Determine whether a topic is included in the page count.
+	 */
+	private static boolean isPage(Topic topic) {
+		return (topic != null && topic.getDeleteDate() == null && topic.getTopicType() != TopicType.REDIRECT);
+	}
+
+	/**
+	 * Update the counters after a new file is added.
+	 *
+	 * @param virtualWiki The virtual wiki of the file being added.
+	 */
+	protected static void recordFileAdded(String virtualWiki) {
+		afterCommit(topicCounters(virtualWiki), new int[] {0, 0, 1}, virtualWiki);
+	}
+
+	/**
+	 * Update the counters after a topic is added or updated, such as when a
+	 * topic is created, deleted, undeleted, moved or converted to a redirect.
+	 * Changes that do not affect whether the topic is counted do not change
+	 * the counters.
+	 *
+	 * @param previous The topic prior to being updated, or <code>null</code>
+	 *  if the topic is being added.
+	 * @param topic The topic after being added or updated.
+	 */
+	protected static void recordTopicChange(Topic previous, Topic topic) {
+		int articles = (isArticle(topic) ? 1 : 0) - (isArticle(previous) ? 1 : 0);
+		int pages = (isPage(topic) ? 1 : 0) - (isPage(previous) ? 1 : 0);
+		if (articles == 0 && pages == 0) {
+			return;
+		}
+		afterCommit(topicCounters(topic.getVirtualWiki()), new int[] {articles, pages, 0}, topic.getVirtualWiki());
+	}
+
+	/**
+	 * Update the counters after a new user is added.
+	 */
+	protected static void recordUserAdded() {
+		afterCommit(USER_COUNTER, new int[] {1}, USER_COUNT_KEY);
+	}
+
+	/**
+	 * Discard all counters.  This method must be called if the database is
+	 * changed or re-created.
+	 */
+	protected static void reset() {
+		TOPIC_COUNTERS.clear();
+		USER_COUNTER.expire();
+	}
+
+	/**
+	 * Return the counters for a virtual wiki, creating them if necessary.
+	 */
+	private static TopicCounters topicCounters(String virtualWiki) {
+		TopicCounters counters = TOPIC_COUNTERS.get(virtualWiki);
+		if (counters == null) {
+			counters = new TopicCounters(virtualWiki);
+			TopicCounters existing = TOPIC_COUNTERS.putIfAbsent(virtualWiki, counters);
+			if (existing != null) {
+				counters = existing;
+			}
+		}
+		return counters;
+	}
+
+	/**
+	 * A set of counters that is loaded from the database and then adjusted
+	 * incrementally.
+	 */
+	private abstract static class Counters {
+
+		private final AtomicInteger[] values;
+		/** Time at which the values were last loaded from the database, or 0 if they must be loaded before use. */
+		private volatile long reconciled = 0;
+		private final AtomicBoolean reconciling = new AtomicBoolean(false);
+
+		/**
+		 *
+		 */
+		Counters(int size) {
+			this.values = new AtomicInteger[size];
+			for (int i = 0; i < size; i++) {
+				this.values[i] = new AtomicInteger();
+			}
+		}
+
+		/**
+		 * Apply changes to the counters.  If the counters have not yet been
+		 * loaded the changes are ignored, since they will be reflected in the
+		 * values loaded from the database.
+		 */
+		void adjust(int[] deltas) {
+			if (this.reconciled == 0) {
+				return;
+			}
+			for (int i = 0; i < deltas.length; i++) {
+				this.values[i].addAndGet(deltas[i]);
+			}
+		}
+
+		/**
+		 * Return the current counter values, loading them from the database if
+		 * they have not yet been loaded or are due to be reconciled.  While one
+		 * thread reconciles stale values other threads continue to use the
+		 * existing values.
+		 */
+		int[] current() {
+			long interval = Environment.getIntValue(Environment.PROP_SITE_STATISTICS_RECONCILE_INTERVAL) * 1000L;
+			if (this.reconciled == 0) {
+				synchronized (this) {
+					if (this.reconciled == 0) {
+						this.reconcile();
+					}
+				}
+			} else if (interval > 0 && (System.currentTimeMillis() - this.reconciled) > interval && this.reconciling.compareAndSet(false, true)) {
+				try {
+					this.reconcile();
+				} finally {
+					this.reconciling.set(false);
+				}
+			}
+			int[] results = new int[this.values.length];
+			for (int i = 0; i < results.length; i++) {
+				results[i] = this.values[i].get();
+			}
+			return results;
+		}
+
+		/**
+		 * Force the counters to be reloaded from the database on next use.
+		 */
+		void expire() {
+			this.reconciled = 0;
+		}
+
+		/**
+		 * Query the database for the current counter values.
+		 */
+		abstract int[] load();
+
+		/**
+		 * Replace the counter values with values loaded from the database.
+		 * Adjustments made while the values are being loaded may be lost or
+		 * applied twice, and will be corrected by the next reconciliation.
+		 */
+		private void reconcile() {
+			int[] loaded = this.load();
+			for (int i = 0; i < loaded.length; i++) {
+				int previous = this.values[i].getAndSet(loaded[i]);
+				if (this.reconciled != 0 && previous != loaded[i] && logger.isDebugEnabled()) {
+					logger.debug("Reconciled " + this + " statistic " + i + " from " + previous + " to " + loaded[i]);
+				}
+			}
+			this.reconciled = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Article, page and file counters for a single virtual wiki.
+	 */
+	private static class TopicCounters extends Counters {
+
+		private static final int ARTICLES = 0;
+		private static final int PAGES = 1;
+		private static final int FILES = 2;
+		private final String virtualWiki;
+
+		/**
+		 *
+		 */
+		TopicCounters(String virtualWiki) {
+			super(3);
+			this.virtualWiki = virtualWiki;
+		}
+
+		/**
+		 *
+		 */
+		int[] load() {
+			int[] results = new int[3];
+			results[ARTICLES] = WikiBase.getDataHandler().lookupTopicCount(this.virtualWiki, Namespace.MAIN_ID);
+			results[PAGES] = WikiBase.getDataHandler().lookupTopicCount(this.virtualWiki, null);
+			results[FILES] = WikiBase.getDataHandler().lookupWikiFileCount(this.virtualWiki);
+			return results;
+		}
+
+		/**
+		 *
+		 */
+		public String toString() {
+			return this.virtualWiki;
+		}
+	}
+
+	/**
+	 * Counter for the number of registered users.
+	 */
+	private static class UserCounter extends Counters {
+
+		/**
+		 *
+		 */
+		UserCounter() {
+			super(1);
+		}
+
+		/**
+		 *
+		 */
+		int[] load() {
+			return new int[] {WikiBase.getDataHandler().lookupWikiUserCount()};
+		}
+
+		/**
+		 *
+		 */
+		public String toString() {
+			return "users";
+		}
+	}
+}
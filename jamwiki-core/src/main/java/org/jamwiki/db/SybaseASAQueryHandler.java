@@ -16,8 +16,12 @@
  */
 package org.jamwiki.db;
 
+import java.util.List;
 import java.util.Properties;
 import org.jamwiki.Environment;
+import org.jamwiki.model.Category;
+import org.jamwiki.model.TopicType;
+import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -38,4 +42,12 @@ public class SybaseASAQueryHandler extends AnsiQueryHandler {
 		Properties props = Environment.loadProperties(SQL_PROPERTY_FILE_NAME, defaults);
 		super.init(props);
 	}
+
+	/**
+	 *
+	 */
+	@Override
+	public List<Category> lookupCategoryTopics(int virtualWikiId, String virtualWikiName, String categoryName, List<TopicType> topicTypes, Pagination pagination) {
+		return this.lookupCategoryTopicsWithoutLimit(virtualWikiId, virtualWikiName, categoryName, topicTypes, pagination);
+	}
 }
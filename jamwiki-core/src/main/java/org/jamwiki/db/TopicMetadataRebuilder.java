@@ -0,0 +1,482 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.WikiException;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.parser.ParserException;
+import org.jamwiki.parser.ParserOutput;
+import org.jamwiki.parser.ParserUtil;
+import org.jamwiki.utils.WikiLogger;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+/**
+ * Background job that regenerates the category and link records for all wiki
+ * topics.  Topics are parsed by a pool of worker threads, the size of which is
+ * specified by the {@link Environment#PROP_METADATA_REBUILD_THREADS} property,
+ * and the resulting metadata is written in groups of topics, each group in a
+ * single transaction.  While one group is being written the next group is
+ * parsed.
+ *
+ * After each group is written the job's progress is saved to a checkpoint file
+ * in the JAMWiki system directory.  If the job is interrupted, for example by a
+ * server restart, starting it again resumes after the last group that was
+ * written.  Only one job may run at a time.
+ */
+public class TopicMetadataRebuilder implements Runnable {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicMetadataRebuilder.class.getName());
+	/** Name of the checkpoint file, relative to the JAMWiki system directory. */
+	private static final String CHECKPOINT_FILE_NAME = "topic-metadata-rebuild.properties";
+	private static final String CHECKPOINT_COMPLETED_VIRTUAL_WIKIS = "completed-virtual-wikis";
+	private static final String CHECKPOINT_TOPIC_ID = "topic-id";
+	private static final String CHECKPOINT_VIRTUAL_WIKI = "virtual-wiki";
+	/** Number of topics written in each transaction. */
+	private static final int TOPICS_PER_TRANSACTION = 50;
+	/** The most recently started job, or <code>null</code> if no job has been started. */
+	private static TopicMetadataRebuilder currentJob = null;
+
+	private final File checkpointFile;
+	private final Properties checkpoint = new Properties();
+	private volatile Date endDate;
+	private final AtomicInteger numErrors = new AtomicInteger();
+	private final AtomicInteger numSkipped = new AtomicInteger();
+	private final AtomicInteger numUpdated = new AtomicInteger();
+	private final Date startDate = new Date();
+	private Thread thread;
+	private volatile int totalTopics;
+	private volatile String virtualWiki;
+
+	/**
+	 *
+	 */
+	private TopicMetadataRebuilder() {
+		this.checkpointFile = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), CHECKPOINT_FILE_NAME);
+	}
+
+	/**
+	 * Return the most recently started job, which may still be running or may
+	 * have completed.
+	 *
+	 * @return The most recently started job, or <code>null</code> if no job
+	 *  has been started since the wiki was started.
+	 */
+	public static synchronized TopicMetadataRebuilder getCurrentJob() {
+		return currentJob;
+	}
+
+	/**
+	 * Start a new job in a background thread, resuming from the last
+	 * checkpoint if a previous job did not complete.
+	 *
+	 * @return <code>true</code> if a new job was started, <code>false</code>
+	 *  if a job is already running.
+	 */
+	public static synchronized boolean start() {
+		if (currentJob != null && currentJob.isRunning()) {
+			return false;
+		}
+		currentJob = new TopicMetadataRebuilder();
+		currentJob.thread = new Thread(currentJob, "jamwiki-metadata-rebuild");
+		currentJob.thread.setDaemon(true);
+		currentJob.thread.start();
+		return true;
+	}
+
+	/**
+	 * Wait for the job to complete.
+	 *
+	 * @param millis The maximum time to wait, in milliseconds.
+	 * @return <code>true</code> if the job has completed.
+	 * @throws InterruptedException Thrown if the current thread is interrupted
+	 *  while waiting.
+	 */
+	public boolean awaitCompletion(long millis) throws InterruptedException {
+		this.thread.join(millis);
+		return !this.isRunning();
+	}
+
+	/**
+	 * Return the time at which the job completed, or <code>null</code> if the
+	 * job is still running.
+	 */
+	public Date getEndDate() {
+		return this.endDate;
+	}
+
+	/**
+	 * Return the number of topics whose metadata could not be updated.
+	 */
+	public int getNumErrors() {
+		return this.numErrors.get();
+	}
+
+	/**
+	 * Return the number of topics processed by this job, including topics
+	 * that could not be updated but not topics skipped because they were
+	 * processed by a previous job.
+	 */
+	public int getNumProcessed() {
+		return this.numUpdated.get() + this.numErrors.get();
+	}
+
+	/**
+	 * Return the number of topics skipped because they were processed by a
+	 * previous job that did not complete.
+	 */
+	public int getNumSkipped() {
+		return this.numSkipped.get();
+	}
+
+	/**
+	 * Return the number of topics whose metadata was successfully updated.
+	 */
+	public int getNumUpdated() {
+		return this.numUpdated.get();
+	}
+
+	/**
+	 * Return the time at which the job was started.
+	 */
+	public Date getStartDate() {
+		return this.startDate;
+	}
+
+	/**
+	 * Return the number of topics processed per second by this job.
+	 */
+	public int getTopicsPerSecond() {
+		long end = (this.endDate != null) ? this.endDate.getTime() : System.currentTimeMillis();
+		long elapsed = Math.max(end - this.startDate.getTime(), 1);
+		return (int)((this.getNumProcessed() * 1000L) / elapsed);
+	}
+
+	/**
+	 * Return the total number of topics in all virtual wikis, or zero if the
+	 * topics have not yet been counted.
+	 */
+	public int getTotalTopics() {
+		return this.totalTopics;
+	}
+
+	/**
+	 * Return the name of the virtual wiki currently being processed, or
+	 * <code>null</code> if the job is not running.
+	 */
+	public String getVirtualWiki() {
+		return this.virtualWiki;
+	}
+
+	/**
+	 * Return <code>true</code> if the job has not yet completed.
+	 */
+	public boolean isRunning() {
+		return (this.endDate == null);
+	}
+
+	/**
+	 * Regenerate metadata for all topics, saving a checkpoint after each
+	 * group of topics is written.
+	 */
+	public void run() {
+		logger.info("Starting topic metadata rebuild");
+		int threads = Math.max(Environment.getIntValue(Environment.PROP_METADATA_REBUILD_THREADS), 1);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jamwiki-metadata-parser-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		boolean completed = false;
+		try {
+			this.readCheckpoint();
+			Set<String> completedVirtualWikis = this.completedVirtualWikis();
+			Map<String, Map<Integer, String>> topicNames = new LinkedHashMap<String, Map<Integer, String>>();
+			int total = 0;
+			for (VirtualWiki virtualWiki : WikiBase.getDataHandler().getVirtualWikiList()) {
+				// sort by topic ID so that the checkpoint remains valid as topics are added
+				Map<Integer, String> names = new TreeMap<Integer, String>(WikiBase.getDataHandler().queryHandler().lookupTopicNames(virtualWiki.getVirtualWikiId(), false));
+				topicNames.put(virtualWiki.getName(), names);
+				total += names.size();
+			}
+			this.totalTopics = total;
+			for (Map.Entry<String, Map<Integer, String>> entry : topicNames.entrySet()) {
+				if (completedVirtualWikis.contains(entry.getKey())) {
+					this.numSkipped.addAndGet(entry.getValue().size());
+					continue;
+				}
+				this.virtualWiki = entry.getKey();
+				this.rebuildVirtualWiki(executor, entry.getKey(), entry.getValue());
+				this.markCompleted(entry.getKey());
+			}
+			completed = true;
+		} catch (Exception e) {
+			logger.error("Failure while regenerating topic metadata.  Start the job again to resume from the last checkpoint.", e);
+		} finally {
+			executor.shutdownNow();
+			this.virtualWiki = null;
+			if (completed) {
+				this.clearCheckpoint();
+			}
+			this.endDate = new Date();
+		}
+		logger.info("Topic metadata rebuild " + ((completed) ? "completed" : "stopped") + ": " + this.getNumUpdated() + " topics updated, " + this.getNumErrors() + " errors, " + this.getNumSkipped() + " skipped (" + this.getTopicsPerSecond() + " topics/s)");
+	}
+
+	/**
+	 * Delete the checkpoint file after the job completes.
+	 */
+	private void clearCheckpoint() {
+		if (this.checkpointFile.exists() && !this.checkpointFile.delete()) {
+			logger.warn("Unable to delete topic metadata checkpoint file " + this.checkpointFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Return the virtual wikis recorded as complete in the checkpoint.
+	 */
+	private Set<String> completedVirtualWikis() {
+		Set<String> completed = new HashSet<String>();
+		String value = this.checkpoint.getProperty(CHECKPOINT_COMPLETED_VIRTUAL_WIKIS);
+		if (!StringUtils.isBlank(value)) {
+			completed.addAll(Arrays.asList(StringUtils.split(value, ',')));
+		}
+		return completed;
+	}
+
+	/**
+	 * Record that all topics in a virtual wiki have been processed.
+	 */
+	private void markCompleted(String virtualWiki) {
+		Set<String> completed = this.completedVirtualWikis();
+		completed.add(virtualWiki);
+		this.checkpoint.setProperty(CHECKPOINT_COMPLETED_VIRTUAL_WIKIS, StringUtils.join(completed, ','));
+		this.checkpoint.remove(CHECKPOINT_VIRTUAL_WIKI);
+		this.checkpoint.remove(CHECKPOINT_TOPIC_ID);
+		this.writeCheckpoint();
+	}
+
+	/**
+	 * Load the checkpoint from a previous job, if any.
+	 */
+	private void readCheckpoint() {
+		if (!this.checkpointFile.exists()) {
+			return;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(this.checkpointFile);
+			this.checkpoint.load(in);
+			logger.info("Resuming topic metadata rebuild from checkpoint " + this.checkpoint);
+		} catch (IOException e) {
+			logger.warn("Unable to read topic metadata checkpoint file " + this.checkpointFile.getAbsolutePath(), e);
+			this.checkpoint.clear();
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Regenerate metadata for all topics in a virtual wiki.  Each group of
+	 * topics is submitted for parsing before the previous group is written.
+	 */
+	private void rebuildVirtualWiki(ThreadPoolExecutor executor, final String virtualWiki, Map<Integer, String> topicNames) throws InterruptedException {
+		int resumeTopicId = 0;
+		if (virtualWiki.equals(this.checkpoint.getProperty(CHECKPOINT_VIRTUAL_WIKI))) {
+			resumeTopicId = Integer.parseInt(this.checkpoint.getProperty(CHECKPOINT_TOPIC_ID));
+		}
+		List<Future<ParsedTopic>> previous = null;
+		List<Future<ParsedTopic>> current = new ArrayList<Future<ParsedTopic>>();
+		// topics are submitted in topic ID order, so the last topic in each group has the largest ID
+		int previousTopicId = 0;
+		int lastTopicId = 0;
+		for (final Map.Entry<Integer, String> entry : topicNames.entrySet()) {
+			if (entry.getKey() <= resumeTopicId) {
+				this.numSkipped.incrementAndGet();
+				continue;
+			}
+			current.add(executor.submit(new Callable<ParsedTopic>() {
+				public ParsedTopic call() {
+					return parseTopic(virtualWiki, entry.getValue());
+				}
+			}));
+			lastTopicId = entry.getKey();
+			if (current.size() >= TOPICS_PER_TRANSACTION) {
+				if (previous != null) {
+					this.writeTopics(virtualWiki, previous, previousTopicId);
+				}
+				previous = current;
+				previousTopicId = lastTopicId;
+				current = new ArrayList<Future<ParsedTopic>>();
+			}
+		}
+		if (previous != null) {
+			this.writeTopics(virtualWiki, previous, previousTopicId);
+		}
+		if (!current.isEmpty()) {
+			this.writeTopics(virtualWiki, current, lastTopicId);
+		}
+	}
+
+	/**
+	 * Look up and parse a topic.  This method is called by the worker threads.
+	 *
+	 * @return The parsed topic, or <code>null</code> if the topic could not be
+	 *  parsed.
+	 */
+	private ParsedTopic parseTopic(String virtualWiki, String topicName) {
+		Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+		if (topic == null) {
+			logger.warn("Invalid topic record found, possible database integrity issue: " + virtualWiki + " / " + topicName);
+			return null;
+		}
+		try {
+			ParserOutput parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki, topicName);
+			return new ParsedTopic(topic, parserOutput);
+		} catch (ParserException e) {
+			logger.error("Failure while regenerating topic metadata for " + virtualWiki + " / " + topicName + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Write the metadata for a group of parsed topics in a single transaction
+	 * and then save a checkpoint recording the largest topic ID in the group.
+	 * If the transaction fails then each topic is written separately so that
+	 * a single bad topic does not prevent the rest of the group from being
+	 * updated.
+	 */
+	private void writeTopics(String virtualWiki, List<Future<ParsedTopic>> futures, int lastTopicId) throws InterruptedException {
+		final List<ParsedTopic> parsedTopics = new ArrayList<ParsedTopic>();
+		for (Future<ParsedTopic> future : futures) {
+			ParsedTopic parsedTopic = null;
+			try {
+				parsedTopic = future.get();
+			} catch (ExecutionException e) {
+				logger.error("Failure while regenerating topic metadata", e.getCause());
+			}
+			if (parsedTopic == null) {
+				this.numErrors.incrementAndGet();
+			} else {
+				parsedTopics.add(parsedTopic);
+			}
+		}
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						for (ParsedTopic parsedTopic : parsedTopics) {
+							try {
+								parsedTopic.write();
+							} catch (WikiException e) {
+								status.setRollbackOnly();
+								throw new TransactionRuntimeException(e);
+							}
+						}
+					}
+				}
+			);
+			this.numUpdated.addAndGet(parsedTopics.size());
+		} catch (RuntimeException e) {
+			logger.warn("Failure while writing metadata for a group of topics, retrying topics individually: " + e.getMessage());
+			for (ParsedTopic parsedTopic : parsedTopics) {
+				try {
+					parsedTopic.write();
+					this.numUpdated.incrementAndGet();
+				} catch (Exception ex) {
+					logger.error("Failure while regenerating topic metadata for " + virtualWiki + " / " + parsedTopic.topic.getName() + ": " + ex.getMessage());
+					this.numErrors.incrementAndGet();
+				}
+			}
+		}
+		this.checkpoint.setProperty(CHECKPOINT_VIRTUAL_WIKI, virtualWiki);
+		this.checkpoint.setProperty(CHECKPOINT_TOPIC_ID, Integer.toString(lastTopicId));
+		this.writeCheckpoint();
+	}
+
+	/**
+	 * Save the checkpoint file.
+	 */
+	private void writeCheckpoint() {
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(this.checkpointFile);
+			this.checkpoint.store(out, "JAMWiki topic metadata rebuild checkpoint");
+		} catch (IOException e) {
+			logger.warn("Unable to write topic metadata checkpoint file " + this.checkpointFile.getAbsolutePath(), e);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * A topic and the metadata produced by parsing it.
+	 */
+	private static class ParsedTopic {
+
+		private final ParserOutput parserOutput;
+		private final Topic topic;
+
+		/**
+		 *
+		 */
+		ParsedTopic(Topic topic, ParserOutput parserOutput) {
+			this.topic = topic;
+			this.parserOutput = parserOutput;
+		}
+
+		/**
+		 * Write the topic's category and link records.  The topic record itself
+		 * is not written since it may have been modified after it was parsed.
+		 */
+		void write() throws WikiException {
+			WikiBase.getDataHandler().writeTopicMetadata(this.topic.getTopicId(), this.parserOutput.getCategories(), this.parserOutput.getLinks());
+		}
+	}
+}
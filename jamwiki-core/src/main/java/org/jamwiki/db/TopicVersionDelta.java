@@ -0,0 +1,308 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.utils.MyersDiff;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Utility methods for storing topic version content as a compressed delta
+ * against an older version of the same topic.  Delta content is stored in the
+ * same column as full content using the format
+ * <code>{jamwiki-delta:baseVersionId:depth:checksum}payload</code>, where the
+ * payload is a Base64-encoded, deflated list of line-based copy, skip and
+ * insert operations that transform the base version content into the delta
+ * version content, and the depth is the number of deltas that must be applied
+ * to the nearest full snapshot in order to rebuild the version.
+ *
+ * Since a topic may legitimately contain text that resembles a delta header,
+ * content is only treated as a delta if the payload can be applied to the base
+ * version and the result matches the checksum stored in the header.
+ */
+class TopicVersionDelta {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicVersionDelta.class.getName());
+	private static final String DELTA_PREFIX = "{jamwiki-delta:";
+	private static final String DELTA_SUFFIX = "}";
+	/**
+	 * Maximum number of line insertions and deletions for which a delta will be
+	 * generated.  Versions that differ by more than this amount are stored in full
+	 * since the delta would offer little savings and the diff would be expensive.
+	 */
+	private static final int MAX_EDIT_DISTANCE = 1000;
+	private static final byte OP_COPY = 1;
+	private static final byte OP_INSERT = 2;
+	private static final byte OP_SKIP = 3;
+
+	/**
+	 *
+	 */
+	private TopicVersionDelta() {
+	}
+
+	/**
+	 * Given topic version content, return the ID of the version that the content
+	 * is a delta against, or -1 if the content does not appear to be a delta.
+	 * Note that a return value other than -1 does not guarantee that the content is
+	 * actually a delta; use {@link #decode} to verify.
+	 */
+	protected static int baseTopicVersionId(String content) {
+		DeltaHeader header = DeltaHeader.parse(content);
+		return (header != null) ? header.baseTopicVersionId : -1;
+	}
+
+	/**
+	 * Compute a CRC32 checksum for the UTF-8 bytes of the given content.
+	 */
+	private static long checksum(String content) throws UnsupportedEncodingException {
+		CRC32 crc = new CRC32();
+		crc.update(content.getBytes("UTF-8"));
+		return crc.getValue();
+	}
+
+	/**
+	 * Apply delta-encoded content to the content of its base version, returning
+	 * the full content of the delta version.
+	 *
+	 * @param baseContent The full content of the base topic version.
+	 * @param delta The delta-encoded content of a topic version.
+	 * @return The full content of the topic version, or <code>null</code> if the
+	 *  delta content is not a valid delta against the base content.
+	 */
+	protected static String decode(String baseContent, String delta) {
+		DeltaHeader header = DeltaHeader.parse(delta);
+		if (header == null || baseContent == null) {
+			return null;
+		}
+		try {
+			List<String> baseLines = splitLines(baseContent);
+			StringBuilder result = new StringBuilder(baseContent.length());
+			byte[] payload = Base64.decodeBase64(delta.substring(header.payloadStart));
+			DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(payload)));
+			int position = 0;
+			int op;
+			int count;
+			while ((op = in.read()) != -1) {
+				count = in.readInt();
+				if (count < 0) {
+					return null;
+				}
+				if (op == OP_INSERT) {
+					byte[] bytes = new byte[count];
+					in.readFully(bytes);
+					result.append(new String(bytes, "UTF-8"));
+				} else if (op == OP_COPY || op == OP_SKIP) {
+					if (position + count > baseLines.size()) {
+						return null;
+					}
+					for (int i = position; op == OP_COPY && i < position + count; i++) {
+						result.append(baseLines.get(i));
+					}
+					position += count;
+				} else {
+					return null;
+				}
+			}
+			if (position != baseLines.size()) {
+				return null;
+			}
+			String content = result.toString();
+			return (checksum(content) == header.checksum) ? content : null;
+		} catch (IOException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Topic version content is not a valid delta against version " + header.baseTopicVersionId + ": " + e.getMessage());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Given topic version content, return the number of deltas that must be
+	 * applied to a full snapshot in order to rebuild the version, or zero if the
+	 * content does not appear to be a delta.
+	 */
+	protected static int depth(String content) {
+		DeltaHeader header = DeltaHeader.parse(content);
+		return (header != null) ? header.depth : 0;
+	}
+
+	/**
+	 * Generate delta-encoded content that can be used to rebuild a topic version
+	 * from the content of its base version.
+	 *
+	 * @param baseTopicVersionId The ID of the base topic version.
+	 * @param depth The number of deltas that must be applied to a full snapshot
+	 *  in order to rebuild the version, including this delta.
+	 * @param baseContent The full content of the base topic version.
+	 * @param content The full content of the topic version being encoded.
+	 * @return The delta-encoded content, or <code>null</code> if the versions are
+	 *  too different to encode, or if the encoded delta would not be smaller than
+	 *  the full content.
+	 */
+	protected static String encode(int baseTopicVersionId, int depth, String baseContent, String content) {
+		if (baseContent == null || content == null) {
+			return null;
+		}
+		List<String> baseLines = splitLines(baseContent);
+		List<String> lines = splitLines(content);
+		Map<String, Integer> lineIds = new HashMap<String, Integer>();
+		int[] a = lineIds(baseLines, lineIds);
+		int[] b = lineIds(lines, lineIds);
+		// line comparisons use the shared Myers engine, which also trims common
+		// leading and trailing lines
+		List<MyersDiff.Change> changes = MyersDiff.diff(a, b, MAX_EDIT_DISTANCE);
+		if (changes == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+			int position = 0;
+			for (MyersDiff.Change change : changes) {
+				writeCopy(out, change.getDeletedStart() - position);
+				if (change.getDeletedCount() > 0) {
+					out.writeByte(OP_SKIP);
+					out.writeInt(change.getDeletedCount());
+				}
+				if (change.getAddedCount() > 0) {
+					StringBuilder inserted = new StringBuilder();
+					for (int i = change.getAddedStart(); i < change.getAddedStart() + change.getAddedCount(); i++) {
+						inserted.append(lines.get(i));
+					}
+					byte[] insertedBytes = inserted.toString().getBytes("UTF-8");
+					out.writeByte(OP_INSERT);
+					out.writeInt(insertedBytes.length);
+					out.write(insertedBytes);
+				}
+				position = change.getDeletedStart() + change.getDeletedCount();
+			}
+			writeCopy(out, a.length - position);
+			out.close();
+			StringBuilder delta = new StringBuilder();
+			delta.append(DELTA_PREFIX).append(baseTopicVersionId);
+			delta.append(':').append(depth);
+			delta.append(':').append(Long.toHexString(checksum(content)));
+			delta.append(DELTA_SUFFIX);
+			delta.append(Base64.encodeBase64String(bytes.toByteArray()));
+			return (delta.length() < content.length()) ? delta.toString() : null;
+		} catch (IOException e) {
+			// should never happen when writing to a byte array
+			logger.warn("Failure while generating topic version delta", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Convert a list of lines into an array of line IDs, where identical lines
+	 * are assigned the same ID.
+	 */
+	private static int[] lineIds(List<String> lines, Map<String, Integer> lineIds) {
+		int[] result = new int[lines.size()];
+		Integer lineId;
+		for (int i = 0; i < result.length; i++) {
+			lineId = lineIds.get(lines.get(i));
+			if (lineId == null) {
+				lineId = lineIds.size();
+				lineIds.put(lines.get(i), lineId);
+			}
+			result[i] = lineId;
+		}
+		return result;
+	}
+
+	/**
+	 * Split content into lines, retaining the line terminator (if any) at the
+	 * end of each line so that the content can be rebuilt exactly.
+	 */
+	private static List<String> splitLines(String content) {
+		List<String> lines = new ArrayList<String>();
+		int start = 0;
+		int position;
+		while ((position = content.indexOf('\n', start)) != -1) {
+			lines.add(content.substring(start, position + 1));
+			start = position + 1;
+		}
+		if (start < content.length()) {
+			lines.add(content.substring(start));
+		}
+		return lines;
+	}
+
+	/**
+	 *
+	 */
+	private static void writeCopy(DataOutputStream out, int count) throws IOException {
+		if (count > 0) {
+			out.writeByte(OP_COPY);
+			out.writeInt(count);
+		}
+	}
+
+	/**
+	 * Parsed representation of the header of delta-encoded content.
+	 */
+	private static class DeltaHeader {
+
+		private int baseTopicVersionId;
+		private long checksum;
+		private int depth;
+		private int payloadStart;
+
+		/**
+		 * Parse the delta header from topic version content, returning
+		 * <code>null</code> if the content does not start with a valid header.
+		 */
+		private static DeltaHeader parse(String content) {
+			if (content == null || !content.startsWith(DELTA_PREFIX)) {
+				return null;
+			}
+			int end = content.indexOf(DELTA_SUFFIX, DELTA_PREFIX.length());
+			if (end == -1) {
+				return null;
+			}
+			String[] fields = content.substring(DELTA_PREFIX.length(), end).split(":");
+			if (fields.length != 3 || !StringUtils.isNumeric(fields[0]) || !StringUtils.isNumeric(fields[1]) || fields[0].length() > 9 || fields[1].length() > 9) {
+				return null;
+			}
+			DeltaHeader header = new DeltaHeader();
+			try {
+				header.checksum = Long.parseLong(fields[2], 16);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			header.baseTopicVersionId = Integer.parseInt(fields[0]);
+			header.depth = Integer.parseInt(fields[1]);
+			header.payloadStart = end + DELTA_SUFFIX.length();
+			return (header.baseTopicVersionId > 0 && header.depth > 0) ? header : null;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.jamwiki.model.UserBlock;
+import org.jamwiki.utils.IpAddressRange;
+import org.jamwiki.utils.IpPrefixTrie;
+
+/**
+ * Immutable index of active user blocks.  Blocks for wiki users are indexed by
+ * user ID, and blocks for IP addresses and CIDR address ranges are indexed
+ * using an {@link IpPrefixTrie}, so checking whether a request is blocked
+ * takes time proportional to the number of address bits rather than to the
+ * number of blocks.
+ */
+class UserBlockIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/** Blocks for IP addresses and address ranges. */
+	private final IpPrefixTrie<UserBlock> ipBlocks = new IpPrefixTrie<UserBlock>();
+	/** The earliest end date of any block in the index, or Long.MAX_VALUE if no block expires. */
+	private final long nextExpiration;
+	/** All blocks, keyed by user ID or IP address / address range. */
+	private final Map<Object, UserBlock> userBlocks = new LinkedHashMap<Object, UserBlock>();
+
+	/**
+	 * Create an index of the given blocks.
+	 *
+	 * @param blocks The blocks to index.  Blocks that have already expired are
+	 *  not included in the index.
+	 */
+	UserBlockIndex(List<UserBlock> blocks) {
+		long expiration = Long.MAX_VALUE;
+		if (blocks != null) {
+			for (UserBlock userBlock : blocks) {
+				if (userBlock.isExpired()) {
+					continue;
+				}
+				if (userBlock.getWikiUserId() != null) {
+					this.userBlocks.put(userBlock.getWikiUserId(), userBlock);
+				}
+				if (userBlock.getIpAddress() != null) {
+					this.userBlocks.put(userBlock.getIpAddress(), userBlock);
+					IpAddressRange range = IpAddressRange.parse(userBlock.getIpAddress());
+					if (range != null) {
+						this.ipBlocks.add(range, userBlock);
+					}
+				}
+				if (userBlock.getBlockEndDate() != null) {
+					expiration = Math.min(expiration, userBlock.getBlockEndDate().getTime());
+				}
+			}
+		}
+		this.nextExpiration = expiration;
+	}
+
+	/**
+	 * Return the time at which the earliest block in the index expires, or
+	 * <code>Long.MAX_VALUE</code> if no block in the index expires.
+	 */
+	long getNextExpiration() {
+		return this.nextExpiration;
+	}
+
+	/**
+	 * Return an unmodifiable map of all blocks in the index, keyed by user ID
+	 * or by IP address or address range.
+	 */
+	Map<Object, UserBlock> getUserBlocks() {
+		return Collections.unmodifiableMap(this.userBlocks);
+	}
+
+	/**
+	 * Find an active block for a user ID or IP address.
+	 *
+	 * @param wikiUserId The wiki user ID, or <code>null</code> if the search is
+	 *  by IP address only.
+	 * @param ipAddress An IP address or address range, or <code>null</code> if
+	 *  the search is by user ID only.  If an address range is specified then
+	 *  only blocks that include the entire range are returned.
+	 * @return The active block for the user, or the most specific active block
+	 *  that includes the IP address, or <code>null</code> if there is no such
+	 *  block.
+	 */
+	UserBlock lookup(Integer wikiUserId, String ipAddress) {
+		if (wikiUserId != null) {
+			UserBlock userBlock = this.userBlocks.get(wikiUserId);
+			if (userBlock != null && !userBlock.isExpired()) {
+				return userBlock;
+			}
+		}
+		if (ipAddress == null || this.ipBlocks.size() == 0) {
+			return null;
+		}
+		IpAddressRange range = IpAddressRange.parse(ipAddress);
+		if (range == null) {
+			return null;
+		}
+		for (UserBlock userBlock : this.ipBlocks.find(range.getAddress())) {
+			// blocks may have expired since being indexed
+			if (userBlock.isExpired()) {
+				continue;
+			}
+			if (range.isSingleAddress() || IpAddressRange.parse(userBlock.getIpAddress()).getPrefixLength() <= range.getPrefixLength()) {
+				return userBlock;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return a new index that does not contain any blocks that have expired.
+	 */
+	UserBlockIndex prune() {
+		// blocks for both a user and an IP address appear twice in the map
+		return new UserBlockIndex(new ArrayList<UserBlock>(new LinkedHashSet<UserBlock>(this.userBlocks.values())));
+	}
+}
@@ -19,13 +19,9 @@ package org.jamwiki.db;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -45,14 +41,12 @@ import org.jamwiki.model.TopicVersion;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiGroup;
 import org.jamwiki.model.WikiUser;
-import org.jamwiki.parser.ParserException;
-import org.jamwiki.parser.ParserOutput;
-import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Encryption;
 import org.jamwiki.utils.ResourceUtil;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
+import org.springframework.dao.DataAccessException;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 
@@ -66,34 +60,6 @@ public class WikiDatabase {
 	private static final WikiLogger logger = WikiLogger.getLogger(WikiDatabase.class.getName());
 	/** Root directory within the WAR distribution that contains the default topic pages. */
 	public static final String SPECIAL_PAGE_DIR = "pages";
-	// array used in database migration - elements are table name and, if elements within the
-	// table have dependencies (such as jam_namespace dependending on main_namespace_id), the
-	// column to sort results in order to avoid foreign key constrain violations
-	private static final String[][] JAMWIKI_DB_TABLE_INFO = {
-		{"jam_virtual_wiki", "virtual_wiki_id"},
-		{"jam_users", null},
-		{"jam_wiki_user", "wiki_user_id"},
-		{"jam_namespace", "namespace_id"},
-		{"jam_namespace_translation", "namespace_id"},
-		{"jam_topic", "topic_id"},
-		{"jam_topic_version", "topic_version_id"},
-		{"jam_file", "file_id"},
-		{"jam_file_version", "file_version_id"},
-		{"jam_category", null},
-		{"jam_group", "group_id"},
-		{"jam_group_members", "id"},
-		{"jam_role", null},
-		{"jam_authorities", null},
-		{"jam_group_authorities", null},
-		{"jam_recent_change", null},
-		{"jam_log", null},
-		{"jam_watchlist", null},
-		{"jam_topic_links", null},
-		{"jam_interwiki", null},
-		{"jam_configuration", null},
-		{"jam_user_block", "user_block_id"},
-		{"jam_file_data", "file_version_id"}
-	};
 
 	/**
 	 *
@@ -101,6 +67,45 @@ public class WikiDatabase {
 	private WikiDatabase() {
 	}
 
+	/**
+	 * Utility method for rewriting the stored content of all topic versions using
+	 * the current topic version storage setting, converting existing versions to
+	 * compressed deltas when delta storage is enabled or back to full content
+	 * when it is disabled.
+	 *
+	 * @return An array of two numerical values, the first one is the number of
+	 *  topic versions updated successfully, the second is the number of topics
+	 *  that failed.
+	 */
+	public static int[] compressTopicVersions() {
+		int numErrors = 0;
+		int numUpdated = 0;
+		List<String> topicNames;
+		Topic topic;
+		List<VirtualWiki> virtualWikis = WikiBase.getDataHandler().getVirtualWikiList();
+		for (VirtualWiki virtualWiki : virtualWikis) {
+			topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), true);
+			for (String topicName : topicNames) {
+				try {
+					topic = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), topicName, true);
+					if (topic == null) {
+						logger.warn("Invalid topic record found, possible database integrity issue: " + virtualWiki.getName() + " / " + topicName);
+						numErrors++;
+						continue;
+					}
+					numUpdated += WikiBase.getDataHandler().compressTopicVersions(topic);
+				} catch (DataAccessException e) {
+					logger.error("Failure while converting topic versions for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
+					numErrors++;
+				}
+			}
+		}
+		int[] resultArray = new int[2];
+		resultArray[0] = numUpdated;
+		resultArray[1] = numErrors;
+		return resultArray;
+	}
+
 	/**
 	 * Method called to set up all JAMWiki system tables, indexes, and other
 	 * required database objects.  If a failure occurs during object creation
@@ -147,12 +152,16 @@ public class WikiDatabase {
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_AUTHORITIES_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_GROUP_AUTHORITIES_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_LOG_TABLE" , conn);
+		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_LOG_DATE_INDEX" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_RECENT_CHANGE_TABLE" , conn);
+		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_WATCHLIST_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_INTERWIKI_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_CONFIGURATION_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_USER_BLOCK_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_FILE_DATA_TABLE" , conn);
+		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_CACHE_INVALIDATION_TABLE" , conn);
+		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_ID_BLOCK_TABLE" , conn);
 		String sequenceSql = handler.sql("STATEMENT_CREATE_SEQUENCES");
 		if (!StringUtils.isBlank(sequenceSql)) {
 			WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_SEQUENCES" , conn);
@@ -179,6 +188,10 @@ public class WikiDatabase {
 		if (!StringUtils.isBlank(sequenceSql)) {
 			WikiDatabase.executeUpdateNoException(handler, "STATEMENT_DROP_SEQUENCES" , conn);
 		}
+		WikiDatabase.executeUpdateNoException(handler, "STATEMENT_DROP_ID_BLOCK_TABLE" , conn);
+		IdAllocator.reset();
+		SiteStatistics.reset();
+		WikiDatabase.executeUpdateNoException(handler, "STATEMENT_DROP_CACHE_INVALIDATION_TABLE" , conn);
 		WikiDatabase.executeUpdateNoException(handler, "STATEMENT_DROP_FILE_DATA_TABLE" , conn);
 		WikiDatabase.executeUpdateNoException(handler, "STATEMENT_DROP_USER_BLOCK_TABLE" , conn);
 		WikiDatabase.executeUpdateNoException(handler, "STATEMENT_DROP_CONFIGURATION_TABLE" , conn);
@@ -275,7 +288,9 @@ public class WikiDatabase {
 	/**
 	 * Migrate from the current database to a new database.
 	 * Tables are created in the new database, and then the contents
-	 * of the existing database are transferred across.
+	 * of the existing database are transferred across.  If a previous
+	 * migration to the same database failed then the migration resumes
+	 * from the point of failure.
 	 *
 	 * @param props Properties object containing the new database properties
 	 * @param errors List to add error messages to
@@ -289,145 +304,38 @@ public class WikiDatabase {
 		// find the QueryHandler appropriate to the NEW database
 		QueryHandler newQueryHandler = WikiDatabase.findNewQueryHandler(props);
 		logger.debug("Using NEW query handler: " + newQueryHandler.getClass().getName());
+		DatabaseMigrator migrator = new DatabaseMigrator(props, newQueryHandler);
 		Connection conn = null;
-		Connection from = null;
-		Statement stmt = null;
-		ResultSet rs = null;
 		try {
-			// create the tables in the NEW database
-			conn = WikiDatabase.initializeNewDatabase(props, errors, newQueryHandler);
-			if (conn == null) {
-				return;
-			}
-			// since this is a new database setting autocommit to true is ok.  in addition,
-			// since a potentially huge amount of data might be getting committed it prevents
-			// locking issues when loading the database.
-			conn.setAutoCommit(true);
-			// copy the existing table content from the CURRENT database across to the NEW database
-			from = DatabaseConnection.getConnection();
-			from.setReadOnly(true);
-			from.setAutoCommit(true);
-			// used to track current_version_id for each jam_topic row inserted
-			Map<Integer, Integer> topicVersions = new HashMap<Integer, Integer>();
-			for (int i = 0; i < JAMWIKI_DB_TABLE_INFO.length; i++) {
-				// these 3 variables are for special handling of the jam_topic.current_version_id field
-				// which cannot be loaded on initial insert due to the jam_f_topic_topicv constraint
-				boolean isTopicTable = "jam_topic".equals(JAMWIKI_DB_TABLE_INFO[i][0]);
-				int topicIdColumn = 0;
-				int currentVersionColumn = 0;
-				int maxIndex = WikiDatabase.retrieveMaximumTableId(JAMWIKI_DB_TABLE_INFO[i][0], JAMWIKI_DB_TABLE_INFO[i][1]);
-				StringBuilder insert;
-				ResultSetMetaData md;
-				StringBuilder values;
-				StringBuilder select;
-				String columnName;
-				Integer topicId;
-				Integer currentVersionId;
-				Object o;
-				// cycle through at most RECORDS_PER_CYCLE records at a time to avoid blowing up the system
-				int RECORDS_PER_CYCLE = 25;
-				for (int j = 0; j <= maxIndex; j += RECORDS_PER_CYCLE) {
-					select = new StringBuilder("SELECT * FROM ").append(JAMWIKI_DB_TABLE_INFO[i][0]);
-					if (!StringUtils.isBlank(JAMWIKI_DB_TABLE_INFO[i][1])) {
-						if (j == 0) {
-							// for the first record do not set a lower limit in case there is an ID less
-							// than zero
-							select.append(" WHERE ");
-						} else {
-							select.append(" WHERE ").append(JAMWIKI_DB_TABLE_INFO[i][1]).append(" > ").append(j);
-							select.append(" AND ");
-						}
-						select.append(JAMWIKI_DB_TABLE_INFO[i][1]).append(" <= ").append(j + RECORDS_PER_CYCLE);
-						select.append(" ORDER BY ").append(JAMWIKI_DB_TABLE_INFO[i][1]);
-					}
-					insert = new StringBuilder();
-					stmt = from.createStatement();
-					logger.info(select.toString());
-					rs = stmt.executeQuery(select.toString());
-					md = rs.getMetaData();
-					insert.append("INSERT INTO ").append(JAMWIKI_DB_TABLE_INFO[i][0]).append('(');
-					values = new StringBuilder();
-					for (int k = 1; k <= md.getColumnCount(); k++) {
-						if (k > 1) {
-							insert.append(',');
-							values.append(',');
-						}
-						columnName = md.getColumnLabel(k);
-						if (isTopicTable) {
-							if ("topic_id".equalsIgnoreCase(columnName)) {
-								topicIdColumn = k;
-							} else if ("current_version_id".equalsIgnoreCase(columnName)) {
-								currentVersionColumn = k;
-							}
-						}
-						// special handling for Sybase ASA, which requires the "login" column name to be quoted
-						if (newQueryHandler instanceof org.jamwiki.db.SybaseASAQueryHandler && "login".equalsIgnoreCase(columnName)) {
-							columnName = "\"" + columnName + "\"";
-						}
-						insert.append(columnName);
-						values.append('?');
-					}
-					insert.append(") VALUES (").append(values).append(')');
-					logger.info(insert.toString());
-					PreparedStatement insertStmt = conn.prepareStatement(insert.toString());
-					while (rs.next()) {
-						topicId = null;
-						currentVersionId = null;
-						for (int k = 1; k <= md.getColumnCount(); k++) {
-							o = rs.getObject(k);
-							if (isTopicTable) {
-								if (k == topicIdColumn) {
-									topicId = (Integer)o;
-								} else if (k == currentVersionColumn) {
-									currentVersionId = (Integer)o;
-								}
-							}
-							if (rs.wasNull() || (isTopicTable && k == currentVersionColumn)) {
-								insertStmt.setNull(k, md.getColumnType(k));
-							} else {
-								insertStmt.setObject(k, rs.getObject(k));
-							}
-						}
-						insertStmt.executeUpdate();
-						if (topicId != null && currentVersionId != null) {
-							// store current topic version for later update.  since topic id is the
-							// map key, any older (obsolete) topic version IDs will be overwritten
-							// as later records are processed.
-							topicVersions.put(topicId, currentVersionId);
-						}
-					}
-					rs.close();
-					DatabaseConnection.closeStatement(stmt);
-					DatabaseConnection.closeStatement(insertStmt);
+			if (migrator.isResumable()) {
+				logger.info("Resuming previous migration to " + props.getProperty(Environment.PROP_DB_URL));
+				conn = migrator.openTargetConnection();
+			} else {
+				// create the tables in the NEW database
+				conn = WikiDatabase.initializeNewDatabase(props, errors, newQueryHandler);
+				if (conn == null) {
+					return;
 				}
 			}
-			// update the jam_topic.current_version_id field that we had to leave blank on initial insert
-			String updateSql = "UPDATE jam_topic SET current_version_id = ? WHERE topic_id = ?";
-			logger.info(updateSql);
-			PreparedStatement update = conn.prepareStatement(updateSql);
-			for (Integer topicId : topicVersions.keySet()) {
-				Integer topicVersionId = topicVersions.get(topicId);
-				update.setObject(1, topicVersionId);
-				update.setObject(2, topicId);
-				update.executeUpdate();
-			}
-		} catch (Exception e) {
-			logger.error("Error attempting to migrate the database", e);
-			errors.add(new WikiMessage("error.unknown", e.getMessage()));
-			try {
-				WikiDatabase.dropTables(newQueryHandler, conn);
-			} catch (Exception ex) {
-				logger.warn("Unable to drop tables in NEW database following failed migration", ex);
-			}
+		} catch (SQLException e) {
+			errors.add(new WikiMessage("error.databaseconnection", e.getMessage()));
+			return;
 		} finally {
 			if (conn != null) {
 				try {
 					conn.close();
 				} catch (SQLException e) {}
 			}
-			if (from != null) {
-				DatabaseConnection.closeConnection(from, stmt, rs);
-			}
+		}
+		try {
+			// copy the existing table content from the CURRENT database across to the NEW database
+			migrator.migrate();
+			migrator.clearCheckpoint();
+		} catch (Exception e) {
+			// tables are not dropped so that the migration can be resumed by migrating to
+			// the same database again
+			logger.error("Error attempting to migrate the database.  Migrate to the same database again to resume the migration.", e);
+			errors.add(new WikiMessage("error.unknown", e.getMessage()));
 		}
 	}
 
@@ -585,51 +493,6 @@ public class WikiDatabase {
 		return contents;
 	}
 
-	/**
-	 * Utility method for regenerating categories, "link to" records and other metadata
-	 * for all wiki topics.
-	 *
-	 * @return An array of two numerical values, the first one is the number of records
-	 *  updated successfully, the second is the number of records that failed.
-	 */
-	public static int[] rebuildTopicMetadata() {
-		int numErrors = 0;
-		int numUpdated = 0;
-		List<String> topicNames;
-		Topic topic;
-		ParserOutput parserOutput;
-		List<VirtualWiki> virtualWikis = WikiBase.getDataHandler().getVirtualWikiList();
-		for (VirtualWiki virtualWiki : virtualWikis) {
-			topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false);
-			if (topicNames.isEmpty()) {
-				continue;
-			}
-			for (String topicName : topicNames) {
-				try {
-					topic = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), topicName, false);
-					if (topic == null) {
-						logger.warn("Invalid topic record found, possible database integrity issue: " + virtualWiki.getName() + " / " + topicName);
-						numErrors++;
-						continue;
-					}
-					parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki.getName(), topicName);
-					WikiBase.getDataHandler().writeTopic(topic, null, parserOutput.getCategories(), parserOutput.getLinks());
-					numUpdated++;
-				} catch (ParserException e) {
-					logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
-					numErrors++;
-				} catch (WikiException e) {
-					logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
-					numErrors++;
-				}
-			}
-		}
-		int[] resultArray = new int[2];
-		resultArray[0] = numUpdated;
-		resultArray[1] = numErrors;
-		return resultArray;
-	}
-
 	/**
 	 *
 	 */
@@ -655,28 +518,6 @@ public class WikiDatabase {
 		}
 	}
 
-	/**
-	 * Return the largest primary key ID for the specified table, or 1 if the table does
-	 * not have a numeric primary key value.
-	 */
-	private static int retrieveMaximumTableId(String tableName, String primaryIdColumnName) throws SQLException {
-		if (StringUtils.isBlank(tableName) || StringUtils.isBlank(primaryIdColumnName)) {
-			return 1;
-		}
-		String sql = "select max(" + primaryIdColumnName + ") as max_table_id from " + tableName;
-		Connection conn = null;
-		Statement stmt = null;
-		ResultSet rs = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			stmt = conn.createStatement();
-			rs = stmt.executeQuery(sql);
-			return (rs.next()) ? rs.getInt("max_table_id") : 0;
-		} finally {
-			DatabaseConnection.closeConnection(conn, stmt, rs);
-		}
-	}
-
 	/**
 	 *
 	 */
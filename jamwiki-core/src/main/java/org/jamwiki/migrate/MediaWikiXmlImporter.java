@@ -26,7 +26,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.regex.Pattern;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
@@ -50,12 +49,15 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
- * Provide functionality for importing a Mediawiki XML file into JAMWiki.
+ * Provide functionality for importing a Mediawiki XML file into JAMWiki.  The
+ * file is read using a SAX parser and topic versions are passed to a
+ * {@link TopicImportPipeline} in batches as they are read, so memory use does
+ * not depend on the size of the file.
  */
 public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporter {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(MediaWikiXmlImporter.class.getName());
-	/** Maximum number of topic versions that can be stored before being flushed to the database. */
+	/** Maximum number of topic versions that can be stored before being passed to the import pipeline. */
 	private static final int MAX_TOPIC_VERSION_BUFFER = 50;
 	private static final SAXParserFactory SAX_PARSER_FACTORY;
 
@@ -66,11 +68,17 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	/** This buffer holds the content of the current element during parsing.  It will be flushed after an end-element tag is reached. */
 	private StringBuilder currentElementBuffer = new StringBuilder();
 	private Topic currentTopic = null;
+	/** Content of the most recent version of the current topic. */
+	private String currentTopicContent = null;
+	/** Edit date of the most recent version of the current topic. */
+	private Date currentTopicEditDate = null;
 	private TopicVersion currentTopicVersion = new TopicVersion();
-	private Map<Date, Integer> currentTopicVersions = new TreeMap<Date, Integer>();
+	private int currentTopicVersionCount = 0;
 	private final Map<String, String> mediawikiNamespaceMap = new HashMap<String, String>();
-	private Map<Topic, List<Integer>> parsedTopics = new HashMap<Topic, List<Integer>>();
+	private TopicImportPipeline pipeline;
 	private int previousTopicContentLength = 0;
+	/** Set to <code>true</code> if the current topic was imported previously and should be skipped. */
+	private boolean skipCurrentTopic = false;
 	/** For performance reasons add topic versions to the dabase in batches. */
 	private List<TopicVersion> topicVersionBuffer = new ArrayList<TopicVersion>();
 	private String virtualWiki;
@@ -84,10 +92,10 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	/**
 	 *
 	 */
-	public Map<Topic, List<Integer>> importFromFile(File file, String virtualWiki) throws MigrationException {
+	public void importFromFile(File file, String virtualWiki, TopicImportPipeline pipeline) throws MigrationException {
 		this.virtualWiki = virtualWiki;
+		this.pipeline = pipeline;
 		this.importWikiXml(file);
-		return this.parsedTopics;
 	}
 
 	/**
@@ -107,7 +115,9 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 		} catch (IOException e) {
 			throw new MigrationException(e);
 		} catch (SAXException e) {
-			if (e.getCause() instanceof WikiException) {
+			if (e.getException() instanceof MigrationException) {
+				throw (MigrationException)e.getException();
+			} else if (e.getCause() instanceof WikiException) {
 				throw new MigrationException(e.getCause());
 			} else {
 				throw new MigrationException(e);
@@ -198,32 +208,48 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	}
 
 	/**
-	 * Write a topic version record to the database.
+	 * Add a topic version to the buffer of versions waiting to be passed to the
+	 * import pipeline, passing the buffer to the pipeline once it is full.
 	 */
 	private void commitTopicVersion() throws SAXException {
 		// FIXME - support rollback
-		this.currentTopic.setTopicContent(currentTopicVersion.getVersionContent());
+		// the XML file may not contain version records sorted chronologically, so track
+		// the most recent version to determine the current topic content
+		if (this.currentTopicEditDate == null || !this.currentTopicVersion.getEditDate().before(this.currentTopicEditDate)) {
+			this.currentTopicEditDate = this.currentTopicVersion.getEditDate();
+			this.currentTopicContent = this.currentTopicVersion.getVersionContent();
+		}
 		// only the final import version is logged
 		this.currentTopicVersion.setLoggable(false);
 		// no recent change record needed - can be added by reloading all recent changes if desired
 		this.currentTopicVersion.setRecentChangeAllowed(false);
 		this.topicVersionBuffer.add(this.currentTopicVersion);
-		this.writeTopicVersion(false);
+		this.currentTopicVersionCount++;
+		if (this.topicVersionBuffer.size() >= MAX_TOPIC_VERSION_BUFFER) {
+			try {
+				this.pipeline.addTopicVersions(this.currentTopic, this.topicVersionBuffer);
+			} catch (MigrationException e) {
+				throw new SAXException(e);
+			}
+			this.topicVersionBuffer = new ArrayList<TopicVersion>();
+		}
 	}
 
 	/**
-	 * After all topic versions have been created for a topic, go back and set the previous topic version
-	 * ID values for each version.  This must be done after parsing since the XML file may not contain
-	 * version records sorted chronologically from oldest to newest.
+	 * Pass all remaining topic versions for the current topic to the import
+	 * pipeline.
 	 */
-	private void orderTopicVersions() throws SAXException {
-		if (this.currentTopicVersions.isEmpty()) {
+	private void commitTopic() throws SAXException {
+		if (this.currentTopicVersionCount == 0) {
 			throw new SAXException("No topic versions found for " + this.currentTopic.getName());
 		}
-		// topic versions are stored in a tree map to allow sorting... convert to a list
-		List<Integer> currentTopicVersionIdList = new ArrayList<Integer>(this.currentTopicVersions.values());
-		WikiBase.getDataHandler().orderTopicVersions(this.currentTopic, currentTopicVersionIdList);
-		this.parsedTopics.put(this.currentTopic, currentTopicVersionIdList);
+		try {
+			this.pipeline.completeTopic(this.currentTopic, this.topicVersionBuffer, this.currentTopicContent);
+		} catch (MigrationException e) {
+			throw new SAXException(e);
+		}
+		this.topicVersionBuffer = new ArrayList<TopicVersion>();
+		this.currentTopic = null;
 	}
 
 	//===========================================================
@@ -258,7 +284,10 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 			this.currentTopicVersion = new TopicVersion();
 			this.currentTopicVersion.setEditType(TopicVersion.EDIT_IMPORT);
 		} else if (MediaWikiConstants.MEDIAWIKI_ELEMENT_TOPIC.equals(qName)) {
-			this.currentTopicVersions = new TreeMap<Date, Integer>();
+			this.skipCurrentTopic = !this.pipeline.startTopic();
+			this.currentTopicContent = null;
+			this.currentTopicEditDate = null;
+			this.currentTopicVersionCount = 0;
 		}
 	}
 
@@ -272,6 +301,13 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	 * @param qName The qualified name (with prefix), or the empty string if qualified names are not available.
 	 */
 	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if (this.skipCurrentTopic) {
+			// topic was imported by a previous attempt to import this file
+			if (MediaWikiConstants.MEDIAWIKI_ELEMENT_TOPIC.equals(qName)) {
+				this.skipCurrentTopic = false;
+			}
+			return;
+		}
 		if (StringUtils.equals(MediaWikiConstants.MEDIAWIKI_ELEMENT_NAMESPACE, qName)) {
 			int key = NumberUtils.toInt(this.currentAttributeMap.get("key"));
 			Namespace jamwikiNamespace = WikiBase.getDataHandler().lookupNamespaceById(key);
@@ -306,8 +342,7 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 			this.commitTopicVersion();
 		} else if (MediaWikiConstants.MEDIAWIKI_ELEMENT_TOPIC.equals(qName)) {
 			// flush any pending topic version data
-			this.writeTopicVersion(true);
-			this.orderTopicVersions();
+			this.commitTopic();
 		}
 	}
 
@@ -318,27 +353,4 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	public void characters(char buf[], int offset, int len) throws SAXException {
 		currentElementBuffer.append(buf, offset, len);
 	}
-
-	/**
-	 *
-	 */
-	private void writeTopicVersion(boolean forceWrite) throws SAXException {
-		try {
-			// for performance reasons write the topic once to create an initial record, then write
-			// only the version record.
-			if (this.currentTopic.getTopicId() <= 0) {
-				// metadata is needed only for the final import version, so for performance reasons
-				// do not include category or link data for older versions
-				WikiBase.getDataHandler().writeTopic(this.currentTopic, null, null, null);
-			} else if (forceWrite || this.topicVersionBuffer.size() >= MAX_TOPIC_VERSION_BUFFER) {
-				WikiBase.getDataHandler().writeTopicVersions(this.currentTopic, this.topicVersionBuffer);
-				for (TopicVersion topicVersion : this.topicVersionBuffer) {
-					this.currentTopicVersions.put(topicVersion.getEditDate(), topicVersion.getTopicVersionId());
-				}
-				this.topicVersionBuffer = new ArrayList<TopicVersion>();
-			}
-		} catch (WikiException e) {
-			throw new SAXException("Failure while writing topic: " + this.currentTopic.getName(), e);
-		}
-	}
 }
@@ -17,22 +17,11 @@
 package org.jamwiki.migrate;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import org.apache.commons.lang3.StringUtils;
-import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
-import org.jamwiki.model.Topic;
-import org.jamwiki.model.TopicType;
-import org.jamwiki.model.TopicVersion;
 import org.jamwiki.model.WikiUser;
-import org.jamwiki.parser.ParserException;
-import org.jamwiki.parser.ParserOutput;
-import org.jamwiki.parser.ParserUtil;
-import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -79,49 +68,25 @@ public class MigrationUtil {
 	public static List<String> importFromFile(File file, String virtualWiki, WikiUser user, String authorDisplay, Locale locale) throws MigrationException, WikiException {
 		TopicImporter importer = new MediaWikiXmlImporter();
 		long start = System.currentTimeMillis();
-		Map<Topic, List<Integer>> parsedTopics = null;
-		// for performance reasons disable writes to the search engine during
-		// import since the search engine will be updated with the same topic
-		// information again during the creation of the topic import record.
-		WikiBase.getSearchEngine().setDisabled(true);
+		List<String> successfulImports = null;
+		TopicImportPipeline pipeline = new TopicImportPipeline(file, virtualWiki, user, authorDisplay, locale);
 		try {
-			parsedTopics = importer.importFromFile(file, virtualWiki);
+			importer.importFromFile(file, virtualWiki, pipeline);
+			successfulImports = pipeline.finish();
 		} catch (MigrationException e) {
 			if (e.getCause() instanceof WikiException) {
 				throw (WikiException)(e.getCause());
 			}
 			throw e;
 		} finally {
-			// re-enable the write updates to the search engine
-			WikiBase.getSearchEngine().setDisabled(false);
+			pipeline.close();
 		}
 		if (logger.isDebugEnabled()) {
-			logger.debug("Parsed XML " + file.getAbsolutePath() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+			logger.debug("Imported XML " + file.getAbsolutePath() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 		}
-		if (parsedTopics.isEmpty()) {
+		if (successfulImports.isEmpty()) {
 			throw new WikiException(new WikiMessage("import.error.notopic"));
 		}
-		List<String> successfulImports = new ArrayList<String>();
-		for (Topic topic : parsedTopics.keySet()) {
-			// create a dummy version to indicate that the topic was imported
-			String importedBy = (user != null && user.getUserId() > 0) ? user.getUsername() : authorDisplay;
-			String editComment = Utilities.formatMessage("import.message.importedby", locale, new Object[]{importedBy});
-			TopicVersion topicVersion = new TopicVersion(user, authorDisplay, editComment, topic.getTopicContent(), 0);
-			topicVersion.setEditType(TopicVersion.EDIT_IMPORT);
-			ParserOutput parserOutput = null;
-			try {
-				parserOutput = ParserUtil.parserOutput(topicVersion.getVersionContent(), virtualWiki, topic.getName());
-			} catch (ParserException e) {
-				throw new MigrationException("Failure while parsing topic version of topic: " + topic.getName(), e);
-			}
-			if (!StringUtils.isBlank(parserOutput.getRedirect())) {
-				// set up a redirect
-				topic.setRedirectTo(parserOutput.getRedirect());
-				topic.setTopicType(TopicType.REDIRECT);
-			}
-			WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
-			successfulImports.add(topic.getName());
-		}
 		return successfulImports;
 	}
 }
@@ -0,0 +1,463 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.migrate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.ParserOutput;
+import org.jamwiki.parser.ParserUtil;
+import org.jamwiki.utils.Utilities;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Write topics read by a {@link TopicImporter} to the database.  Importing is
+ * done in three stages so that very large import files can be processed
+ * without holding all topics in memory:
+ *
+ * <ol>
+ * <li>The importer reads the import file and passes topic versions to the
+ *  pipeline in batches as they are read.</li>
+ * <li>Once all versions of a topic have been read, the current topic content
+ *  is parsed by a pool of worker threads to determine the topic's links,
+ *  categories and redirect target.  The number of workers is specified by the
+ *  {@link Environment#PROP_IMPORT_THREADS} property.</li>
+ * <li>A single writer thread writes topic versions and parsed topic metadata to
+ *  the database.  Batches waiting to be written are held in a bounded queue
+ *  whose size is specified by the {@link Environment#PROP_IMPORT_QUEUE_SIZE}
+ *  property, and the importer and parsing threads wait when the queue is
+ *  full.</li>
+ * </ol>
+ *
+ * Progress is periodically saved to a checkpoint file next to the import
+ * file.  If an import fails and is then re-run using the same file, topics
+ * that were completely imported prior to the failure are skipped.  The
+ * checkpoint file is deleted once an import completes successfully.
+ */
+public class TopicImportPipeline {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicImportPipeline.class.getName());
+	/** Number of completed topics between updates of the checkpoint file. */
+	private static final int CHECKPOINT_INTERVAL = 100;
+	/** Suffix added to the import file name to create the checkpoint file name. */
+	private static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+	/** Marker added to the write queue after all topics have been queued. */
+	private static final WriteTask END_OF_IMPORT = new WriteTask(null, null);
+
+	private final WikiUser user;
+	private final String authorDisplay;
+	private final File checkpointFile;
+	private final String editComment;
+	private volatile Exception failure = null;
+	private final ThreadPoolExecutor parseExecutor;
+	private final String virtualWiki;
+	private final BlockingQueue<WriteTask> writeQueue;
+	private final Thread writerThread;
+	// the following fields are used only by the importer thread
+	private ImportedTopic currentTopic = null;
+	/** Number of topics completely imported by a previous attempt to import the same file. */
+	private final int skipTopics;
+	private int topicCount = 0;
+	// the following fields are used only by the writer thread
+	/** The highest topic number for which all topics up to and including that topic have been written. */
+	private int checkpoint;
+	private int savedCheckpoint;
+	/** Topics that have been written but that follow a topic that has not yet been written. */
+	private final SortedSet<Integer> completedTopics = new TreeSet<Integer>();
+	/** Topics for which some versions have been written but the import is not yet complete. */
+	private final Map<Integer, String> partialTopics = new LinkedHashMap<Integer, String>();
+	private final List<String> successfulImports = new ArrayList<String>();
+
+	/**
+	 * Create a new pipeline and start the writer thread.
+	 *
+	 * @param file The file that contains topic data to be imported.
+	 * @param virtualWiki The virtual wiki to write the topic data to.
+	 * @param user The user (if any) that is performing the import.
+	 * @param authorDisplay The display value for the user that is performing the
+	 *  import.  This value is typically the user's IP address.
+	 * @param locale The locale for the user that is performing the import.
+	 */
+	public TopicImportPipeline(File file, String virtualWiki, WikiUser user, String authorDisplay, Locale locale) {
+		this.virtualWiki = virtualWiki;
+		this.user = user;
+		this.authorDisplay = authorDisplay;
+		String importedBy = (user != null && user.getUserId() > 0) ? user.getUsername() : authorDisplay;
+		this.editComment = Utilities.formatMessage("import.message.importedby", locale, new Object[]{importedBy});
+		this.checkpointFile = new File(file.getAbsolutePath() + CHECKPOINT_FILE_SUFFIX);
+		this.skipTopics = this.readCheckpoint();
+		this.checkpoint = this.skipTopics;
+		this.savedCheckpoint = this.skipTopics;
+		this.writeQueue = new ArrayBlockingQueue<WriteTask>(Math.max(Environment.getIntValue(Environment.PROP_IMPORT_QUEUE_SIZE), 1));
+		int threads = Math.max(Environment.getIntValue(Environment.PROP_IMPORT_THREADS), 1);
+		// when all workers are busy the importer thread parses topics itself,
+		// which keeps the number of topics waiting to be parsed bounded.
+		this.parseExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jamwiki-import-parser-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		this.writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeTopics();
+			}
+		}, "jamwiki-import-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+		if (this.skipTopics > 0) {
+			logger.info("Resuming import of " + file.getAbsolutePath() + " after " + this.skipTopics + " previously imported topics");
+		}
+	}
+
+	/**
+	 * Queue a batch of versions for the topic currently being imported.  This
+	 * method may be called several times for topics with a long history.
+	 *
+	 * @param topic The topic being imported.  Once passed to this method the
+	 *  topic must not be modified by the importer.
+	 * @param topicVersions The versions to write.  The list must not be
+	 *  modified by the importer after being passed to this method.
+	 * @throws MigrationException Thrown if a previous batch could not be
+	 *  written or if the import is interrupted.
+	 */
+	public void addTopicVersions(Topic topic, List<TopicVersion> topicVersions) throws MigrationException {
+		this.checkFailure();
+		this.enqueue(new WriteTask(this.importedTopic(topic), topicVersions));
+	}
+
+	/**
+	 * Stop all pipeline threads.  If the import has not completed successfully
+	 * then the checkpoint file is updated so that the import can be resumed.
+	 * This method must always be called once the pipeline is no longer needed.
+	 */
+	public void close() {
+		if (this.writerThread.isAlive()) {
+			this.fail(new MigrationException("Import cancelled"));
+		}
+		this.parseExecutor.shutdownNow();
+		try {
+			this.writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if (this.failure != null) {
+			this.writeCheckpoint();
+			if (!this.partialTopics.isEmpty()) {
+				logger.warn("Import stopped before the following topics were completely imported.  These topics must be deleted before the import is resumed: " + this.partialTopics.values());
+			}
+		}
+	}
+
+	/**
+	 * Queue the final batch of versions for the topic currently being
+	 * imported, along with the topic's current content.  The content is
+	 * parsed in the background to determine the topic's metadata.
+	 *
+	 * @param topic The topic being imported.  Once passed to this method the
+	 *  topic must not be modified by the importer.
+	 * @param topicVersions Versions of the topic that have not yet been passed
+	 *  to {@link #addTopicVersions}.  The list must not be modified by the
+	 *  importer after being passed to this method.
+	 * @param topicContent The content of the most recent topic version.
+	 * @throws MigrationException Thrown if a previous batch could not be
+	 *  written or if the import is interrupted.
+	 */
+	public void completeTopic(Topic topic, List<TopicVersion> topicVersions, String topicContent) throws MigrationException {
+		this.checkFailure();
+		final WriteTask task = new WriteTask(this.importedTopic(topic), topicVersions);
+		task.topicContent = topicContent;
+		this.currentTopic = null;
+		this.parseExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					task.parserOutput = ParserUtil.parserOutput(task.topicContent, virtualWiki, task.importedTopic.topic.getName());
+					enqueue(task);
+				} catch (Exception e) {
+					fail(new MigrationException("Failure while parsing topic version of topic: " + task.importedTopic.topic.getName(), e));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for all queued topics to be written.
+	 *
+	 * @return A list of topic names that were successfully imported.
+	 * @throws MigrationException Thrown if any topic could not be parsed or
+	 *  written, or if the import is interrupted.
+	 */
+	public List<String> finish() throws MigrationException {
+		this.parseExecutor.shutdown();
+		try {
+			while (!this.parseExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+				this.checkFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MigrationException(e);
+		}
+		this.checkFailure();
+		this.enqueue(END_OF_IMPORT);
+		try {
+			this.writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MigrationException(e);
+		}
+		this.checkFailure();
+		if (this.checkpointFile.exists() && !this.checkpointFile.delete()) {
+			logger.warn("Unable to delete import checkpoint file " + this.checkpointFile.getAbsolutePath());
+		}
+		return this.successfulImports;
+	}
+
+	/**
+	 * Determine whether the next topic in the import file should be imported.
+	 * Topics that were completely imported by a previous attempt to import the
+	 * same file are skipped.
+	 *
+	 * @return <code>true</code> if the next topic should be imported,
+	 *  <code>false</code> if it should be skipped.
+	 */
+	public boolean startTopic() {
+		this.topicCount++;
+		return (this.topicCount > this.skipTopics);
+	}
+
+	/**
+	 * Throw an exception if any stage of the pipeline has failed.
+	 */
+	private void checkFailure() throws MigrationException {
+		Exception e = this.failure;
+		if (e == null) {
+			return;
+		}
+		throw (e instanceof MigrationException) ? (MigrationException)e : new MigrationException(e);
+	}
+
+	/**
+	 * Add a batch to the write queue, waiting if the queue is full.
+	 */
+	private void enqueue(WriteTask task) throws MigrationException {
+		try {
+			while (!this.writeQueue.offer(task, 1, TimeUnit.SECONDS)) {
+				this.checkFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MigrationException(e);
+		}
+	}
+
+	/**
+	 * Record the first failure, causing all pipeline stages to stop.
+	 */
+	private synchronized void fail(Exception e) {
+		if (this.failure == null) {
+			this.failure = e;
+		}
+	}
+
+	/**
+	 * Return the import state for the topic currently being imported.
+	 */
+	private ImportedTopic importedTopic(Topic topic) {
+		if (this.currentTopic == null || this.currentTopic.topic != topic) {
+			this.currentTopic = new ImportedTopic(topic, this.topicCount);
+		}
+		return this.currentTopic;
+	}
+
+	/**
+	 * Read the number of previously imported topics from the checkpoint file,
+	 * returning zero if there is no checkpoint.
+	 */
+	private int readCheckpoint() {
+		if (!this.checkpointFile.exists()) {
+			return 0;
+		}
+		try {
+			return NumberUtils.toInt(FileUtils.readFileToString(this.checkpointFile, "UTF-8").trim());
+		} catch (IOException e) {
+			logger.warn("Unable to read import checkpoint file " + this.checkpointFile.getAbsolutePath(), e);
+			return 0;
+		}
+	}
+
+	/**
+	 * Record that a topic has been written, updating the checkpoint file
+	 * periodically.
+	 */
+	private void topicCompleted(int topicNumber) {
+		this.completedTopics.add(topicNumber);
+		while (!this.completedTopics.isEmpty() && this.completedTopics.first() == this.checkpoint + 1) {
+			this.completedTopics.remove(this.completedTopics.first());
+			this.checkpoint++;
+		}
+		if (this.checkpoint - this.savedCheckpoint >= CHECKPOINT_INTERVAL) {
+			this.writeCheckpoint();
+		}
+	}
+
+	/**
+	 * Save the current checkpoint.
+	 */
+	private void writeCheckpoint() {
+		if (this.checkpoint == this.savedCheckpoint) {
+			return;
+		}
+		try {
+			FileUtils.writeStringToFile(this.checkpointFile, Integer.toString(this.checkpoint), "UTF-8");
+			this.savedCheckpoint = this.checkpoint;
+		} catch (IOException e) {
+			logger.warn("Unable to write import checkpoint file " + this.checkpointFile.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Write a batch of topic versions and, for the final batch of a topic, the
+	 * topic metadata and import version.
+	 */
+	private void write(WriteTask task) throws Exception {
+		ImportedTopic importedTopic = task.importedTopic;
+		Topic topic = importedTopic.topic;
+		if (topic.getTopicId() <= 0) {
+			// metadata is needed only for the final import version, so for performance reasons
+			// do not include category or link data for older versions
+			topic.setTopicContent(task.topicVersions.get(0).getVersionContent());
+			WikiBase.getDataHandler().writeTopic(topic, null, null, null);
+			this.partialTopics.put(importedTopic.topicNumber, topic.getName());
+		}
+		if (!task.topicVersions.isEmpty()) {
+			WikiBase.getDataHandler().writeTopicVersions(topic, task.topicVersions);
+			for (TopicVersion topicVersion : task.topicVersions) {
+				importedTopic.topicVersionIds.put(topicVersion.getEditDate(), topicVersion.getTopicVersionId());
+			}
+		}
+		if (task.parserOutput == null) {
+			return;
+		}
+		// the XML file may not contain version records sorted chronologically, so set
+		// the previous topic version ID values now that all versions have been written
+		WikiBase.getDataHandler().orderTopicVersions(topic, new ArrayList<Integer>(importedTopic.topicVersionIds.values()));
+		// the topic record was created with the first version in the file, so use the
+		// most recent version's content, which is also the content that was parsed
+		topic.setTopicContent(task.topicContent);
+		// create a dummy version to indicate that the topic was imported
+		TopicVersion topicVersion = new TopicVersion(this.user, this.authorDisplay, this.editComment, topic.getTopicContent(), 0);
+		topicVersion.setEditType(TopicVersion.EDIT_IMPORT);
+		ParserOutput parserOutput = task.parserOutput;
+		if (!StringUtils.isBlank(parserOutput.getRedirect())) {
+			// set up a redirect
+			topic.setRedirectTo(parserOutput.getRedirect());
+			topic.setTopicType(TopicType.REDIRECT);
+		}
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
+		this.partialTopics.remove(importedTopic.topicNumber);
+		this.successfulImports.add(topic.getName());
+		this.topicCompleted(importedTopic.topicNumber);
+	}
+
+	/**
+	 * Writer thread loop.  Batches are written in the order that they are
+	 * queued until the end of the import is reached or a failure occurs.
+	 */
+	private void writeTopics() {
+		try {
+			while (this.failure == null) {
+				WriteTask task = this.writeQueue.poll(1, TimeUnit.SECONDS);
+				if (task == END_OF_IMPORT) {
+					return;
+				}
+				if (task != null) {
+					this.write(task);
+				}
+			}
+		} catch (InterruptedException e) {
+			this.fail(new MigrationException(e));
+		} catch (Exception e) {
+			this.fail(e);
+		}
+	}
+
+	/**
+	 * Import state for a single topic.
+	 */
+	private static class ImportedTopic {
+
+		private final Topic topic;
+		/** The position of the topic within the import file. */
+		private final int topicNumber;
+		/** Topic version IDs sorted by edit date.  Used only by the writer thread. */
+		private final Map<Date, Integer> topicVersionIds = new TreeMap<Date, Integer>();
+
+		/**
+		 *
+		 */
+		ImportedTopic(Topic topic, int topicNumber) {
+			this.topic = topic;
+			this.topicNumber = topicNumber;
+		}
+	}
+
+	/**
+	 * A batch of topic versions waiting to be written.  The final batch for a
+	 * topic also contains the topic's current content and parsed metadata.
+	 */
+	private static class WriteTask {
+
+		private final ImportedTopic importedTopic;
+		private ParserOutput parserOutput = null;
+		private String topicContent = null;
+		private final List<TopicVersion> topicVersions;
+
+		/**
+		 *
+		 */
+		WriteTask(ImportedTopic importedTopic, List<TopicVersion> topicVersions) {
+			this.importedTopic = importedTopic;
+			this.topicVersions = topicVersions;
+		}
+	}
+}
@@ -28,6 +28,10 @@ public class ImageData implements Serializable {
 	public int width;
 	public int height;
 	public byte data[];
+	/** Size of the data in bytes, or -1 if unknown. */
+	public long fileSize = -1;
+	/** Time (in milliseconds) that the data was last modified, or -1 if unknown. */
+	public long lastModified = -1;
 
 	/**
 	 *
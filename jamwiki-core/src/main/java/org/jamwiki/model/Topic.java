@@ -62,7 +62,7 @@ public class Topic implements Serializable {
 		this.pageName = topic.pageName;
 		this.readOnly = topic.readOnly;
 		this.redirectTo = topic.redirectTo;
-		this.topicContent = topic.topicContent;
+		this.topicContent = topic.getTopicContent();
 		this.topicId = topic.topicId;
 		this.topicType = topic.topicType;
 		this.virtualWiki = topic.virtualWiki;
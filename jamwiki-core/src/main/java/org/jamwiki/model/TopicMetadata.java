@@ -0,0 +1,134 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.model;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+/**
+ * Immutable record of the metadata for a topic, without the topic content.
+ * Topic lookups only need to cache this record since most callers, such as
+ * existence checks and redirect resolution, never read the topic content.
+ */
+public final class TopicMetadata implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final boolean adminOnly;
+	private final Integer currentVersionId;
+	private final Timestamp deleteDate;
+	/** The namespace ID rather than the namespace object, to keep cached records small. */
+	private final int namespaceId;
+	private final String pageName;
+	private final boolean readOnly;
+	private final String redirectTo;
+	private final int topicId;
+	private final TopicType topicType;
+	private final String virtualWiki;
+
+	/**
+	 * Create a metadata record from the current values of a topic.
+	 */
+	public TopicMetadata(Topic topic) {
+		this.adminOnly = topic.getAdminOnly();
+		this.currentVersionId = topic.getCurrentVersionId();
+		this.deleteDate = (topic.getDeleteDate() == null) ? null : (Timestamp)topic.getDeleteDate().clone();
+		this.namespaceId = topic.getNamespace().getId();
+		this.pageName = topic.getPageName();
+		this.readOnly = topic.getReadOnly();
+		this.redirectTo = topic.getRedirectTo();
+		this.topicId = topic.getTopicId();
+		this.topicType = topic.getTopicType();
+		this.virtualWiki = topic.getVirtualWiki();
+	}
+
+	/**
+	 *
+	 */
+	public boolean getAdminOnly() {
+		return this.adminOnly;
+	}
+
+	/**
+	 *
+	 */
+	public Integer getCurrentVersionId() {
+		return this.currentVersionId;
+	}
+
+	/**
+	 *
+	 */
+	public boolean getDeleted() {
+		return (this.deleteDate != null);
+	}
+
+	/**
+	 *
+	 */
+	public Timestamp getDeleteDate() {
+		return (this.deleteDate == null) ? null : (Timestamp)this.deleteDate.clone();
+	}
+
+	/**
+	 *
+	 */
+	public int getNamespaceId() {
+		return this.namespaceId;
+	}
+
+	/**
+	 *
+	 */
+	public String getPageName() {
+		return this.pageName;
+	}
+
+	/**
+	 *
+	 */
+	public boolean getReadOnly() {
+		return this.readOnly;
+	}
+
+	/**
+	 *
+	 */
+	public String getRedirectTo() {
+		return this.redirectTo;
+	}
+
+	/**
+	 *
+	 */
+	public int getTopicId() {
+		return this.topicId;
+	}
+
+	/**
+	 *
+	 */
+	public TopicType getTopicType() {
+		return this.topicType;
+	}
+
+	/**
+	 *
+	 */
+	public String getVirtualWiki() {
+		return this.virtualWiki;
+	}
+}
@@ -17,6 +17,13 @@
 package org.jamwiki.parser;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -423,12 +430,94 @@ public abstract class LinkUtil {
 		}
 		String topicName = WikiBase.getDataHandler().lookupTopicName(virtualWiki, wikiLink.getNamespace(), wikiLink.getArticle());
 		if (topicName == null && Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION)) {
-			String alternativeArticleName = (StringUtils.equals(wikiLink.getArticle(), StringUtils.capitalize(wikiLink.getArticle()))) ? StringUtils.lowerCase(wikiLink.getArticle()) : StringUtils.capitalize(wikiLink.getArticle());
+			String alternativeArticleName = LinkUtil.alternativeCapitalization(wikiLink.getArticle());
 			topicName = WikiBase.getDataHandler().lookupTopicName(virtualWiki, wikiLink.getNamespace(), alternativeArticleName);
 		}
 		return topicName;
 	}
 
+	/**
+	 * Return the alternative form of an article name that is checked when the
+	 * article does not exist, which is the lower-case form of a capitalized
+	 * name or the capitalized form of any other name.
+	 */
+	private static String alternativeCapitalization(String articleName) {
+		return (StringUtils.equals(articleName, StringUtils.capitalize(articleName))) ? StringUtils.lowerCase(articleName) : StringUtils.capitalize(articleName);
+	}
+
+	/**
+	 * Determine whether each of a group of links corresponds to an existing
+	 * topic, loading the results into the topic name cache so that subsequent
+	 * calls to {@link #isExistingArticle} for the same links do not require
+	 * a database query.  Links are grouped by virtual wiki and namespace, and
+	 * each group is looked up using a constant number of queries, so this
+	 * method should be called prior to rendering content that may contain a
+	 * large number of links.
+	 *
+	 * @param virtualWiki The virtual wiki for the content containing the links.
+	 * @param links The raw link values, of the form "Topic?Query#Section".
+	 */
+	public static void preloadExistingArticles(String virtualWiki, Collection<String> links) {
+		if (StringUtils.isBlank(virtualWiki) || links.isEmpty() || !Environment.isInitialized()) {
+			return;
+		}
+		// map of virtual wiki to namespace ID to page names
+		Map<String, Map<Integer, Set<String>>> pageNames = new LinkedHashMap<String, Map<Integer, Set<String>>>();
+		WikiLink wikiLink;
+		for (String link : links) {
+			if (StringUtils.isBlank(link)) {
+				continue;
+			}
+			try {
+				wikiLink = LinkUtil.parseWikiLink(null, virtualWiki, link);
+			} catch (RuntimeException e) {
+				// invalid links will be reported when the content is parsed
+				logger.debug("Unable to pre-load link " + link, e);
+				continue;
+			}
+			if (StringUtils.isBlank(wikiLink.getDestination()) || wikiLink.getInterwiki() != null || wikiLink.isSpecial() || wikiLink.getNamespace().getId().equals(Namespace.MEDIA_ID)) {
+				continue;
+			}
+			String linkVirtualWiki = (wikiLink.getAltVirtualWiki() != null) ? wikiLink.getAltVirtualWiki().getName() : virtualWiki;
+			// mirror the logic of isExistingArticle
+			wikiLink = new WikiLink(null, linkVirtualWiki, wikiLink.getDestination());
+			if (PseudoTopicHandler.isPseudoTopic(wikiLink.getDestination()) || wikiLink.getInterwiki() != null || wikiLink.getNamespace().getId().equals(Namespace.SPECIAL_ID)) {
+				continue;
+			}
+			Map<Integer, Set<String>> namespacePageNames = pageNames.get(linkVirtualWiki);
+			if (namespacePageNames == null) {
+				namespacePageNames = new LinkedHashMap<Integer, Set<String>>();
+				pageNames.put(linkVirtualWiki, namespacePageNames);
+			}
+			Set<String> namespacePageNameSet = namespacePageNames.get(wikiLink.getNamespace().getId());
+			if (namespacePageNameSet == null) {
+				namespacePageNameSet = new LinkedHashSet<String>();
+				namespacePageNames.put(wikiLink.getNamespace().getId(), namespacePageNameSet);
+			}
+			namespacePageNameSet.add(wikiLink.getArticle());
+		}
+		boolean allowCapitalization = Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION);
+		for (Map.Entry<String, Map<Integer, Set<String>>> virtualWikiEntry : pageNames.entrySet()) {
+			for (Map.Entry<Integer, Set<String>> namespaceEntry : virtualWikiEntry.getValue().entrySet()) {
+				Namespace namespace = Namespace.namespace(namespaceEntry.getKey());
+				Map<String, String> topicNames = WikiBase.getDataHandler().lookupTopicNames(virtualWikiEntry.getKey(), namespace, namespaceEntry.getValue());
+				if (!allowCapitalization) {
+					continue;
+				}
+				// isExistingArticle also checks an alternative capitalization for missing topics
+				List<String> alternativePageNames = new ArrayList<String>();
+				for (Map.Entry<String, String> topicName : topicNames.entrySet()) {
+					if (topicName.getValue() == null) {
+						alternativePageNames.add(LinkUtil.alternativeCapitalization(topicName.getKey()));
+					}
+				}
+				if (!alternativePageNames.isEmpty()) {
+					WikiBase.getDataHandler().lookupTopicNames(virtualWikiEntry.getKey(), namespace, alternativePageNames);
+				}
+			}
+		}
+	}
+
 	/**
 	 *
 	 */
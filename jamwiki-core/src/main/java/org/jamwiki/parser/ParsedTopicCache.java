@@ -0,0 +1,358 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.model.Topic;
+import org.jamwiki.utils.CacheInvalidationBus;
+import org.jamwiki.utils.CacheInvalidationListener;
+import org.jamwiki.utils.WikiCache;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Cache of parsed topic output.  Each cached entry records the topics that
+ * its output depends on (links, templates and redirect targets), and an entry
+ * is discarded as soon as any of those topics is added, modified or deleted.
+ * Modifications are tracked using a global sequence number: every topic change
+ * is assigned the next sequence value, and a cached entry is only valid if none
+ * of its dependencies has been modified since the sequence value that was
+ * current when the entry was parsed.  Modification records are discarded once
+ * they are older than the cache expiration time, and any entry parsed before
+ * a discarded modification is treated as invalid, so the number of records
+ * does not grow with the number of topics that have ever been modified.
+ */
+public class ParsedTopicCache {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ParsedTopicCache.class.getName());
+	/** Cache of parsed topic output, keyed by topic, version and parser settings. */
+	private static final WikiCache<String, ParsedTopic> CACHE_PARSED_TOPICS = new WikiCache<String, ParsedTopic>("org.jamwiki.parser.ParsedTopicCache.CACHE_PARSED_TOPICS");
+	/** Sequence value incremented each time a topic is modified. */
+	private static final AtomicLong MODIFICATION_SEQUENCE = new AtomicLong();
+	/** Mapping of normalized topic name to the most recent modification of that topic. */
+	private static final Map<String, TopicModification> TOPIC_MODIFICATIONS = new ConcurrentHashMap<String, TopicModification>();
+	/** Maximum number of modification records, after which all records are discarded. */
+	private static final int MAX_MODIFICATIONS = 10000;
+	/** Highest sequence value of any discarded modification record.  Entries parsed before this sequence value are not valid. */
+	private static final AtomicLong PRUNED_SEQUENCE = new AtomicLong();
+	/** Time at which modification records older than the retention time are next discarded, or zero if not yet scheduled. */
+	private static volatile long nextPrune = 0;
+	/** Channel used to receive topic modifications made on other wiki servers. */
+	private static final String TOPIC_MODIFICATIONS_CHANNEL = ParsedTopicCache.class.getName() + ".TOPIC_MODIFICATIONS";
+
+	static {
+		CacheInvalidationBus.addListener(TOPIC_MODIFICATIONS_CHANNEL, new CacheInvalidationListener() {
+			public void invalidate(String key) {
+				if (key == null) {
+					CACHE_PARSED_TOPICS.removeAllFromCache();
+				} else {
+					recordModification(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	private ParsedTopicCache() {
+	}
+
+	/**
+	 * Build the cache key for a topic, or return <code>null</code> if the
+	 * topic output should not be cached.  Topics that have not been saved,
+	 * such as previews, do not have a topic ID and are not cached.  Content is
+	 * included in the key since historical versions are displayed using the
+	 * current topic record with older content.
+	 */
+	private static String cacheKey(ParserInput parserInput, Topic topic) {
+		if (topic.getTopicId() <= 0 || topic.getCurrentVersionId() == null || topic.getTopicContent() == null) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder();
+		key.append(topic.getTopicId()).append('/').append(topic.getCurrentVersionId());
+		key.append('/').append(topic.getTopicContent().hashCode());
+		key.append('/').append(parserInput.getVirtualWiki()).append(':').append(parserInput.getTopicName());
+		key.append('/').append(parserInput.getLocale());
+		key.append('/').append(parserInput.getContext());
+		key.append('/').append(parserInput.getAllowSectionEdit());
+		key.append('/').append(parserInput.getAllowTableOfContents());
+		return key.toString();
+	}
+
+	/**
+	 * Record that a topic has been added, modified or deleted, invalidating
+	 * all cached output that depends on the topic.  Topics are tracked by name
+	 * only, without regard to virtual wiki, so a change in one virtual wiki
+	 * may invalidate entries in another virtual wiki with a topic of the same
+	 * name.  Such over-invalidation is harmless, and ensures that shared
+	 * images and cross-wiki references are handled.  The modification is
+	 * also sent to other wiki servers through the {@link CacheInvalidationBus}.
+	 *
+	 * @param topicName The name of the topic that has been modified.
+	 */
+	public static void invalidateTopic(String topicName) {
+		String key = normalize(topicName);
+		if (key == null) {
+			return;
+		}
+		recordModification(key);
+		CacheInvalidationBus.publish(TOPIC_MODIFICATIONS_CHANNEL, key);
+	}
+
+	/**
+	 * Determine whether a cached entry is still valid, meaning that none of
+	 * the topics it depends on has been modified since it was parsed.
+	 */
+	private static boolean isValid(ParsedTopic parsedTopic) {
+		if (parsedTopic.sequence < PRUNED_SEQUENCE.get()) {
+			// a modification that the entry may depend on is no longer tracked
+			return false;
+		}
+		TopicModification modified;
+		for (String dependency : parsedTopic.dependencies) {
+			modified = TOPIC_MODIFICATIONS.get(dependency);
+			if (modified != null && modified.sequence > parsedTopic.sequence) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the number of topic modifications currently being tracked.
+	 */
+	static int getModificationCount() {
+		return TOPIC_MODIFICATIONS.size();
+	}
+
+	/**
+	 * Discard modification records older than the given time.  If the number
+	 * of remaining records still exceeds the maximum then all records are
+	 * discarded.  Cached entries that were parsed before a discarded
+	 * modification are no longer valid.
+	 *
+	 * @param cutoff Records for modifications made before this time are
+	 *  discarded.
+	 */
+	static synchronized void pruneModifications(long cutoff) {
+		if (TOPIC_MODIFICATIONS.size() - countModificationsBefore(cutoff) > MAX_MODIFICATIONS) {
+			cutoff = Long.MAX_VALUE;
+		}
+		long pruned = PRUNED_SEQUENCE.get();
+		for (TopicModification modification : TOPIC_MODIFICATIONS.values()) {
+			if (modification.time < cutoff) {
+				pruned = Math.max(pruned, modification.sequence);
+			}
+		}
+		// raise the floor before removing records so that no entry is briefly
+		// treated as valid after a record that invalidates it is removed
+		PRUNED_SEQUENCE.set(pruned);
+		for (Map.Entry<String, TopicModification> entry : TOPIC_MODIFICATIONS.entrySet()) {
+			if (entry.getValue().time < cutoff) {
+				TOPIC_MODIFICATIONS.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		long retention = modificationRetention();
+		nextPrune = (retention == Long.MAX_VALUE) ? Long.MAX_VALUE : System.currentTimeMillis() + retention;
+	}
+
+	/**
+	 *
+	 */
+	private static int countModificationsBefore(long cutoff) {
+		int count = 0;
+		for (TopicModification modification : TOPIC_MODIFICATIONS.values()) {
+			if (modification.time < cutoff) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Record the modification of a topic, given its normalized name.
+	 */
+	private static void recordModification(String key) {
+		long now = System.currentTimeMillis();
+		TOPIC_MODIFICATIONS.put(key, new TopicModification(MODIFICATION_SEQUENCE.incrementAndGet(), now));
+		if (now >= nextPrune || TOPIC_MODIFICATIONS.size() > MAX_MODIFICATIONS) {
+			pruneModifications(now - modificationRetention());
+		}
+	}
+
+	/**
+	 * Return the time (in ms) after which a modification record is discarded,
+	 * which is the time-to-live configured for the parsed topic cache, since
+	 * no cached entry can depend on an older modification.  If cached entries
+	 * do not expire then records are kept until the maximum number of records
+	 * is reached.
+	 */
+	private static long modificationRetention() {
+		long timeToLive = CACHE_PARSED_TOPICS.getTimeToLive();
+		return (timeToLive > 0) ? timeToLive : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Normalize a topic name for dependency tracking.  Link and template
+	 * names may differ from the actual topic name by case or by the use of
+	 * underscores in place of spaces, so the comparison is case-insensitive.
+	 */
+	private static String normalize(String topicName) {
+		if (StringUtils.isBlank(topicName)) {
+			return null;
+		}
+		return topicName.replace('_', ' ').trim().toLowerCase();
+	}
+
+	/**
+	 * Parse the content of a topic, returning previously cached output if the
+	 * topic and all topics that it depends upon are unchanged since the
+	 * output was cached.  Output that contains non-cacheable content, such as
+	 * time-specific or user-specific content, is never cached.
+	 *
+	 * @param parserInput A ParserInput object that contains parser
+	 *  configuration information.
+	 * @param parserOutput A ParserOutput object that will hold metadata
+	 *  output.  This parameter must not be <code>null</code>.
+	 * @param topic The topic whose content is to be parsed.
+	 * @return The parsed content.
+	 * @throws ParserException Thrown if there are any parsing errors.
+	 */
+	public static String parse(ParserInput parserInput, ParserOutput parserOutput, Topic topic) throws ParserException {
+		String key = (Environment.getBooleanValue(Environment.PROP_PARSER_CACHE_TOPICS)) ? cacheKey(parserInput, topic) : null;
+		if (key == null) {
+			return ParserUtil.parse(parserInput, parserOutput, topic.getTopicContent());
+		}
+		ParsedTopic parsedTopic = CACHE_PARSED_TOPICS.retrieveFromCache(key);
+		if (parsedTopic != null) {
+			if (isValid(parsedTopic)) {
+				copyParserOutput(parsedTopic.parserOutput, parserOutput);
+				return parsedTopic.content;
+			}
+			CACHE_PARSED_TOPICS.removeFromCache(key);
+		}
+		// retrieve the sequence prior to parsing so that any modifications made
+		// while parsing will invalidate the entry
+		long sequence = MODIFICATION_SEQUENCE.get();
+		String content = ParserUtil.parse(parserInput, parserOutput, topic.getTopicContent());
+		if (content != null && parserOutput.getCacheable()) {
+			List<String> dependencies = new ArrayList<String>();
+			addDependencies(dependencies, topic.getName());
+			addDependencies(dependencies, parserOutput.getLinks());
+			addDependencies(dependencies, parserOutput.getTemplates());
+			addDependencies(dependencies, parserOutput.getDependencies());
+			ParserOutput cachedOutput = new ParserOutput();
+			copyParserOutput(parserOutput, cachedOutput);
+			CACHE_PARSED_TOPICS.addToCache(key, new ParsedTopic(content, cachedOutput, sequence, dependencies));
+		} else if (logger.isDebugEnabled()) {
+			logger.debug("Parsed output for topic " + topic.getVirtualWiki() + ':' + topic.getName() + " is not cacheable");
+		}
+		return content;
+	}
+
+	/**
+	 *
+	 */
+	private static void addDependencies(List<String> dependencies, List<String> topicNames) {
+		for (String topicName : topicNames) {
+			addDependencies(dependencies, topicName);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void addDependencies(List<String> dependencies, String topicName) {
+		String dependency = normalize(topicName);
+		if (dependency != null && !dependencies.contains(dependency)) {
+			dependencies.add(dependency);
+		}
+	}
+
+	/**
+	 * Copy all metadata from one ParserOutput object to another.
+	 */
+	private static void copyParserOutput(ParserOutput source, ParserOutput target) {
+		for (Map.Entry<String, String> category : source.getCategories().entrySet()) {
+			target.addCategory(category.getKey(), category.getValue());
+		}
+		for (String dependency : source.getDependencies()) {
+			target.addDependency(dependency);
+		}
+		for (String interwikiLink : source.getInterwikiLinks()) {
+			target.addInterwikiLink(interwikiLink);
+		}
+		for (String link : source.getLinks()) {
+			target.addLink(link);
+		}
+		for (String template : source.getTemplates()) {
+			target.addTemplate(template);
+		}
+		for (String virtualWikiLink : source.getVirtualWikiLinks()) {
+			target.addVirtualWikiLink(virtualWikiLink);
+		}
+		target.setPageTitle(source.getPageTitle());
+		target.setRedirect(source.getRedirect());
+		target.setSectionName(source.getSectionName());
+	}
+
+	/**
+	 * Cached parser output for a single topic, along with the information
+	 * needed to determine whether the output is still valid.
+	 */
+	private static class ParsedTopic implements Serializable {
+
+		private final String content;
+		private final List<String> dependencies;
+		private final ParserOutput parserOutput;
+		private final long sequence;
+
+		/**
+		 *
+		 */
+		ParsedTopic(String content, ParserOutput parserOutput, long sequence, List<String> dependencies) {
+			this.content = content;
+			this.parserOutput = parserOutput;
+			this.sequence = sequence;
+			this.dependencies = dependencies;
+		}
+	}
+
+	/**
+	 * The sequence value and time of the most recent modification of a topic.
+	 */
+	private static class TopicModification {
+
+		private final long sequence;
+		private final long time;
+
+		/**
+		 *
+		 */
+		TopicModification(long sequence, long time) {
+			this.sequence = sequence;
+			this.time = time;
+		}
+	}
+}
@@ -37,6 +37,7 @@ public class ParserOutput implements Serializable {
 
 	private boolean cacheable = true;
 	private Map<String, String> categories = Collections.emptyMap();
+	private List<String> dependencies = Collections.emptyList();
 	private final boolean immutable;
 	private List<String> interwikiLinks = Collections.emptyList();
 	private List<String> links = Collections.emptyList();
@@ -66,6 +67,7 @@ public class ParserOutput implements Serializable {
 	public void reset() {
 		this.cacheable = true;
 		this.categories = Collections.emptyMap();
+		this.dependencies = Collections.emptyList();
 		this.interwikiLinks = Collections.emptyList();
 		this.links = Collections.emptyList();
 		this.virtualWikiLinks = Collections.emptyList();
@@ -99,6 +101,29 @@ public class ParserOutput implements Serializable {
 		this.categories.put(categoryName, sortKey);
 	}
 
+	/**
+	 * When the parsed output of a document depends on a topic that is not
+	 * otherwise recorded as a link or template, such as the target of a
+	 * redirected template, this method should be called to record that
+	 * topic so that cached output can be invalidated when the topic changes.
+	 *
+	 * @param topicName The name of the topic that the parsed output depends
+	 *  on.
+	 */
+	public void addDependency(String topicName) {
+		if (this.immutable) {
+			return;
+		}
+		if (this.dependencies.isEmpty()) {
+			// this field is initialized to an immutable map, so if it is empty
+			// reset it to a mutable map.
+			this.dependencies = new ArrayList<String>();
+		}
+		if (!this.dependencies.contains(topicName)) {
+			this.dependencies.add(topicName);
+		}
+	}
+
 	/**
 	 * Add a fully-formatted interwiki link to the list of available
 	 * interwiki links for a document.  These links can then be rendered
@@ -229,6 +254,21 @@ public class ParserOutput implements Serializable {
 		return this.categories;
 	}
 
+	/**
+	 * For the document being parsed, return the list of topic names, other
+	 * than links and templates, that the parsed output depends on.
+	 *
+	 * @return A list of topic names that the parsed output depends on, in
+	 *  addition to those returned by {@link #getLinks()} and
+	 *  {@link #getTemplates()}.
+	 */
+	public List<String> getDependencies() {
+		if (this.immutable) {
+			throw new IllegalStateException("Cannot call getDependencies() on an immutable ParserOutput");
+		}
+		return this.dependencies;
+	}
+
 	/**
 	 * For the document being parsed, return the current list of interwiki
 	 * links for all interwiki links specified for the current document.
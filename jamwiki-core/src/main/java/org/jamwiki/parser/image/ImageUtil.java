@@ -26,6 +26,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.Callable;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -43,6 +44,7 @@ import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.parser.LinkUtil;
+import org.jamwiki.parser.ParsedTopicCache;
 import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.ParserUtil;
@@ -250,7 +252,7 @@ public abstract class ImageUtil {
 		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(topic.getVirtualWiki(), topic.getName());
 		WikiImage wikiImage = null;
 		try {
-			wikiImage = ImageUtil.initializeWikiImage(wikiFile, imageMetadata, fileVersion);
+			wikiImage = ImageUtil.initializeWikiImage(wikiFile, imageMetadata, fileVersion, topic.getName(), Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_WAIT));
 		} catch (FileNotFoundException e) {
 			// do not log the full exception as the logs can fill up very for this sort of error, and it is generally due to a bad configuration.  instead log a warning message so that the administrator can try to fix the problem
 			logger.warn("File not found while parsing image link for topic: " + topic.getVirtualWiki() + " / " + topicName + ".  Make sure that the following file exists and is readable by the JAMWiki installation: " + e.getMessage());
@@ -431,8 +433,10 @@ public abstract class ImageUtil {
 	 * Determine the scaled dimensions, rounded to an increment for performance reasons,
 	 * given a max width and height.  For example, if the original dimensions are 800x400,
 	 * the max width height are 200, and the increment is 400, the result is 400x200.
-	 */
-	private static Dimension calculateIncrementalDimensions(WikiImage wikiImage, Dimension originalDimensions, Dimension scaledDimensions, WikiFileVersion fileVersion) throws IOException {
+	 * If the scaled image is not generated within the resize wait time then the original
+	 * dimensions are returned and the browser will scale the image.
+	 */
+	private static Dimension calculateIncrementalDimensions(WikiImage wikiImage, Dimension originalDimensions, Dimension scaledDimensions, WikiFileVersion fileVersion, String topicName, long resizeWait) throws IOException {
 		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
 		// use width for incremental resizing
 		int incrementalWidth = calculateImageIncrement(scaledDimensions.getWidth());
@@ -442,43 +446,71 @@ public abstract class ImageUtil {
 		}
 		int incrementalHeight = (int)Math.round(((double)incrementalWidth / (double)originalDimensions.getWidth()) * (double)originalDimensions.getHeight());
 		if (isImagesOnFS()) {
-			return calculateIncrementalDimensionsForImageFile(wikiImage, originalDimensions, incrementalWidth, incrementalHeight);
-		} else {
-			return calculateIncrementalDimensionsForImageBlob(wikiImage, incrementalWidth, incrementalHeight, fileVersion);
+			return calculateIncrementalDimensionsForImageFile(wikiImage, originalDimensions, incrementalWidth, incrementalHeight, topicName, resizeWait);
+		} else {
+			return calculateIncrementalDimensionsForImageBlob(wikiImage, originalDimensions, incrementalWidth, incrementalHeight, fileVersion, topicName, resizeWait);
 		}
 	}
 
 	/**
 	 * Determine scaled dimensions for images stored on the filesystem.
 	 */
-	private static Dimension calculateIncrementalDimensionsForImageFile(WikiImage wikiImage, Dimension originalDimensions, int incrementalWidth, int incrementalHeight) throws IOException {
+	private static Dimension calculateIncrementalDimensionsForImageFile(WikiImage wikiImage, Dimension originalDimensions, final int incrementalWidth, final int incrementalHeight, final String topicName, long resizeWait) throws IOException {
 		// check to see if an image with the desired dimensions already exists on the filesystem
 		String newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), incrementalWidth);
-		File newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
+		final File newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
 		if (newImageFile.exists()) {
 			return new Dimension(incrementalWidth, incrementalHeight);
 		}
 		// otherwise generate a scaled instance
-		File imageFile = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
-		BufferedImage bufferedImage = ImageProcessor.resizeImage(imageFile, incrementalWidth, incrementalHeight);
-		newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), bufferedImage.getWidth());
-		newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
-		ImageProcessor.saveImage(bufferedImage, newImageFile);
-		return new Dimension(bufferedImage.getWidth(), bufferedImage.getHeight());
+		final File imageFile = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
+		Callable<Dimension> generator = new Callable<Dimension>() {
+			public Dimension call() throws IOException {
+				if (!newImageFile.exists()) {
+					// write to a temporary file first so that a partially written image is never served
+					BufferedImage bufferedImage = ImageProcessor.resizeImage(imageFile, incrementalWidth, incrementalHeight);
+					File tempFile = new File(newImageFile.getParentFile(), "tmp-" + newImageFile.getName());
+					ImageProcessor.saveImage(bufferedImage, tempFile);
+					if (!tempFile.renameTo(newImageFile)) {
+						tempFile.delete();
+						throw new IOException("Unable to rename resized image to " + newImageFile.getAbsolutePath());
+					}
+					// topics that displayed the original image while the thumbnail was generated must be re-parsed
+					ParsedTopicCache.invalidateTopic(topicName);
+				}
+				return new Dimension(incrementalWidth, incrementalHeight);
+			}
+		};
+		Dimension dimensions = ThumbnailService.generateThumbnail(newImageFile.getAbsolutePath(), generator, resizeWait);
+		return (dimensions != null) ? dimensions : originalDimensions;
 	}
 
 	/**
 	 * Determine scaled dimensions for images stored in the database.
 	 */
-	private static Dimension calculateIncrementalDimensionsForImageBlob(WikiImage wikiImage, int incrementalWidth, int incrementalHeight, WikiFileVersion fileVersion) throws IOException {
+	private static Dimension calculateIncrementalDimensionsForImageBlob(WikiImage wikiImage, Dimension originalDimensions, final int incrementalWidth, final int incrementalHeight, WikiFileVersion fileVersion, final String topicName, long resizeWait) throws IOException {
 		// check to see if an image with the desired dimensions already exists on the filesystem
-		int fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : -1;
-		Dimension d1  = ImageProcessor.retrieveImageDimensions(wikiImage.getFileId(), fileVersionId, incrementalWidth);
-		if (d1 != null) {
-			return d1;
-		}
+		final int fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : -1;
+		final int fileId = wikiImage.getFileId();
+		Dimension d1  = ImageProcessor.retrieveImageDimensions(fileId, fileVersionId, incrementalWidth);
+		if (d1 != null) {
+			return d1;
+		}
 		// otherwise generate a scaled instance
-		return ImageProcessor.resizeImage(wikiImage.getFileId(), fileVersionId, incrementalWidth, incrementalHeight);
+		Callable<Dimension> generator = new Callable<Dimension>() {
+			public Dimension call() throws IOException {
+				Dimension dimensions = ImageProcessor.retrieveImageDimensions(fileId, fileVersionId, incrementalWidth);
+				if (dimensions == null) {
+					dimensions = ImageProcessor.resizeImage(fileId, fileVersionId, incrementalWidth, incrementalHeight);
+					// topics that displayed the original image while the thumbnail was generated must be re-parsed
+					ParsedTopicCache.invalidateTopic(topicName);
+				}
+				return dimensions;
+			}
+		};
+		String key = fileId + "/" + wikiImage.getUrl() + "/" + incrementalWidth;
+		Dimension dimensions = ThumbnailService.generateThumbnail(key, generator, resizeWait);
+		return (dimensions != null) ? dimensions : originalDimensions;
 	}
 
 	/**
@@ -567,6 +599,41 @@ public abstract class ImageUtil {
 		return Utilities.decodeAndEscapeTopicName(filename, true);
 	}
 
+	/**
+	 * Queue background generation of resized versions of an image for each of
+	 * the widths specified by the {@link Environment#PROP_IMAGE_RESIZE_WIDTHS}
+	 * property.  This method is intended to be called after an image is uploaded
+	 * so that commonly used thumbnails are available before the image is first
+	 * displayed, and returns without waiting for the thumbnails to be generated.
+	 *
+	 * @param virtualWiki The virtual wiki for the image topic.
+	 * @param topicName The name of the image topic.
+	 */
+	public static void generateThumbnails(String virtualWiki, String topicName) {
+		String[] widths = StringUtils.split(Environment.getValue(Environment.PROP_IMAGE_RESIZE_WIDTHS), ", ");
+		if (widths == null || widths.length == 0) {
+			return;
+		}
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(virtualWiki, topicName);
+		if (wikiFile == null) {
+			return;
+		}
+		for (String width : widths) {
+			if (!StringUtils.isNumeric(width)) {
+				logger.warn("Invalid image resize width specified: " + width);
+				continue;
+			}
+			ImageMetadata imageMetadata = new ImageMetadata();
+			imageMetadata.setMaxWidth(Integer.parseInt(width));
+			try {
+				ImageUtil.initializeWikiImage(wikiFile, imageMetadata, null, topicName, 0);
+			} catch (IOException e) {
+				logger.warn("Failure while generating thumbnails for " + virtualWiki + " / " + topicName + ": " + e.getMessage());
+				return;
+			}
+		}
+	}
+
 	/**
 	 * Given a virtualWiki and WikiFIle that correspond to an existing image,
 	 * return the WikiImage object.  In addition, if the image metadata specifies
@@ -580,11 +647,15 @@ public abstract class ImageUtil {
 	 *  value to be ignored.
 	 * @param fileVersion The specific file version.  If this parameter is
 	 *  <code>null</code> then the current version is used.
+	 * @param topicName The name of the image topic.
+	 * @param resizeWait The maximum number of milliseconds to wait for a
+	 *  resized image to be generated, or a negative value to wait until the
+	 *  resized image is available.
 	 * @return An initialized WikiImage object.
 	 * @throws IOException Thrown if an error occurs while initializing the
 	 *  WikiImage object.
 	 */
-	private static WikiImage initializeWikiImage(WikiFile wikiFile, ImageMetadata imageMetadata, WikiFileVersion fileVersion) throws IOException {
+	private static WikiImage initializeWikiImage(WikiFile wikiFile, ImageMetadata imageMetadata, WikiFileVersion fileVersion, String topicName, long resizeWait) throws IOException {
 		if (wikiFile == null) {
 			throw new IllegalArgumentException("wikiFile may not be null");
 		}
@@ -620,7 +691,7 @@ public abstract class ImageUtil {
 		wikiImage.setWidth((int)scaledDimensions.getWidth());
 		wikiImage.setHeight((int)scaledDimensions.getHeight());
 		// return an appropriate WikiImage object with URL to the scaled image, proper width, and proper height
-		Dimension incrementalDimensions = calculateIncrementalDimensions(wikiImage, originalDimensions, scaledDimensions, fileVersion);
+		Dimension incrementalDimensions = calculateIncrementalDimensions(wikiImage, originalDimensions, scaledDimensions, fileVersion, topicName, resizeWait);
 		if (isImagesOnFS()) {
 			String url = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), (int)incrementalDimensions.getWidth());
 			wikiImage.setUrl(url);
@@ -0,0 +1,167 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Service for generating resized images on a bounded pool of background
+ * threads.  Requests are de-duplicated so that concurrent requests for the
+ * same thumbnail (identified by file, version and width) share a single
+ * generation task rather than resizing the same image in parallel.  Callers
+ * may wait a limited amount of time for a thumbnail to be generated, and
+ * should fall back to displaying the original image scaled by the browser if
+ * the thumbnail is not yet available.
+ */
+public class ThumbnailService {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ThumbnailService.class.getName());
+	/** Maximum number of thumbnail generation tasks that may be queued before new requests are rejected. */
+	private static final int MAX_QUEUED_THUMBNAILS = 1000;
+	/** Mapping of thumbnail key to the task that is generating the thumbnail. */
+	private static final ConcurrentMap<String, Future<Dimension>> PENDING_THUMBNAILS = new ConcurrentHashMap<String, Future<Dimension>>();
+	private static ThreadPoolExecutor executor = null;
+
+	/**
+	 *
+	 */
+	private ThumbnailService() {
+	}
+
+	/**
+	 * Request that a thumbnail be generated, returning its dimensions if it is
+	 * generated within the specified wait time.  If a thumbnail with the same
+	 * key is already being generated then no new task is created and the
+	 * existing task is used.
+	 *
+	 * @param key A value that uniquely identifies the thumbnail, typically
+	 *  including the file, file version and thumbnail width.
+	 * @param generator The task that generates the thumbnail and returns its
+	 *  dimensions.
+	 * @param wait The maximum number of milliseconds to wait for the thumbnail
+	 *  to be generated.  A value of zero returns immediately, while a negative
+	 *  value waits until the thumbnail is generated.
+	 * @return The dimensions of the generated thumbnail, or <code>null</code> if
+	 *  the thumbnail was not generated within the wait time.
+	 * @throws IOException Thrown if thumbnail generation fails.
+	 */
+	protected static Dimension generateThumbnail(String key, Callable<Dimension> generator, long wait) throws IOException {
+		Future<Dimension> future = submit(key, generator);
+		if (future == null || wait == 0) {
+			return null;
+		}
+		try {
+			return (wait < 0) ? future.get() : future.get(wait, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Thumbnail not generated within " + wait + " ms, image will be scaled by the browser: " + key);
+			}
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			IOException ioe = new IOException("Failure while generating thumbnail " + key);
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Return the executor used to generate thumbnails, creating it if
+	 * necessary.  The pool size is determined by the
+	 * {@link Environment#PROP_IMAGE_RESIZE_THREADS} property.
+	 */
+	private static synchronized ThreadPoolExecutor retrieveExecutor() {
+		if (executor == null) {
+			int threads = Math.max(Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_THREADS), 1);
+			executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_THUMBNAILS), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "jamwiki-thumbnail-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Stop all thumbnail generation threads.  Any queued tasks are discarded.
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		PENDING_THUMBNAILS.clear();
+	}
+
+	/**
+	 * Submit a thumbnail generation task unless a task with the same key is
+	 * already pending, returning the pending task.  Returns <code>null</code>
+	 * if the task queue is full.
+	 */
+	private static Future<Dimension> submit(final String key, final Callable<Dimension> generator) {
+		Future<Dimension> future = PENDING_THUMBNAILS.get(key);
+		if (future != null) {
+			return future;
+		}
+		FutureTask<Dimension> task = new FutureTask<Dimension>(new Callable<Dimension>() {
+			public Dimension call() throws Exception {
+				try {
+					return generator.call();
+				} finally {
+					PENDING_THUMBNAILS.remove(key);
+				}
+			}
+		});
+		future = PENDING_THUMBNAILS.putIfAbsent(key, task);
+		if (future != null) {
+			return future;
+		}
+		try {
+			retrieveExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			PENDING_THUMBNAILS.remove(key, task);
+			logger.info("Thumbnail generation queue is full, image will be scaled by the browser: " + key);
+			return null;
+		}
+		return task;
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.jflex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pre-compiled representation of a template body.  A template body is split
+ * into literal text segments and parameter slots of the form
+ * <code>{{{param|default}}}</code>, where the content of each slot is itself
+ * a compiled template body to allow for nested parameters such as
+ * <code>{{{1|{{{2}}}}}}</code>.  Compiling a template body once allows it to
+ * be expanded any number of times without re-scanning the template text.
+ *
+ * Instances of this class are immutable and may be shared between threads.
+ */
+class CompiledTemplateBody {
+
+	/** List of segments, where each segment is either a literal <code>String</code> or a <code>CompiledTemplateBody</code> parameter slot. */
+	private final List<Object> segments;
+
+	/**
+	 *
+	 */
+	private CompiledTemplateBody(List<Object> segments) {
+		this.segments = Collections.unmodifiableList(segments);
+	}
+
+	/**
+	 * Scan template body content for template parameters of the form {{{0}}}
+	 * and return a compiled representation of the content.
+	 *
+	 * @param content The template body content to compile.
+	 * @return A compiled template body containing the literal and parameter
+	 *  segments of the content.
+	 */
+	protected static CompiledTemplateBody compile(String content) {
+		List<Object> segments = new ArrayList<Object>();
+		StringBuilder literal = new StringBuilder();
+		char current, case4Char;
+		int endPos, case1EndPos, case3EndPos;
+		for (int pos = 0; pos < content.length(); pos++) {
+			current = content.charAt(pos);
+			if (!content.startsWith("{{{", pos)) {
+				// not a template parameter, move to the next character
+				literal.append(current);
+				continue;
+			}
+			// this may be a template parameter, but check for various sub-patterns to be sure
+			endPos = JFlexParserUtil.findMatchingEndTag(content, pos, "{{{", "}}}");
+			if (endPos == -1) {
+				// no matching end tag
+				literal.append(current);
+				continue;
+			}
+			endPos += "}}}".length();
+			// there are several sub-patterns that need to be analyzed:
+			// 1. {{{1|{{PAGENAME}}}}}
+			// 2. {{{{{1}}}}}
+			// 3. {{{template}} x {{template}}}
+			// 4. {{{1|{{{2}}}}}}
+			case1EndPos = JFlexParserUtil.findMatchingEndTag(content, pos, "{", "}") + "}".length();
+			if (endPos < case1EndPos && content.startsWith("}}}", case1EndPos - 3)) {
+				// case #1
+				endPos = case1EndPos;
+			}
+			if (content.startsWith("{{{{{", pos) && content.startsWith("}}}}}", endPos - 5)) {
+				// case #2 (note: endPos updated in the previous step)
+				literal.append("{{");
+				pos++;
+				continue;
+			}
+			case3EndPos = JFlexParserUtil.findMatchingEndTag(content, pos + 1, "{{", "}}") + "}}".length();
+			if (case3EndPos != (endPos - 1)) {
+				// either case #3 or case #4
+				case4Char = content.charAt(case3EndPos + 1);
+				if (case4Char != '}') {
+					// case #3
+					literal.append(current);
+					continue;
+				}
+			}
+			if (literal.length() > 0) {
+				segments.add(literal.toString());
+				literal.setLength(0);
+			}
+			segments.add(CompiledTemplateBody.compile(content.substring(pos + "{{{".length(), endPos - "}}}".length())));
+			pos = endPos - 1;
+		}
+		if (literal.length() > 0) {
+			segments.add(literal.toString());
+		}
+		return new CompiledTemplateBody(segments);
+	}
+
+	/**
+	 * Return the list of segments that make up this template body.  Each
+	 * segment is either a literal <code>String</code> or a
+	 * <code>CompiledTemplateBody</code> representing the content of a template
+	 * parameter slot.
+	 */
+	protected List<Object> getSegments() {
+		return this.segments;
+	}
+}
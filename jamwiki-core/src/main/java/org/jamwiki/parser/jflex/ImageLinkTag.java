@@ -22,7 +22,9 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.WikiBase;
 import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
 import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
@@ -105,6 +107,8 @@ public class ImageLinkTag implements JFlexParserTag {
 		// do not escape html for caption since parser does it above
 		try {
 			String virtualWiki = (wikiLink.getAltVirtualWiki() == null) ? parserInput.getVirtualWiki() : wikiLink.getAltVirtualWiki().getName();
+			// the output depends on the image, which may be re-uploaded or have thumbnails generated later
+			parserOutput.addDependency(this.buildDependencyName(virtualWiki, wikiLink));
 			return ImageUtil.buildImageLinkHtml(context, virtualWiki, wikiLink.getDestination(), imageMetadata, null, false, null);
 		} catch (IOException e) {
 			// FIXME - display a broken image icon or something better
@@ -113,6 +117,22 @@ public class ImageLinkTag implements JFlexParserTag {
 		}
 	}
 
+	/**
+	 * Return the name of the image topic that an image link refers to.  The
+	 * image may live in the shared upload virtual wiki, whose namespace label
+	 * can differ from the one used in the link, so use the name of the topic
+	 * itself, which is the name used when the topic is modified or its
+	 * thumbnails are generated.
+	 */
+	private String buildDependencyName(String virtualWiki, WikiLink wikiLink) {
+		Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, wikiLink.getNamespace(), wikiLink.getArticle(), false);
+		if (topic == null) {
+			// image not yet uploaded
+			topic = new Topic(virtualWiki, wikiLink.getNamespace(), wikiLink.getArticle());
+		}
+		return topic.getName();
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,152 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.jflex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedList;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reader implementation that pulls its content from a JFlex lexer one token
+ * at a time.  This class allows parser stages to be chained so that each stage
+ * consumes the output of the previous stage as it is produced, rather than
+ * waiting for the previous stage to generate a full copy of the document.
+ */
+class JFlexLexerReader extends Reader {
+
+	/** The lexer that produces the content returned by this reader. */
+	private final JFlexLexer lexer;
+	/** Flag indicating that the underlying lexer has no more tokens. */
+	private boolean eof = false;
+	/** Tokens that have been read from the lexer but not yet returned by this reader. */
+	private final LinkedList<String> pending = new LinkedList<String>();
+	/** The current position within the current token. */
+	private int position = 0;
+	/** The most recent token returned by the lexer, or <code>null</code> if no token has been read. */
+	private String token;
+
+	/**
+	 * Create a reader that returns the output of the given lexer.  The lexer
+	 * must have been initialized prior to the first read from this reader.
+	 *
+	 * @param lexer The lexer that generates the content for this reader.
+	 */
+	JFlexLexerReader(JFlexLexer lexer) {
+		this.lexer = lexer;
+	}
+
+	/**
+	 * Stop reading from the lexer.  The reader does not hold any external
+	 * resources, so no further cleanup is required.
+	 */
+	public void close() {
+		this.eof = true;
+		this.pending.clear();
+		this.token = null;
+	}
+
+	/**
+	 * Determine whether the remaining lexer output contains only whitespace.
+	 * Any tokens read from the lexer while making this determination are
+	 * buffered so that they are still returned by subsequent reads.
+	 *
+	 * @return <code>true</code> if all remaining lexer output is empty or
+	 *  whitespace.
+	 */
+	protected boolean isBlank() throws IOException {
+		if (this.token != null) {
+			for (int i = this.position; i < this.token.length(); i++) {
+				if (!Character.isWhitespace(this.token.charAt(i))) {
+					return false;
+				}
+			}
+		}
+		for (String next : this.pending) {
+			if (!StringUtils.isBlank(next)) {
+				return false;
+			}
+		}
+		String next;
+		while ((next = this.nextLexerToken()) != null) {
+			this.pending.add(next);
+			if (!StringUtils.isBlank(next)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieve the next token from the lexer, or <code>null</code> if the
+	 * lexer has no further content.
+	 */
+	private String nextLexerToken() throws IOException {
+		if (this.eof) {
+			return null;
+		}
+		String next;
+		try {
+			next = this.lexer.yylex();
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			IOException ioe = new IOException("Failure while reading lexer output");
+			ioe.initCause(e);
+			throw ioe;
+		}
+		if (next == null) {
+			this.eof = true;
+		}
+		return next;
+	}
+
+	/**
+	 * Advance to the next non-empty token, either from the buffer of pending
+	 * tokens or from the lexer.
+	 *
+	 * @return <code>true</code> if there is token content available to be read,
+	 *  <code>false</code> if the lexer has no further content.
+	 */
+	private boolean nextToken() throws IOException {
+		while (this.token == null || this.position >= this.token.length()) {
+			this.token = (!this.pending.isEmpty()) ? this.pending.removeFirst() : this.nextLexerToken();
+			this.position = 0;
+			if (this.token == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read lexer output into the buffer, filling it as much as possible.
+	 */
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int count = 0;
+		while (count < len && this.nextToken()) {
+			int available = Math.min(len - count, this.token.length() - this.position);
+			this.token.getChars(this.position, this.position + available, cbuf, off + count);
+			this.position += available;
+			count += available;
+		}
+		return (count == 0) ? -1 : count;
+	}
+}
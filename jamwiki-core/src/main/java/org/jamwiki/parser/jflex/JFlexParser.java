@@ -16,9 +16,15 @@
  */
 package org.jamwiki.parser.jflex;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.text.StrBuilder;
+import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiParser;
 import org.jamwiki.parser.LinkUtil;
 import org.jamwiki.parser.ParserException;
@@ -35,6 +41,8 @@ import org.jamwiki.utils.WikiLogger;
 public class JFlexParser implements JAMWikiParser {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(JFlexParser.class.getName());
+	/** Pattern used to find the targets of wiki links such as "[[Topic|text]]" in unparsed content. */
+	private static final Pattern WIKI_LINK_TARGET_PATTERN = Pattern.compile("\\[\\[\\s*:?([^\\[\\]\\{\\}\\|<>\\n]+)");
 
 	/** Mode used when parsing edit comments. */
 	public static final int MODE_EDIT_COMMENT = 0;
@@ -72,6 +80,18 @@ public class JFlexParser implements JAMWikiParser {
 		return "#REDIRECT [[" + topicName + "]]";
 	}
 
+	/**
+	 * Initialize a lexer and wrap it in a reader so that its output can be
+	 * consumed by the next parser stage as it is produced.  Note that the depth
+	 * of the chained lexer is not incremented since it executes within the
+	 * depth of the lexer that consumes its output.
+	 */
+	private JFlexLexerReader chain(JFlexLexer lexer, ParserInput parserInput, ParserOutput parserOutput, int mode) throws ParserException {
+		lexer.init(parserInput, parserOutput, mode);
+		validate(lexer);
+		return new JFlexLexerReader(lexer);
+	}
+
 	/**
 	 * Utility method for executing a lexer parse.
 	 */
@@ -175,10 +195,20 @@ public class JFlexParser implements JAMWikiParser {
 		// some parser expressions require that lines end in a newline, so add a newline
 		// to the end of the content for good measure
 		String output = raw + '\n';
-		output = this.parseTemplate(parserInput, parserOutput, output, JFlexParser.MODE_TEMPLATE);
-		output = this.parseCustom(parserInput, parserOutput, output, JFlexParser.MODE_CUSTOM);
-		output = this.parsePreProcess(parserInput, parserOutput, output, JFlexParser.MODE_PREPROCESS);
-		output = this.parseProcess(parserInput, parserOutput, output, JFlexParser.MODE_LAYOUT);
+		if (Environment.getBooleanValue(Environment.PROP_PARSER_STREAMING)) {
+			// links are not known until the content is processed, so look up the
+			// link targets found in the unparsed content
+			LinkUtil.preloadExistingArticles(parserInput.getVirtualWiki(), JFlexParser.findLinkTargets(output));
+			output = this.parseStreaming(parserInput, parserOutput, output, JFlexParser.MODE_LAYOUT);
+		} else {
+			output = this.parseTemplate(parserInput, parserOutput, output, JFlexParser.MODE_TEMPLATE);
+			output = this.parseCustom(parserInput, parserOutput, output, JFlexParser.MODE_CUSTOM);
+			output = this.parsePreProcess(parserInput, parserOutput, output, JFlexParser.MODE_PREPROCESS);
+			// the pre-processor records all links, so look them up in bulk before
+			// the processor renders each link
+			LinkUtil.preloadExistingArticles(parserInput.getVirtualWiki(), parserOutput.getLinks());
+			output = this.parseProcess(parserInput, parserOutput, output, JFlexParser.MODE_LAYOUT);
+		}
 		output = this.parsePostProcess(parserInput, parserOutput, output, JFlexParser.MODE_POSTPROCESS);
 		if (!StringUtils.isBlank(parserOutput.getRedirect())) {
 			// redirects are parsed differently
@@ -191,6 +221,25 @@ public class JFlexParser implements JAMWikiParser {
 		return output.trim();
 	}
 
+	/**
+	 * Return the targets of all wiki links that appear directly in unparsed
+	 * content.  Links generated by templates are not found, nor are links
+	 * that contain template parameters, and text within nowiki or other
+	 * non-parsed tags may produce false matches.  The results are therefore
+	 * only suitable as a hint for pre-loading link information.
+	 */
+	protected static List<String> findLinkTargets(String raw) {
+		List<String> results = new ArrayList<String>();
+		if (raw == null || raw.indexOf("[[") == -1) {
+			return results;
+		}
+		Matcher matcher = WIKI_LINK_TARGET_PATTERN.matcher(raw);
+		while (matcher.find()) {
+			results.add(matcher.group(1));
+		}
+		return results;
+	}
+
 	/**
 	 * This method provides a way to parse content and set all output metadata,
 	 * such as link values used by the search engine.
@@ -211,9 +260,13 @@ public class JFlexParser implements JAMWikiParser {
 		// some parser expressions require that lines end in a newline, so add a newline
 		// to the end of the content for good measure
 		String output = raw + '\n';
-		output = this.parseTemplate(parserInput, parserOutput, output, JFlexParser.MODE_TEMPLATE);
-		output = this.parseCustom(parserInput, parserOutput, output, JFlexParser.MODE_CUSTOM);
-		output = this.parsePreProcess(parserInput, parserOutput, output, JFlexParser.MODE_PREPROCESS);
+		if (Environment.getBooleanValue(Environment.PROP_PARSER_STREAMING)) {
+			this.parseStreaming(parserInput, parserOutput, output, JFlexParser.MODE_PREPROCESS);
+		} else {
+			output = this.parseTemplate(parserInput, parserOutput, output, JFlexParser.MODE_TEMPLATE);
+			output = this.parseCustom(parserInput, parserOutput, output, JFlexParser.MODE_CUSTOM);
+			output = this.parsePreProcess(parserInput, parserOutput, output, JFlexParser.MODE_PREPROCESS);
+		}
 		if (logger.isInfoEnabled()) {
 			String topicName = (!StringUtils.isBlank(parserInput.getTopicName())) ? parserInput.getTopicName() : null;
 			logger.info("Parse time (parseMetadata) for " + topicName + " (" + ((System.currentTimeMillis() - start) / 1000.000) + " s.)");
@@ -326,6 +379,47 @@ public class JFlexParser implements JAMWikiParser {
 		return this.lex(lexer, parserInput, parserOutput, mode);
 	}
 
+	/**
+	 * Execute the template, custom tag, pre-processor and (optionally) processor
+	 * stages of the parser as a single pass.  Each lexer reads directly from the
+	 * output of the previous lexer as it is generated, so the document is not
+	 * copied into a new string and re-scanned between each stage.
+	 *
+	 * @param parserInput Input configuration settings.
+	 * @param parserOutput A ParserOutput object containing parser
+	 *  metadata output.
+	 * @param raw The raw Wiki syntax to be converted into HTML.
+	 * @param mode The parser mode to use when parsing.  Mode affects what
+	 *  type of parsing actions are taken when processing raw text, and must be
+	 *  at least {@link #MODE_PREPROCESS}.
+	 * @return The parsed content.
+	 * @throws ParserException Thrown if any error occurs during parsing.
+	 */
+	private String parseStreaming(ParserInput parserInput, ParserOutput parserOutput, String raw, int mode) throws ParserException {
+		Reader reader = toReader(raw, true);
+		reader = this.chain(new JAMWikiTemplateLexer(reader), parserInput, parserOutput, JFlexParser.MODE_TEMPLATE);
+		reader = this.chain(new JAMWikiCustomTagLexer(reader), parserInput, parserOutput, JFlexParser.MODE_CUSTOM);
+		if (mode < JFlexParser.MODE_PROCESS) {
+			return this.lex(new JAMWikiPreLexer(reader), parserInput, parserOutput, JFlexParser.MODE_PREPROCESS);
+		}
+		JFlexLexerReader preReader = this.chain(new JAMWikiPreLexer(reader), parserInput, parserOutput, JFlexParser.MODE_PREPROCESS);
+		// the processor returns empty content for blank input, so look ahead to see if
+		// there is any non-whitespace content to process
+		boolean blank;
+		parserInput.incrementDepth();
+		try {
+			blank = preReader.isBlank();
+		} catch (IOException e) {
+			throw new ParserException("Failure while parsing topic " + parserInput.getVirtualWiki() + ':' + parserInput.getTopicName(), e);
+		} finally {
+			parserInput.decrementDepth();
+		}
+		if (blank) {
+			return "";
+		}
+		return this.lex(new JAMWikiLexer(preReader), parserInput, parserOutput, mode);
+	}
+
 	/**
 	 * Parse a topic that is a redirect.  Ordinarily the contents of the redirected
 	 * topic would be displayed, but in some cases (such as when explicitly viewing
@@ -401,23 +401,21 @@ public class JFlexParserUtil {
 		int pos = 0;
 		int endPos = -1;
 		int closeTagSize = 0;
-		String substring;
 		StringBuilder value = new StringBuilder(content.length());
 		while (pos < content.length()) {
-			substring = content.substring(pos);
 			endPos = -1;
 			closeTagSize = 2;
-			if (substring.startsWith("{{{")) {
+			if (content.startsWith("{{{", pos)) {
 				// template parameter
 				endPos = JFlexParserUtil.findMatchingEndTag(content, pos, "{{{", "}}}");
 				closeTagSize = 3;
-			} else if (substring.startsWith("{{")) {
+			} else if (content.startsWith("{{", pos)) {
 				// template
 				endPos = JFlexParserUtil.findMatchingEndTag(content, pos, "{{", "}}");
-			} else if (substring.startsWith("[[")) {
+			} else if (content.startsWith("[[", pos)) {
 				// link
 				endPos = JFlexParserUtil.findMatchingEndTag(content, pos, "[[", "]]");
-			} else if (substring.startsWith("{|")) {
+			} else if (content.startsWith("{|", pos)) {
 				// table
 				endPos = JFlexParserUtil.findMatchingEndTag(content, pos, "{|", "|}");
 			} else if (content.charAt(pos) == '|') {
@@ -26,6 +26,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiVersion;
+import org.jamwiki.db.SiteStatistics;
 import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicVersion;
@@ -243,8 +244,12 @@ public class MagicWordUtil {
 	protected static String processMagicWord(ParserInput parserInput, ParserOutput parserOutput, int mode, String magicWord, String magicWordArguments) throws ParserException {
 		String[] magicWordArgumentArray = JFlexParserUtil.retrieveTokenizedArgumentArray(parserInput, parserOutput, mode, magicWordArguments);
 		if (MAGIC_WORDS_DATETIME.contains(magicWord)) {
+			// output changes over time, so the parsed document cannot be cached
+			parserOutput.setCacheable(false);
 			return processMagicWordDateTime(parserInput, magicWord);
 		} else if (MAGIC_WORDS_STATISTICS.contains(magicWord)) {
+			// output changes as topics are added or modified
+			parserOutput.setCacheable(false);
 			return processMagicWordStatistics(parserInput, magicWord);
 		} else if (MAGIC_WORDS_PAGE_NAMES.contains(magicWord)) {
 			return processMagicWordPageNames(parserInput, magicWord, magicWordArgumentArray);
@@ -374,35 +379,35 @@ public class MagicWordUtil {
 			return WikiVersion.CURRENT_WIKI_VERSION;
 		}
 		if (name.equals(MAGIC_NUMBER_ARTICLES)) {
-			int results = WikiBase.getDataHandler().lookupTopicCount(parserInput.getVirtualWiki(), Namespace.MAIN_ID);
+			int results = SiteStatistics.getArticleCount(parserInput.getVirtualWiki());
 			return numFormatter.format(results);
 		}
 		if (name.equals(MAGIC_NUMBER_ARTICLES_R)) {
-			int results = WikiBase.getDataHandler().lookupTopicCount(parserInput.getVirtualWiki(), Namespace.MAIN_ID);
+			int results = SiteStatistics.getArticleCount(parserInput.getVirtualWiki());
 			return Integer.toString(results);
 		}
 		if (name.equals(MAGIC_NUMBER_PAGES)) {
-			int results = WikiBase.getDataHandler().lookupTopicCount(parserInput.getVirtualWiki(), null);
+			int results = SiteStatistics.getPageCount(parserInput.getVirtualWiki());
 			return numFormatter.format(results);
 		}
 		if (name.equals(MAGIC_NUMBER_PAGES_R)) {
-			int results = WikiBase.getDataHandler().lookupTopicCount(parserInput.getVirtualWiki(), null);
+			int results = SiteStatistics.getPageCount(parserInput.getVirtualWiki());
 			return Integer.toString(results);
 		}
 		if (name.equals(MAGIC_NUMBER_FILES)) {
-			int results = WikiBase.getDataHandler().lookupWikiFileCount(parserInput.getVirtualWiki());
+			int results = SiteStatistics.getFileCount(parserInput.getVirtualWiki());
 			return numFormatter.format(results);
 		}
 		if (name.equals(MAGIC_NUMBER_FILES_R)) {
-			int results = WikiBase.getDataHandler().lookupWikiFileCount(parserInput.getVirtualWiki());
+			int results = SiteStatistics.getFileCount(parserInput.getVirtualWiki());
 			return Integer.toString(results);
 		}
 		if (name.equals(MAGIC_NUMBER_USERS)) {
-			int results = WikiBase.getDataHandler().lookupWikiUserCount();
+			int results = SiteStatistics.getUserCount();
 			return numFormatter.format(results);
 		}
 		if (name.equals(MAGIC_NUMBER_USERS_R)) {
-			int results = WikiBase.getDataHandler().lookupWikiUserCount();
+			int results = SiteStatistics.getUserCount();
 			return Integer.toString(results);
 		}
 		return name;
@@ -33,6 +33,7 @@ import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Utilities;
+import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -44,6 +45,8 @@ public class TemplateTag implements JFlexParserTag {
 	private static final WikiLogger logger = WikiLogger.getLogger(TemplateTag.class.getName());
 	protected static final String TEMPLATE_INCLUSION = "template-inclusion";
 	protected static final String TEMPLATE_ONLYINCLUDE = "template-onlyinclude";
+	/** Cache of compiled template bodies, keyed by template topic ID and version ID. */
+	private static final WikiCache<String, CompiledTemplateBody> CACHE_TEMPLATE_BODIES = new WikiCache<String, CompiledTemplateBody>("org.jamwiki.parser.jflex.TemplateTag.CACHE_TEMPLATE_BODIES");
 
 	/**
 	 * Once the template call has been parsed and the template values have been
@@ -52,10 +55,9 @@ public class TemplateTag implements JFlexParserTag {
 	 * voodoo magic that happens here to first parse any embedded values, and
 	 * to apply default values when no template value has been set.
 	 */
-	private String applyParameter(ParserInput parserInput, ParserOutput parserOutput, String param, Map<String, String> parameterValues) throws ParserException {
-		String content = param.substring("{{{".length(), param.length() - "}}}".length());
+	private String applyParameter(ParserInput parserInput, ParserOutput parserOutput, CompiledTemplateBody param, Map<String, String> parameterValues) throws ParserException {
 		// re-parse in case of embedded templates or params
-		content = this.parseTemplateBody(parserInput, parserOutput, content, parameterValues);
+		String content = this.parseTemplateBody(parserInput, parserOutput, param, parameterValues);
 		String name = this.parseParamName(content);
 		String value = parameterValues.get(name);
 		if (value != null) {
@@ -65,6 +67,37 @@ public class TemplateTag implements JFlexParserTag {
 		return (defaultValue == null) ? " " : defaultValue;
 	}
 
+	/**
+	 * Retrieve the compiled template body for a template topic, either from the
+	 * cache or by parsing the template content for noinclude, onlyinclude and
+	 * includeonly tags and then compiling the result.
+	 */
+	private CompiledTemplateBody compileTemplateBody(ParserInput parserInput, ParserOutput parserOutput, Topic templateTopic) throws ParserException {
+		String cacheKey = this.templateCacheKey(templateTopic);
+		if (cacheKey != null) {
+			CompiledTemplateBody cachedBody = CACHE_TEMPLATE_BODIES.retrieveFromCache(cacheKey);
+			if (cachedBody != null) {
+				return cachedBody;
+			}
+		}
+		// parse the template content for noinclude, onlyinclude and includeonly tags
+		String templateBody = JFlexParserUtil.parseFragment(parserInput, parserOutput, templateTopic.getTopicContent().trim(), JFlexParser.MODE_TEMPLATE_BODY);
+		if (parserInput.getTempParam(TEMPLATE_ONLYINCLUDE) != null) {
+			// HACK! If an onlyinclude tag is encountered in the previous fragment parse
+			// then that tag's parsed output is stored in the TEMPLATE_ONLYINCLUDE param.
+			// This hack is necessary because onlyinclude indicates that ONLY the
+			// onlyinclude content is relevant, and anything parsed before or after that
+			// tag must be ignored.
+			templateBody = (String)parserInput.getTempParam(TEMPLATE_ONLYINCLUDE);
+			parserInput.removeTempParam(TEMPLATE_ONLYINCLUDE);
+		}
+		CompiledTemplateBody compiledBody = CompiledTemplateBody.compile(templateBody);
+		if (cacheKey != null) {
+			CACHE_TEMPLATE_BODIES.addToCache(cacheKey, compiledBody);
+		}
+		return compiledBody;
+	}
+
 	/**
 	 * Parse a call to a Mediawiki template of the form "{{template|param1|param2}}"
 	 * and return the resulting template output.
@@ -153,8 +186,11 @@ public class TemplateTag implements JFlexParserTag {
 		} else {
 			// make sure template was not redirected
 			if (templateTopic != null && templateTopic.getTopicType() == TopicType.REDIRECT) {
+				// the output depends on the redirect target as well as the redirect itself
+				parserOutput.addDependency(templateTopic.getRedirectTo());
 				templateTopic = LinkUtil.findRedirectedTopic(templateTopic, 0);
 				name = templateTopic.getName();
+				parserOutput.addDependency(name);
 			}
 			if (templateTopic != null && templateTopic.getTopicType() == TopicType.REDIRECT) {
 				// redirection target does not exist
@@ -219,61 +255,18 @@ public class TemplateTag implements JFlexParserTag {
 	}
 
 	/**
-	 * After template parameter values have been set, process the template body
-	 * and replace parameters with parameter values or defaults, processing any
+	 * After template parameter values have been set, process the compiled template
+	 * body and replace parameters with parameter values or defaults, processing any
 	 * embedded parameters or templates.
 	 */
-	private String parseTemplateBody(ParserInput parserInput, ParserOutput parserOutput, String content, Map<String, String> parameterValues) throws ParserException {
+	private String parseTemplateBody(ParserInput parserInput, ParserOutput parserOutput, CompiledTemplateBody compiledBody, Map<String, String> parameterValues) throws ParserException {
 		StringBuilder output = new StringBuilder();
-		char current, case4Char;
-		String substring, param;
-		int endPos, case1EndPos, case3EndPos;
-		// find template parameters of the form {{{0}}}
-		for (int pos = 0; pos < content.length(); pos++) {
-			current = content.charAt(pos);
-			substring = content.substring(pos);
-			if (!substring.startsWith("{{{")) {
-				// not a template parameter, move to the next character
-				output.append(current);
-				continue;
-			}
-			// this may be a template parameter, but check for various sub-patterns to be sure
-			endPos = JFlexParserUtil.findMatchingEndTag(content, pos, "{{{", "}}}");
-			if (endPos == -1) {
-				// no matching end tag
-				output.append(current);
-				continue;
-			}
-			endPos += "}}}".length();
-			// there are several sub-patterns that need to be analyzed:
-			// 1. {{{1|{{PAGENAME}}}}}
-			// 2. {{{{{1}}}}}
-			// 3. {{{template}} x {{template}}}
-			// 4. {{{1|{{{2}}}}}}
-			case1EndPos = JFlexParserUtil.findMatchingEndTag(content, pos, "{", "}") + "}".length();
-			if (endPos < case1EndPos && content.substring(case1EndPos - 3, case1EndPos).equals("}}}")) {
-				// case #1
-				endPos = case1EndPos;
-			}
-			if (substring.startsWith("{{{{{") && content.substring(endPos - 5, endPos).equals("}}}}}")) {
-				// case #2 (note: endPos updated in the previous step)
-				output.append("{{");
-				pos++;
-				continue;
-			}
-			case3EndPos = JFlexParserUtil.findMatchingEndTag(content, pos + 1, "{{", "}}") + "}}".length();
-			if (case3EndPos != (endPos - 1)) {
-				// either case #3 or case #4
-				case4Char = content.charAt(case3EndPos + 1);
-				if (case4Char != '}') {
-					// case #3
-					output.append(current);
-					continue;
-				}
+		for (Object segment : compiledBody.getSegments()) {
+			if (segment instanceof CompiledTemplateBody) {
+				output.append(this.applyParameter(parserInput, parserOutput, (CompiledTemplateBody)segment, parameterValues));
+			} else {
+				output.append((String)segment);
 			}
-			param = content.substring(pos, endPos);
-			output.append(this.applyParameter(parserInput, parserOutput, param, parameterValues));
-			pos = endPos - 1;
 		}
 		return JFlexParserUtil.parseFragment(parserInput, parserOutput, output.toString().trim(), JFlexParser.MODE_TEMPLATE);
 	}
@@ -390,18 +383,8 @@ public class TemplateTag implements JFlexParserTag {
 	private String processTemplateContent(ParserInput parserInput, ParserOutput parserOutput, Topic templateTopic, String templateContent) throws ParserException {
 		// set template parameter values
 		Map<String, String> parameterValues = this.parseTemplateParameterValues(templateContent);
-		// parse the template content for noinclude, onlyinclude and includeonly tags
-		String templateBody = JFlexParserUtil.parseFragment(parserInput, parserOutput, templateTopic.getTopicContent().trim(), JFlexParser.MODE_TEMPLATE_BODY);
-		if (parserInput.getTempParam(TEMPLATE_ONLYINCLUDE) != null) {
-			// HACK! If an onlyinclude tag is encountered in the previous fragment parse
-			// then that tag's parsed output is stored in the TEMPLATE_ONLYINCLUDE param.
-			// This hack is necessary because onlyinclude indicates that ONLY the
-			// onlyinclude content is relevant, and anything parsed before or after that
-			// tag must be ignored.
-			templateBody = (String)parserInput.getTempParam(TEMPLATE_ONLYINCLUDE);
-			parserInput.removeTempParam(TEMPLATE_ONLYINCLUDE);
-		}
-		return this.parseTemplateBody(parserInput, parserOutput, templateBody, parameterValues);
+		CompiledTemplateBody compiledBody = this.compileTemplateBody(parserInput, parserOutput, templateTopic);
+		return this.parseTemplateBody(parserInput, parserOutput, compiledBody, parameterValues);
 	}
 
 	/**
@@ -430,6 +413,23 @@ public class TemplateTag implements JFlexParserTag {
 		parserOutput.addTemplate(name);
 	}
 
+	/**
+	 * Return the key used to cache the compiled body of a template topic, or
+	 * <code>null</code> if the template body should not be cached.  Templates
+	 * containing signatures or substitutions are not cached since their
+	 * processed body may vary between calls.
+	 */
+	private String templateCacheKey(Topic templateTopic) {
+		if (templateTopic.getCurrentVersionId() == null || templateTopic.getTopicId() <= 0) {
+			return null;
+		}
+		String content = templateTopic.getTopicContent();
+		if (content.indexOf("~~~") != -1 || content.indexOf("subst:") != -1) {
+			return null;
+		}
+		return templateTopic.getTopicId() + "/" + templateTopic.getCurrentVersionId();
+	}
+
 	/**
 	 * Determine if params are of the form name=value, and if so split
 	 * them into an array pairing.
@@ -70,6 +70,8 @@ public class WikiSignatureTag implements JFlexParserTag {
 	 * HTML output.
 	 */
 	public String parse(JFlexLexer lexer, String raw, Object... args) throws ParserException {
+		// signatures are specific to the current user and time
+		lexer.getParserOutput().setCacheable(false);
 		if (raw.equals("~~~")) {
 			return this.buildWikiSignature(lexer, true, false);
 		}
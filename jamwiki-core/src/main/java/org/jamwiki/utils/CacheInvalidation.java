@@ -0,0 +1,79 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.Serializable;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single cache invalidation sent between wiki servers by the
+ * {@link CacheInvalidationBus}.  A <code>null</code> key indicates that all
+ * entries in the named cache should be removed.
+ */
+public class CacheInvalidation implements Serializable {
+
+	private final String cacheName;
+	private final String key;
+
+	/**
+	 *
+	 */
+	public CacheInvalidation(String cacheName, String key) {
+		this.cacheName = cacheName;
+		this.key = key;
+	}
+
+	/**
+	 *
+	 */
+	public String getCacheName() {
+		return this.cacheName;
+	}
+
+	/**
+	 * Return the string value of the key to remove, or <code>null</code> if
+	 * all entries in the cache should be removed.
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 *
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof CacheInvalidation)) {
+			return false;
+		}
+		CacheInvalidation other = (CacheInvalidation)o;
+		return StringUtils.equals(this.cacheName, other.cacheName) && StringUtils.equals(this.key, other.key);
+	}
+
+	/**
+	 *
+	 */
+	public int hashCode() {
+		return ((this.cacheName == null) ? 0 : this.cacheName.hashCode()) * 31 + ((this.key == null) ? 0 : this.key.hashCode());
+	}
+
+	/**
+	 *
+	 */
+	public String toString() {
+		return this.cacheName + ((this.key == null) ? " (all)" : ": " + this.key);
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends cache invalidations to other wiki servers that share the same
+ * database, allowing multiple JAMWiki instances to be run behind a load
+ * balancer without serving stale cached data.  Invalidations published while
+ * a database transaction is active are held until the transaction commits and
+ * are discarded if it rolls back, so other servers never reload data before it
+ * is visible to them.  The transport used to send invalidations is specified
+ * by the {@link Environment#PROP_CACHE_INVALIDATION_TRANSPORT} property.
+ */
+public class CacheInvalidationBus {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(CacheInvalidationBus.class.getName());
+	/** Listeners for channels that are not WikiCache instances, keyed by channel name. */
+	private static final Map<String, CacheInvalidationListener> LISTENERS = new ConcurrentHashMap<String, CacheInvalidationListener>();
+	/** Value that uniquely identifies this wiki server. */
+	private static final String NODE_ID = UUID.randomUUID().toString();
+	/** Key used to bind the pending invalidations for the current transaction. */
+	private static final Object TRANSACTION_RESOURCE_KEY = new Object();
+	private static volatile CacheInvalidationTransport TRANSPORT = null;
+
+	/**
+	 *
+	 */
+	private CacheInvalidationBus() {
+	}
+
+	/**
+	 * Register a listener to process invalidations received for a channel
+	 * that is not a WikiCache.
+	 *
+	 * @param channel The channel name, which must not match the name of any
+	 *  cache.
+	 * @param listener The listener that will process invalidations received
+	 *  from other wiki servers.
+	 */
+	public static void addListener(String channel, CacheInvalidationListener listener) {
+		LISTENERS.put(channel, listener);
+	}
+
+	/**
+	 * Return the value that uniquely identifies this wiki server.
+	 */
+	public static String getNodeId() {
+		return NODE_ID;
+	}
+
+	/**
+	 * Return <code>true</code> if a transport has been started and
+	 * invalidations are being sent to other wiki servers.
+	 */
+	public static boolean isEnabled() {
+		return (TRANSPORT != null);
+	}
+
+	/**
+	 * Send an invalidation to all other wiki servers.  The caller is
+	 * responsible for invalidating any local state.  If a transaction is
+	 * active then the invalidation will be sent after the transaction commits.
+	 *
+	 * @param channel The name of the cache or listener channel to invalidate.
+	 * @param key The string value of the key to invalidate, or <code>null</code>
+	 *  if all values should be invalidated.
+	 */
+	public static void publish(String channel, String key) {
+		if (TRANSPORT == null) {
+			return;
+		}
+		CacheInvalidation invalidation = new CacheInvalidation(channel, key);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			PendingInvalidations pending = (PendingInvalidations)TransactionSynchronizationManager.getResource(TRANSACTION_RESOURCE_KEY);
+			if (pending == null) {
+				pending = new PendingInvalidations();
+				TransactionSynchronizationManager.bindResource(TRANSACTION_RESOURCE_KEY, pending);
+				TransactionSynchronizationManager.registerSynchronization(pending);
+			}
+			pending.invalidations.add(invalidation);
+			return;
+		}
+		send(Collections.singletonList(invalidation));
+	}
+
+	/**
+	 * Process invalidations received from another wiki server.  This method
+	 * should only be called by {@link CacheInvalidationTransport}
+	 * implementations.
+	 */
+	public static void receive(List<CacheInvalidation> invalidations) {
+		CacheInvalidationListener listener;
+		for (CacheInvalidation invalidation : invalidations) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Received cache invalidation " + invalidation);
+			}
+			try {
+				listener = LISTENERS.get(invalidation.getCacheName());
+				if (listener != null) {
+					listener.invalidate(invalidation.getKey());
+				} else {
+					WikiCache.invalidateLocal(invalidation.getCacheName(), invalidation.getKey());
+				}
+			} catch (RuntimeException e) {
+				logger.error("Failure while processing cache invalidation " + invalidation, e);
+			}
+		}
+	}
+
+	/**
+	 * Pass invalidations to the current transport.  Failures are logged and
+	 * otherwise ignored since the data change has already been committed.
+	 */
+	private static void send(List<CacheInvalidation> invalidations) {
+		CacheInvalidationTransport transport = TRANSPORT;
+		if (transport == null || invalidations.isEmpty()) {
+			return;
+		}
+		try {
+			transport.publish(invalidations);
+		} catch (RuntimeException e) {
+			logger.error("Failure while publishing cache invalidations", e);
+		}
+	}
+
+	/**
+	 * Start the transport specified by the
+	 * {@link Environment#PROP_CACHE_INVALIDATION_TRANSPORT} property, stopping
+	 * any existing transport.  If the transport cannot be started then an
+	 * error is logged and invalidations will not be sent.
+	 */
+	public static synchronized void start() {
+		CacheInvalidationBus.stop();
+		String transportClass = Environment.getValue(Environment.PROP_CACHE_INVALIDATION_TRANSPORT);
+		if (StringUtils.isBlank(transportClass)) {
+			return;
+		}
+		try {
+			CacheInvalidationTransport transport = (CacheInvalidationTransport)ResourceUtil.instantiateClass(transportClass);
+			transport.start(NODE_ID);
+			TRANSPORT = transport;
+			logger.info("Started cache invalidation transport " + transportClass + " for node " + NODE_ID);
+		} catch (Exception e) {
+			logger.error("Failure while starting cache invalidation transport " + transportClass, e);
+		}
+	}
+
+	/**
+	 * Stop the current transport, if any.
+	 */
+	public static synchronized void stop() {
+		CacheInvalidationTransport transport = TRANSPORT;
+		TRANSPORT = null;
+		if (transport != null) {
+			transport.stop();
+		}
+	}
+
+	/**
+	 * Invalidations published during a transaction, sent after the
+	 * transaction commits.
+	 */
+	private static class PendingInvalidations extends TransactionSynchronizationAdapter {
+
+		private final Set<CacheInvalidation> invalidations = new LinkedHashSet<CacheInvalidation>();
+
+		/**
+		 *
+		 */
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_RESOURCE_KEY);
+			if (status == TransactionSynchronization.STATUS_COMMITTED) {
+				send(new ArrayList<CacheInvalidation>(this.invalidations));
+			}
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+/**
+ * Receives invalidations sent by other wiki servers for a channel that is not
+ * a {@link WikiCache}, such as state that is maintained outside of a cache
+ * but which must still be invalidated when data changes.
+ */
+public interface CacheInvalidationListener {
+
+	/**
+	 * Process an invalidation received from another wiki server.
+	 *
+	 * @param key The key that was invalidated, or <code>null</code> if all
+	 *  values were invalidated.
+	 */
+	void invalidate(String key);
+}
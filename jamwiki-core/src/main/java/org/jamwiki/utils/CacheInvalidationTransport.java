@@ -0,0 +1,52 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.List;
+
+/**
+ * Interface for sending cache invalidations between wiki servers that share a
+ * database.  Implementations are specified using the
+ * {@link org.jamwiki.Environment#PROP_CACHE_INVALIDATION_TRANSPORT} property
+ * and must provide a no-argument constructor.  Invalidations received from
+ * other servers must be passed to {@link CacheInvalidationBus#receive}, and
+ * invalidations published by the local server must not be delivered back to
+ * it.
+ */
+public interface CacheInvalidationTransport {
+
+	/**
+	 * Send invalidations to all other wiki servers.  This method is called
+	 * after the transaction that modified the underlying data has committed
+	 * and should not block for long periods.
+	 */
+	void publish(List<CacheInvalidation> invalidations);
+
+	/**
+	 * Begin sending and receiving invalidations.
+	 *
+	 * @param nodeId A value that uniquely identifies the local wiki server.
+	 * @throws Exception Thrown if the transport cannot be started.
+	 */
+	void start(String nodeId) throws Exception;
+
+	/**
+	 * Stop sending and receiving invalidations and release any resources held
+	 * by the transport.
+	 */
+	void stop();
+}
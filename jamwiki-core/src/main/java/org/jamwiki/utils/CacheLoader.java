@@ -0,0 +1,34 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+/**
+ * Load a value that is not present in a {@link WikiCache}.  Loaders are
+ * passed to {@link WikiCache#get}, which guarantees that only one thread at a
+ * time loads any given key.
+ */
+public interface CacheLoader<K, V> {
+
+	/**
+	 * Load the value for a key that is not cached.
+	 *
+	 * @param key The key whose value is being loaded.
+	 * @return The value for the key, or <code>null</code> if no value exists.
+	 *  A <code>null</code> value is cached in the same way as any other value.
+	 */
+	V load(K key);
+}
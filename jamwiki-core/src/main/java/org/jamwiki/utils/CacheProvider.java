@@ -0,0 +1,60 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.Set;
+
+/**
+ * Interface for cache implementations used by {@link WikiCache}.  The cache
+ * provider is specified by the {@link org.jamwiki.Environment#PROP_CACHE_PROVIDER}
+ * property, and all providers are configured from the same
+ * <code>ehcache-jamwiki.xml</code> file, although a provider may ignore
+ * settings that it does not support.  Implementations must provide a
+ * public no-argument constructor.
+ */
+public interface CacheProvider {
+
+	/**
+	 * Return the cache with the given name.
+	 *
+	 * @param cacheName The name of the cache to retrieve.
+	 * @return The cache with the given name, or <code>null</code> if no cache
+	 *  with the name is configured.
+	 */
+	CacheStore getCache(String cacheName);
+
+	/**
+	 * Return the names of all configured caches.
+	 */
+	Set<String> getCacheNames();
+
+	/**
+	 * Create all configured caches.  This method is called once, prior to
+	 * any other method being called.
+	 *
+	 * @param configFile The name of the classpath file containing the cache
+	 *  configuration.
+	 * @throws Exception Thrown if the cache cannot be initialized.
+	 */
+	void initialize(String configFile) throws Exception;
+
+	/**
+	 * Release all caches and any resources held by the provider.  No other
+	 * methods are called after this method has been called.
+	 */
+	void shutdown();
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit, miss, eviction and load counters for a single named cache.  Counters
+ * are updated without locking and are reset when the cache is initialized.
+ */
+public class CacheStatistics {
+
+	private final String cacheName;
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public CacheStatistics(String cacheName) {
+		this.cacheName = cacheName;
+	}
+
+	/**
+	 * Return the name of the cache that these statistics apply to.
+	 */
+	public String getCacheName() {
+		return this.cacheName;
+	}
+
+	/**
+	 * Return the number of entries removed by the cache due to size limits
+	 * or expiration.
+	 */
+	public long getEvictionCount() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * Return the number of lookups that found a cached value.
+	 */
+	public long getHitCount() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Return the fraction of lookups that found a cached value, or zero if
+	 * no lookups have been made.
+	 */
+	public double getHitRatio() {
+		long hitCount = this.getHitCount();
+		long total = hitCount + this.getMissCount();
+		return (total == 0) ? 0.0 : (double)hitCount / total;
+	}
+
+	/**
+	 * Return the number of values loaded into the cache after a miss.
+	 */
+	public long getLoadCount() {
+		return this.loads.get();
+	}
+
+	/**
+	 * Return the total time (in nanoseconds) spent loading values into the
+	 * cache after a miss.
+	 */
+	public long getLoadTime() {
+		return this.loadTime.get();
+	}
+
+	/**
+	 * Return the number of lookups that did not find a cached value.
+	 */
+	public long getMissCount() {
+		return this.misses.get();
+	}
+
+	/**
+	 *
+	 */
+	public void recordEviction() {
+		this.evictions.incrementAndGet();
+	}
+
+	/**
+	 *
+	 */
+	public void recordHit() {
+		this.hits.incrementAndGet();
+	}
+
+	/**
+	 * Record the time (in nanoseconds) taken to load a value after a miss.
+	 */
+	public void recordLoad(long nanos) {
+		this.loads.incrementAndGet();
+		this.loadTime.addAndGet(nanos);
+	}
+
+	/**
+	 *
+	 */
+	public void recordMiss() {
+		this.misses.incrementAndGet();
+	}
+
+	/**
+	 *
+	 */
+	public String toString() {
+		return this.cacheName + ": hits=" + this.getHitCount() + ", misses=" + this.getMissCount() + ", evictions=" + this.getEvictionCount() + ", loads=" + this.getLoadCount() + ", loadTime=" + (this.getLoadTime() / 1000000) + "ms";
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+/**
+ * A single named cache created by a {@link CacheProvider}.  Implementations
+ * must be thread-safe and must permit <code>null</code> values to be cached.
+ */
+public interface CacheStore {
+
+	/**
+	 * Return <code>true</code> if the key is in the cache, even if the value
+	 * associated with that key is <code>null</code>.  This method does not
+	 * affect cache statistics.
+	 */
+	boolean containsKey(Object key);
+
+	/**
+	 * Return the value associated with a key, or <code>null</code> if the key
+	 * is not cached or if its cached value is <code>null</code>.  Each call
+	 * is recorded as a hit or a miss in the cache statistics.
+	 */
+	Object get(Object key);
+
+	/**
+	 * Return the statistics for this cache.
+	 */
+	CacheStatistics getStatistics();
+
+	/**
+	 * Return the number of milliseconds after which a cached value expires,
+	 * as configured for this cache, or zero if values do not expire.
+	 */
+	long getTimeToLive();
+
+	/**
+	 * Add a value to the cache, replacing any existing value for the key.
+	 */
+	void put(Object key, Object value);
+
+	/**
+	 * Remove a key from the cache.
+	 */
+	void remove(Object key);
+
+	/**
+	 * Remove all keys from the cache.
+	 */
+	void removeAll();
+
+	/**
+	 * Remove all keys whose string values are equal to the given key when
+	 * case is ignored.  Implementations should use an index of case-folded
+	 * keys rather than examining every key in the cache.
+	 */
+	void removeCaseInsensitive(String key);
+
+	/**
+	 * Return the number of entries currently in the cache.
+	 */
+	int size();
+}
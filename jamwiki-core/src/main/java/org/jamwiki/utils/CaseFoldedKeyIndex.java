@@ -0,0 +1,117 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Secondary index mapping the lower-case string value of each cache key to
+ * the actual keys, allowing all keys that differ only by case to be found
+ * without examining every key in a cache.  Cache implementations must call
+ * {@link #add} whenever a key is added and {@link #remove} whenever a key is
+ * removed or evicted.
+ */
+class CaseFoldedKeyIndex {
+
+	private final ConcurrentMap<String, Set<Object>> index = new ConcurrentHashMap<String, Set<Object>>();
+
+	/**
+	 * Record that a key has been added to the cache.
+	 */
+	void add(Object key) {
+		String folded = fold(key);
+		if (folded == null) {
+			return;
+		}
+		while (true) {
+			Set<Object> keys = this.index.get(folded);
+			if (keys == null) {
+				keys = new HashSet<Object>(2);
+				Set<Object> existing = this.index.putIfAbsent(folded, keys);
+				if (existing != null) {
+					keys = existing;
+				}
+			}
+			synchronized (keys) {
+				// the set may have been removed from the index if it became
+				// empty, in which case retry with a new set
+				if (this.index.get(folded) == keys) {
+					keys.add(key);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove all keys from the index.
+	 */
+	void clear() {
+		this.index.clear();
+	}
+
+	/**
+	 * Return the lower-case value used to index a key.
+	 */
+	private static String fold(Object key) {
+		return (key == null) ? null : key.toString().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Return all indexed keys whose string value is equal to the given value
+	 * when case is ignored.
+	 */
+	List<Object> keys(String key) {
+		List<Object> results = new ArrayList<Object>();
+		String folded = fold(key);
+		Set<Object> keys = (folded == null) ? null : this.index.get(folded);
+		if (keys == null) {
+			return results;
+		}
+		synchronized (keys) {
+			for (Object candidate : keys) {
+				if (candidate.toString().equalsIgnoreCase(key)) {
+					results.add(candidate);
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Record that a key has been removed from the cache.
+	 */
+	void remove(Object key) {
+		String folded = fold(key);
+		Set<Object> keys = (folded == null) ? null : this.index.get(folded);
+		if (keys == null) {
+			return;
+		}
+		synchronized (keys) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				this.index.remove(folded, keys);
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ConfigurationFactory;
+import org.jamwiki.Environment;
+
+/**
+ * In-process cache provider backed by {@link ConcurrentCacheStore}.  Cache
+ * names and expiration times are read from the same configuration file used
+ * by {@link EhcacheCacheProvider}.  The maximum number of entries in each
+ * cache is taken from the cache's <code>maxEntriesLocalHeap</code> setting
+ * if present, otherwise from the {@link Environment#PROP_CACHE_MAX_ENTRIES}
+ * property.  Disk overflow is not supported.
+ */
+public class ConcurrentCacheProvider implements CacheProvider {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ConcurrentCacheProvider.class.getName());
+	private final Map<String, ConcurrentCacheStore> caches = new ConcurrentHashMap<String, ConcurrentCacheStore>();
+
+	/**
+	 *
+	 */
+	public CacheStore getCache(String cacheName) {
+		return this.caches.get(cacheName);
+	}
+
+	/**
+	 *
+	 */
+	public Set<String> getCacheNames() {
+		return new TreeSet<String>(this.caches.keySet());
+	}
+
+	/**
+	 *
+	 */
+	public void initialize(String configFile) throws Exception {
+		File file = ResourceUtil.getClassLoaderFile(configFile);
+		logger.info("Initializing cache configuration from " + file.getAbsolutePath());
+		Configuration configuration = ConfigurationFactory.parseConfiguration(file);
+		int defaultMaximumSize = Environment.getIntValue(Environment.PROP_CACHE_MAX_ENTRIES);
+		for (CacheConfiguration cacheConfiguration : configuration.getCacheConfigurations().values()) {
+			long maximumSize = (cacheConfiguration.getMaxEntriesLocalHeap() > 0) ? cacheConfiguration.getMaxEntriesLocalHeap() : defaultMaximumSize;
+			long timeToLive = (cacheConfiguration.isEternal()) ? 0 : cacheConfiguration.getTimeToLiveSeconds();
+			String cacheName = cacheConfiguration.getName();
+			this.caches.put(cacheName, new ConcurrentCacheStore(cacheName, (int)Math.min(maximumSize, Integer.MAX_VALUE), timeToLive * 1000));
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void shutdown() {
+		for (ConcurrentCacheStore cache : this.caches.values()) {
+			cache.removeAll();
+		}
+		this.caches.clear();
+	}
+}
@@ -0,0 +1,508 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded in-memory cache using a W-TinyLFU eviction policy.  New
+ * entries are placed in a small LRU admission window; entries leaving the
+ * window are only admitted to the main cache if they have been accessed
+ * more frequently than the entry that would be evicted to make room for
+ * them, as estimated by a count-min frequency sketch.  The main cache is a
+ * segmented LRU in which entries are promoted from a probation segment to a
+ * protected segment when accessed.  This policy keeps frequently used
+ * entries cached even when a large number of entries are read only once,
+ * such as during a search index rebuild.
+ *
+ * Reads do not block: lookups go directly to a concurrent map, and the
+ * access is recorded in the eviction policy only if the policy lock is
+ * immediately available.  Accesses dropped under contention have little
+ * effect on the policy since only a sample of accesses is needed to estimate
+ * frequency.  Writes are serialized by the policy lock.
+ */
+class ConcurrentCacheStore implements CacheStore {
+
+	/** Percentage of the maximum size used for the admission window. */
+	private static final int WINDOW_PERCENT = 1;
+	/** Percentage of the main cache used for the protected segment. */
+	private static final int PROTECTED_PERCENT = 80;
+	private final ConcurrentMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final CaseFoldedKeyIndex keyIndex = new CaseFoldedKeyIndex();
+	private final int maximumMainSize;
+	private final int maximumProtectedSize;
+	private final int maximumWindowSize;
+	private final AccessOrderQueue probation = new AccessOrderQueue(Node.PROBATION);
+	private final AccessOrderQueue protectedQueue = new AccessOrderQueue(Node.PROTECTED);
+	private final FrequencySketch sketch;
+	private final CacheStatistics statistics;
+	private final long timeToLive;
+	private final AccessOrderQueue window = new AccessOrderQueue(Node.WINDOW);
+
+	/**
+	 * @param cacheName The name of the cache.
+	 * @param maximumSize The maximum number of entries that may be cached.
+	 * @param timeToLive The number of milliseconds after which a cached value
+	 *  expires, or zero if values do not expire.
+	 */
+	ConcurrentCacheStore(String cacheName, int maximumSize, long timeToLive) {
+		maximumSize = Math.max(maximumSize, 1);
+		this.statistics = new CacheStatistics(cacheName);
+		this.timeToLive = timeToLive;
+		this.maximumWindowSize = Math.max((int)((long)maximumSize * WINDOW_PERCENT / 100), 1);
+		this.maximumMainSize = maximumSize - this.maximumWindowSize;
+		this.maximumProtectedSize = (int)((long)this.maximumMainSize * PROTECTED_PERCENT / 100);
+		this.sketch = new FrequencySketch(maximumSize);
+	}
+
+	/**
+	 *
+	 */
+	public boolean containsKey(Object key) {
+		Node node = (key == null) ? null : this.data.get(key);
+		return (node != null && !this.isExpired(node));
+	}
+
+	/**
+	 * Remove an entry due to size limits or expiration.  Must be called while
+	 * holding the eviction lock.
+	 */
+	private void evict(Node node) {
+		this.unlink(node);
+		if (this.data.remove(node.key, node)) {
+			this.keyIndex.remove(node.key);
+			this.statistics.recordEviction();
+		}
+	}
+
+	/**
+	 * Move entries from the admission window to the main cache, evicting
+	 * either the candidate entry or the main cache's least recently used
+	 * probation entry if the main cache is full.  Must be called while
+	 * holding the eviction lock.
+	 */
+	private void evictEntries() {
+		while (this.window.size > this.maximumWindowSize) {
+			Node candidate = this.window.removeFirst();
+			this.probation.addLast(candidate);
+			if (this.probation.size + this.protectedQueue.size <= this.maximumMainSize) {
+				continue;
+			}
+			Node victim = (this.probation.head != candidate) ? this.probation.head : this.protectedQueue.head;
+			if (victim != null && this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key)) {
+				this.evict(victim);
+			} else {
+				this.evict(candidate);
+			}
+		}
+	}
+
+	/**
+	 * Remove an entry that has expired.  The entry may have been refreshed or
+	 * replaced by a concurrent write after the caller checked its expiration,
+	 * so the check is repeated while holding the eviction lock.
+	 *
+	 * @return <code>true</code> if the entry was removed, <code>false</code>
+	 *  if it is no longer cached or is no longer expired.
+	 */
+	private boolean expire(Node node) {
+		this.evictionLock.lock();
+		try {
+			if (this.data.get(node.key) != node || !this.isExpired(node)) {
+				return false;
+			}
+			this.evict(node);
+			return true;
+		} finally {
+			this.evictionLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public Object get(Object key) {
+		Node node = (key == null) ? null : this.data.get(key);
+		if (node == null) {
+			this.statistics.recordMiss();
+			return null;
+		}
+		if (this.isExpired(node) && !this.expire(node)) {
+			// refreshed or replaced by a concurrent write
+			node = this.data.get(key);
+		}
+		if (node == null || this.isExpired(node)) {
+			this.statistics.recordMiss();
+			return null;
+		}
+		this.statistics.recordHit();
+		if (this.evictionLock.tryLock()) {
+			try {
+				this.onAccess(node);
+			} finally {
+				this.evictionLock.unlock();
+			}
+		}
+		return node.value;
+	}
+
+	/**
+	 *
+	 */
+	public CacheStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 *
+	 */
+	public long getTimeToLive() {
+		return this.timeToLive;
+	}
+
+	/**
+	 *
+	 */
+	private boolean isExpired(Node node) {
+		return (node.expirationTime != 0 && node.expirationTime < System.currentTimeMillis());
+	}
+
+	/**
+	 * Update the eviction policy after an entry has been read or replaced.
+	 * Must be called while holding the eviction lock.
+	 */
+	private void onAccess(Node node) {
+		this.sketch.increment(node.key);
+		if (node.queue == Node.WINDOW) {
+			this.window.moveToEnd(node);
+		} else if (node.queue == Node.PROBATION) {
+			// promote to the protected segment, demoting the protected segment's
+			// least recently used entry if necessary
+			this.probation.remove(node);
+			this.protectedQueue.addLast(node);
+			while (this.protectedQueue.size > this.maximumProtectedSize) {
+				this.probation.addLast(this.protectedQueue.removeFirst());
+			}
+		} else if (node.queue == Node.PROTECTED) {
+			this.protectedQueue.moveToEnd(node);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void put(Object key, Object value) {
+		if (key == null) {
+			return;
+		}
+		long expirationTime = (this.timeToLive > 0) ? System.currentTimeMillis() + this.timeToLive : 0;
+		this.evictionLock.lock();
+		try {
+			Node node = this.data.get(key);
+			if (node != null) {
+				node.value = value;
+				node.expirationTime = expirationTime;
+				this.onAccess(node);
+				return;
+			}
+			node = new Node(key, value, expirationTime);
+			this.data.put(key, node);
+			this.keyIndex.add(key);
+			this.sketch.increment(key);
+			this.window.addLast(node);
+			this.evictEntries();
+		} finally {
+			this.evictionLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void remove(Object key) {
+		if (key == null) {
+			return;
+		}
+		this.evictionLock.lock();
+		try {
+			Node node = this.data.remove(key);
+			if (node != null) {
+				this.unlink(node);
+				this.keyIndex.remove(key);
+			}
+		} finally {
+			this.evictionLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void removeAll() {
+		this.evictionLock.lock();
+		try {
+			this.data.clear();
+			this.keyIndex.clear();
+			this.window.clear();
+			this.probation.clear();
+			this.protectedQueue.clear();
+		} finally {
+			this.evictionLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void removeCaseInsensitive(String key) {
+		for (Object cacheKey : this.keyIndex.keys(key)) {
+			this.remove(cacheKey);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public int size() {
+		return this.data.size();
+	}
+
+	/**
+	 * Remove an entry from whichever policy queue it belongs to.  Must be
+	 * called while holding the eviction lock.
+	 */
+	private void unlink(Node node) {
+		if (node.queue == Node.WINDOW) {
+			this.window.remove(node);
+		} else if (node.queue == Node.PROBATION) {
+			this.probation.remove(node);
+		} else if (node.queue == Node.PROTECTED) {
+			this.protectedQueue.remove(node);
+		}
+	}
+
+	/**
+	 * A cached entry, which is also an element of a doubly-linked policy
+	 * queue.  Queue fields are only accessed while holding the eviction lock.
+	 */
+	private static final class Node {
+
+		static final int NONE = 0;
+		static final int WINDOW = 1;
+		static final int PROBATION = 2;
+		static final int PROTECTED = 3;
+		final Object key;
+		volatile long expirationTime;
+		volatile Object value;
+		Node next;
+		Node previous;
+		int queue = NONE;
+
+		/**
+		 *
+		 */
+		Node(Object key, Object value, long expirationTime) {
+			this.key = key;
+			this.value = value;
+			this.expirationTime = expirationTime;
+		}
+	}
+
+	/**
+	 * Doubly-linked queue of entries ordered from least to most recently
+	 * used.
+	 */
+	private static final class AccessOrderQueue {
+
+		private final int queue;
+		Node head;
+		Node tail;
+		int size;
+
+		/**
+		 *
+		 */
+		AccessOrderQueue(int queue) {
+			this.queue = queue;
+		}
+
+		/**
+		 *
+		 */
+		void addLast(Node node) {
+			node.queue = this.queue;
+			node.previous = this.tail;
+			node.next = null;
+			if (this.tail == null) {
+				this.head = node;
+			} else {
+				this.tail.next = node;
+			}
+			this.tail = node;
+			this.size++;
+		}
+
+		/**
+		 *
+		 */
+		void clear() {
+			this.head = null;
+			this.tail = null;
+			this.size = 0;
+		}
+
+		/**
+		 *
+		 */
+		void moveToEnd(Node node) {
+			if (node != this.tail) {
+				this.remove(node);
+				this.addLast(node);
+			}
+		}
+
+		/**
+		 *
+		 */
+		void remove(Node node) {
+			if (node.previous == null) {
+				this.head = node.next;
+			} else {
+				node.previous.next = node.next;
+			}
+			if (node.next == null) {
+				this.tail = node.previous;
+			} else {
+				node.next.previous = node.previous;
+			}
+			node.previous = null;
+			node.next = null;
+			node.queue = Node.NONE;
+			this.size--;
+		}
+
+		/**
+		 *
+		 */
+		Node removeFirst() {
+			Node node = this.head;
+			this.remove(node);
+			return node;
+		}
+	}
+
+	/**
+	 * Count-min sketch of 4-bit access counters used to estimate how often
+	 * each key has been accessed.  All counters are halved once the number of
+	 * recorded accesses reaches ten times the maximum cache size so that the
+	 * estimates favor recent activity.  Only accessed while holding the
+	 * eviction lock.
+	 */
+	private static final class FrequencySketch {
+
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+		private static final long RESET_MASK = 0x7777777777777777L;
+		private final int sampleSize;
+		private final long[] table;
+		private final int tableMask;
+		private int additions;
+
+		/**
+		 *
+		 */
+		FrequencySketch(int maximumSize) {
+			int length = 16;
+			while (length < maximumSize && length < (1 << 26)) {
+				length <<= 1;
+			}
+			this.table = new long[length];
+			this.tableMask = length - 1;
+			this.sampleSize = (maximumSize > Integer.MAX_VALUE / 10) ? Integer.MAX_VALUE : maximumSize * 10;
+		}
+
+		/**
+		 * Return the bit offset of the counter for a row within a table entry.
+		 */
+		private int counterOffset(int hash, int row) {
+			return (int)((hash >>> (row << 3)) & 0xf) << 2;
+		}
+
+		/**
+		 * Return the estimated number of times a key has been accessed.
+		 */
+		int frequency(Object key) {
+			int hash = spread(key.hashCode());
+			int frequency = Integer.MAX_VALUE;
+			for (int row = 0; row < SEEDS.length; row++) {
+				int count = (int)((this.table[this.indexOf(hash, row)] >>> this.counterOffset(hash, row)) & 0xfL);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+
+		/**
+		 * Record an access of a key.
+		 */
+		void increment(Object key) {
+			int hash = spread(key.hashCode());
+			boolean added = false;
+			for (int row = 0; row < SEEDS.length; row++) {
+				int index = this.indexOf(hash, row);
+				int offset = this.counterOffset(hash, row);
+				if (((this.table[index] >>> offset) & 0xfL) < 15) {
+					this.table[index] += (1L << offset);
+					added = true;
+				}
+			}
+			if (added && ++this.additions >= this.sampleSize) {
+				this.reset();
+			}
+		}
+
+		/**
+		 * Return the table entry for a row.
+		 */
+		private int indexOf(int hash, int row) {
+			long h = (hash + SEEDS[row]) * SEEDS[row];
+			h += (h >>> 32);
+			return (int)h & this.tableMask;
+		}
+
+		/**
+		 * Halve all counters.
+		 */
+		private void reset() {
+			for (int i = 0; i < this.table.length; i++) {
+				this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+			}
+			this.additions /= 2;
+		}
+
+		/**
+		 * Apply a supplemental hash function to defend against poor quality
+		 * hash codes.
+		 */
+		private static int spread(int hash) {
+			hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+			hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+			return (hash >>> 16) ^ hash;
+		}
+	}
+}
@@ -27,6 +27,7 @@ import java.util.TimeZone;
 import java.util.TreeMap;
 import org.apache.commons.lang3.LocaleUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.jamwiki.WikiConfiguration;
 import org.jamwiki.model.WikiUser;
 
@@ -42,29 +43,39 @@ public class DateUtil {
 	 * Format the given date using the given pattern to return the date
 	 * as a formatted string.  If the pattern is invalid this method will
 	 * return <code>null</code>.
+	 *
+	 * Formatting is done using <code>FastDateFormat</code> instances, which
+	 * are thread-safe and are cached by pattern, time zone and locale, so
+	 * repeated calls do not re-parse the pattern.  Valid
+	 * <code>SimpleDateFormat</code> patterns that <code>FastDateFormat</code>
+	 * does not support are formatted using a new <code>SimpleDateFormat</code>.
 	 */
 	public static String formatDate(Date date, String pattern, String localeString, String timeZoneString, DateFormatType dateFormatType) {
 		Locale locale = DateUtil.stringToLocale(localeString);
 		TimeZone tz = DateUtil.stringToTimeZone(timeZoneString);
-		SimpleDateFormat sdf = null;
 		int style = DateUtil.stringToDateFormatStyle(pattern);
 		if (style != -1 && dateFormatType == DateFormatType.DATE_ONLY) {
-			sdf = (SimpleDateFormat) DateFormat.getDateInstance(style, locale);
+			return FastDateFormat.getDateInstance(style, tz, locale).format(date);
 		} else if (style != -1 && dateFormatType == DateFormatType.TIME_ONLY) {
-			sdf = (SimpleDateFormat) DateFormat.getTimeInstance(style, locale);
+			return FastDateFormat.getTimeInstance(style, tz, locale).format(date);
 		} else if (style != -1 && dateFormatType == DateFormatType.DATE_AND_TIME) {
-			sdf = (SimpleDateFormat) DateFormat.getDateTimeInstance(style, style, locale);
-		} else {
-			try {
-				sdf = new SimpleDateFormat(pattern, locale);
-			} catch (IllegalArgumentException e) {
-				String msg = "Attempt to format date with invalid pattern " + pattern
-						+ ". If you have customized date or time formats in your "
-						+ "jamwiki-configuration.xml file please verify that they are "
-						+ "valid java.text.SimpleDateFormat patterns.";
-				logger.warn(msg, e);
-				return null;
-			}
+			return FastDateFormat.getDateTimeInstance(style, style, tz, locale).format(date);
+		}
+		try {
+			return FastDateFormat.getInstance(pattern, tz, locale).format(date);
+		} catch (IllegalArgumentException e) {
+			// pattern is either invalid or not supported by FastDateFormat
+		}
+		SimpleDateFormat sdf = null;
+		try {
+			sdf = new SimpleDateFormat(pattern, locale);
+		} catch (IllegalArgumentException e) {
+			String msg = "Attempt to format date with invalid pattern " + pattern
+					+ ". If you have customized date or time formats in your "
+					+ "jamwiki-configuration.xml file please verify that they are "
+					+ "valid java.text.SimpleDateFormat patterns.";
+			logger.warn(msg, e);
+			return null;
 		}
 		sdf.setTimeZone(tz);
 		return sdf.format(date);
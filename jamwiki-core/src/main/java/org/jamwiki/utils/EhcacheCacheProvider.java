@@ -0,0 +1,228 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ConfigurationFactory;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import org.jamwiki.Environment;
+
+/**
+ * Cache provider backed by an Ehcache <code>CacheManager</code>.  This
+ * provider supports all Ehcache configuration options, including overflow
+ * of cached values to disk.
+ */
+public class EhcacheCacheProvider implements CacheProvider {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(EhcacheCacheProvider.class.getName());
+	/** Directory for cache files. */
+	private static final String CACHE_DIR = "cache";
+	private final Map<String, EhcacheCacheStore> caches = new ConcurrentHashMap<String, EhcacheCacheStore>();
+	private CacheManager cacheManager = null;
+
+	/**
+	 *
+	 */
+	public CacheStore getCache(String cacheName) {
+		return this.caches.get(cacheName);
+	}
+
+	/**
+	 *
+	 */
+	public Set<String> getCacheNames() {
+		return new TreeSet<String>(this.caches.keySet());
+	}
+
+	/**
+	 *
+	 */
+	public void initialize(String configFile) throws Exception {
+		File file = ResourceUtil.getClassLoaderFile(configFile);
+		logger.info("Initializing cache configuration from " + file.getAbsolutePath());
+		Configuration configuration = ConfigurationFactory.parseConfiguration(file);
+		File directory = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), CACHE_DIR);
+		if (!directory.exists()) {
+			directory.mkdir();
+		}
+		DiskStoreConfiguration diskStoreConfiguration = new DiskStoreConfiguration();
+		diskStoreConfiguration.setPath(directory.getPath());
+		configuration.addDiskStore(diskStoreConfiguration);
+		this.cacheManager = new CacheManager(configuration);
+		for (String cacheName : this.cacheManager.getCacheNames()) {
+			this.caches.put(cacheName, new EhcacheCacheStore(this.cacheManager.getCache(cacheName)));
+		}
+		logger.info("Initializing cache with disk store: " + this.cacheManager.getDiskStorePath());
+	}
+
+	/**
+	 *
+	 */
+	public void shutdown() {
+		this.caches.clear();
+		if (this.cacheManager != null) {
+			this.cacheManager.shutdown();
+			this.cacheManager = null;
+		}
+	}
+
+	/**
+	 * Adapter for a single Ehcache cache.  A cache event listener maintains
+	 * the case-folded key index as elements are added, removed, expired or
+	 * evicted.
+	 */
+	private static class EhcacheCacheStore extends CacheEventListenerAdapter implements CacheStore {
+
+		private final Cache cache;
+		private final CaseFoldedKeyIndex keyIndex = new CaseFoldedKeyIndex();
+		private final CacheStatistics statistics;
+
+		/**
+		 *
+		 */
+		EhcacheCacheStore(Cache cache) {
+			this.cache = cache;
+			this.statistics = new CacheStatistics(cache.getName());
+			// persistent disk stores may already contain keys
+			for (Object key : cache.getKeys()) {
+				this.keyIndex.add(key);
+			}
+			cache.getCacheEventNotificationService().registerListener(this);
+		}
+
+		/**
+		 *
+		 */
+		public boolean containsKey(Object key) {
+			return this.cache.isKeyInCache(key);
+		}
+
+		/**
+		 *
+		 */
+		public Object get(Object key) {
+			Element element = this.cache.get(key);
+			if (element == null) {
+				this.statistics.recordMiss();
+				return null;
+			}
+			this.statistics.recordHit();
+			return element.getObjectValue();
+		}
+
+		/**
+		 *
+		 */
+		public CacheStatistics getStatistics() {
+			return this.statistics;
+		}
+
+		/**
+		 *
+		 */
+		public long getTimeToLive() {
+			CacheConfiguration configuration = this.cache.getCacheConfiguration();
+			return (configuration.isEternal()) ? 0 : configuration.getTimeToLiveSeconds() * 1000;
+		}
+
+		/**
+		 *
+		 */
+		public void notifyElementEvicted(Ehcache cache, Element element) {
+			this.statistics.recordEviction();
+			this.keyIndex.remove(element.getObjectKey());
+		}
+
+		/**
+		 *
+		 */
+		public void notifyElementExpired(Ehcache cache, Element element) {
+			this.statistics.recordEviction();
+			this.keyIndex.remove(element.getObjectKey());
+		}
+
+		/**
+		 *
+		 */
+		public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+			this.keyIndex.add(element.getObjectKey());
+		}
+
+		/**
+		 *
+		 */
+		public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+			this.keyIndex.remove(element.getObjectKey());
+		}
+
+		/**
+		 *
+		 */
+		public void notifyRemoveAll(Ehcache cache) {
+			this.keyIndex.clear();
+		}
+
+		/**
+		 *
+		 */
+		public void put(Object key, Object value) {
+			this.cache.put(new Element(key, value));
+		}
+
+		/**
+		 *
+		 */
+		public void remove(Object key) {
+			this.cache.remove(key);
+		}
+
+		/**
+		 *
+		 */
+		public void removeAll() {
+			this.cache.removeAll();
+		}
+
+		/**
+		 *
+		 */
+		public void removeCaseInsensitive(String key) {
+			for (Object cacheKey : this.keyIndex.keys(key)) {
+				this.cache.remove(cacheKey);
+			}
+		}
+
+		/**
+		 *
+		 */
+		public int size() {
+			return this.cache.getSize();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * An IPv4 or IPv6 address range in CIDR notation, such as
+ * <code>192.168.0.0/16</code> or <code>2001:db8::/32</code>.  A single IP
+ * address is treated as a range containing only that address.
+ */
+public class IpAddressRange implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/** Characters allowed in an IPv6 address, including compressed and IPv4-mapped forms. */
+	private static final Pattern IPV6_CHARACTERS = Pattern.compile("[0-9a-f.]*:[0-9a-f:.]*", Pattern.CASE_INSENSITIVE);
+	/** The network address, with all bits after the prefix cleared. */
+	private final byte[] address;
+	private final int prefixLength;
+
+	/**
+	 *
+	 */
+	private IpAddressRange(byte[] address, int prefixLength) {
+		this.address = address;
+		this.prefixLength = prefixLength;
+		// clear host bits so that equivalent ranges have the same network address
+		for (int i = prefixLength; i < address.length * 8; i++) {
+			this.address[i / 8] &= ~(0x80 >>> (i % 8));
+		}
+	}
+
+	/**
+	 * Parse an IP address or CIDR range.
+	 *
+	 * @param value An IPv4 or IPv6 address, optionally followed by a slash
+	 *  and a prefix length.
+	 * @return The parsed range, or <code>null</code> if the value is not a
+	 *  valid IP address or CIDR range.
+	 */
+	public static IpAddressRange parse(String value) {
+		if (StringUtils.isBlank(value)) {
+			return null;
+		}
+		String ipAddress = value.trim();
+		int prefixLength = -1;
+		int pos = ipAddress.indexOf('/');
+		if (pos != -1) {
+			String prefix = ipAddress.substring(pos + 1);
+			if (!NumberUtils.isDigits(prefix) || prefix.length() > 3) {
+				return null;
+			}
+			prefixLength = Integer.parseInt(prefix);
+			ipAddress = ipAddress.substring(0, pos);
+		}
+		byte[] address = IpAddressRange.toBytes(ipAddress);
+		if (address == null) {
+			return null;
+		}
+		if (prefixLength == -1) {
+			prefixLength = address.length * 8;
+		} else if (prefixLength > address.length * 8) {
+			return null;
+		}
+		return new IpAddressRange(address, prefixLength);
+	}
+
+	/**
+	 * Convert an IP address to its binary form.  IPv6 addresses may use the
+	 * compressed "::" form, and IPv4-mapped IPv6 addresses are converted to
+	 * IPv4 addresses.
+	 *
+	 * @param ipAddress The IPv4 or IPv6 address to convert.
+	 * @return The 4 or 16 byte binary address, or <code>null</code> if the
+	 *  value is not a valid IP address.
+	 */
+	public static byte[] toBytes(String ipAddress) {
+		// validate first since InetAddress performs a DNS lookup for host names,
+		// but not for values containing a colon, which are always parsed as IPv6
+		if (!Utilities.isIpAddress(ipAddress) && (ipAddress == null || !IPV6_CHARACTERS.matcher(ipAddress).matches())) {
+			return null;
+		}
+		try {
+			return InetAddress.getByName(ipAddress).getAddress();
+		} catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Determine whether an IP address is within this range.
+	 *
+	 * @param ipAddress The binary form of the IP address, as returned by
+	 *  {@link #toBytes}.
+	 * @return <code>true</code> if the address is within this range.
+	 */
+	public boolean contains(byte[] ipAddress) {
+		if (ipAddress == null || ipAddress.length != this.address.length) {
+			return false;
+		}
+		for (int i = 0; i < this.prefixLength; i++) {
+			if (bit(ipAddress, i) != bit(this.address, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the network address of the range.  The returned array must not
+	 * be modified.
+	 */
+	public byte[] getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * Return the number of leading bits of the network address that identify
+	 * the range.
+	 */
+	public int getPrefixLength() {
+		return this.prefixLength;
+	}
+
+	/**
+	 * Return <code>true</code> if this range contains exactly one address.
+	 */
+	public boolean isSingleAddress() {
+		return (this.prefixLength == this.address.length * 8);
+	}
+
+	/**
+	 * Return the value of a bit of a binary address, where bit zero is the most
+	 * significant bit of the first byte.
+	 */
+	static int bit(byte[] address, int index) {
+		return (address[index / 8] >>> (7 - (index % 8))) & 1;
+	}
+
+	/**
+	 *
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof IpAddressRange)) {
+			return false;
+		}
+		IpAddressRange range = (IpAddressRange)o;
+		return (this.prefixLength == range.prefixLength && Arrays.equals(this.address, range.address));
+	}
+
+	/**
+	 *
+	 */
+	public int hashCode() {
+		return Arrays.hashCode(this.address) * 31 + this.prefixLength;
+	}
+
+	/**
+	 * Return the range in CIDR notation, or the address alone if the range
+	 * contains a single address.
+	 */
+	public String toString() {
+		String ipAddress;
+		try {
+			ipAddress = InetAddress.getByAddress(this.address).getHostAddress();
+		} catch (UnknownHostException e) {
+			// not possible for 4 and 16 byte addresses
+			throw new IllegalStateException(e);
+		}
+		return (this.isSingleAddress()) ? ipAddress : ipAddress + "/" + this.prefixLength;
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A binary prefix trie mapping IPv4 and IPv6 address ranges to values.  Each
+ * bit of a range's network address selects a child node, so finding all of
+ * the ranges that contain an address requires visiting at most one node per
+ * address bit regardless of the number of ranges in the trie.
+ *
+ * Nodes are stored in arrays rather than as individual objects to keep the
+ * trie compact.  This class is not thread-safe for updates, but a trie that
+ * is no longer modified may be safely shared between threads.
+ */
+public class IpPrefixTrie<V> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/** Child node index used to indicate that a node has no such child. */
+	private static final int NO_NODE = 0;
+	/** Node index of the root node for IPv4 ranges. */
+	private static final int IPV4_ROOT = 1;
+	/** Node index of the root node for IPv6 ranges. */
+	private static final int IPV6_ROOT = 2;
+	/** Child node indexes, two per node. */
+	private int[] children = new int[32];
+	/** Index of the first value for each node, or -1 if no range ends at the node. */
+	private int[] firstValue = new int[16];
+	/** Index of the next value for the same node, or -1 for the last value. */
+	private int[] nextValue = new int[8];
+	private int nodeCount = 3;
+	private Object[] values = new Object[8];
+	private int valueCount = 0;
+
+	/**
+	 *
+	 */
+	public IpPrefixTrie() {
+		Arrays.fill(this.firstValue, -1);
+	}
+
+	/**
+	 * Add a range to the trie.  A range may be added more than once with
+	 * different values.
+	 *
+	 * @param range The address range.
+	 * @param value The value to associate with the range.
+	 */
+	public void add(IpAddressRange range, V value) {
+		byte[] address = range.getAddress();
+		int node = (address.length == 4) ? IPV4_ROOT : IPV6_ROOT;
+		for (int i = 0; i < range.getPrefixLength(); i++) {
+			int slot = node * 2 + IpAddressRange.bit(address, i);
+			if (this.children[slot] == NO_NODE) {
+				// allocate first since doing so may replace the children array
+				int child = this.newNode();
+				this.children[slot] = child;
+			}
+			node = this.children[slot];
+		}
+		if (this.valueCount == this.values.length) {
+			this.values = IpPrefixTrie.resize(this.values, this.valueCount * 2);
+			this.nextValue = IpPrefixTrie.resize(this.nextValue, this.valueCount * 2);
+		}
+		this.values[this.valueCount] = value;
+		this.nextValue[this.valueCount] = this.firstValue[node];
+		this.firstValue[node] = this.valueCount;
+		this.valueCount++;
+	}
+
+	/**
+	 * Return the values for all ranges that contain an address.
+	 *
+	 * @param address The binary form of the address, as returned by
+	 *  {@link IpAddressRange#toBytes}.
+	 * @return The values for all matching ranges, ordered from the most
+	 *  specific (longest prefix) range to the least specific.  If no ranges
+	 *  match then an empty list is returned.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> find(byte[] address) {
+		List<V> results = new ArrayList<V>();
+		if (address == null || (address.length != 4 && address.length != 16)) {
+			return results;
+		}
+		int node = (address.length == 4) ? IPV4_ROOT : IPV6_ROOT;
+		for (int i = 0; node != NO_NODE; i++) {
+			for (int j = this.firstValue[node]; j != -1; j = this.nextValue[j]) {
+				results.add(0, (V)this.values[j]);
+			}
+			if (i == address.length * 8) {
+				break;
+			}
+			node = this.children[node * 2 + IpAddressRange.bit(address, i)];
+		}
+		return results;
+	}
+
+	/**
+	 * Return the number of values in the trie.
+	 */
+	public int size() {
+		return this.valueCount;
+	}
+
+	/**
+	 * Allocate a new node and return its index.
+	 */
+	private int newNode() {
+		if (this.nodeCount == this.firstValue.length) {
+			this.children = IpPrefixTrie.resize(this.children, this.nodeCount * 4);
+			this.firstValue = IpPrefixTrie.resize(this.firstValue, this.nodeCount * 2);
+			Arrays.fill(this.firstValue, this.nodeCount, this.firstValue.length, -1);
+		}
+		return this.nodeCount++;
+	}
+
+	/**
+	 * Return a copy of an array with a new length.  Arrays.copyOf is not
+	 * used since it is not available in Java 5.
+	 */
+	private static int[] resize(int[] array, int length) {
+		int[] result = new int[length];
+		System.arraycopy(array, 0, result, 0, Math.min(array.length, length));
+		return result;
+	}
+
+	/**
+	 * Return a copy of an array with a new length.
+	 */
+	private static Object[] resize(Object[] array, int length) {
+		Object[] result = new Object[length];
+		System.arraycopy(array, 0, result, 0, Math.min(array.length, length));
+		return result;
+	}
+}
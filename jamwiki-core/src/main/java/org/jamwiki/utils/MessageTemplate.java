@@ -0,0 +1,80 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.Serializable;
+import java.text.FieldPosition;
+import java.text.MessageFormat;
+import java.util.Locale;
+
+/**
+ * An immutable, pre-compiled <code>java.text.MessageFormat</code> pattern
+ * that can safely be shared between threads.  <code>MessageFormat</code>
+ * instances are not thread-safe, and parsing a pattern is considerably more
+ * expensive than formatting it, so patterns that are used repeatedly should
+ * be compiled once and cached as a <code>MessageTemplate</code>.  Each call
+ * to {@link #format} formats using a private copy of the compiled pattern.
+ */
+public class MessageTemplate implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/** The compiled pattern.  This object is never modified or used directly for formatting. */
+	private final MessageFormat messageFormat;
+
+	/**
+	 * Compile a pattern using the default locale.
+	 *
+	 * @param pattern A <code>java.text.MessageFormat</code> pattern.
+	 * @throws IllegalArgumentException Thrown if the pattern is invalid.
+	 */
+	public MessageTemplate(String pattern) {
+		this.messageFormat = new MessageFormat(pattern);
+	}
+
+	/**
+	 * Compile a pattern using the specified locale for formatting numbers,
+	 * dates and other locale-sensitive arguments.
+	 *
+	 * @param pattern A <code>java.text.MessageFormat</code> pattern.
+	 * @param locale The locale to use when formatting arguments.
+	 * @throws IllegalArgumentException Thrown if the pattern is invalid.
+	 */
+	public MessageTemplate(String pattern, Locale locale) {
+		this.messageFormat = new MessageFormat(pattern, locale);
+	}
+
+	/**
+	 * Format the template using the given arguments.
+	 *
+	 * @param args The arguments to substitute into the template.  May be
+	 *  <code>null</code>, in which case argument placeholders are left
+	 *  unformatted.
+	 * @return The formatted message.
+	 */
+	public String format(Object... args) {
+		// copying the compiled pattern is much cheaper than re-parsing it
+		MessageFormat formatter = (MessageFormat)this.messageFormat.clone();
+		return formatter.format(args, new StringBuffer(), new FieldPosition(0)).toString();
+	}
+
+	/**
+	 * Return the pattern used to create this template.
+	 */
+	public String toPattern() {
+		return this.messageFormat.toPattern();
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Implementation of Myers' O(ND) difference algorithm using the linear space
+ * refinement described in "An O(ND) Difference Algorithm and Its Variations".
+ * Values are compared as primitive integers, so callers should map lines or
+ * characters to integer IDs before calling this class.  This class is shared
+ * by the topic version diff display and by topic version delta storage.
+ */
+public class MyersDiff {
+
+	/**
+	 *
+	 */
+	private MyersDiff() {
+	}
+
+	/**
+	 * Compute the differences between two arrays of values.
+	 *
+	 * @param a The array of values that is being compared against, ie the older
+	 *  values.  All values must be non-negative.
+	 * @param b The array of values that is being compared to, ie the newer values.
+	 *  All values must be non-negative.
+	 * @return A list of changes, ordered by position, where each change
+	 *  identifies a range of deleted values from <code>a</code> and a range of
+	 *  added values from <code>b</code>.
+	 */
+	public static List<Change> diff(int[] a, int[] b) {
+		return MyersDiff.diff(a, b, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Compute the differences between two arrays of values, giving up if the
+	 * arrays differ by more than a maximum number of deleted and added values.
+	 *
+	 * @param a The array of values that is being compared against, ie the older
+	 *  values.  All values must be non-negative.
+	 * @param b The array of values that is being compared to, ie the newer values.
+	 *  All values must be non-negative.
+	 * @param maxEditDistance The maximum total number of deleted and added
+	 *  values.
+	 * @return A list of changes, ordered by position, where each change
+	 *  identifies a range of deleted values from <code>a</code> and a range of
+	 *  added values from <code>b</code>, or <code>null</code> if the number of
+	 *  deleted and added values exceeds the maximum edit distance.
+	 */
+	public static List<Change> diff(int[] a, int[] b, int maxEditDistance) {
+		boolean[] deleted = new boolean[a.length];
+		boolean[] inserted = new boolean[b.length];
+		if (MyersDiff.hasCommonValue(a, b)) {
+			if (!MyersDiff.compare(a, 0, a.length, b, 0, b.length, deleted, inserted, maxEditDistance)) {
+				return null;
+			}
+		} else {
+			// avoid an O(ND) search when every value has changed
+			if (a.length + b.length > maxEditDistance) {
+				return null;
+			}
+			Arrays.fill(deleted, true);
+			Arrays.fill(inserted, true);
+		}
+		List<Change> changes = MyersDiff.toChanges(deleted, inserted);
+		int editDistance = 0;
+		for (Change change : changes) {
+			editDistance += change.getDeletedCount() + change.getAddedCount();
+		}
+		return (editDistance <= maxEditDistance) ? changes : null;
+	}
+
+	/**
+	 * Find the point at which a shortest edit script from
+	 * <code>a[aStart..aEnd)</code> to <code>b[bStart..bEnd)</code> crosses the
+	 * middle snake by searching forward from the start and backward from the end
+	 * of both ranges at the same time.
+	 *
+	 * @param maxD The maximum number of steps to search in each direction.
+	 * @return A two element array containing the offsets from <code>aStart</code>
+	 *  and <code>bStart</code> at which the ranges can be split, or
+	 *  <code>null</code> if no split was found within the maximum number of
+	 *  steps.
+	 */
+	private static int[] bisect(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, int maxD) {
+		int n = aEnd - aStart;
+		int m = bEnd - bStart;
+		int offset = (n + m + 1) / 2;
+		int length = 2 * offset + 2;
+		int[] forward = new int[length];
+		int[] backward = new int[length];
+		Arrays.fill(forward, -1);
+		Arrays.fill(backward, -1);
+		forward[offset + 1] = 0;
+		backward[offset + 1] = 0;
+		int delta = n - m;
+		// if the total number of values is odd then the forward path overlaps the
+		// backward path, otherwise the backward path overlaps the forward path
+		boolean front = (delta % 2 != 0);
+		// diagonals that have run off the edge of the edit graph are trimmed
+		int forwardStart = 0;
+		int forwardEnd = 0;
+		int backwardStart = 0;
+		int backwardEnd = 0;
+		int x1, y1, x2, y2;
+		for (int d = 0; d < maxD; d++) {
+			for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+				int kOffset = offset + k;
+				x1 = (k == -d || (k != d && forward[kOffset - 1] < forward[kOffset + 1])) ? forward[kOffset + 1] : forward[kOffset - 1] + 1;
+				y1 = x1 - k;
+				while (x1 < n && y1 < m && a[aStart + x1] == b[bStart + y1]) {
+					x1++;
+					y1++;
+				}
+				forward[kOffset] = x1;
+				if (x1 > n) {
+					forwardEnd += 2;
+				} else if (y1 > m) {
+					forwardStart += 2;
+				} else if (front) {
+					int backwardOffset = offset + delta - k;
+					if (backwardOffset >= 0 && backwardOffset < length && backward[backwardOffset] != -1) {
+						x2 = n - backward[backwardOffset];
+						if (x1 >= x2) {
+							return new int[] {x1, y1};
+						}
+					}
+				}
+			}
+			for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+				int kOffset = offset + k;
+				x2 = (k == -d || (k != d && backward[kOffset - 1] < backward[kOffset + 1])) ? backward[kOffset + 1] : backward[kOffset - 1] + 1;
+				y2 = x2 - k;
+				while (x2 < n && y2 < m && a[aEnd - x2 - 1] == b[bEnd - y2 - 1]) {
+					x2++;
+					y2++;
+				}
+				backward[kOffset] = x2;
+				if (x2 > n) {
+					backwardEnd += 2;
+				} else if (y2 > m) {
+					backwardStart += 2;
+				} else if (!front) {
+					int forwardOffset = offset + delta - k;
+					if (forwardOffset >= 0 && forwardOffset < length && forward[forwardOffset] != -1) {
+						x1 = forward[forwardOffset];
+						y1 = offset + x1 - forwardOffset;
+						if (x1 >= n - x2) {
+							return new int[] {x1, y1};
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Recursively compare <code>a[aStart..aEnd)</code> to
+	 * <code>b[bStart..bEnd)</code>, flagging each value that is not part of the
+	 * longest common subsequence as deleted or inserted.
+	 *
+	 * @return <code>false</code> if the ranges differ by more than the maximum
+	 *  edit distance, in which case the flags are incomplete.
+	 */
+	private static boolean compare(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, boolean[] deleted, boolean[] inserted, int maxEditDistance) {
+		// values that are common to the start or end of both ranges are unchanged
+		while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+			aStart++;
+			bStart++;
+		}
+		while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+			aEnd--;
+			bEnd--;
+		}
+		if (aStart == aEnd || bStart == bEnd) {
+			Arrays.fill(deleted, aStart, aEnd, true);
+			Arrays.fill(inserted, bStart, bEnd, true);
+			return ((aEnd - aStart) + (bEnd - bStart) <= maxEditDistance);
+		}
+		// a shortest edit script of length D crosses the middle snake within
+		// (D + 1) / 2 steps, so a longer search means the edit distance is exceeded
+		int maxD = (aEnd - aStart + bEnd - bStart + 1) / 2;
+		int searchD = Math.min(maxD, maxEditDistance / 2 + 2);
+		int[] split = MyersDiff.bisect(a, aStart, aEnd, b, bStart, bEnd, searchD);
+		if (split == null) {
+			if (searchD < maxD || (aEnd - aStart) + (bEnd - bStart) > maxEditDistance) {
+				return false;
+			}
+			Arrays.fill(deleted, aStart, aEnd, true);
+			Arrays.fill(inserted, bStart, bEnd, true);
+			return true;
+		}
+		return MyersDiff.compare(a, aStart, aStart + split[0], b, bStart, bStart + split[1], deleted, inserted, maxEditDistance)
+			&& MyersDiff.compare(a, aStart + split[0], aEnd, b, bStart + split[1], bEnd, deleted, inserted, maxEditDistance);
+	}
+
+	/**
+	 * Return <code>true</code> if at least one value appears in both arrays.
+	 */
+	private static boolean hasCommonValue(int[] a, int[] b) {
+		BitSet values = new BitSet();
+		for (int value : a) {
+			values.set(value);
+		}
+		for (int value : b) {
+			if (values.get(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Convert the flags identifying deleted and inserted values into a list of
+	 * changes.  Values that are not flagged are unchanged and appear in the
+	 * same order in both arrays, so each change is a run of flagged values
+	 * between two unchanged values.
+	 */
+	private static List<Change> toChanges(boolean[] deleted, boolean[] inserted) {
+		List<Change> changes = new ArrayList<Change>();
+		int i = 0;
+		int j = 0;
+		while (i < deleted.length || j < inserted.length) {
+			if (i < deleted.length && j < inserted.length && !deleted[i] && !inserted[j]) {
+				i++;
+				j++;
+				continue;
+			}
+			int deletedStart = i;
+			while (i < deleted.length && deleted[i]) {
+				i++;
+			}
+			int addedStart = j;
+			while (j < inserted.length && inserted[j]) {
+				j++;
+			}
+			changes.add(new Change(deletedStart, i - deletedStart, addedStart, j - addedStart));
+		}
+		return changes;
+	}
+
+	/**
+	 * A single change between two arrays of values, consisting of a (possibly
+	 * empty) range of values deleted from the older array and a (possibly
+	 * empty) range of values added from the newer array at the same position.
+	 */
+	public static class Change {
+
+		private final int addedCount;
+		private final int addedStart;
+		private final int deletedCount;
+		private final int deletedStart;
+
+		/**
+		 *
+		 */
+		public Change(int deletedStart, int deletedCount, int addedStart, int addedCount) {
+			this.deletedStart = deletedStart;
+			this.deletedCount = deletedCount;
+			this.addedStart = addedStart;
+			this.addedCount = addedCount;
+		}
+
+		/**
+		 * Return the number of values added from the newer array.
+		 */
+		public int getAddedCount() {
+			return this.addedCount;
+		}
+
+		/**
+		 * Return the position in the newer array of the first added value.
+		 */
+		public int getAddedStart() {
+			return this.addedStart;
+		}
+
+		/**
+		 * Return the number of values deleted from the older array.
+		 */
+		public int getDeletedCount() {
+			return this.deletedCount;
+		}
+
+		/**
+		 * Return the position in the older array of the first deleted value.
+		 */
+		public int getDeletedStart() {
+			return this.deletedStart;
+		}
+
+		/**
+		 *
+		 */
+		public boolean equals(Object object) {
+			if (!(object instanceof Change)) {
+				return false;
+			}
+			Change change = (Change)object;
+			return (this.deletedStart == change.deletedStart && this.deletedCount == change.deletedCount && this.addedStart == change.addedStart && this.addedCount == change.addedCount);
+		}
+
+		/**
+		 *
+		 */
+		public int hashCode() {
+			return ((this.deletedStart * 31 + this.deletedCount) * 31 + this.addedStart) * 31 + this.addedCount;
+		}
+
+		/**
+		 *
+		 */
+		public String toString() {
+			return "[" + this.deletedStart + "+" + this.deletedCount + ", " + this.addedStart + "+" + this.addedCount + "]";
+		}
+	}
+}
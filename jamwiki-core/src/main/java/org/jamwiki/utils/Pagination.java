@@ -16,20 +16,41 @@
  */
 package org.jamwiki.utils;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import org.apache.commons.lang3.StringUtils;
 
 /**
  * Utility class useful for paginating through a result set.
+ *
+ * Result sets that are ordered by date (recent changes, topic history, user
+ * contributions and logs) may also be paginated using a seek position, which
+ * identifies the date of the last result on the previous page.  Queries can
+ * then start reading directly from that date rather than reading and
+ * discarding every result before the offset, so deep pages are as fast as the
+ * first page.  Results with the same date are ordered by a secondary key
+ * (such as the topic version ID), so the seek position records the date and
+ * key of the last result along with the number of results with exactly that
+ * date and key that have already been returned, which handles result sets
+ * where the date and key together are still not unique.
  */
 public class Pagination {
 
 	/** Logger */
 	public static final WikiLogger logger = WikiLogger.getLogger(Pagination.class.getName());
 
+	/** Upper bound on result dates used by seek queries when no seek position has been specified. */
+	private static final Timestamp MAX_SEEK_DATE = Timestamp.valueOf("9999-12-31 00:00:00");
 	private final int numResults;
 	private final int offset;
+	/** The date of the last result on the previous page, or <code>null</code> if not using a seek position. */
+	private final Timestamp seekDate;
+	/** The secondary ordering key of the last result on the previous page. */
+	private final int seekKey;
+	/** The number of results with a date equal to seekDate and a key equal to seekKey that were returned on previous pages. */
+	private final int seekSkip;
 
 	/**
 	 * Create a pagination object with specified initial values.
@@ -43,6 +64,47 @@ public class Pagination {
 	public Pagination(int numResults, int offset) {
 		this.numResults = numResults;
 		this.offset = offset;
+		this.seekDate = null;
+		this.seekKey = 0;
+		this.seekSkip = 0;
+	}
+
+	/**
+	 * Create a pagination object that uses a seek position when retrieving
+	 * date-ordered results.
+	 *
+	 * @param numResults The maximum number of results that can be retrieved or
+	 *  displayed.
+	 * @param offset The offset for the pagination.  When a valid seek position
+	 *  is specified the offset is used only for display purposes.
+	 * @param seek A seek position previously returned by {@link #nextSeek}.  If
+	 *  this value is empty or invalid then results are retrieved using the
+	 *  offset.
+	 */
+	public Pagination(int numResults, int offset, String seek) {
+		this.numResults = numResults;
+		this.offset = offset;
+		Timestamp date = null;
+		int key = 0;
+		int skip = 0;
+		String[] tokens = StringUtils.split(seek, '_');
+		if (tokens != null && tokens.length == 4) {
+			try {
+				date = new Timestamp(Long.parseLong(tokens[0]) * 1000);
+				date.setNanos(Integer.parseInt(tokens[1]));
+				key = Integer.parseInt(tokens[2]);
+				skip = Integer.parseInt(tokens[3]);
+			} catch (IllegalArgumentException e) {
+				// invalid seek position, fall back to the offset
+				logger.debug("Ignoring invalid pagination seek position " + seek);
+				date = null;
+				key = 0;
+				skip = 0;
+			}
+		}
+		this.seekDate = (skip >= 0) ? date : null;
+		this.seekKey = (skip >= 0) ? key : 0;
+		this.seekSkip = (skip >= 0) ? skip : 0;
 	}
 
 	/**
@@ -86,6 +148,130 @@ public class Pagination {
 		return this.offset;
 	}
 
+	/**
+	 * Return the seek position for this pagination, or <code>null</code> if
+	 * results are retrieved using the offset.
+	 *
+	 * @return The seek position for this pagination, in the format returned by
+	 *  {@link #nextSeek}.
+	 */
+	public String getSeek() {
+		return (this.seekDate == null) ? null : Pagination.formatSeek(this.seekDate, this.seekKey, this.seekSkip);
+	}
+
+	/**
+	 * Return the latest date of any result that should be retrieved by a
+	 * date-ordered query.  If no seek position was specified then a date later
+	 * than any result is returned, so that queries can always bound the
+	 * date and use {@link #getSeekOffset} as the offset.
+	 *
+	 * @return The latest date of any result to retrieve.
+	 */
+	public Timestamp getSeekDate() {
+		return (this.seekDate == null) ? MAX_SEEK_DATE : this.seekDate;
+	}
+
+	/**
+	 * Return the secondary ordering key of the last result that was returned
+	 * for the seek date.  Date-ordered queries should only return results
+	 * with the seek date whose key is ordered at or after this key, and should
+	 * use {@link #getSeekOffset} to skip results with exactly this date and key.
+	 * If no seek position was specified this value is ignored, since no result
+	 * has the date returned by {@link #getSeekDate}.
+	 *
+	 * @return The secondary ordering key of the seek position.
+	 */
+	public int getSeekKey() {
+		return this.seekKey;
+	}
+
+	/**
+	 * Return the last result of the current pagination for a date-ordered query
+	 * bounded by {@link #getSeekDate}, equivalent to getSeekOffset() + numResults.
+	 *
+	 * @return The last result of the current pagination for a seek query.
+	 */
+	public int getSeekEnd() {
+		return this.getSeekOffset() + this.numResults;
+	}
+
+	/**
+	 * Return the number of results to skip for a date-ordered query bounded by
+	 * {@link #getSeekDate}.  If a seek position was specified then this value
+	 * is the number of results with exactly the seek date and key that have
+	 * already been returned, otherwise it is the offset.
+	 *
+	 * @return The number of results to skip for a seek query.
+	 */
+	public int getSeekOffset() {
+		return (this.seekDate == null) ? this.offset : this.seekSkip;
+	}
+
+	/**
+	 * Return <code>true</code> if this pagination specifies a seek position.
+	 */
+	public boolean isSeek() {
+		return (this.seekDate != null);
+	}
+
+	/**
+	 *
+	 */
+	private static String formatSeek(Timestamp date, int key, int skip) {
+		// the millisecond part of the date is included in the nanoseconds
+		long seconds = (date.getTime() - (date.getNanos() / 1000000)) / 1000;
+		return seconds + "_" + date.getNanos() + "_" + key + "_" + skip;
+	}
+
+	/**
+	 * Return the seek position that can be used to retrieve the page of
+	 * results following the current page.
+	 *
+	 * @param dates The dates of the results on the current page, in the order
+	 *  that they were returned (most recent first).
+	 * @param keys The secondary ordering keys of the results on the current
+	 *  page, in the same order as the dates.  A <code>null</code> key is
+	 *  treated as zero, matching the queries that order by the key.
+	 * @return The seek position for the next page, or <code>null</code> if
+	 *  there is no next page or if the next page cannot be determined from the
+	 *  current page, in which case the next page should be retrieved using an
+	 *  offset.
+	 */
+	public String nextSeek(List<Timestamp> dates, List<Integer> keys) {
+		if (dates == null || dates.isEmpty() || dates.size() < this.numResults) {
+			return null;
+		}
+		if (keys == null || keys.size() != dates.size()) {
+			throw new IllegalArgumentException("Seek keys must be specified for every result");
+		}
+		Timestamp last = dates.get(dates.size() - 1);
+		if (last == null) {
+			return null;
+		}
+		int lastKey = Pagination.seekKey(keys.get(keys.size() - 1));
+		int skip = 0;
+		for (int i = dates.size() - 1; i >= 0 && last.equals(dates.get(i)) && lastKey == Pagination.seekKey(keys.get(i)); i--) {
+			skip++;
+		}
+		if (skip == dates.size()) {
+			// every result on this page has the same date and key, so results from
+			// previous pages may also have that date and key
+			if (this.seekDate != null && this.seekDate.equals(last) && this.seekKey == lastKey) {
+				skip += this.seekSkip;
+			} else if (this.seekDate == null && this.offset != 0) {
+				return null;
+			}
+		}
+		return Pagination.formatSeek(last, lastKey, skip);
+	}
+
+	/**
+	 *
+	 */
+	private static int seekKey(Integer key) {
+		return (key == null) ? 0 : key.intValue();
+	}
+
 	/**
 	 * Utility method for retrieving a list that is a subset of a larger list
 	 * containing only the items specified by the pagination object.
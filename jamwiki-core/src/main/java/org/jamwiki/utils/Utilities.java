@@ -19,7 +19,6 @@ package org.jamwiki.utils;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -39,6 +38,8 @@ import org.apache.commons.lang3.StringUtils;
 public abstract class Utilities {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(Utilities.class.getName());
+	/** Compiled message templates keyed by message key and locale. */
+	private static final WikiCache<String, MessageTemplate> CACHE_MESSAGE_TEMPLATES = new WikiCache<String, MessageTemplate>("org.jamwiki.utils.Utilities.CACHE_MESSAGE_TEMPLATES");
 
 	private static final String ipv4Pattern = "(?:(?:[01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.){3}(?:[01]?\\d\\d?|2[0-4]\\d|25[0-5])";
 	private static final String ipv6Pattern = "(?:[0-9a-f]{1,4}:){7}(?:[0-9a-f]){1,4}";
@@ -226,11 +227,14 @@ public abstract class Utilities {
 	 * @return A formatted message string that is specific to the locale.
 	 */
 	public static String formatMessage(String key, Locale locale, Object[] params) {
-		MessageFormat formatter = new MessageFormat("");
-		formatter.setLocale(locale);
-		String message = Utilities.formatMessage(key, locale);
-		formatter.applyPattern(message);
-		return formatter.format(params);
+		// compiling a message pattern is expensive, so cache the compiled template
+		String cacheKey = key + '|' + locale;
+		MessageTemplate template = CACHE_MESSAGE_TEMPLATES.retrieveFromCache(cacheKey);
+		if (template == null) {
+			template = new MessageTemplate(Utilities.formatMessage(key, locale), locale);
+			CACHE_MESSAGE_TEMPLATES.addToCache(cacheKey, template);
+		}
+		return template.format(params);
 	}
 
 	/**
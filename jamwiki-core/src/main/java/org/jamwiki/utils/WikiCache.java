@@ -16,30 +16,57 @@
  */
 package org.jamwiki.utils;
 
-import java.io.File;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheException;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
-import net.sf.ehcache.config.Configuration;
-import net.sf.ehcache.config.ConfigurationFactory;
-import net.sf.ehcache.config.DiskStoreConfiguration;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.jamwiki.Environment;
 
 /**
  * Implement utility functions that interact with the cache and provide the
- * infrastructure for storing and retrieving items from the cache.
+ * infrastructure for storing and retrieving items from the cache.  Caches
+ * are created by the {@link CacheProvider} specified by the
+ * {@link Environment#PROP_CACHE_PROVIDER} property.  When several wiki
+ * servers share a database, the <code>invalidate</code> methods should be
+ * used in place of the <code>remove</code> methods whenever cached data is
+ * modified so that the change is sent to other servers through the
+ * {@link CacheInvalidationBus}.
+ *
+ * Values should normally be retrieved using {@link #get}, which loads
+ * missing values through a {@link CacheLoader}.  Only one thread at a time
+ * loads any given key, so a popular entry that expires does not cause every
+ * request for it to query the database at the same time, and
+ * <code>null</code> values are cached so that lookups for records that do
+ * not exist are not repeated until the entry expires.
  */
 public class WikiCache<K, V> {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(WikiCache.class.getName());
-	private static CacheManager CACHE_MANAGER = null;
-	private static boolean INITIALIZED = false;
+	private static volatile CacheProvider CACHE_PROVIDER = null;
 	// track whether this instance was instantiated from an ehcache.xml file or using configured properties.
 	private static final String EHCACHE_XML_CONFIG_FILENAME = "ehcache-jamwiki.xml";
-	/** Directory for cache files. */
-	private static final String CACHE_DIR = "cache";
+	/** Maximum number of background refreshes that may be waiting to run. */
+	private static final int MAX_QUEUED_REFRESHES = 100;
+	/** Executor used for background refreshes, created when first needed. */
+	private static ThreadPoolExecutor refreshExecutor = null;
 	private final String cacheName;
+	/** The cache store for this instance, looked up once per cache provider instance. */
+	private volatile CacheBinding cacheBinding = null;
+	/** Loads currently in progress, used to ensure that each key is loaded by only one thread. */
+	private final ConcurrentMap<K, LoadTask> pendingLoads = new ConcurrentHashMap<K, LoadTask>();
+	/** Age in milliseconds after which a value is reloaded in the background, or zero to disable. */
+	private final long refreshAfter;
 
 	/**
 	 * Initialize a new cache with the given name.
@@ -48,7 +75,26 @@ public class WikiCache<K, V> {
 	 *  be re-used, otherwise unexpected results could be returned.
 	 */
 	public WikiCache(String cacheName) {
+		this(cacheName, 0);
+	}
+
+	/**
+	 * Initialize a new cache with the given name that reloads values in the
+	 * background before they expire.  When a value retrieved with
+	 * {@link #get} is older than <code>refreshAfter</code> the current value
+	 * is returned and a new value is loaded in a background thread, so that
+	 * frequently used entries are replaced before the cache expires them.
+	 *
+	 * @param cacheName The name of the cache being created.  This name should not
+	 *  be re-used, otherwise unexpected results could be returned.
+	 * @param refreshAfter The age in milliseconds after which a value is
+	 *  reloaded.  This value should be less than the time-to-live configured
+	 *  for the cache in the ehcache.xml file, and a value of zero disables
+	 *  background reloading.
+	 */
+	public WikiCache(String cacheName, long refreshAfter) {
 		this.cacheName = cacheName;
+		this.refreshAfter = Math.max(refreshAfter, 0);
 	}
 
 	/**
@@ -59,7 +105,58 @@ public class WikiCache<K, V> {
 	 * @param value The object that is being stored in the cache.
 	 */
 	public void addToCache(K key, V value) {
-		this.getCache().put(new Element(key, value));
+		this.getCache().put(key, this.wrap(value));
+	}
+
+	/**
+	 * Retrieve an object from the cache, loading it if it is not cached.  If
+	 * another thread is already loading the same key then this method waits
+	 * for that load to complete rather than loading the value again.  The
+	 * loaded value is added to the cache, even if it is <code>null</code>.
+	 *
+	 * @param key The key for the record that is being retrieved from the
+	 *  cache.
+	 * @param loader The loader used to retrieve the value if it is not cached.
+	 * @return The cached or loaded value, which may be <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(K key, CacheLoader<K, V> loader) {
+		if (key == null) {
+			// null keys are not cached
+			return loader.load(key);
+		}
+		CacheStore cacheStore = this.getCache();
+		Object cached = cacheStore.get(key);
+		if (cached != null) {
+			if (this.refreshAfter > 0 && cached instanceof LoadedValue && (System.currentTimeMillis() - ((LoadedValue)cached).loadTime) > this.refreshAfter) {
+				this.refresh(cacheStore, key, loader);
+			}
+			return (V)WikiCache.unwrap(cached);
+		}
+		LoadTask task = new LoadTask(cacheStore, key, loader, false);
+		LoadTask pending = this.pendingLoads.putIfAbsent(key, task);
+		if (pending == null) {
+			task.run();
+			pending = task;
+		} else if (pending.runner == Thread.currentThread()) {
+			// a loader is retrieving its own key, so waiting would never finish
+			return loader.load(key);
+		}
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return loader.load(key);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			// not possible since loaders do not throw checked exceptions
+			throw new IllegalStateException(e.getCause());
+		}
 	}
 
 	/**
@@ -72,15 +169,22 @@ public class WikiCache<K, V> {
 	 * @throws IllegalStateException if an attempt is made to retrieve a cache
 	 *  using XML configuration and the cache is not configured.
 	 */
-	private Cache getCache() throws CacheException {
-		if (!WikiCache.INITIALIZED) {
-			WikiCache.initialize();
+	private CacheStore getCache() {
+		CacheProvider cacheProvider = WikiCache.CACHE_PROVIDER;
+		if (cacheProvider == null) {
+			cacheProvider = WikiCache.initializeIfNecessary();
+		}
+		CacheBinding binding = this.cacheBinding;
+		if (binding != null && binding.cacheProvider == cacheProvider) {
+			return binding.cacheStore;
 		}
-		if (!WikiCache.CACHE_MANAGER.cacheExists(this.cacheName)) {
+		CacheStore cacheStore = cacheProvider.getCache(this.cacheName);
+		if (cacheStore == null) {
 			// all caches should be configured from ehcache.xml
 			throw new IllegalStateException("No cache named " + this.cacheName + " is configured in the ehcache.xml file");
 		}
-		return WikiCache.CACHE_MANAGER.getCache(this.cacheName);
+		this.cacheBinding = new CacheBinding(cacheProvider, cacheStore);
+		return cacheStore;
 	}
 
 	/**
@@ -90,34 +194,169 @@ public class WikiCache<K, V> {
 		return this.cacheName;
 	}
 
+	/**
+	 * Return hit, miss, eviction and load statistics for this cache.
+	 */
+	public CacheStatistics getStatistics() {
+		return this.getCache().getStatistics();
+	}
+
+	/**
+	 * Return the number of milliseconds after which a cached value expires,
+	 * as configured in the ehcache.xml file, or zero if values do not expire.
+	 */
+	public long getTimeToLive() {
+		return this.getCache().getTimeToLive();
+	}
+
+	/**
+	 * Return statistics for all configured caches, keyed by cache name.
+	 */
+	public static Map<String, CacheStatistics> getAllStatistics() {
+		CacheProvider cacheProvider = WikiCache.CACHE_PROVIDER;
+		if (cacheProvider == null) {
+			cacheProvider = WikiCache.initializeIfNecessary();
+		}
+		Map<String, CacheStatistics> results = new LinkedHashMap<String, CacheStatistics>();
+		for (String name : cacheProvider.getCacheNames()) {
+			results.put(name, cacheProvider.getCache(name).getStatistics());
+		}
+		return results;
+	}
+
 	/**
 	 * Initialize the cache, clearing any existing cache instances and loading
 	 * a new cache instance.
 	 */
-	public static void initialize() {
+	public static synchronized void initialize() {
+		WikiCache.shutdown();
+		String providerClass = Environment.getValue(Environment.PROP_CACHE_PROVIDER);
+		CacheProvider cacheProvider;
 		try {
-			File file = ResourceUtil.getClassLoaderFile(EHCACHE_XML_CONFIG_FILENAME);
-			logger.info("Initializing cache configuration from " + file.getAbsolutePath());
-			Configuration configuration = ConfigurationFactory.parseConfiguration(file);
-			if (WikiCache.CACHE_MANAGER != null) {
-				WikiCache.CACHE_MANAGER.removalAll();
-				WikiCache.CACHE_MANAGER.shutdown();
-				WikiCache.CACHE_MANAGER = null;
-			}
-			File directory = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), CACHE_DIR);
-			if (!directory.exists()) {
-				directory.mkdir();
-			}
-			DiskStoreConfiguration diskStoreConfiguration = new DiskStoreConfiguration();
-			diskStoreConfiguration.setPath(directory.getPath());
-			configuration.addDiskStore(diskStoreConfiguration);
-			WikiCache.CACHE_MANAGER = new CacheManager(configuration);
+			cacheProvider = (CacheProvider)ResourceUtil.instantiateClass(providerClass);
+		} catch (ClassCastException e) {
+			throw new IllegalStateException("Cache provider specified in jamwiki.properties does not implement org.jamwiki.utils.CacheProvider: " + providerClass);
+		}
+		try {
+			cacheProvider.initialize(EHCACHE_XML_CONFIG_FILENAME);
 		} catch (Exception e) {
 			logger.error("Failure while initializing cache", e);
 			throw new RuntimeException(e);
 		}
-		logger.info("Initializing cache with disk store: " + WikiCache.CACHE_MANAGER.getDiskStorePath());
-		WikiCache.INITIALIZED = true;
+		logger.info("Initialized cache using provider " + providerClass);
+		WikiCache.CACHE_PROVIDER = cacheProvider;
+		CacheInvalidationBus.start();
+	}
+
+	/**
+	 * Initialize the cache if it has not already been initialized, returning
+	 * the current cache provider.
+	 */
+	private static synchronized CacheProvider initializeIfNecessary() {
+		if (WikiCache.CACHE_PROVIDER == null) {
+			WikiCache.initialize();
+		}
+		return WikiCache.CACHE_PROVIDER;
+	}
+
+	/**
+	 * Load a new value for a key in a background thread, unless the key is
+	 * already being loaded.  If the refresh queue is full then the refresh is
+	 * skipped and the current value remains cached until it expires.
+	 */
+	private void refresh(CacheStore cacheStore, K key, CacheLoader<K, V> loader) {
+		LoadTask task = new LoadTask(cacheStore, key, loader, true);
+		if (this.pendingLoads.putIfAbsent(key, task) != null) {
+			return;
+		}
+		try {
+			WikiCache.retrieveRefreshExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			this.pendingLoads.remove(key, task);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Skipping refresh of " + this.cacheName + " key " + key + ": too many refreshes queued");
+			}
+		}
+	}
+
+	/**
+	 * Return the executor used for background refreshes, creating it if
+	 * necessary.  Refreshes run in a single low-priority daemon thread.
+	 */
+	private static synchronized ThreadPoolExecutor retrieveRefreshExecutor() {
+		if (refreshExecutor == null) {
+			refreshExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_REFRESHES), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "jamwiki-cache-refresh");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return refreshExecutor;
+	}
+
+	/**
+	 * Remove a value from the cache on this server and on all other wiki
+	 * servers.  Other servers remove all keys whose string value matches the
+	 * string value of the given key without regard to case, since the type of
+	 * the key is not preserved.
+	 *
+	 * @param key The key for the record that is being invalidated.
+	 */
+	public void invalidate(K key) {
+		if (key == null) {
+			return;
+		}
+		this.removeFromCache(key);
+		CacheInvalidationBus.publish(this.cacheName, key.toString());
+	}
+
+	/**
+	 * Remove all values from the cache on this server and on all other wiki
+	 * servers.
+	 */
+	public void invalidateAll() {
+		this.removeAllFromCache();
+		CacheInvalidationBus.publish(this.cacheName, null);
+	}
+
+	/**
+	 * Remove a key from the cache in a case-insensitive manner on this server
+	 * and on all other wiki servers.
+	 *
+	 * @param key The key for the record that is being invalidated.
+	 */
+	public void invalidateCaseInsensitive(String key) {
+		this.removeFromCacheCaseInsensitive(key);
+		CacheInvalidationBus.publish(this.cacheName, key);
+	}
+
+	/**
+	 * Apply an invalidation received from another wiki server to the local
+	 * cache with the given name.
+	 */
+	static void invalidateLocal(String cacheName, String key) {
+		CacheProvider cacheProvider = WikiCache.CACHE_PROVIDER;
+		if (cacheProvider == null) {
+			// nothing is cached
+			return;
+		}
+		CacheStore cacheStore = cacheProvider.getCache(cacheName);
+		if (cacheStore == null) {
+			// listener channels are not registered until their classes are
+			// loaded, in which case there is nothing to invalidate
+			if (logger.isDebugEnabled()) {
+				logger.debug("Ignoring invalidation for unknown cache " + cacheName);
+			}
+			return;
+		}
+		if (key == null) {
+			cacheStore.removeAll();
+		} else {
+			cacheStore.removeCaseInsensitive(key);
+		}
 	}
 
 	/**
@@ -125,17 +364,22 @@ public class WikiCache<K, V> {
 	 * if the value associated with that key is <code>null</code>.
 	 */
 	public boolean isKeyInCache(K key) {
-		return this.getCache().isKeyInCache(key);
+		return this.getCache().containsKey(key);
 	}
 
 	/**
-	 * Close the cache manager.
+	 * Close the cache provider.
 	 */
-	public static void shutdown() {
-		WikiCache.INITIALIZED = false;
-		if (WikiCache.CACHE_MANAGER != null) {
-			WikiCache.CACHE_MANAGER.shutdown();
-			WikiCache.CACHE_MANAGER = null;
+	public static synchronized void shutdown() {
+		CacheInvalidationBus.stop();
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdownNow();
+			refreshExecutor = null;
+		}
+		CacheProvider cacheProvider = WikiCache.CACHE_PROVIDER;
+		WikiCache.CACHE_PROVIDER = null;
+		if (cacheProvider != null) {
+			cacheProvider.shutdown();
 		}
 	}
 
@@ -143,6 +387,7 @@ public class WikiCache<K, V> {
 	 * Remove all values from the cache.
 	 */
 	public void removeAllFromCache() {
+		this.pendingLoads.clear();
 		this.getCache().removeAll();
 	}
 
@@ -152,21 +397,28 @@ public class WikiCache<K, V> {
 	 * @param key The key for the record that is being removed from the cache.
 	 */
 	public void removeFromCache(K key) {
+		// loads already in progress may have read the old value, so they must
+		// not add it to the cache
+		this.pendingLoads.remove(key);
 		this.getCache().remove(key);
 	}
 
 	/**
-	 * Remove a key from the cache in a case-insensitive manner.  This method
-	 * is significantly slower than removeFromCache and should only be used when
-	 * the key values may not be exactly known.
+	 * Remove a key from the cache in a case-insensitive manner.  Cache
+	 * providers maintain an index of case-folded keys, so this method does not
+	 * need to examine every key in the cache, but it is still slower than
+	 * removeFromCache and should only be used when the key values may not be
+	 * exactly known.
 	 */
 	public void removeFromCacheCaseInsensitive(String key) {
-		for (Object cacheKey : this.getCache().getKeys()) {
-			// with the upgrade to ehcache 2.4.2 it seems that null cache keys are possible...
-			if (cacheKey != null && cacheKey.toString().equalsIgnoreCase(key)) {
-				this.getCache().remove(cacheKey);
+		if (key != null) {
+			for (Iterator<K> iterator = this.pendingLoads.keySet().iterator(); iterator.hasNext();) {
+				if (key.equalsIgnoreCase(iterator.next().toString())) {
+					iterator.remove();
+				}
 			}
 		}
+		this.getCache().removeCaseInsensitive(key);
 	}
 
 	/**
@@ -175,14 +427,156 @@ public class WikiCache<K, V> {
 	 * object has a value of <code>null</code>.  Callers should call
 	 * {@link #isKeyInCache} if a <code>null</code> value is returned to
 	 * determine whether a <code>null</code> was cached or if the value does
-	 * not exist in the cache.
+	 * not exist in the cache.  In most cases {@link #get} should be used
+	 * instead.
 	 *
 	 * @param key The key for the record that is being retrieved from the
 	 *  cache.
 	 * @return The cached object if one is found, <code>null</code> otherwise.
 	 */
+	@SuppressWarnings("unchecked")
 	public V retrieveFromCache(K key) {
-		Element element = this.getCache().get(key);
-		return (element != null) ? (V)element.getObjectValue() : null;
+		return (V)WikiCache.unwrap(this.getCache().get(key));
+	}
+
+	/**
+	 * Convert a cached object to the value that it represents.
+	 */
+	private static Object unwrap(Object cached) {
+		if (cached instanceof LoadedValue) {
+			return ((LoadedValue)cached).value;
+		}
+		return (cached == NullValue.INSTANCE) ? null : cached;
+	}
+
+	/**
+	 * Convert a value to the object stored in the cache.  Values are stored
+	 * with their load time if they are refreshed in the background, and
+	 * <code>null</code> values are stored as a placeholder so that a single
+	 * cache lookup can distinguish a cached <code>null</code> from a missing
+	 * key.
+	 */
+	private Object wrap(V value) {
+		if (this.refreshAfter > 0) {
+			return new LoadedValue(value, System.currentTimeMillis());
+		}
+		return (value == null) ? NullValue.INSTANCE : value;
+	}
+
+	/**
+	 * The cache store used by a WikiCache instance, along with the provider
+	 * that created it.  If the cache is re-initialized then the provider will
+	 * change and the cache store must be looked up again.
+	 */
+	private static final class CacheBinding {
+
+		private final CacheProvider cacheProvider;
+		private final CacheStore cacheStore;
+
+		/**
+		 *
+		 */
+		CacheBinding(CacheProvider cacheProvider, CacheStore cacheStore) {
+			this.cacheProvider = cacheProvider;
+			this.cacheStore = cacheStore;
+		}
+	}
+
+	/**
+	 * A cached value along with the time at which it was loaded, used by
+	 * caches that refresh values in the background.
+	 */
+	private static final class LoadedValue implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+		private final long loadTime;
+		private final Object value;
+
+		/**
+		 *
+		 */
+		LoadedValue(Object value, long loadTime) {
+			this.value = value;
+			this.loadTime = loadTime;
+		}
+	}
+
+	/**
+	 * A load of a single key.  The loaded value is added to the cache before
+	 * any waiting threads are released, unless the key was removed from the
+	 * cache while the load was in progress.  A removal may happen between the
+	 * check for a pending load and the addition to the cache, so the check is
+	 * repeated after the value is added and the value is removed again if the
+	 * load is no longer pending.
+	 */
+	private final class LoadTask extends FutureTask<V> {
+
+		private final boolean background;
+		private final CacheStore cacheStore;
+		private final K key;
+		/** The thread running the load, or <code>null</code> if the load is not running. */
+		private volatile Thread runner = null;
+
+		/**
+		 *
+		 */
+		LoadTask(final CacheStore cacheStore, final K key, final CacheLoader<K, V> loader, boolean background) {
+			super(new Callable<V>() {
+				public V call() {
+					long start = System.nanoTime();
+					V value = loader.load(key);
+					cacheStore.getStatistics().recordLoad(System.nanoTime() - start);
+					return value;
+				}
+			});
+			this.background = background;
+			this.cacheStore = cacheStore;
+			this.key = key;
+		}
+
+		/**
+		 *
+		 */
+		public void run() {
+			this.runner = Thread.currentThread();
+			try {
+				super.run();
+			} finally {
+				this.runner = null;
+				pendingLoads.remove(this.key, this);
+			}
+		}
+
+		/**
+		 *
+		 */
+		protected void set(V value) {
+			if (pendingLoads.get(this.key) == this) {
+				this.cacheStore.put(this.key, wrap(value));
+				if (pendingLoads.get(this.key) != this) {
+					// removed while the value was being added
+					this.cacheStore.remove(this.key);
+				}
+			}
+			super.set(value);
+		}
+
+		/**
+		 *
+		 */
+		protected void setException(Throwable t) {
+			if (this.background) {
+				// the current value remains cached, so there is no caller to notify
+				logger.warn("Failure while refreshing " + cacheName + " key " + this.key, t);
+			}
+			super.setException(t);
+		}
+	}
+
+	/**
+	 * Placeholder stored in the cache for <code>null</code> values.
+	 */
+	private enum NullValue {
+		INSTANCE
 	}
 }
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.sql.SQLException;
-import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -55,7 +54,7 @@ public class WikiUtil {
 
 	/** webapp context path, initialized from JAMWikiFilter. */
 	public static String WEBAPP_CONTEXT_PATH = null;
-	private static final WikiCache<String, MessageFormat> CACHE_TEMPLATE_MESSAGE_FORMATTER = new WikiCache<String, MessageFormat>("org.jamwiki.util.WikiUtil.CACHE_TEMPLATE_MESSAGE_FORMATTER");
+	private static final WikiCache<String, MessageTemplate> CACHE_TEMPLATE_MESSAGE_FORMATTER = new WikiCache<String, MessageTemplate>("org.jamwiki.util.WikiUtil.CACHE_TEMPLATE_MESSAGE_FORMATTER");
 	private static final Pattern HTML_COMMENT_PATTERN = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
 	private static final Pattern INVALID_NAMESPACE_NAME_PATTERN = Pattern.compile(Environment.getValue(Environment.PROP_PATTERN_INVALID_NAMESPACE_NAME));
 	private static final Pattern INVALID_ROLE_NAME_PATTERN = Pattern.compile(Environment.getValue(Environment.PROP_PATTERN_INVALID_ROLE_NAME));
@@ -68,7 +67,9 @@ public class WikiUtil {
 
 	/**
 	 * Create a pagination object based on parameters found in the current
-	 * request.
+	 * request.  If the request contains a "seek" parameter then date-ordered
+	 * results are retrieved from that seek position, otherwise the "offset"
+	 * parameter is used.
 	 *
 	 * @param request The servlet request object.
 	 * @return A Pagination object constructed from parameters found in the
@@ -91,7 +92,7 @@ public class WikiUtil {
 				// invalid number
 			}
 		}
-		return new Pagination(num, offset);
+		return new Pagination(num, offset, request.getParameter("seek"));
 	}
 
 	/**
@@ -164,13 +165,13 @@ public class WikiUtil {
 	 */
 	public static String formatFromTemplate(String template, Object... args) throws IOException {
 		// cache the message formatter since this code is likely to be invoked often
-		MessageFormat mf = CACHE_TEMPLATE_MESSAGE_FORMATTER.retrieveFromCache(template);
+		MessageTemplate mf = CACHE_TEMPLATE_MESSAGE_FORMATTER.retrieveFromCache(template);
 		if (mf == null) {
 			String templateString = ResourceUtil.readFile(template);
 			// strip HTML comments
 			Matcher m = WikiUtil.HTML_COMMENT_PATTERN.matcher(templateString);
 			templateString = m.replaceAll("");
-			mf = new MessageFormat(templateString.trim());
+			mf = new MessageTemplate(templateString.trim());
 			CACHE_TEMPLATE_MESSAGE_FORMATTER.addToCache(template, mf);
 		}
 		return mf.format(args);
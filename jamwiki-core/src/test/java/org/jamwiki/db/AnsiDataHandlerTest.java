@@ -16,14 +16,31 @@
  */
 package org.jamwiki.db;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
+import org.jamwiki.model.Category;
+import org.jamwiki.model.ImageData;
+import org.jamwiki.model.Namespace;
 import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.WikiFile;
+import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Pagination;
+import org.jamwiki.utils.WikiCache;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -103,4 +120,326 @@ public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 		topic = WikiBase.getDataHandler().lookupTopic("en", "HELP:Test", false);
 		assertEquals("Incorrect topic name (case-insensitive)", topic.getName(), TOPIC_NAME);
 	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicVersionDeltaStorage() throws IOException, WikiException {
+		boolean deltaStorage = Environment.getBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE);
+		int snapshotInterval = Environment.getIntValue(Environment.PROP_TOPIC_VERSION_SNAPSHOT_INTERVAL);
+		try {
+			Environment.setBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, true);
+			Environment.setIntValue(Environment.PROP_TOPIC_VERSION_SNAPSHOT_INTERVAL, 3);
+			List<String> contents = new ArrayList<String>();
+			StringBuilder content = new StringBuilder();
+			for (int i = 0; i < 50; i++) {
+				content.append("Delta storage test content line ").append(i).append('\n');
+			}
+			Topic topic = null;
+			for (int i = 0; i < 6; i++) {
+				content.append("Delta storage test version ").append(i).append('\n');
+				contents.add(content.toString());
+				if (topic == null) {
+					topic = this.setupTopic(null, "Delta Storage Test", content.toString());
+				} else {
+					topic.setTopicContent(content.toString());
+					this.setupTopic(topic);
+				}
+			}
+			Pagination pagination = new Pagination(1000, 0);
+			List<RecentChange> versions = WikiBase.getDataHandler().getTopicHistory(topic, pagination, true);
+			assertEquals("Incorrect number of test versions present", 6, versions.size());
+			// history is ordered by edit date, which may be identical for all versions
+			Collections.sort(versions, new Comparator<RecentChange>() {
+				public int compare(RecentChange change1, RecentChange change2) {
+					return change1.getTopicVersionId().compareTo(change2.getTopicVersionId());
+				}
+			});
+			// versions other than the current version should be stored as deltas with periodic snapshots
+			int[] expectedDepths = {0, 1, 2, 0, 1, 0};
+			for (int i = 0; i < versions.size(); i++) {
+				TopicVersion stored = WikiBase.getDataHandler().queryHandler().lookupTopicVersion(versions.get(i).getTopicVersionId());
+				assertEquals("Incorrect delta depth for version " + i, expectedDepths[i], TopicVersionDelta.depth(stored.getVersionContent()));
+			}
+			// versions should be rebuilt transparently
+			WikiCache.initialize();
+			for (int i = 0; i < versions.size(); i++) {
+				assertEquals("Incorrect content for version " + i, contents.get(i), WikiBase.getDataHandler().lookupTopicVersion(versions.get(i).getTopicVersionId()).getVersionContent());
+			}
+			// purging a snapshot version should not break the versions that depend on it
+			WikiBase.getDataHandler().purgeTopicVersion(topic, versions.get(3).getTopicVersionId(), null, "127.0.0.1");
+			WikiCache.initialize();
+			assertEquals("Incorrect content after purge", contents.get(4), WikiBase.getDataHandler().lookupTopicVersion(versions.get(4).getTopicVersionId()).getVersionContent());
+			// converting back to full storage should restore the full content
+			Environment.setBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, false);
+			assertEquals("Incorrect number of converted versions", 2, WikiBase.getDataHandler().compressTopicVersions(topic));
+			TopicVersion stored = WikiBase.getDataHandler().queryHandler().lookupTopicVersion(versions.get(2).getTopicVersionId());
+			assertEquals("Incorrect content after conversion", contents.get(2), stored.getVersionContent());
+		} finally {
+			Environment.setBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, deltaStorage);
+			Environment.setIntValue(Environment.PROP_TOPIC_VERSION_SNAPSHOT_INTERVAL, snapshotInterval);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicVersionDeltaBaseValidation() throws IOException, WikiException {
+		boolean deltaStorage = Environment.getBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE);
+		try {
+			Environment.setBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, true);
+			StringBuilder content = new StringBuilder();
+			for (int i = 0; i < 50; i++) {
+				content.append("Delta base validation test content line ").append(i).append('\n');
+			}
+			String content1 = content.toString() + "version 1\n";
+			String content2 = content.toString() + "version 2\n";
+			String content3 = content.toString() + "version 3\n";
+			Topic topic = this.setupTopic(null, "Delta Base Validation Test", content1);
+			int firstVersionId = topic.getCurrentVersionId();
+			topic.setTopicContent(content2);
+			this.setupTopic(topic);
+			int secondVersionId = topic.getCurrentVersionId();
+			// reorder the history so that the previous version has a higher ID, as can
+			// happen for imported topics
+			QueryHandler queryHandler = WikiBase.getDataHandler().queryHandler();
+			TopicVersion first = queryHandler.lookupTopicVersion(firstVersionId);
+			first.setPreviousTopicVersionId(secondVersionId);
+			queryHandler.updateTopicVersion(first);
+			TopicVersion second = queryHandler.lookupTopicVersion(secondVersionId);
+			second.setPreviousTopicVersionId(null);
+			queryHandler.updateTopicVersion(second);
+			WikiCache.initialize();
+			TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, content3, content3.length());
+			topicVersion.setPreviousTopicVersionId(firstVersionId);
+			topic.setTopicContent(content3);
+			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+			String stored = queryHandler.lookupTopicVersion(firstVersionId).getVersionContent();
+			assertEquals("Version not compressed against a base with a higher ID", secondVersionId, TopicVersionDelta.baseTopicVersionId(stored));
+			WikiCache.initialize();
+			assertEquals("Incorrect content for a delta against a base with a higher ID", content1, WikiBase.getDataHandler().lookupTopicVersion(firstVersionId).getVersionContent());
+			// a version whose previous version belongs to another topic must not be compressed
+			Topic other = this.setupTopic(null, "Delta Base Validation Other", content2);
+			int thirdVersionId = topic.getCurrentVersionId();
+			TopicVersion third = queryHandler.lookupTopicVersion(thirdVersionId);
+			third.setPreviousTopicVersionId(other.getCurrentVersionId());
+			queryHandler.updateTopicVersion(third);
+			WikiCache.initialize();
+			topic.setTopicContent(content1);
+			this.setupTopic(topic);
+			assertEquals("Version compressed against another topic's version", content3, queryHandler.lookupTopicVersion(thirdVersionId).getVersionContent());
+		} finally {
+			Environment.setBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, deltaStorage);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupTopicNames() throws Throwable {
+		List<String> pageNames = Arrays.asList("Heading1", "heading2", "HEADING1", "DefinitionList1", "definitionlist1", "No Such Topic Exists");
+		int virtualWikiId = WikiBase.getDataHandler().lookupVirtualWiki("en").getVirtualWikiId();
+		Map<String, String> results = WikiBase.getDataHandler().queryHandler().lookupTopicNameBatch(virtualWikiId, Namespace.namespace(Namespace.MAIN_ID), pageNames);
+		for (String pageName : pageNames) {
+			String expected = WikiBase.getDataHandler().queryHandler().lookupTopicName(virtualWikiId, "en", Namespace.namespace(Namespace.MAIN_ID), pageName);
+			assertEquals("Batch lookup of " + pageName, expected, results.get(pageName));
+		}
+		assertEquals("Heading1", results.get("Heading1"));
+		assertNull(results.get("No Such Topic Exists"));
+		// the data handler version caches all results, including missing topics
+		Map<String, String> topicNames = WikiBase.getDataHandler().lookupTopicNames("en", Namespace.namespace(Namespace.MAIN_ID), pageNames);
+		for (String pageName : pageNames) {
+			assertEquals("Data handler lookup of " + pageName, results.get(pageName), topicNames.get(pageName));
+		}
+		assertEquals("DefinitionList1", WikiBase.getDataHandler().lookupTopicName("en", Namespace.namespace(Namespace.MAIN_ID), "DefinitionList1"));
+		assertNull(WikiBase.getDataHandler().lookupTopicName("en", Namespace.namespace(Namespace.MAIN_ID), "No Such Topic Exists"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupCategoryTopicsPaginated() throws Throwable {
+		String categoryName = "Category:Pagination Test";
+		Map<String, String> categories = new HashMap<String, String>();
+		categories.put(categoryName, null);
+		String[] topicNames = {"Pagination Test E", "Pagination Test C", "Pagination Test A", "Pagination Test D", "Pagination Test B", "Category:Pagination Test Child"};
+		for (int i = 0; i < topicNames.length - 1; i++) {
+			this.setupCategoryTopic(topicNames[i], categories);
+		}
+		Map<TopicType, Integer> counts = WikiBase.getDataHandler().lookupCategoryTopicCounts("en", categoryName);
+		assertEquals(Integer.valueOf(5), counts.get(TopicType.ARTICLE));
+		assertNull(counts.get(TopicType.CATEGORY));
+		// adding a topic to the category must refresh the cached counts
+		this.setupCategoryTopic(topicNames[topicNames.length - 1], categories);
+		counts = WikiBase.getDataHandler().lookupCategoryTopicCounts("en", categoryName.toLowerCase());
+		assertEquals(Integer.valueOf(5), counts.get(TopicType.ARTICLE));
+		assertEquals(Integer.valueOf(1), counts.get(TopicType.CATEGORY));
+		// retrieve articles two at a time
+		List<TopicType> topicTypes = Collections.singletonList(TopicType.ARTICLE);
+		List<String> results = new ArrayList<String>();
+		for (int offset = 0; offset < 6; offset += 2) {
+			List<Category> page = WikiBase.getDataHandler().lookupCategoryTopics("en", categoryName, topicTypes, new Pagination(2, offset));
+			assertTrue("Page size exceeded", page.size() <= 2);
+			for (Category member : page) {
+				results.add(member.getChildTopicName());
+			}
+		}
+		assertEquals(Arrays.asList("Pagination Test A", "Pagination Test B", "Pagination Test C", "Pagination Test D", "Pagination Test E"), results);
+		List<Category> subCategories = WikiBase.getDataHandler().lookupCategoryTopics("en", categoryName, Collections.singletonList(TopicType.CATEGORY), new Pagination(10, 0));
+		assertEquals(1, subCategories.size());
+		assertEquals("Category:Pagination Test Child", subCategories.get(0).getChildTopicName());
+		assertTrue(WikiBase.getDataHandler().lookupCategoryTopics("en", categoryName, new ArrayList<TopicType>(), new Pagination(10, 0)).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteTopicMetadata() throws Throwable {
+		String categoryName = "Category:Write Metadata Test";
+		Topic topic = this.setupTopic(null, "Write Metadata Test", "first");
+		Topic stale = WikiBase.getDataHandler().lookupTopic("en", topic.getName(), false);
+		topic.setTopicContent("second");
+		this.setupTopic(topic);
+		Map<String, String> categories = new HashMap<String, String>();
+		categories.put(categoryName, null);
+		WikiBase.getDataHandler().writeTopicMetadata(stale.getTopicId(), categories, Collections.singletonList("Write Metadata Target"));
+		List<Category> categoryTopics = WikiBase.getDataHandler().lookupCategoryTopics("en", categoryName);
+		assertEquals(1, categoryTopics.size());
+		assertEquals(topic.getName(), categoryTopics.get(0).getChildTopicName());
+		// the topic record must not be overwritten with the stale topic
+		Topic current = WikiBase.getDataHandler().lookupTopicById(topic.getTopicId());
+		assertEquals(topic.getCurrentVersionId(), current.getCurrentVersionId());
+		assertEquals("second", current.getTopicContent());
+		WikiBase.getDataHandler().writeTopicMetadata(stale.getTopicId(), new HashMap<String, String>(), new ArrayList<String>());
+		assertTrue(WikiBase.getDataHandler().lookupCategoryTopics("en", categoryName).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupTopicBatch() throws Throwable {
+		// batches are limited using the statement row limit
+		List<Topic> batch = WikiBase.getDataHandler().lookupTopicBatch("en", 0, 3);
+		assertEquals(3, batch.size());
+		List<Topic> nextBatch = WikiBase.getDataHandler().lookupTopicBatch("en", batch.get(2).getTopicId(), 3);
+		assertEquals(3, nextBatch.size());
+		assertTrue(nextBatch.get(0).getTopicId() > batch.get(2).getTopicId());
+		// the limit must not apply to other queries using the shared template
+		assertTrue(WikiBase.getDataHandler().lookupTopicBatch("en", 0, 1000).size() > 3);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicContentLazyLoading() throws Throwable {
+		WikiLink wikiLink = new WikiLink(null, "en", "Lazy Content Test");
+		Topic topic = new Topic("en", wikiLink.getNamespace(), wikiLink.getArticle());
+		topic.setTopicContent("Lazy content test version 1");
+		TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+		Topic result = WikiBase.getDataHandler().lookupTopic("en", "Lazy Content Test", false);
+		assertEquals("Lazy content test version 1", result.getTopicContent());
+		// changes to a returned topic must not affect the cached topic
+		result.setTopicContent("Modified content");
+		result = WikiBase.getDataHandler().lookupTopicById(topic.getTopicId());
+		assertEquals("Lazy content test version 1", result.getTopicContent());
+		// updating the topic must make the new content visible
+		topic.setTopicContent("Lazy content test version 2");
+		topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+		result = WikiBase.getDataHandler().lookupTopic("en", "Lazy Content Test", false);
+		assertEquals(topic.getCurrentVersionId(), result.getCurrentVersionId());
+		assertEquals("Lazy content test version 2", result.getTopicContent());
+		// a topic without a current version has no content to load
+		assertNull(new Topic("en", wikiLink.getNamespace(), "No Such Topic").getTopicContent());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicHistorySeekPagination() throws Throwable {
+		WikiLink wikiLink = new WikiLink(null, "en", "Seek Pagination Test");
+		Topic topic = new Topic("en", wikiLink.getNamespace(), wikiLink.getArticle());
+		// every version has the same date, so pages are determined by the topic version ID
+		Timestamp editDate = new Timestamp(System.currentTimeMillis());
+		for (int i = 0; i < 9; i++) {
+			topic.setTopicContent("Seek pagination test content " + i);
+			TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
+			topicVersion.setEditDate(editDate);
+			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+		}
+		List<Integer> expected = new ArrayList<Integer>();
+		for (RecentChange change : WikiBase.getDataHandler().getTopicHistory(topic, new Pagination(1000, 0), true)) {
+			expected.add(change.getTopicVersionId());
+		}
+		assertEquals(9, expected.size());
+		// follow the seek position from page to page, as the pagination tag does
+		List<Integer> results = new ArrayList<Integer>();
+		String seek = null;
+		for (int offset = 0; offset < 12; offset += 4) {
+			Pagination pagination = new Pagination(4, offset, seek);
+			assertEquals(offset != 0, pagination.isSeek());
+			List<RecentChange> page = WikiBase.getDataHandler().getTopicHistory(topic, pagination, true);
+			List<Timestamp> dates = new ArrayList<Timestamp>();
+			List<Integer> keys = new ArrayList<Integer>();
+			for (RecentChange change : page) {
+				results.add(change.getTopicVersionId());
+				dates.add(change.getChangeDate());
+				keys.add(change.getTopicVersionId());
+			}
+			seek = pagination.nextSeek(dates, keys);
+		}
+		assertNull("Seek position returned for the last page", seek);
+		assertEquals(expected, results);
+	}
+
+	/**
+	 * Create a test topic that belongs to the specified categories.
+	 */
+	private void setupCategoryTopic(String topicName, Map<String, String> categories) throws WikiException {
+		WikiLink wikiLink = new WikiLink(null, "en", topicName);
+		Topic topic = new Topic("en", wikiLink.getNamespace(), wikiLink.getArticle());
+		topic.setTopicContent("Category test content");
+		if (topic.getNamespace().getId().equals(Namespace.CATEGORY_ID)) {
+			topic.setTopicType(TopicType.CATEGORY);
+		}
+		TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, categories, null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImageMetadataAndData() throws IOException {
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		int fileVersionId = WikiBase.getDataHandler().getAllWikiFileVersions("en", "File:Test Image.jpg", true).get(0).getFileVersionId();
+		byte[] data = "streamed image data".getBytes("UTF-8");
+		ImageData imageData = new ImageData("image/jpeg", 10, 20, data);
+		imageData.fileVersionId = fileVersionId;
+		WikiBase.getDataHandler().insertImage(imageData, true);
+		// metadata is available without reading the image data
+		ImageData metadata = WikiBase.getDataHandler().getImageMetadata(wikiFile.getFileId(), 0, 10);
+		assertEquals("image/jpeg", metadata.mimeType);
+		assertEquals(fileVersionId, metadata.fileVersionId);
+		assertEquals(-1, metadata.fileSize);
+		assertTrue(metadata.lastModified > 0);
+		assertNull(metadata.data);
+		assertEquals(fileVersionId, WikiBase.getDataHandler().getImageMetadata(wikiFile.getFileId(), fileVersionId, 10).fileVersionId);
+		assertNull(WikiBase.getDataHandler().getImageMetadata(wikiFile.getFileId(), 0, 11));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(WikiBase.getDataHandler().copyImageData(fileVersionId, 10, out));
+		assertArrayEquals(data, out.toByteArray());
+		out.reset();
+		assertFalse(WikiBase.getDataHandler().copyImageData(fileVersionId, 11, out));
+		assertEquals(0, out.size());
+	}
 }
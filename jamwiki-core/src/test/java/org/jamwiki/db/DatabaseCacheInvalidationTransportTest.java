@@ -0,0 +1,60 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.Collections;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.utils.CacheInvalidation;
+import org.jamwiki.utils.WikiCache;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the database cache invalidation transport.
+ */
+public class DatabaseCacheInvalidationTransportTest extends JAMWikiUnitTest {
+
+	private static final String TEST_CACHE_NAME = "org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_NAMES_BY_NAME";
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPoll() throws Throwable {
+		WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME);
+		DatabaseCacheInvalidationTransport local = new DatabaseCacheInvalidationTransport("local");
+		DatabaseCacheInvalidationTransport remote = new DatabaseCacheInvalidationTransport("remote");
+		// invalidations written before the first poll are ignored
+		remote.write(Collections.singletonList(new CacheInvalidation(TEST_CACHE_NAME, "en/Early Topic")));
+		cache.addToCache("en/Early Topic", "a");
+		local.poll();
+		assertTrue(cache.isKeyInCache("en/Early Topic"));
+		cache.addToCache("en/Remote Topic", "b");
+		cache.addToCache("en/Local Topic", "c");
+		remote.write(Collections.singletonList(new CacheInvalidation(TEST_CACHE_NAME, "en/remote topic")));
+		local.write(Collections.singletonList(new CacheInvalidation(TEST_CACHE_NAME, "en/Local Topic")));
+		local.poll();
+		assertFalse(cache.isKeyInCache("en/Remote Topic"));
+		// invalidations published by the local server are not applied again
+		assertTrue(cache.isKeyInCache("en/Local Topic"));
+		assertTrue(cache.isKeyInCache("en/Early Topic"));
+		remote.write(Collections.singletonList(new CacheInvalidation(TEST_CACHE_NAME, null)));
+		local.poll();
+		assertFalse(cache.isKeyInCache("en/Local Topic"));
+		assertFalse(cache.isKeyInCache("en/Early Topic"));
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the block-based ID allocator.
+ */
+public class IdAllocatorTest extends JAMWikiUnitTest {
+
+	private static final String TEST_ID_NAME = "jam_test_id";
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentAllocation() throws Throwable {
+		final QueryHandler queryHandler = WikiBase.getDataHandler().queryHandler();
+		final String sequenceSql = queryHandler.sql("STATEMENT_SELECT_TOPIC_SEQUENCE");
+		int maxTopicId = DatabaseConnection.executeSequenceQuery(sequenceSql) - 1;
+		final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 50; j++) {
+							ids.add(IdAllocator.nextId(queryHandler, TEST_ID_NAME, sequenceSql));
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue("Failures during allocation: " + failures, failures.isEmpty());
+		Set<Integer> uniqueIds = new HashSet<Integer>(ids);
+		assertEquals("Duplicate IDs allocated", 200, uniqueIds.size());
+		assertTrue("IDs must not overlap existing records", Collections.min(ids) > maxTopicId);
+		// discarding reserved blocks, as happens when another server starts, must not re-use IDs
+		IdAllocator.reset();
+		int nextId = IdAllocator.nextId(queryHandler, TEST_ID_NAME, sequenceSql);
+		assertTrue("IDs re-used after reset", nextId > Collections.max(ids));
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the in-memory site statistics.
+ */
+public class SiteStatisticsTest extends JAMWikiUnitTest {
+
+	/**
+	 * Verify that the in-memory counters match the database counts.
+	 */
+	private void assertCounts(String virtualWiki) {
+		assertEquals("Incorrect article count", WikiBase.getDataHandler().lookupTopicCount(virtualWiki, Namespace.MAIN_ID), SiteStatistics.getArticleCount(virtualWiki));
+		assertEquals("Incorrect page count", WikiBase.getDataHandler().lookupTopicCount(virtualWiki, null), SiteStatistics.getPageCount(virtualWiki));
+		assertEquals("Incorrect file count", WikiBase.getDataHandler().lookupWikiFileCount(virtualWiki), SiteStatistics.getFileCount(virtualWiki));
+		assertEquals("Incorrect user count", WikiBase.getDataHandler().lookupWikiUserCount(), SiteStatistics.getUserCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIncrementalUpdates() throws Throwable {
+		SiteStatistics.reset();
+		assertCounts("en");
+		int articles = SiteStatistics.getArticleCount("en");
+		int pages = SiteStatistics.getPageCount("en");
+		// adding an article increments both the article and page count
+		Topic topic = this.setupTopic(null, "Site Statistics Test", "Site statistics test content");
+		assertEquals(articles + 1, SiteStatistics.getArticleCount("en"));
+		assertEquals(pages + 1, SiteStatistics.getPageCount("en"));
+		// templates are only pages
+		this.setupTopic(null, "Template:Site Statistics Test", "Site statistics test template");
+		assertEquals(articles + 1, SiteStatistics.getArticleCount("en"));
+		assertEquals(pages + 2, SiteStatistics.getPageCount("en"));
+		// updates that do not change the topic type or delete status do not change counts
+		topic.setTopicContent("Updated site statistics test content");
+		this.setupTopic(topic);
+		assertEquals(articles + 1, SiteStatistics.getArticleCount("en"));
+		// deleted topics and redirects are not counted
+		WikiBase.getDataHandler().deleteTopic(topic, null);
+		assertEquals(articles, SiteStatistics.getArticleCount("en"));
+		assertEquals(pages + 1, SiteStatistics.getPageCount("en"));
+		topic = WikiBase.getDataHandler().lookupTopic("en", "Site Statistics Test", true);
+		WikiBase.getDataHandler().undeleteTopic(topic, null);
+		assertEquals(articles + 1, SiteStatistics.getArticleCount("en"));
+		topic.setTopicType(TopicType.REDIRECT);
+		topic.setRedirectTo("Site Statistics Target");
+		this.setupTopic(topic);
+		assertEquals(articles, SiteStatistics.getArticleCount("en"));
+		assertCounts("en");
+		// reloaded counters match the incrementally maintained counters
+		SiteStatistics.reset();
+		assertEquals(articles, SiteStatistics.getArticleCount("en"));
+		assertEquals(pages + 1, SiteStatistics.getPageCount("en"));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.VirtualWiki;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the background topic metadata rebuild job.
+ */
+public class TopicMetadataRebuilderTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRebuild() throws Throwable {
+		File checkpointFile = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), "topic-metadata-rebuild.properties");
+		assertTrue(TopicMetadataRebuilder.start());
+		TopicMetadataRebuilder job = TopicMetadataRebuilder.getCurrentJob();
+		assertTrue("Job did not complete", job.awaitCompletion(120000));
+		assertTrue("No topics updated", job.getNumUpdated() > 0);
+		assertEquals(0, job.getNumErrors());
+		assertEquals(0, job.getNumSkipped());
+		assertEquals(job.getTotalTopics(), job.getNumUpdated());
+		assertFalse("Checkpoint not removed", checkpointFile.exists());
+		// simulate an interrupted job that completed all but the first virtual wiki and
+		// part of the first virtual wiki
+		List<VirtualWiki> virtualWikis = WikiBase.getDataHandler().getVirtualWikiList();
+		List<String> completed = new ArrayList<String>();
+		for (int i = 1; i < virtualWikis.size(); i++) {
+			completed.add(virtualWikis.get(i).getName());
+		}
+		List<Integer> topicIds = new ArrayList<Integer>(new TreeMap<Integer, String>(WikiBase.getDataHandler().queryHandler().lookupTopicNames(virtualWikis.get(0).getVirtualWikiId(), false)).keySet());
+		assertTrue("Not enough topics for test", topicIds.size() > 2);
+		int resumeIndex = topicIds.size() / 2;
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("completed-virtual-wikis", StringUtils.join(completed, ','));
+		checkpoint.setProperty("virtual-wiki", virtualWikis.get(0).getName());
+		checkpoint.setProperty("topic-id", Integer.toString(topicIds.get(resumeIndex)));
+		OutputStream out = new FileOutputStream(checkpointFile);
+		try {
+			checkpoint.store(out, null);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		assertTrue(TopicMetadataRebuilder.start());
+		job = TopicMetadataRebuilder.getCurrentJob();
+		assertTrue("Job did not complete", job.awaitCompletion(120000));
+		assertEquals(0, job.getNumErrors());
+		assertEquals(topicIds.size() - resumeIndex - 1, job.getNumUpdated());
+		assertEquals(job.getTotalTopics(), job.getNumUpdated() + job.getNumSkipped());
+		assertFalse("Checkpoint not removed", checkpointFile.exists());
+	}
+}
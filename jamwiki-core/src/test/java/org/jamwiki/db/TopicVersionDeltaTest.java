@@ -0,0 +1,88 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for encoding and decoding topic version deltas.
+ */
+public class TopicVersionDeltaTest {
+
+	/**
+	 *
+	 */
+	private String buildContent(int lines, String replacement, int replacementLine) {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			content.append((i == replacementLine) ? replacement : "Line number " + i + " of the test topic content.");
+			content.append('\n');
+		}
+		return content.toString();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEncodeDecode() throws Throwable {
+		String base = this.buildContent(100, null, -1);
+		String[] versions = {
+			this.buildContent(100, "A modified line", 50),
+			this.buildContent(100, "A modified first line", 0),
+			this.buildContent(100, "A modified last line", 99),
+			this.buildContent(40, null, -1),
+			"Inserted content at the start\n" + base + "and at the end without a newline",
+			base.replace("Line number 7", "Line number seven").replace("Line number 70", "Line number seventy")
+		};
+		for (String content : versions) {
+			String delta = TopicVersionDelta.encode(12, 3, base, content);
+			assertNotNull("Failure encoding delta", delta);
+			assertTrue("Delta is not smaller than content", delta.length() < content.length());
+			assertEquals("Incorrect base version", 12, TopicVersionDelta.baseTopicVersionId(delta));
+			assertEquals("Incorrect delta depth", 3, TopicVersionDelta.depth(delta));
+			assertEquals("Failure decoding delta", content, TopicVersionDelta.decode(base, delta));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidDelta() throws Throwable {
+		String base = this.buildContent(100, null, -1);
+		String delta = TopicVersionDelta.encode(12, 1, base, this.buildContent(100, "A modified line", 50));
+		// applying a delta to the wrong base content must fail the checksum
+		assertNull("Delta decoded against incorrect base content", TopicVersionDelta.decode(this.buildContent(100, "Other", 20), delta));
+		// content that only resembles a delta
+		String content = "{jamwiki-delta:12:1:abc}not really a delta";
+		assertEquals("Incorrect base version", 12, TopicVersionDelta.baseTopicVersionId(content));
+		assertNull("Invalid delta decoded", TopicVersionDelta.decode(base, content));
+		assertEquals("Incorrect base version", -1, TopicVersionDelta.baseTopicVersionId("plain content"));
+		assertEquals("Incorrect delta depth", 0, TopicVersionDelta.depth("plain content"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallContent() throws Throwable {
+		// deltas for small topics are larger than the content and are not generated
+		assertNull("Delta generated for small content", TopicVersionDelta.encode(1, 1, "small", "smaller"));
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.model.UserBlock;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the in-memory index of active user blocks.
+ */
+public class UserBlockIndexTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookup() throws Throwable {
+		List<UserBlock> blocks = new ArrayList<UserBlock>();
+		UserBlock userIdBlock = new UserBlock(5, null, null, 1);
+		blocks.add(userIdBlock);
+		UserBlock singleBlock = new UserBlock(null, "192.168.1.10", null, 1);
+		blocks.add(singleBlock);
+		UserBlock rangeBlock = new UserBlock(null, "192.168.0.0/16", null, 1);
+		blocks.add(rangeBlock);
+		UserBlock ipv6Block = new UserBlock(null, "2001:db8::/32", null, 1);
+		blocks.add(ipv6Block);
+		UserBlock expiredBlock = new UserBlock(null, "10.0.0.0/8", new Timestamp(System.currentTimeMillis() - 1000), 1);
+		blocks.add(expiredBlock);
+		UserBlockIndex index = new UserBlockIndex(blocks);
+		assertEquals(4, index.getUserBlocks().size());
+		assertSame(userIdBlock, index.lookup(5, "172.16.0.1"));
+		assertSame(singleBlock, index.lookup(null, "192.168.1.10"));
+		assertSame(rangeBlock, index.lookup(null, "192.168.1.11"));
+		assertSame(rangeBlock, index.lookup(6, "192.168.200.1"));
+		assertSame(rangeBlock, index.lookup(null, "192.168.1.0/24"));
+		assertSame(ipv6Block, index.lookup(null, "2001:db8:0:1::1"));
+		assertNull(index.lookup(null, "192.169.0.1"));
+		assertNull(index.lookup(null, "192.0.0.0/8"));
+		assertNull(index.lookup(null, "10.1.2.3"));
+		assertNull(index.lookup(6, null));
+		assertNull(index.lookup(null, "not an address"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrune() throws Throwable {
+		List<UserBlock> blocks = new ArrayList<UserBlock>();
+		UserBlock expiringBlock = new UserBlock(null, "192.168.0.0/16", new Timestamp(System.currentTimeMillis() + 200), 1);
+		blocks.add(expiringBlock);
+		UserBlock permanentBlock = new UserBlock(7, "10.0.0.1", null, 1);
+		blocks.add(permanentBlock);
+		UserBlockIndex index = new UserBlockIndex(blocks);
+		assertEquals(expiringBlock.getBlockEndDate().getTime(), index.getNextExpiration());
+		assertSame(expiringBlock, index.lookup(null, "192.168.1.1"));
+		Thread.sleep(400);
+		assertNull(index.lookup(null, "192.168.1.1"));
+		index = index.prune();
+		assertEquals(Long.MAX_VALUE, index.getNextExpiration());
+		assertEquals(2, index.getUserBlocks().size());
+		assertSame(permanentBlock, index.lookup(7, null));
+		assertSame(permanentBlock, index.lookup(null, "10.0.0.1"));
+	}
+}
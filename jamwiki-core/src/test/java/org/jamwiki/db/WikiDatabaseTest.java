@@ -0,0 +1,122 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.apache.commons.io.IOUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiMessage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for database setup and migration.
+ */
+public class WikiDatabaseTest extends JAMWikiUnitTest {
+
+	private static final String[] VERIFY_SQL = {
+		"SELECT COUNT(*) FROM jam_virtual_wiki",
+		"SELECT COUNT(*) FROM jam_wiki_user",
+		"SELECT COUNT(*) FROM jam_topic",
+		"SELECT COUNT(*) FROM jam_topic_version",
+		"SELECT COUNT(*) FROM jam_category",
+		"SELECT COUNT(*) FROM jam_log",
+		"SELECT COUNT(*) FROM jam_topic_links",
+		"SELECT SUM(current_version_id) FROM jam_topic",
+		"SELECT SUM(previous_topic_version_id) FROM jam_topic_version"
+	};
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMigrateDatabase() throws Throwable {
+		Properties props = new Properties();
+		props.setProperty(Environment.PROP_DB_DRIVER, "org.hsqldb.jdbcDriver");
+		props.setProperty(Environment.PROP_DB_TYPE, QueryHandler.QUERY_HANDLER_HSQL);
+		props.setProperty(Environment.PROP_DB_USERNAME, "sa");
+		props.setProperty(Environment.PROP_DB_PASSWORD, "");
+		props.setProperty(Environment.PROP_DB_URL, "jdbc:hsqldb:mem:jamwikimigrationtest");
+		List<WikiMessage> errors = new ArrayList<WikiMessage>();
+		WikiDatabase.migrateDatabase(props, errors);
+		assertTrue("Migration errors: " + errors, errors.isEmpty());
+		Connection from = DatabaseConnection.getConnection();
+		Connection to = DatabaseConnection.getTestConnection("org.hsqldb.jdbcDriver", props.getProperty(Environment.PROP_DB_URL), "sa", "");
+		try {
+			List<Long> expected = this.verificationValues(from);
+			assertTrue("No topics to migrate", expected.get(2) > 0);
+			assertEquals(expected, this.verificationValues(to));
+			// simulate a failed migration that was interrupted while copying jam_topic_links
+			// and before copying jam_log
+			Statement stmt = to.createStatement();
+			stmt.executeUpdate("DELETE FROM jam_log");
+			stmt.executeUpdate("DELETE FROM jam_topic_links WHERE topic_id > (SELECT MIN(topic_id) FROM jam_topic_links)");
+			stmt.executeUpdate("UPDATE jam_topic SET current_version_id = NULL");
+			DatabaseConnection.closeStatement(stmt);
+			Properties checkpoint = new Properties();
+			checkpoint.setProperty("url", props.getProperty(Environment.PROP_DB_URL));
+			checkpoint.setProperty("completed-tables", "jam_virtual_wiki,jam_users,jam_wiki_user,jam_user_preferences_defaults,jam_user_preferences,jam_namespace,jam_namespace_translation,jam_topic,jam_topic_version,jam_file,jam_file_version,jam_category,jam_group,jam_group_members,jam_role,jam_authorities,jam_group_authorities,jam_recent_change,jam_watchlist,jam_interwiki,jam_configuration,jam_user_block,jam_file_data,jam_id_block");
+			File checkpointFile = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), "database-migration.properties");
+			OutputStream out = new FileOutputStream(checkpointFile);
+			try {
+				checkpoint.store(out, null);
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+			WikiDatabase.migrateDatabase(props, errors);
+			assertTrue("Resume errors: " + errors, errors.isEmpty());
+			assertEquals(expected, this.verificationValues(to));
+			assertFalse("Checkpoint not removed", checkpointFile.exists());
+			// without a checkpoint, migrating to a database that already contains JAMWiki tables fails
+			WikiDatabase.migrateDatabase(props, errors);
+			assertEquals(1, errors.size());
+			assertEquals("setup.error.migrate", errors.get(0).getKey());
+		} finally {
+			DatabaseConnection.closeConnection(from, null, null);
+			to.close();
+		}
+	}
+
+	/**
+	 * Return row counts and column totals used to verify that a database was
+	 * completely migrated.
+	 */
+	private List<Long> verificationValues(Connection conn) throws Exception {
+		List<Long> results = new ArrayList<Long>();
+		Statement stmt = conn.createStatement();
+		try {
+			for (String sql : VERIFY_SQL) {
+				ResultSet rs = stmt.executeQuery(sql);
+				rs.next();
+				results.add(rs.getLong(1));
+				rs.close();
+			}
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+		return results;
+	}
+}
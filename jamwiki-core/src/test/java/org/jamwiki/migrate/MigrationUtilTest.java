@@ -40,6 +40,7 @@ import org.junit.rules.TemporaryFolder;
 public class MigrationUtilTest extends JAMWikiUnitTest {
 
 	private static final String FILE_TEST_TWO_TOPICS_WITH_HISTORY = "mediawiki-export-two-topics-with-history.xml";
+	private static final String FILE_ONE_TOPIC_WITH_SORTED_HISTORY = "mediawiki-export-one-topic-with-sorted-history.xml";
 	private static final String FILE_ONE_TOPIC_WITH_UNSORTED_HISTORY = "mediawiki-export-one-topic-with-unsorted-history.xml";
 	private static final String FILE_TOPIC_NAME_WITH_QUESTION_MARK = "mediawiki-export-topic-name-with-question-mark.xml";
 	private static final String FILE_NAMESPACE_TEST = "mediawiki-export-namespace-test.xml";
@@ -49,7 +50,9 @@ public class MigrationUtilTest extends JAMWikiUnitTest {
 	private static final String TOPIC_NAME3 = "Test Page 2";
 	private static final String TOPIC_NAME4 = "Who am i";
 	private static final String TOPIC_NAME5 = "Namespace Test";
+	private static final String TOPIC_NAME6 = "Test Page 3";
 	private static final String VIRTUAL_WIKI_EN = "en";
+	private static final String VIRTUAL_WIKI_TEST = "test";
 	@Rule
 	public TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
 
@@ -151,6 +154,43 @@ public class MigrationUtilTest extends JAMWikiUnitTest {
 		assertEquals("Topic name '" + TOPIC_NAME2 + "' set correctly", TOPIC_NAME2, topic2.getName());
 	}
 
+	/**
+	 * Verify that topics recorded in a checkpoint file by a previous failed
+	 * import are skipped, and that the checkpoint is removed after a
+	 * successful import.
+	 */
+	@Test
+	public void testImportFromFileResumeFromCheckpoint() throws Throwable {
+		File file = TEMP_FOLDER.newFile("import.xml");
+		FileUtils.copyFile(TestFileUtil.retrieveFile(TEST_FILES_DIR, FILE_TEST_TWO_TOPICS_WITH_HISTORY), file);
+		File checkpoint = new File(file.getAbsolutePath() + ".checkpoint");
+		FileUtils.writeStringToFile(checkpoint, "1", "UTF-8");
+		List<String> results = MigrationUtil.importFromFile(file, VIRTUAL_WIKI_TEST, null, "127.0.0.1", new Locale("en", "US"));
+		assertFalse("Topic from checkpoint imported again", results.contains(TOPIC_NAME1));
+		assertNull("Topic from checkpoint imported again", WikiBase.getDataHandler().lookupTopic(VIRTUAL_WIKI_TEST, TOPIC_NAME1, false));
+		assertTrue("Topic after checkpoint not imported", results.contains(TOPIC_NAME2));
+		assertNotNull("Topic after checkpoint not imported", WikiBase.getDataHandler().lookupTopic(VIRTUAL_WIKI_TEST, TOPIC_NAME2, false));
+		assertFalse("Checkpoint file not deleted", checkpoint.exists());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImportFromFileWithSortedHistory() throws Throwable {
+		String virtualWiki = VIRTUAL_WIKI_EN;
+		List<String> results = this.importTestFile(FILE_ONE_TOPIC_WITH_SORTED_HISTORY);
+		assertTrue("Parsed topic '" + TOPIC_NAME6 + "'", results.contains(TOPIC_NAME6));
+		Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, TOPIC_NAME6, false);
+		// the oldest version is written first, but the topic content must be the newest version
+		assertEquals("Incorrect topic content", "Newest Revision", topic.getTopicContent());
+		assertEquals("Incorrect import version content", "Newest Revision", WikiBase.getDataHandler().lookupTopicVersion(topic.getCurrentVersionId()).getVersionContent());
+		Pagination pagination = new Pagination(1000, 0);
+		List<RecentChange> revisions = WikiBase.getDataHandler().getTopicHistory(topic, pagination, false);
+		// there are three revisions in the import file, plus one import revision
+		assertEquals("Incorrect number of revisions imported", 4, revisions.size());
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,129 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.LocaleUtils;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.utils.WikiCache;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for dependency tracking in the parsed topic cache.
+ */
+public class ParsedTopicCacheTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	private String parse(Topic topic, ParserOutput parserOutput) throws Throwable {
+		ParserInput parserInput = new ParserInput(topic.getVirtualWiki(), topic.getName());
+		parserInput.setContext("/wiki");
+		parserInput.setLocale(LocaleUtils.toLocale("en_US"));
+		return ParsedTopicCache.parse(parserInput, parserOutput, topic);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImageAliasInvalidated() throws Throwable {
+		// File:Test Image2.jpg exists only in the shared "test" virtual wiki, where
+		// the file namespace is translated, so the link uses a namespace alias
+		VirtualWiki sharedVirtualWiki = WikiBase.getDataHandler().lookupVirtualWiki("test");
+		List<Namespace> namespaces = new ArrayList<Namespace>();
+		namespaces.add(Namespace.namespace(Namespace.FILE_ID));
+		try {
+			namespaces.get(0).getNamespaceTranslations().put(sharedVirtualWiki.getName(), "Fichier");
+			WikiBase.getDataHandler().writeNamespaceTranslations(namespaces, sharedVirtualWiki.getName());
+			Topic topic = this.setupTopic(null, "Parsed Cache Image Alias Test", "[[File:Test Image2.jpg|100px]]");
+			topic = WikiBase.getDataHandler().lookupTopic("en", topic.getName(), false);
+			Topic image = WikiBase.getDataHandler().lookupTopic("en", "File:Test Image2.jpg", false);
+			assertEquals("Fichier:Test Image2.jpg", image.getName());
+			// the first parse generates the thumbnail, which invalidates the output
+			this.parse(topic, new ParserOutput());
+			ParserOutput parserOutput = new ParserOutput();
+			String original = this.parse(topic, parserOutput);
+			assertTrue("Image dependency not recorded by topic name", parserOutput.getDependencies().contains(image.getName()));
+			// cached output is returned as the same string instance
+			assertSame("Output not cached", original, this.parse(topic, new ParserOutput()));
+			// invalidate the image the same way that thumbnail generation does
+			ParsedTopicCache.invalidateTopic(image.getName());
+			assertNotSame("Cached output not invalidated after image modified", original, this.parse(topic, new ParserOutput()));
+		} finally {
+			namespaces.get(0).getNamespaceTranslations().remove(sharedVirtualWiki.getName());
+			WikiBase.getDataHandler().writeNamespaceTranslations(namespaces, sharedVirtualWiki.getName());
+			// cached topics still use the translated namespace label
+			WikiCache.initialize();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLinkTargetCreated() throws Throwable {
+		Topic topic = this.setupTopic(null, "Parsed Cache Link Test", "[[Parsed Cache Link Target]]");
+		topic = WikiBase.getDataHandler().lookupTopic("en", topic.getName(), false);
+		ParserOutput parserOutput = new ParserOutput();
+		String original = this.parse(topic, parserOutput);
+		ParserOutput cachedParserOutput = new ParserOutput();
+		assertEquals("Incorrect cached output", original, this.parse(topic, cachedParserOutput));
+		assertEquals("Incorrect links for cached output", parserOutput.getLinks(), cachedParserOutput.getLinks());
+		// creating the red-linked topic should invalidate the cached entry
+		this.setupTopic(null, "Parsed Cache Link Target", "target");
+		assertFalse("Cached output not invalidated after link target created", original.equals(this.parse(topic, new ParserOutput())));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testModificationPruning() throws Throwable {
+		Topic topic = this.setupTopic(null, "Parsed Cache Prune Test", "[[Parsed Cache Prune Target]]");
+		topic = WikiBase.getDataHandler().lookupTopic("en", topic.getName(), false);
+		String original = this.parse(topic, new ParserOutput());
+		this.setupTopic(null, "Parsed Cache Prune Target", "target");
+		assertTrue(ParsedTopicCache.getModificationCount() > 0);
+		// discarding the modification record must not make the cached entry valid again
+		ParsedTopicCache.pruneModifications(Long.MAX_VALUE);
+		assertEquals(0, ParsedTopicCache.getModificationCount());
+		String updated = this.parse(topic, new ParserOutput());
+		assertFalse("Cached output not invalidated after modification record discarded", original.equals(updated));
+		assertEquals("Incorrect cached output", updated, this.parse(topic, new ParserOutput()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplateModified() throws Throwable {
+		Topic template = this.setupTopic(null, "Template:Parsed Cache Template", "first");
+		Topic topic = this.setupTopic(null, "Parsed Cache Template Test", "{{Parsed Cache Template}}");
+		topic = WikiBase.getDataHandler().lookupTopic("en", topic.getName(), false);
+		assertTrue("Incorrect template output", this.parse(topic, new ParserOutput()).contains("first"));
+		template.setTopicContent("second");
+		this.setupTopic(template);
+		assertTrue("Cached output not invalidated after template modified", this.parse(topic, new ParserOutput()).contains("second"));
+	}
+}
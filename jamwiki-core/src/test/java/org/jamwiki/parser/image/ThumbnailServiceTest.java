@@ -0,0 +1,64 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for background thumbnail generation.
+ */
+public class ThumbnailServiceTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDuplicateRequests() throws Throwable {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicInteger count = new AtomicInteger();
+		Callable<Dimension> generator = new Callable<Dimension>() {
+			public Dimension call() throws Exception {
+				count.incrementAndGet();
+				latch.await();
+				return new Dimension(100, 50);
+			}
+		};
+		// requests that do not wait should fall back to the original image
+		assertNull("Thumbnail returned before generation", ThumbnailService.generateThumbnail("duplicate-test", generator, 0));
+		assertNull("Thumbnail returned before generation", ThumbnailService.generateThumbnail("duplicate-test", generator, 10));
+		// release the generator from another thread while this thread waits for the pending request
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				latch.countDown();
+			}
+		}.start();
+		Dimension dimensions = ThumbnailService.generateThumbnail("duplicate-test", generator, -1);
+		assertEquals("Incorrect thumbnail dimensions", new Dimension(100, 50), dimensions);
+		assertEquals("Duplicate requests generated more than one thumbnail", 1, count.get());
+	}
+}
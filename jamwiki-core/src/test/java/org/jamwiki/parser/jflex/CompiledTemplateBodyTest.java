@@ -0,0 +1,70 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.jflex;
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompiledTemplateBodyTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompileLiteral() throws Throwable {
+		List<Object> segments = CompiledTemplateBody.compile("no parameters {{here}}").getSegments();
+		assertEquals("Failure compiling literal content", 1, segments.size());
+		assertEquals("Failure compiling literal content", "no parameters {{here}}", segments.get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompileParameters() throws Throwable {
+		List<Object> segments = CompiledTemplateBody.compile("a {{{1}}} b {{{name|default}}}").getSegments();
+		assertEquals("Failure compiling parameters", 4, segments.size());
+		assertEquals("Failure compiling parameters", "a ", segments.get(0));
+		assertEquals("Failure compiling parameters", "1", ((CompiledTemplateBody)segments.get(1)).getSegments().get(0));
+		assertEquals("Failure compiling parameters", " b ", segments.get(2));
+		assertEquals("Failure compiling parameters", "name|default", ((CompiledTemplateBody)segments.get(3)).getSegments().get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompileNestedParameters() throws Throwable {
+		// {{{1|{{{2}}}}}} should compile to a slot containing a nested slot
+		List<Object> segments = CompiledTemplateBody.compile("{{{1|{{{2}}}}}}").getSegments();
+		assertEquals("Failure compiling nested parameters", 1, segments.size());
+		List<Object> nested = ((CompiledTemplateBody)segments.get(0)).getSegments();
+		assertEquals("Failure compiling nested parameters", 2, nested.size());
+		assertEquals("Failure compiling nested parameters", "1|", nested.get(0));
+		assertEquals("Failure compiling nested parameters", "2", ((CompiledTemplateBody)nested.get(1)).getSegments().get(0));
+		// {{{1|{{PAGENAME}}}}} should compile to a single slot
+		segments = CompiledTemplateBody.compile("{{{1|{{PAGENAME}}}}}").getSegments();
+		assertEquals("Failure compiling parameter with template default", 1, segments.size());
+		assertEquals("Failure compiling parameter with template default", "1|{{PAGENAME}}", ((CompiledTemplateBody)segments.get(0)).getSegments().get(0));
+		// {{{{{1}}}}} should compile to a literal "{{" followed by a slot
+		segments = CompiledTemplateBody.compile("{{{{{1}}}}}").getSegments();
+		assertEquals("Failure compiling template name parameter", "{{", segments.get(0));
+		assertEquals("Failure compiling template name parameter", "1", ((CompiledTemplateBody)segments.get(1)).getSegments().get(0));
+		assertEquals("Failure compiling template name parameter", "}}", segments.get(2));
+	}
+}
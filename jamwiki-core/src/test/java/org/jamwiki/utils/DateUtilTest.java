@@ -0,0 +1,94 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for date and message formatting.
+ */
+public class DateUtilTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFormatDate() throws Throwable {
+		Date date = new Date(1262349296000L);
+		assertEquals("2010-01-01 12:34:56", DateUtil.formatDate(date, "yyyy-MM-dd HH:mm:ss", "en_US", "GMT", DateUtil.DateFormatType.DATE_AND_TIME));
+		// the cached formatter must honor the time zone
+		assertEquals("2010-01-01 07:34:56", DateUtil.formatDate(date, "yyyy-MM-dd HH:mm:ss", "en_US", "America/New_York", DateUtil.DateFormatType.DATE_AND_TIME));
+		assertEquals("1/1/10", DateUtil.formatDate(date, "SHORT", "en_US", "GMT", DateUtil.DateFormatType.DATE_ONLY));
+		assertNull("Invalid pattern", DateUtil.formatDate(date, "yyyy-MM-dd qq", "en_US", "GMT", DateUtil.DateFormatType.DATE_AND_TIME));
+	}
+
+	/**
+	 * Verify that cached formatters can be shared between threads.
+	 */
+	@Test
+	public void testFormatDateConcurrent() throws Throwable {
+		final String pattern = "yyyy-MM-dd HH:mm:ss.SSS";
+		final MessageTemplate template = new MessageTemplate("Login {0} added");
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			final long offset = i * 86400000L;
+			Thread thread = new Thread() {
+				public void run() {
+					SimpleDateFormat expected = new SimpleDateFormat(pattern, Locale.US);
+					expected.setTimeZone(TimeZone.getTimeZone("GMT"));
+					try {
+						for (int j = 0; j < 500; j++) {
+							Date date = new Date(1262349296000L + offset + j);
+							assertEquals(expected.format(date), DateUtil.formatDate(date, pattern, "en_US", "GMT", DateUtil.DateFormatType.DATE_AND_TIME));
+							assertEquals("Login " + j + " added", template.format(Integer.toString(j)));
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue("Failures during concurrent formatting: " + failures, failures.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMessageTemplate() throws Throwable {
+		MessageTemplate template = new MessageTemplate("{0} has {1,number,integer} edits", Locale.US);
+		assertEquals("Test has 1,234 edits", template.format("Test", 1234));
+		// formatting must not modify the shared template
+		assertEquals("Other has 5 edits", template.format("Other", 5));
+		assertEquals("{0} has {1} edits", new MessageTemplate("{0} has {1} edits").format((Object[])null));
+	}
+}
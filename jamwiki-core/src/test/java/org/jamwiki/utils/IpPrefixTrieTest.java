@@ -0,0 +1,100 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class IpPrefixTrieTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseRange() throws Throwable {
+		assertEquals("192.168.0.0/16", IpAddressRange.parse("192.168.12.34/16").toString());
+		assertEquals("10.0.0.1", IpAddressRange.parse("10.0.0.1").toString());
+		assertEquals("10.0.0.1", IpAddressRange.parse("10.0.0.1/32").toString());
+		assertEquals("0.0.0.0/0", IpAddressRange.parse("1.2.3.4/0").toString());
+		assertEquals(IpAddressRange.parse("2001:db8::/32"), IpAddressRange.parse("2001:0db8:ffff::1/32"));
+		assertTrue(IpAddressRange.parse("2001:db8::1").isSingleAddress());
+		assertNull(IpAddressRange.parse(null));
+		assertNull(IpAddressRange.parse("10.0.0.1/33"));
+		assertNull(IpAddressRange.parse("10.0.0.1/"));
+		assertNull(IpAddressRange.parse("10.0.0.1/-1"));
+		assertNull(IpAddressRange.parse("2001:db8::/129"));
+		assertNull(IpAddressRange.parse("example.com/24"));
+		assertNull(IpAddressRange.parse("username"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testContains() throws Throwable {
+		IpAddressRange range = IpAddressRange.parse("172.16.0.0/12");
+		assertTrue(range.contains(IpAddressRange.toBytes("172.16.0.1")));
+		assertTrue(range.contains(IpAddressRange.toBytes("172.31.255.255")));
+		assertFalse(range.contains(IpAddressRange.toBytes("172.32.0.0")));
+		assertFalse(range.contains(IpAddressRange.toBytes("2001:db8::1")));
+		range = IpAddressRange.parse("2001:db8::/32");
+		assertTrue(range.contains(IpAddressRange.toBytes("2001:db8:1234::5")));
+		assertFalse(range.contains(IpAddressRange.toBytes("2001:db9::")));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFind() throws Throwable {
+		IpPrefixTrie<String> trie = new IpPrefixTrie<String>();
+		String[] ranges = {"10.0.0.0/8", "10.1.0.0/16", "10.1.2.3", "192.168.1.0/24", "0.0.0.0/0", "2001:db8::/32", "2001:db8:1::/48"};
+		for (String range : ranges) {
+			trie.add(IpAddressRange.parse(range), range);
+		}
+		assertEquals(ranges.length, trie.size());
+		assertEquals(Arrays.asList("10.1.2.3", "10.1.0.0/16", "10.0.0.0/8", "0.0.0.0/0"), trie.find(IpAddressRange.toBytes("10.1.2.3")));
+		assertEquals(Arrays.asList("10.0.0.0/8", "0.0.0.0/0"), trie.find(IpAddressRange.toBytes("10.2.0.1")));
+		assertEquals(Arrays.asList("0.0.0.0/0"), trie.find(IpAddressRange.toBytes("192.168.2.1")));
+		assertEquals(Arrays.asList("2001:db8:1::/48", "2001:db8::/32"), trie.find(IpAddressRange.toBytes("2001:db8:1::7")));
+		assertTrue(trie.find(IpAddressRange.toBytes("2001:db9::1")).isEmpty());
+		assertTrue(trie.find(null).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFindManyRanges() throws Throwable {
+		IpPrefixTrie<Integer> trie = new IpPrefixTrie<Integer>();
+		for (int i = 0; i < 256; i++) {
+			trie.add(IpAddressRange.parse("10." + i + ".0.0/16"), i);
+			trie.add(IpAddressRange.parse("10." + i + ".1.1"), i);
+		}
+		for (int i = 0; i < 256; i++) {
+			List<Integer> matches = trie.find(IpAddressRange.toBytes("10." + i + ".1.1"));
+			assertEquals(Arrays.asList(i, i), matches);
+			assertEquals(Arrays.asList(i), trie.find(IpAddressRange.toBytes("10." + i + ".2.1")));
+		}
+	}
+}
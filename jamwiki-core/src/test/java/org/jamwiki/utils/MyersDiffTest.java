@@ -0,0 +1,123 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MyersDiffTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDiff() throws Throwable {
+		List<MyersDiff.Change> changes = MyersDiff.diff(new int[] {1, 2, 3, 4}, new int[] {1, 5, 3, 4, 6});
+		assertEquals(2, changes.size());
+		assertEquals(new MyersDiff.Change(1, 1, 1, 1), changes.get(0));
+		assertEquals(new MyersDiff.Change(4, 0, 4, 1), changes.get(1));
+		changes = MyersDiff.diff(new int[] {1, 2, 3}, new int[0]);
+		assertEquals(1, changes.size());
+		assertEquals(new MyersDiff.Change(0, 3, 0, 0), changes.get(0));
+		changes = MyersDiff.diff(new int[] {1, 2}, new int[] {3, 4});
+		assertEquals(1, changes.size());
+		assertEquals(new MyersDiff.Change(0, 2, 0, 2), changes.get(0));
+		assertEquals(0, MyersDiff.diff(new int[] {1, 2}, new int[] {1, 2}).size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaxEditDistance() throws Throwable {
+		int[] a = {1, 2, 3, 4, 5, 6};
+		int[] b = {1, 7, 3, 8, 5, 9};
+		assertNotNull(MyersDiff.diff(a, b, 6));
+		assertNull(MyersDiff.diff(a, b, 5));
+		assertNull(MyersDiff.diff(a, new int[] {10, 11}, 7));
+		assertNotNull(MyersDiff.diff(a, new int[] {10, 11}, 8));
+		Random random = new Random(1);
+		for (int count = 0; count < 500; count++) {
+			int[] c = randomArray(random, random.nextInt(40), 1 + random.nextInt(6));
+			int[] d = randomArray(random, random.nextInt(40), 1 + random.nextInt(6));
+			int distance = c.length + d.length - 2 * longestCommonSubsequence(c, d);
+			int max = random.nextInt(40);
+			assertEquals("Incorrect result for maximum edit distance " + max + " and distance " + distance, distance <= max, MyersDiff.diff(c, d, max) != null);
+		}
+	}
+
+	/**
+	 * Verify that random diffs are valid edit scripts of minimal length.
+	 */
+	@Test
+	public void testDiffRandom() throws Throwable {
+		Random random = new Random(1);
+		for (int count = 0; count < 500; count++) {
+			int[] a = randomArray(random, random.nextInt(40), 1 + random.nextInt(6));
+			int[] b = randomArray(random, random.nextInt(40), 1 + random.nextInt(6));
+			List<MyersDiff.Change> changes = MyersDiff.diff(a, b);
+			int i = 0;
+			int j = 0;
+			int unchanged = 0;
+			for (MyersDiff.Change change : changes) {
+				// all values between changes must be unchanged
+				while (i < change.getDeletedStart()) {
+					assertEquals(a[i++], b[j++]);
+					unchanged++;
+				}
+				assertEquals(j, change.getAddedStart());
+				i += change.getDeletedCount();
+				j += change.getAddedCount();
+			}
+			assertEquals(a.length - i, b.length - j);
+			while (i < a.length) {
+				assertEquals(a[i++], b[j++]);
+				unchanged++;
+			}
+			assertEquals(longestCommonSubsequence(a, b), unchanged);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static int longestCommonSubsequence(int[] a, int[] b) {
+		int[][] lengths = new int[a.length + 1][b.length + 1];
+		for (int i = 1; i <= a.length; i++) {
+			for (int j = 1; j <= b.length; j++) {
+				lengths[i][j] = (a[i - 1] == b[j - 1]) ? lengths[i - 1][j - 1] + 1 : Math.max(lengths[i - 1][j], lengths[i][j - 1]);
+			}
+		}
+		return lengths[a.length][b.length];
+	}
+
+	/**
+	 *
+	 */
+	private static int[] randomArray(Random random, int length, int range) {
+		int[] result = new int[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = random.nextInt(range);
+		}
+		return result;
+	}
+}
@@ -18,6 +18,8 @@
  */
 package org.jamwiki.utils;
 
+import java.sql.Timestamp;
+import java.util.Arrays;
 import org.jamwiki.JAMWikiUnitTest;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -108,5 +110,69 @@ public class PaginationTest extends JAMWikiUnitTest {
 		int result = new Pagination(100, 0).getStart();
 		assertEquals("result", 0, result);
 	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidSeek() throws Throwable {
+		String[] values = {null, "", "abc", "1_2", "1_2_0", "1_2_3_x", "1_2_x_0", "1_2_3_-1", "1_2000000000_3_0"};
+		for (String value : values) {
+			Pagination pagination = new Pagination(10, 20, value);
+			assertFalse("Seek accepted: " + value, pagination.isSeek());
+			assertNull(pagination.getSeek());
+			assertEquals(20, pagination.getSeekOffset());
+			assertEquals(30, pagination.getSeekEnd());
+			assertTrue(pagination.getSeekDate().after(new Timestamp(System.currentTimeMillis())));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNextSeek() throws Throwable {
+		Timestamp date1 = Timestamp.valueOf("2012-03-04 05:06:07.123456789");
+		Timestamp date2 = Timestamp.valueOf("2012-03-04 05:06:06.5");
+		Pagination pagination = new Pagination(3, 0);
+		// partial page, no next page
+		assertNull(pagination.nextSeek(Arrays.asList(date1, date2), Arrays.asList(9, 8)));
+		// results with the same date but a different key are not skipped
+		String seek = pagination.nextSeek(Arrays.asList(date1, date2, date2), Arrays.asList(9, 8, 7));
+		assertEquals(7, new Pagination(3, 3, seek).getSeekKey());
+		assertEquals(1, new Pagination(3, 3, seek).getSeekOffset());
+		seek = pagination.nextSeek(Arrays.asList(date1, date2, date2), Arrays.<Integer>asList(9, 7, 7));
+		assertNotNull(seek);
+		// the offset is retained for display purposes only
+		Pagination next = new Pagination(3, 3, seek);
+		assertTrue(next.isSeek());
+		assertEquals(seek, next.getSeek());
+		assertEquals(date2, next.getSeekDate());
+		assertEquals(7, next.getSeekKey());
+		assertEquals(2, next.getSeekOffset());
+		assertEquals(5, next.getSeekEnd());
+		assertEquals(3, next.getOffset());
+		// a page containing only results from the seek date and key adds to the number skipped
+		seek = next.nextSeek(Arrays.asList(date2, date2, date2), Arrays.<Integer>asList(7, 7, 7));
+		next = new Pagination(3, 6, seek);
+		assertEquals(date2, next.getSeekDate());
+		assertEquals(5, next.getSeekOffset());
+		// a page with a new key starts a new count, and null keys are treated as zero
+		seek = next.nextSeek(Arrays.asList(date2, date2, date2), Arrays.<Integer>asList(7, null, null));
+		next = new Pagination(3, 9, seek);
+		assertEquals(date2, next.getSeekDate());
+		assertEquals(0, next.getSeekKey());
+		assertEquals(2, next.getSeekOffset());
+		// a page with a new date starts a new count
+		seek = next.nextSeek(Arrays.asList(date2, date1, date1), Arrays.asList(0, 4, 4));
+		next = new Pagination(3, 12, seek);
+		assertEquals(date1, next.getSeekDate());
+		assertEquals(4, next.getSeekKey());
+		assertEquals(2, next.getSeekOffset());
+		// without a seek position the number of earlier results with the same date and key is unknown
+		assertNull(new Pagination(3, 6).nextSeek(Arrays.asList(date2, date2, date2), Arrays.asList(1, 1, 1)));
+		assertNotNull(new Pagination(3, 6).nextSeek(Arrays.asList(date2, date2, date2), Arrays.asList(2, 1, 1)));
+		assertNotNull(new Pagination(3, 0).nextSeek(Arrays.asList(date2, date2, date2), Arrays.asList(1, 1, 1)));
+	}
 }
 
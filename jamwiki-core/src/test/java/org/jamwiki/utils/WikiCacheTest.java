@@ -18,13 +18,426 @@
  */
 package org.jamwiki.utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiUnitTest;
 import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 import static org.junit.Assert.*;
 
 /**
  *
  */
 public class WikiCacheTest extends JAMWikiUnitTest {
+
+	private static final String TEST_CACHE_NAME = "org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_NAMES_BY_NAME";
+	private static final String TEST_LOADER_KEY = "test/Loader Topic";
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCacheProviders() throws Throwable {
+		String cacheProvider = Environment.getValue(Environment.PROP_CACHE_PROVIDER);
+		try {
+			this.verifyCacheOperations(EhcacheCacheProvider.class.getName());
+			this.verifyCacheOperations(ConcurrentCacheProvider.class.getName());
+		} finally {
+			Environment.setValue(Environment.PROP_CACHE_PROVIDER, cacheProvider);
+			WikiCache.initialize();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentCacheStoreAdmission() throws Throwable {
+		ConcurrentCacheStore cacheStore = new ConcurrentCacheStore("test", 100, 0);
+		for (int i = 0; i < 10; i++) {
+			cacheStore.put("hot" + i, i);
+			for (int j = 0; j < 5; j++) {
+				cacheStore.get("hot" + i);
+			}
+		}
+		// a scan of keys that are read only once should not evict frequently used keys
+		for (int i = 0; i < 1000; i++) {
+			cacheStore.put("scan" + i, i);
+		}
+		assertTrue("Cache size exceeds maximum: " + cacheStore.size(), cacheStore.size() <= 100);
+		for (int i = 0; i < 10; i++) {
+			assertEquals("Frequently used key evicted: hot" + i, i, cacheStore.get("hot" + i));
+		}
+		assertTrue(cacheStore.getStatistics().getEvictionCount() >= 910);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentCacheStoreExpiration() throws Throwable {
+		ConcurrentCacheStore cacheStore = new ConcurrentCacheStore("test", 100, 1);
+		cacheStore.put("key", "value");
+		Thread.sleep(10);
+		assertFalse(cacheStore.containsKey("key"));
+		assertNull(cacheStore.get("key"));
+		assertEquals(0, cacheStore.size());
+		assertEquals(1, cacheStore.getStatistics().getEvictionCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetLoaderFailure() throws Throwable {
+		WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME);
+		cache.removeFromCache(TEST_LOADER_KEY);
+		try {
+			cache.get(TEST_LOADER_KEY, new CacheLoader<String, String>() {
+				public String load(String key) {
+					throw new IllegalArgumentException("failed");
+				}
+			});
+			fail("Loader exception not thrown");
+		} catch (IllegalArgumentException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		// failures are not cached
+		assertFalse(cache.isKeyInCache(TEST_LOADER_KEY));
+		assertEquals("loaded", cache.get(TEST_LOADER_KEY, new CountingLoader("loaded")));
+		cache.removeFromCache(TEST_LOADER_KEY);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetInvalidatedDuringLoad() throws Throwable {
+		String cacheProvider = Environment.getValue(Environment.PROP_CACHE_PROVIDER);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Environment.setValue(Environment.PROP_CACHE_PROVIDER, InterleavingCacheProvider.class.getName());
+			WikiCache.initialize();
+			final WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME);
+			// pause the load after it has checked that it is still pending but
+			// before it adds its value to the cache
+			InterleavingCacheProvider.PUTTING = new CountDownLatch(1);
+			InterleavingCacheProvider.RELEASE = new CountDownLatch(1);
+			Future<String> result = executor.submit(new Callable<String>() {
+				public String call() {
+					return cache.get(TEST_LOADER_KEY, new CountingLoader("stale"));
+				}
+			});
+			assertTrue("Load did not complete", InterleavingCacheProvider.PUTTING.await(10, TimeUnit.SECONDS));
+			cache.removeFromCache(TEST_LOADER_KEY);
+			InterleavingCacheProvider.RELEASE.countDown();
+			assertEquals("stale", result.get(10, TimeUnit.SECONDS));
+			assertFalse("Value loaded before invalidation was cached", cache.isKeyInCache(TEST_LOADER_KEY));
+		} finally {
+			executor.shutdownNow();
+			InterleavingCacheProvider.PUTTING = null;
+			InterleavingCacheProvider.RELEASE = null;
+			Environment.setValue(Environment.PROP_CACHE_PROVIDER, cacheProvider);
+			WikiCache.initialize();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetNullValue() throws Throwable {
+		WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME);
+		cache.removeFromCache(TEST_LOADER_KEY);
+		CountingLoader loader = new CountingLoader(null);
+		long loadCount = cache.getStatistics().getLoadCount();
+		assertNull(cache.get(TEST_LOADER_KEY, loader));
+		assertNull(cache.get(TEST_LOADER_KEY, loader));
+		assertEquals(1, loader.loads.get());
+		assertEquals(loadCount + 1, cache.getStatistics().getLoadCount());
+		assertTrue(cache.isKeyInCache(TEST_LOADER_KEY));
+		assertNull(cache.retrieveFromCache(TEST_LOADER_KEY));
+		cache.removeFromCache(TEST_LOADER_KEY);
+		assertNull(cache.get(TEST_LOADER_KEY, loader));
+		assertEquals(2, loader.loads.get());
+		cache.removeFromCache(TEST_LOADER_KEY);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetRefreshAhead() throws Throwable {
+		WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME, 1);
+		cache.removeFromCache(TEST_LOADER_KEY);
+		assertEquals("first", cache.get(TEST_LOADER_KEY, new CountingLoader("first")));
+		Thread.sleep(10);
+		// the current value is returned while a new value is loaded in the background
+		CountingLoader loader = new CountingLoader("second");
+		assertEquals("first", cache.get(TEST_LOADER_KEY, loader));
+		long timeout = System.currentTimeMillis() + 10000;
+		while (!"second".equals(cache.retrieveFromCache(TEST_LOADER_KEY)) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals("second", cache.retrieveFromCache(TEST_LOADER_KEY));
+		assertEquals(1, loader.loads.get());
+		cache.removeFromCache(TEST_LOADER_KEY);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetSingleFlight() throws Throwable {
+		final WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME);
+		cache.removeFromCache(TEST_LOADER_KEY);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+			public String load(String key) {
+				loads.incrementAndGet();
+				loading.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return "loaded";
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					public String call() {
+						return cache.get(TEST_LOADER_KEY, loader);
+					}
+				}));
+			}
+			assertTrue("Load did not start", loading.await(10, TimeUnit.SECONDS));
+			// give the other threads time to start waiting for the load
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<String> result : results) {
+				assertEquals("loaded", result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, loads.get());
+		cache.removeFromCache(TEST_LOADER_KEY);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidationBus() throws Throwable {
+		String transport = Environment.getValue(Environment.PROP_CACHE_INVALIDATION_TRANSPORT);
+		RecordingTransport.PUBLISHED.clear();
+		try {
+			Environment.setValue(Environment.PROP_CACHE_INVALIDATION_TRANSPORT, RecordingTransport.class.getName());
+			WikiCache.initialize();
+			assertTrue(CacheInvalidationBus.isEnabled());
+			WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME);
+			// invalidations outside of a transaction are sent immediately
+			cache.addToCache("en/Test Topic", "a");
+			cache.invalidate("en/Test Topic");
+			assertFalse(cache.isKeyInCache("en/Test Topic"));
+			assertEquals(1, RecordingTransport.PUBLISHED.size());
+			assertEquals(new CacheInvalidation(TEST_CACHE_NAME, "en/Test Topic"), RecordingTransport.PUBLISHED.get(0).get(0));
+			// invalidations within a transaction are sent only after commit
+			this.invalidateInTransaction(cache, TransactionSynchronization.STATUS_ROLLED_BACK);
+			assertEquals(1, RecordingTransport.PUBLISHED.size());
+			this.invalidateInTransaction(cache, TransactionSynchronization.STATUS_COMMITTED);
+			assertEquals(2, RecordingTransport.PUBLISHED.size());
+			List<CacheInvalidation> invalidations = RecordingTransport.PUBLISHED.get(1);
+			assertEquals(2, invalidations.size());
+			assertEquals(new CacheInvalidation(TEST_CACHE_NAME, "en/Other Topic"), invalidations.get(0));
+			assertEquals(new CacheInvalidation(TEST_CACHE_NAME, null), invalidations.get(1));
+			// invalidations received from other servers ignore case
+			cache.addToCache("en/Remote Topic", "b");
+			cache.addToCache("en/Unchanged Topic", "c");
+			CacheInvalidationBus.receive(Collections.singletonList(new CacheInvalidation(TEST_CACHE_NAME, "EN/REMOTE TOPIC")));
+			assertFalse(cache.isKeyInCache("en/Remote Topic"));
+			assertTrue(cache.isKeyInCache("en/Unchanged Topic"));
+			CacheInvalidationBus.receive(Collections.singletonList(new CacheInvalidation(TEST_CACHE_NAME, null)));
+			assertFalse(cache.isKeyInCache("en/Unchanged Topic"));
+			assertEquals(2, RecordingTransport.PUBLISHED.size());
+		} finally {
+			Environment.setValue(Environment.PROP_CACHE_INVALIDATION_TRANSPORT, transport);
+			WikiCache.initialize();
+		}
+		assertFalse(CacheInvalidationBus.isEnabled());
+	}
+
+	/**
+	 * Simulate a transaction that invalidates cache entries and then completes
+	 * with the given status.
+	 */
+	private void invalidateInTransaction(WikiCache<String, String> cache, int status) {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			cache.invalidate("en/Other Topic");
+			cache.invalidate("en/Other Topic");
+			cache.invalidateAll();
+			TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(), status);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void verifyCacheOperations(String cacheProvider) throws Throwable {
+		Environment.setValue(Environment.PROP_CACHE_PROVIDER, cacheProvider);
+		WikiCache.initialize();
+		WikiCache<String, String> cache = new WikiCache<String, String>(TEST_CACHE_NAME);
+		cache.addToCache("en/Test Topic", "a");
+		cache.addToCache("en/test topic", "b");
+		cache.addToCache("en/Other Topic", "c");
+		cache.addToCache("en/Null Topic", null);
+		assertEquals(cacheProvider, "a", cache.retrieveFromCache("en/Test Topic"));
+		assertNull(cacheProvider, cache.retrieveFromCache("en/Missing Topic"));
+		assertTrue(cacheProvider, cache.isKeyInCache("en/Null Topic"));
+		cache.removeFromCacheCaseInsensitive("EN/TEST TOPIC");
+		assertFalse(cacheProvider, cache.isKeyInCache("en/Test Topic"));
+		assertFalse(cacheProvider, cache.isKeyInCache("en/test topic"));
+		assertTrue(cacheProvider, cache.isKeyInCache("en/Other Topic"));
+		// re-added keys must be found by the case-insensitive index
+		cache.addToCache("en/TEST topic", "d");
+		cache.removeFromCacheCaseInsensitive("en/Test Topic");
+		assertFalse(cacheProvider, cache.isKeyInCache("en/TEST topic"));
+		CacheStatistics statistics = WikiCache.getAllStatistics().get(TEST_CACHE_NAME);
+		assertSame(cacheProvider, cache.getStatistics(), statistics);
+		// time-to-live configured in ehcache-jamwiki.xml
+		assertEquals(cacheProvider, 600 * 1000, cache.getTimeToLive());
+		assertEquals(cacheProvider, 1, statistics.getHitCount());
+		assertEquals(cacheProvider, 1, statistics.getMissCount());
+	}
+
+	/**
+	 * Loader that returns a fixed value and counts the number of loads.
+	 */
+	private static class CountingLoader implements CacheLoader<String, String> {
+
+		private final AtomicInteger loads = new AtomicInteger();
+		private final String value;
+
+		/**
+		 *
+		 */
+		CountingLoader(String value) {
+			this.value = value;
+		}
+
+		/**
+		 *
+		 */
+		public String load(String key) {
+			this.loads.incrementAndGet();
+			return this.value;
+		}
+	}
+
+	/**
+	 * Cache provider that pauses additions to the cache so that tests can
+	 * remove keys while a load is adding its value.
+	 */
+	public static class InterleavingCacheProvider extends ConcurrentCacheProvider {
+
+		private static volatile CountDownLatch PUTTING = null;
+		private static volatile CountDownLatch RELEASE = null;
+
+		/**
+		 *
+		 */
+		public CacheStore getCache(String cacheName) {
+			final CacheStore cacheStore = super.getCache(cacheName);
+			if (cacheStore == null) {
+				return null;
+			}
+			return new CacheStore() {
+				public boolean containsKey(Object key) {
+					return cacheStore.containsKey(key);
+				}
+				public Object get(Object key) {
+					return cacheStore.get(key);
+				}
+				public CacheStatistics getStatistics() {
+					return cacheStore.getStatistics();
+				}
+				public long getTimeToLive() {
+					return cacheStore.getTimeToLive();
+				}
+				public void put(Object key, Object value) {
+					CountDownLatch putting = PUTTING;
+					CountDownLatch release = RELEASE;
+					if (putting != null && release != null) {
+						putting.countDown();
+						try {
+							release.await(10, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					cacheStore.put(key, value);
+				}
+				public void remove(Object key) {
+					cacheStore.remove(key);
+				}
+				public void removeAll() {
+					cacheStore.removeAll();
+				}
+				public void removeCaseInsensitive(String key) {
+					cacheStore.removeCaseInsensitive(key);
+				}
+				public int size() {
+					return cacheStore.size();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Transport that records published invalidations.
+	 */
+	public static class RecordingTransport implements CacheInvalidationTransport {
+
+		private static final List<List<CacheInvalidation>> PUBLISHED = Collections.synchronizedList(new ArrayList<List<CacheInvalidation>>());
+
+		/**
+		 *
+		 */
+		public void publish(List<CacheInvalidation> invalidations) {
+			PUBLISHED.add(invalidations);
+		}
+
+		/**
+		 *
+		 */
+		public void start(String nodeId) {
+		}
+
+		/**
+		 *
+		 */
+		public void stop() {
+		}
+	}
 }
 
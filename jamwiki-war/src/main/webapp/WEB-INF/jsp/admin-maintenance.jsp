@@ -176,10 +176,56 @@
 	<span><input type="submit" value="<fmt:message key="common.update" />" /></span>
 	<div class="formhelp"><fmt:message key="admin.maintenance.help.links" /></div>
 </div>
+<c:if test="${!empty metadataRebuild}">
+<div class="row">
+	<label><fmt:message key="admin.maintenance.caption.metadatastatus" /></label>
+	<span>
+	<c:choose>
+		<c:when test="${metadataRebuild.running}">
+			<fmt:message key="admin.maintenance.message.metadatarunning">
+				<fmt:param><fmt:formatDate value="${metadataRebuild.startDate}" type="both" pattern="${pageInfo.datePatternDateAndTime}" timeZone="${pageInfo.timeZoneId}" /></fmt:param>
+				<fmt:param value="${metadataRebuild.numProcessed + metadataRebuild.numSkipped}" />
+				<fmt:param value="${metadataRebuild.totalTopics}" />
+				<fmt:param value="${metadataRebuild.numErrors}" />
+				<fmt:param value="${metadataRebuild.topicsPerSecond}" />
+			</fmt:message>
+		</c:when>
+		<c:otherwise>
+			<fmt:message key="admin.maintenance.message.metadatacomplete">
+				<fmt:param><fmt:formatDate value="${metadataRebuild.endDate}" type="both" pattern="${pageInfo.datePatternDateAndTime}" timeZone="${pageInfo.timeZoneId}" /></fmt:param>
+				<fmt:param value="${metadataRebuild.numUpdated}" />
+				<fmt:param value="${metadataRebuild.numErrors}" />
+				<fmt:param value="${metadataRebuild.numSkipped}" />
+				<fmt:param value="${metadataRebuild.topicsPerSecond}" />
+			</fmt:message>
+		</c:otherwise>
+	</c:choose>
+	</span>
+</div>
+</c:if>
 <input type="hidden" name="function" value="links" />
 </form>
 </fieldset>
 
+<%-- Topic Version Storage --%>
+<c:if test="${!empty pageInfo.messages && function == 'versions'}">
+<div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<c:if test="${!empty pageInfo.errors && function == 'versions'}">
+<div class="message red"><c:forEach items="${pageInfo.errors}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<fieldset>
+<legend><fmt:message key="admin.maintenance.title.versions" /></legend>
+<form action="<jamwiki:link value="Special:Maintenance" />#data" method="post">
+<div class="row">
+	<label><fmt:message key="admin.maintenance.caption.versions" /></label>
+	<span><input type="submit" value="<fmt:message key="common.update" />" /></span>
+	<div class="formhelp"><fmt:message key="admin.maintenance.help.versions" /></div>
+</div>
+<input type="hidden" name="function" value="versions" />
+</form>
+</fieldset>
+
 </div>
 
 <%-- Password Reset --%>
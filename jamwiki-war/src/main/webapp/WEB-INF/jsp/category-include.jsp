@@ -21,6 +21,9 @@
 	<c:if test="${numSubCategories > 0}">
 <h3><fmt:message key="topic.category.subcategories"><fmt:param value="${categoryName}" /></fmt:message></h3>
 <div class="message"><fmt:message key="topic.category.numsubcategories"><fmt:param value="${numSubCategories}" /><fmt:param value="${categoryName}" /></fmt:message></div>
+		<c:if test="${numCategoryTopics == 0 && numCategoryImages == 0}">
+<div class="message"><fmt:message key="common.caption.view" />: <jamwiki:pagination total="${categoryPageCount}" rootUrl="${pageInfo.topicName}" /></div>
+		</c:if>
 
 <table class="categories"><tr><td>
 <ul>
@@ -28,7 +31,7 @@
 		<c:forEach items="${subCategories}" var="subCategory" varStatus="status">
 <li><jamwiki:link value="${subCategory.key}" text="${subCategory.value}" /></li>
 			<%-- FIXME - do not hard code min num topics and num columns --%>
-			<c:if test="${(numSubCategories > 9) && (columnCount < 3) && ((status.count * 3) >= (numSubCategories * columnCount))}">
+			<c:if test="${(displaySubCategoryCount > 9) && (columnCount < 3) && ((status.count * 3) >= (displaySubCategoryCount * columnCount))}">
 				<c:set var="columnCount" value="${columnCount + 1}" />
 </ul></td><td><ul>
 			</c:if>
@@ -41,6 +44,9 @@
 	<c:if test="${numCategoryImages > 0}">
 <h3><fmt:message key="topic.category.images"><fmt:param value="${categoryName}" /></fmt:message></h3>
 <div class="message"><fmt:message key="topic.category.numimages"><fmt:param value="${numCategoryImages}" /><fmt:param value="${categoryName}" /></fmt:message></div>
+		<c:if test="${numCategoryTopics == 0}">
+<div class="message"><fmt:message key="common.caption.view" />: <jamwiki:pagination total="${categoryPageCount}" rootUrl="${pageInfo.topicName}" /></div>
+		</c:if>
 
 <table class="gallery-cat gallery" cellpadding="0" cellspacing="0"><tr>
 		<%-- FIXME - number of columns and max image size are hard-coded --%>
@@ -50,8 +56,8 @@
 			</c:if>
 <td><div class="gallerybox"><a href="<jamwiki:link value="${categoryImage.childTopicName}" />" class="wikiimg"><jamwiki:image value="${categoryImage.childTopicName}" maxWidth="120" maxHeight="120" style="gallery" /></a></div></td>
 		</c:forEach>
-		<c:if test="${(numCategoryImages % 4) != 0}">
-			<c:forEach begin="1" end="${4 - (numCategoryImages % 4)}">
+		<c:if test="${(displayCategoryImageCount % 4) != 0}">
+			<c:forEach begin="1" end="${4 - (displayCategoryImageCount % 4)}">
 <td>&#160;</td>
 			</c:forEach>
 		</c:if>
@@ -62,7 +68,7 @@
 
 <div class="message"><fmt:message key="topic.category.numtopics"><fmt:param value="${numCategoryTopics}" /><fmt:param value="${categoryName}" /></fmt:message></div>
 	<c:if test="${numCategoryTopics > 0}">
-<div class="message"><fmt:message key="common.caption.view" />: <jamwiki:pagination total="${displayCategoryCount}" rootUrl="${pageInfo.topicName}" /></div>
+<div class="message"><fmt:message key="common.caption.view" />: <jamwiki:pagination total="${categoryPageCount}" rootUrl="${pageInfo.topicName}" /></div>
 <table class="categories"><tr><td>
 <ul>
 		<c:set var="columnCount" value="1" />
@@ -19,10 +19,23 @@ package org.jamwiki.search;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.TokenStream;
@@ -31,8 +44,6 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
@@ -42,6 +53,7 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.highlight.Highlighter;
@@ -51,6 +63,7 @@ import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockFactory;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.SimpleFSLockFactory;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.store.LockObtainFailedException;
@@ -67,6 +80,13 @@ import org.jamwiki.utils.WikiLogger;
  * An implementation of {@link org.jamwiki.SearchEngine} that uses
  * <a href="http://lucene.apache.org/java/">Lucene</a> to perform searches of
  * Wiki content.
+ *
+ * Searches use near-real-time readers obtained from each virtual wiki's
+ * IndexWriter, so updates become visible to searches without waiting for a
+ * commit.  A background thread periodically refreshes the searchers and
+ * commits pending updates, either on a timer or once a threshold number of
+ * updates is reached, so that individual topic saves do not pay the cost of
+ * a commit.
  */
 public class LuceneSearchEngine implements SearchEngine {
 
@@ -74,6 +94,16 @@ public class LuceneSearchEngine implements SearchEngine {
 	private static final WikiLogger logger = WikiLogger.getLogger(LuceneSearchEngine.class.getName());
 	/** Directory for search index files */
 	private static final String SEARCH_DIR = "search";
+	/** Suffix for the directory used to build a new index while the existing index remains in use. */
+	private static final String REBUILD_DIR_SUFFIX = ".rebuild";
+	/** Suffix for the directory that temporarily holds the old index while a rebuilt index is swapped in. */
+	private static final String OLD_DIR_SUFFIX = ".old";
+	/** Commit data key used to record the last topic ID indexed during a rebuild, allowing interrupted rebuilds to resume. */
+	private static final String COMMIT_DATA_LAST_TOPIC_ID = "jamwiki-rebuild-last-topic-id";
+	/** Commit data key used to record when a rebuild started, so that topic changes made before an interrupted rebuild is resumed can be re-applied. */
+	private static final String COMMIT_DATA_REBUILD_START = "jamwiki-rebuild-start";
+	/** Time (in milliseconds) before the start of a rebuild from which topic changes are re-applied when the rebuild is resumed, since a topic version is dated before it is saved. */
+	private static final long REBUILD_CHANGE_MARGIN = 10 * 60 * 1000L;
 	/** Name of the search index field that holds the processed topic content. */
 	private static final String FIELD_TOPIC_CONTENT = "topic_content";
 	/** Name of the search index field that holds the un-processed topic name. */
@@ -87,16 +117,22 @@ public class LuceneSearchEngine implements SearchEngine {
 	/** Maximum number of results to return per search. */
 	// FIXME - make this configurable
 	protected static final int MAXIMUM_RESULTS_PER_SEARCH = 200;
-	/** Flag indicating whether or not to commit search index changes immediately. */
-	private boolean autoCommit = true;
+	/** Number of times to retry opening a searcher if the index is swapped while it is being opened. */
+	private static final int MAX_SEARCHER_RETRIES = 3;
+	/** Flag indicating whether or not search index changes should be committed automatically. */
+	private volatile boolean autoCommit = true;
 	/** Flag indicating whether write operations are temporarily disabled. */
-	private boolean disabled = false;
-	/** Store Searchers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexSearcher> searchers = new HashMap<String, IndexSearcher>();
-	/** Store Readers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexReader> indexReaders = new HashMap<String, IndexReader>();
+	private volatile boolean disabled = false;
+	/** Store SearcherManagers (once opened) for re-use for performance reasons. */
+	private final ConcurrentMap<String, SearcherManager> searcherManagers = new ConcurrentHashMap<String, SearcherManager>();
 	/** Store Writers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexWriter> indexWriters = new HashMap<String, IndexWriter>();
+	private final Map<String, IndexWriter> indexWriters = new ConcurrentHashMap<String, IndexWriter>();
+	/** Number of uncommitted index updates for each virtual wiki. */
+	private final ConcurrentMap<String, AtomicInteger> pendingCommits = new ConcurrentHashMap<String, AtomicInteger>();
+	/** Background thread used to refresh searchers and commit pending updates. */
+	private ScheduledExecutorService scheduler;
+	/** For virtual wikis with a rebuild in progress, the names of topics updated since the rebuild started. */
+	private final ConcurrentMap<String, ConcurrentMap<String, String>> rebuildUpdates = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
 
 	/**
 	 * Add a topic to the search index.
@@ -107,11 +143,12 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.recordRebuildUpdate(topic);
 		try {
 			long start = System.currentTimeMillis();
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
+			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki());
 			this.addToIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			this.indexUpdated(topic.getVirtualWiki());
 			if (logger.isDebugEnabled()) {
 				logger.debug("Add to search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
@@ -133,7 +170,6 @@ public class LuceneSearchEngine implements SearchEngine {
 		}
 		Document standardDocument = createStandardDocument(topic);
 		writer.addDocument(standardDocument);
-		this.resetIndexSearcher(topic.getVirtualWiki());
 	}
 
 	/**
@@ -144,19 +180,55 @@ public class LuceneSearchEngine implements SearchEngine {
 	 */
 	public void commit(String virtualWiki) {
 		try {
-			this.commit(this.retrieveIndexWriter(virtualWiki, false), true);
+			this.commit(virtualWiki, this.retrieveIndexWriter(virtualWiki));
+			SearcherManager searcherManager = this.searcherManagers.get(virtualWiki);
+			if (searcherManager != null) {
+				searcherManager.maybeRefresh();
+			}
 		} catch (IOException e) {
 			logger.error("Exception while committing pending changes for virtual wiki " + virtualWiki, e);
 		}
 	}
 
 	/**
-	 * Commit pending changes to the writer only if the commitNow value is true.
-	 * This is primarily a utility method for working with the autoCommit flag.
+	 * Commit pending changes to the writer and reset the count of pending
+	 * updates for the virtual wiki.
 	 */
-	private void commit(IndexWriter writer, boolean commitNow) throws IOException {
-		if (commitNow) {
+	private void commit(String virtualWiki, IndexWriter writer) throws IOException {
+		AtomicInteger pending = this.pendingCommits.get(virtualWiki);
+		int count = (pending == null) ? 0 : pending.getAndSet(0);
+		try {
 			writer.commit();
+		} catch (IOException e) {
+			if (pending != null) {
+				// the updates are still pending, so make sure they are retried
+				pending.addAndGet(count);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Commit all virtual wikis with pending updates.  This method is called
+	 * periodically by the background thread.
+	 */
+	private void commitPending() {
+		if (!this.autoCommit) {
+			return;
+		}
+		for (Map.Entry<String, AtomicInteger> entry : this.pendingCommits.entrySet()) {
+			if (entry.getValue().get() <= 0) {
+				continue;
+			}
+			IndexWriter writer = this.indexWriters.get(entry.getKey());
+			if (writer == null) {
+				continue;
+			}
+			try {
+				this.commit(entry.getKey(), writer);
+			} catch (Exception e) {
+				logger.error("Exception while committing pending changes for virtual wiki " + entry.getKey(), e);
+			}
 		}
 	}
 
@@ -220,6 +292,20 @@ public class LuceneSearchEngine implements SearchEngine {
 		return doc;
 	}
 
+	/**
+	 * Return a factory for daemon threads so that background search index
+	 * threads do not prevent the JVM from shutting down.
+	 */
+	private static ThreadFactory daemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
 	/**
 	 * Remove a topic from the search index.
 	 *
@@ -229,12 +315,13 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.recordRebuildUpdate(topic);
 		try {
 			long start = System.currentTimeMillis();
 			// delete the current document
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
+			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki());
 			this.deleteFromIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			this.indexUpdated(topic.getVirtualWiki());
 			if (logger.isDebugEnabled()) {
 				logger.debug("Delete from search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
@@ -251,7 +338,6 @@ public class LuceneSearchEngine implements SearchEngine {
 	 */
 	private void deleteFromIndex(IndexWriter writer, Topic topic) throws IOException {
 		writer.deleteDocuments(new Term(FIELD_TOPIC_NAME, topic.getName()));
-		this.resetIndexSearcher(topic.getVirtualWiki());
 	}
 
 	/**
@@ -269,8 +355,9 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (logger.isTraceEnabled()) {
 			logger.trace("search text: " + text);
 		}
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = this.retrieveIndexSearcher(virtualWiki);
+			searcher = this.retrieveIndexSearcher(virtualWiki);
 			Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
 			// actually perform the search
 			TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
@@ -286,6 +373,8 @@ public class LuceneSearchEngine implements SearchEngine {
 			}
 		} catch (Exception e) {
 			logger.error("Exception while searching for " + text, e);
+		} finally {
+			this.releaseIndexSearcher(searcher);
 		}
 		return results;
 	}
@@ -316,10 +405,24 @@ public class LuceneSearchEngine implements SearchEngine {
 	}
 
 	/**
-	 * Open an IndexReader, executing error handling as needed.
+	 * Record that the index for a virtual wiki has been updated.  If the
+	 * number of pending updates has reached the commit threshold then
+	 * schedule an immediate commit on the background thread.
 	 */
-	private IndexReader openIndexReader(File searchIndexPath) throws IOException {
-		return DirectoryReader.open(FSDirectory.open(searchIndexPath));
+	private void indexUpdated(String virtualWiki) {
+		AtomicInteger pending = this.pendingCommits.get(virtualWiki);
+		if (pending == null) {
+			this.pendingCommits.putIfAbsent(virtualWiki, new AtomicInteger());
+			pending = this.pendingCommits.get(virtualWiki);
+		}
+		int count = pending.incrementAndGet();
+		if (this.autoCommit && count >= Environment.getIntValue(Environment.PROP_SEARCH_COMMIT_THRESHOLD)) {
+			this.retrieveScheduler().execute(new Runnable() {
+				public void run() {
+					commitPending();
+				}
+			});
+		}
 	}
 
 	/**
@@ -351,6 +454,125 @@ public class LuceneSearchEngine implements SearchEngine {
 		return indexWriter;
 	}
 
+	/**
+	 * Record that a topic has been updated while a rebuild of its virtual
+	 * wiki's index is in progress, so that the update can be re-applied to
+	 * the rebuilt index after it is swapped in.
+	 */
+	private void recordRebuildUpdate(Topic topic) {
+		ConcurrentMap<String, String> updates = this.rebuildUpdates.get(topic.getVirtualWiki());
+		if (updates != null) {
+			updates.put(topic.getName(), topic.getName());
+		}
+	}
+
+	/**
+	 * Rebuild the search index for a virtual wiki.  The new index is built
+	 * in a separate directory so that the existing index remains available for
+	 * searches, and is then swapped in once complete.  Topics are read from
+	 * the database in batches ordered by topic ID, and the documents for each
+	 * batch are built by a pool of worker threads that all add to the same
+	 * IndexWriter.  After each batch the index is committed along with the
+	 * last topic ID indexed, so an interrupted rebuild resumes from the last
+	 * completed batch.  Topic updates made while the rebuild is running are
+	 * tracked in memory, so when resuming a rebuild all topics changed since
+	 * the rebuild originally started are looked up in the database and
+	 * re-applied after the swap as well.
+	 */
+	private void rebuildIndex(String virtualWiki) throws IOException, InterruptedException, ExecutionException {
+		long start = System.currentTimeMillis();
+		File searchIndexPath = this.getSearchIndexPath(virtualWiki);
+		File rebuildPath = new File(searchIndexPath.getParentFile(), searchIndexPath.getName() + REBUILD_DIR_SUFFIX);
+		int batchSize = Math.max(Environment.getIntValue(Environment.PROP_SEARCH_REBUILD_BATCH_SIZE), 1);
+		int threads = Math.max(Environment.getIntValue(Environment.PROP_SEARCH_REBUILD_THREADS), 1);
+		ConcurrentMap<String, String> updates = new ConcurrentHashMap<String, String>();
+		this.rebuildUpdates.put(virtualWiki, updates);
+		long rebuildStart = start - REBUILD_CHANGE_MARGIN;
+		ExecutorService workers = Executors.newFixedThreadPool(threads, LuceneSearchEngine.daemonThreadFactory("jamwiki-search-rebuild"));
+		int count = 0;
+		try {
+			IndexWriter writer = this.openIndexWriter(rebuildPath, false);
+			try {
+				String lastTopicIdValue = writer.getCommitData().get(COMMIT_DATA_LAST_TOPIC_ID);
+				String rebuildStartValue = writer.getCommitData().get(COMMIT_DATA_REBUILD_START);
+				// a checkpoint without a start time cannot be safely resumed
+				int lastTopicId = (lastTopicIdValue == null || rebuildStartValue == null) ? 0 : Integer.parseInt(lastTopicIdValue);
+				if (lastTopicId > 0) {
+					rebuildStart = Long.parseLong(rebuildStartValue);
+					// updates made before the restart may not be reflected in the
+					// documents already indexed, and were not recorded in memory
+					for (String topicName : WikiBase.getDataHandler().lookupTopicNamesChanged(virtualWiki, new Timestamp(rebuildStart))) {
+						updates.put(topicName, topicName);
+					}
+					logger.info("Resuming search index rebuild for " + virtualWiki + " after topic ID " + lastTopicId + ", re-applying " + updates.size() + " topic updates");
+				} else {
+					// no usable checkpoint, so start from an empty index
+					writer.deleteAll();
+				}
+				List<Topic> topics;
+				while (!(topics = WikiBase.getDataHandler().lookupTopicBatch(virtualWiki, lastTopicId, batchSize)).isEmpty()) {
+					count += this.rebuildIndexBatch(workers, threads, writer, topics);
+					lastTopicId = topics.get(topics.size() - 1).getTopicId();
+					Map<String, String> commitData = new HashMap<String, String>();
+					commitData.put(COMMIT_DATA_LAST_TOPIC_ID, Integer.toString(lastTopicId));
+					commitData.put(COMMIT_DATA_REBUILD_START, Long.toString(rebuildStart));
+					writer.setCommitData(commitData);
+					writer.commit();
+					this.rebuildBatchCommitted(virtualWiki, lastTopicId);
+					if (logger.isInfoEnabled()) {
+						logger.info("Rebuilding search index for " + virtualWiki + ": " + count + " documents indexed through topic ID " + lastTopicId + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+					}
+				}
+			} finally {
+				writer.close();
+			}
+			this.swapIndex(virtualWiki, searchIndexPath, rebuildPath);
+			this.replayRebuildUpdates(virtualWiki);
+		} finally {
+			workers.shutdownNow();
+			this.rebuildUpdates.remove(virtualWiki);
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Rebuilt search index for " + virtualWiki + " (" + count + " documents) in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+		}
+	}
+
+	/**
+	 * Called after each batch of a rebuild has been committed to the rebuild
+	 * index.  This implementation does nothing, but it allows tests to
+	 * interrupt a rebuild at a known checkpoint.
+	 */
+	void rebuildBatchCommitted(String virtualWiki, int lastTopicId) throws IOException {
+	}
+
+	/**
+	 * Split a batch of topics among the worker threads, adding a document to
+	 * the index for each topic, and wait for all workers to finish.
+	 *
+	 * @return The number of topics processed.
+	 */
+	private int rebuildIndexBatch(ExecutorService workers, int threads, final IndexWriter writer, List<Topic> topics) throws InterruptedException, ExecutionException {
+		int chunkSize = (topics.size() + threads - 1) / threads;
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < topics.size(); i += chunkSize) {
+			final List<Topic> chunk = topics.subList(i, Math.min(i + chunkSize, topics.size()));
+			futures.add(workers.submit(new Callable<Integer>() {
+				public Integer call() throws IOException {
+					for (Topic topic : chunk) {
+						// note: no delete is necessary since a new index is being created
+						addToIndex(writer, topic);
+					}
+					return chunk.size();
+				}
+			}));
+		}
+		int count = 0;
+		for (Future<Integer> future : futures) {
+			count += future.get();
+		}
+		return count;
+	}
+
 	/**
 	 * Refresh the current search index by re-visiting all topic pages.
 	 *
@@ -358,98 +580,204 @@ public class LuceneSearchEngine implements SearchEngine {
 	 */
 	public void refreshIndex() throws Exception {
 		List<VirtualWiki> allWikis = WikiBase.getDataHandler().getVirtualWikiList();
-		Topic topic;
 		for (VirtualWiki virtualWiki : allWikis) {
-			long start = System.currentTimeMillis();
-			int count = 0;
-			IndexWriter writer = null;
 			try {
-				writer = this.retrieveIndexWriter(virtualWiki.getName(), true);
-				List<String> topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false);
-				// FIXME - parsing all documents will be intolerably slow with even a
-				// moderately large Wiki
-				for (String topicName : topicNames) {
-					topic = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), topicName, false);
-					if (topic == null) {
-						logger.info("Unable to rebuild search index for topic: " + topicName);
-						continue;
-					}
-					// note: no delete is necessary since a new index is being created
-					this.addToIndex(writer, topic);
-					count++;
-				}
+				this.rebuildIndex(virtualWiki.getName());
 			} catch (Exception ex) {
-				logger.error("Failure while refreshing search index", ex);
-			} finally {
-				try {
-					if (writer != null) {
-						writer.close();
-					}
-				} catch (Exception e) {
-					logger.error("Exception during close", e);
-				}
+				logger.error("Failure while refreshing search index for " + virtualWiki.getName(), ex);
 			}
-			if (logger.isInfoEnabled()) {
-				logger.info("Rebuilt search index for " + virtualWiki.getName() + " (" + count + " documents) in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+		}
+	}
+
+	/**
+	 * Re-apply updates made to a virtual wiki while its index was being
+	 * rebuilt, since the rebuild may have read the topic prior to the update.
+	 */
+	private void replayRebuildUpdates(String virtualWiki) throws IOException {
+		ConcurrentMap<String, String> updates = this.rebuildUpdates.get(virtualWiki);
+		if (updates == null || updates.isEmpty()) {
+			return;
+		}
+		IndexWriter writer = this.retrieveIndexWriter(virtualWiki);
+		for (String topicName : updates.keySet()) {
+			Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+			if (topic == null || topic.getTopicType() == TopicType.REDIRECT) {
+				writer.deleteDocuments(new Term(FIELD_TOPIC_NAME, topicName));
+			} else {
+				writer.updateDocument(new Term(FIELD_TOPIC_NAME, topic.getName()), this.createStandardDocument(topic));
 			}
+			this.indexUpdated(virtualWiki);
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Re-applied " + updates.size() + " search index updates made during the rebuild of " + virtualWiki);
+		}
+	}
+
+	/**
+	 * Replace the index for a virtual wiki with a newly rebuilt index.  Any
+	 * open writer and searchers for the existing index are closed, and will
+	 * be re-opened against the new index when next requested.
+	 */
+	private synchronized void swapIndex(String virtualWiki, File searchIndexPath, File rebuildPath) throws IOException {
+		// remove the writer before the searcher manager, see retrieveSearcherManager
+		IndexWriter indexWriter = this.indexWriters.remove(virtualWiki);
+		SearcherManager searcherManager = this.searcherManagers.remove(virtualWiki);
+		if (searcherManager != null) {
+			searcherManager.close();
+		}
+		if (indexWriter != null) {
+			indexWriter.close();
+		}
+		this.pendingCommits.remove(virtualWiki);
+		File oldPath = new File(searchIndexPath.getParentFile(), searchIndexPath.getName() + OLD_DIR_SUFFIX);
+		FileUtils.deleteDirectory(oldPath);
+		if (!searchIndexPath.renameTo(oldPath)) {
+			throw new IOException("Unable to move search index " + searchIndexPath.getAbsolutePath() + " to " + oldPath.getAbsolutePath());
 		}
+		if (!rebuildPath.renameTo(searchIndexPath)) {
+			// restore the original index so that search remains available
+			oldPath.renameTo(searchIndexPath);
+			throw new IOException("Unable to move rebuilt search index " + rebuildPath.getAbsolutePath() + " to " + searchIndexPath.getAbsolutePath());
+		}
+		FileUtils.deleteDirectory(oldPath);
 	}
 
 	/**
-	 * Call this method after a search index is updated to reset the searcher.
+	 * Refresh all searchers so that recent index updates are visible to
+	 * searches.  This method is called periodically by the background thread.
 	 */
-	private void resetIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
-		if (searcher != null) {
-			searchers.remove(virtualWiki);
+	private void refreshSearchers() {
+		for (Map.Entry<String, SearcherManager> entry : this.searcherManagers.entrySet()) {
+			try {
+				entry.getValue().maybeRefresh();
+			} catch (Exception e) {
+				logger.error("Exception while refreshing searcher for virtual wiki " + entry.getKey(), e);
+			}
 		}
 	}
 
 	/**
-	 * For performance reasons cache the IndexSearcher for re-use.
+	 * Release an IndexSearcher obtained from {@link #retrieveIndexSearcher}.
+	 * This method must be called exactly once for each searcher that is
+	 * retrieved, and the searcher must not be used after it is released.
+	 *
+	 * @param searcher The searcher to release.  If <code>null</code> then this
+	 *  method performs no action.
 	 */
-	protected IndexSearcher retrieveIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
+	protected void releaseIndexSearcher(IndexSearcher searcher) {
 		if (searcher == null) {
-			searcher = new IndexSearcher(this.retrieveIndexReader(virtualWiki));
-			searchers.put(virtualWiki, searcher);
+			return;
+		}
+		try {
+			// equivalent to SearcherManager.release(), but also works if the
+			// manager has since been closed due to an index rebuild
+			searcher.getIndexReader().decRef();
+		} catch (IOException e) {
+			logger.error("Exception while releasing searcher", e);
 		}
-		return searcher;
 	}
 
 	/**
-	 * For performance reasons create a cache of readers.
+	 * Retrieve a near-real-time IndexSearcher for the virtual wiki.  The
+	 * searcher must be released using {@link #releaseIndexSearcher} once the
+	 * search is complete.  If the index is swapped for a rebuilt index while
+	 * the searcher is being retrieved then a searcher for the new index is
+	 * returned.
 	 */
-	private IndexReader retrieveIndexReader(String virtualWiki) throws IOException {
-		IndexReader indexReader = indexReaders.get(virtualWiki);
-		if (indexReader == null) {
-			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexReader = this.openIndexReader(searchIndexPath);
-			indexReaders.put(virtualWiki, indexReader);
+	protected IndexSearcher retrieveIndexSearcher(String virtualWiki) throws IOException {
+		for (int i = 0; ; i++) {
+			SearcherManager searcherManager = this.retrieveSearcherManager(virtualWiki);
+			try {
+				return searcherManager.acquire();
+			} catch (AlreadyClosedException e) {
+				// the index was swapped after the manager was retrieved
+				this.searcherManagers.remove(virtualWiki, searcherManager);
+				if (i >= MAX_SEARCHER_RETRIES) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the background thread used to refresh searchers and commit
+	 * pending updates, starting it if it is not already running.
+	 */
+	private synchronized ScheduledExecutorService retrieveScheduler() {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(LuceneSearchEngine.daemonThreadFactory("jamwiki-search-index"));
+			long refreshInterval = Math.max(Environment.getIntValue(Environment.PROP_SEARCH_REFRESH_INTERVAL), 1);
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					refreshSearchers();
+				}
+			}, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+			long commitInterval = Math.max(Environment.getIntValue(Environment.PROP_SEARCH_COMMIT_INTERVAL), 1);
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					commitPending();
+				}
+			}, commitInterval, commitInterval, TimeUnit.SECONDS);
+		}
+		return this.scheduler;
+	}
+
+	/**
+	 * For performance reasons cache a SearcherManager for each virtual wiki.
+	 * Searchers are opened from the virtual wiki's IndexWriter so that
+	 * uncommitted updates are visible.  Existing managers are retrieved
+	 * without locking so that searches do not wait for index rebuilds or
+	 * other synchronized operations.
+	 */
+	private SearcherManager retrieveSearcherManager(String virtualWiki) throws IOException {
+		for (int i = 0; ; i++) {
+			SearcherManager searcherManager = this.searcherManagers.get(virtualWiki);
+			if (searcherManager != null) {
+				return searcherManager;
+			}
+			IndexWriter indexWriter = this.retrieveIndexWriter(virtualWiki);
+			try {
+				searcherManager = new SearcherManager(indexWriter, true, null);
+			} catch (AlreadyClosedException e) {
+				// the writer was closed by an index swap, so retry with a new writer
+				if (i >= MAX_SEARCHER_RETRIES) {
+					throw e;
+				}
+				continue;
+			}
+			SearcherManager existing = this.searcherManagers.putIfAbsent(virtualWiki, searcherManager);
+			if (existing != null) {
+				// another thread created a manager first
+				searcherManager.close();
+				return existing;
+			}
+			// swapIndex removes the writer before removing the manager, so if the
+			// writer is still current then any swap will also remove this manager
+			if (this.indexWriters.get(virtualWiki) == indexWriter) {
+				this.retrieveScheduler();
+				return searcherManager;
+			}
+			this.searcherManagers.remove(virtualWiki, searcherManager);
+			searcherManager.close();
+			if (i >= MAX_SEARCHER_RETRIES) {
+				throw new AlreadyClosedException("Search index for " + virtualWiki + " was swapped while opening a searcher");
+			}
 		}
-		return indexReader;
 	}
 
 	/**
 	 * For performance reasons create a cache of writers.  Since writers are not being
 	 * re-initialized then commit() must be called to explicitly flush data to the index,
-	 * otherwise it will be flushed on a programmatic basis by Lucene.
+	 * otherwise it will be flushed by the background thread.  Full index rebuilds use a
+	 * separate writer, see {@link #rebuildIndex}.
 	 */
-	private IndexWriter retrieveIndexWriter(String virtualWiki, boolean create) throws IOException {
-		IndexWriter indexWriter = indexWriters.get(virtualWiki);
-		if (create && indexWriter != null) {
-			// if the writer is going to blow away the existing index and create a new one then it
-			// should not be cached.  instead, close any open writer, create a new one, and return.
-			indexWriter.close();
-			indexWriters.remove(virtualWiki);
-			indexWriter = null;
-		}
+	private synchronized IndexWriter retrieveIndexWriter(String virtualWiki) throws IOException {
+		IndexWriter indexWriter = this.indexWriters.get(virtualWiki);
 		if (indexWriter == null) {
 			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexWriter = this.openIndexWriter(searchIndexPath, create);
-			if (!create) {
-				indexWriters.put(virtualWiki, indexWriter);
-			}
+			indexWriter = this.openIndexWriter(searchIndexPath, false);
+			this.indexWriters.put(virtualWiki, indexWriter);
+			this.retrieveScheduler();
 		}
 		return indexWriter;
 	}
@@ -494,15 +822,24 @@ public class LuceneSearchEngine implements SearchEngine {
 	}
 
 	/**
-	 * 
+	 * Stop the background thread, close all searchers, and commit and close
+	 * all writers.
 	 */
-	public void shutdown() throws IOException {
-		for (IndexReader indexReader : this.indexReaders.values()) {
-			indexReader.close();
+	public synchronized void shutdown() throws IOException {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+		for (SearcherManager searcherManager : this.searcherManagers.values()) {
+			searcherManager.close();
 		}
+		this.searcherManagers.clear();
 		for (IndexWriter indexWriter : this.indexWriters.values()) {
+			// closing a writer commits any pending changes
 			indexWriter.close();
 		}
+		this.indexWriters.clear();
+		this.pendingCommits.clear();
 	}
 
 	/**
@@ -512,12 +849,19 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.recordRebuildUpdate(topic);
 		try {
 			long start = System.currentTimeMillis();
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
-			this.deleteFromIndex(writer, topic);
-			this.addToIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki());
+			if (topic.getTopicType() == TopicType.REDIRECT) {
+				// redirects are not indexed
+				this.deleteFromIndex(writer, topic);
+			} else {
+				// replace the existing document in a single operation so that
+				// searchers never see the topic missing from the index
+				writer.updateDocument(new Term(FIELD_TOPIC_NAME, topic.getName()), this.createStandardDocument(topic));
+			}
+			this.indexUpdated(topic.getVirtualWiki());
 			if (logger.isDebugEnabled()) {
 				logger.debug("Update search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
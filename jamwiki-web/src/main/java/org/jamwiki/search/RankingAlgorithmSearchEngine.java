@@ -54,8 +54,9 @@ public class RankingAlgorithmSearchEngine extends LuceneSearchEngine {
 		StandardAnalyzer analyzer = new StandardAnalyzer(USE_LUCENE_VERSION);
 		List<SearchResultEntry> results = new ArrayList<SearchResultEntry>();
 		logger.trace("search text: " + text);
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = this.retrieveIndexSearcher(virtualWiki);
+			searcher = this.retrieveIndexSearcher(virtualWiki);
 			Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
 			// actually perform the search
 			TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
@@ -97,6 +98,8 @@ public class RankingAlgorithmSearchEngine extends LuceneSearchEngine {
 			}
 		} catch (Exception e) {
 			logger.error("Exception while searching for " + text, e);
+		} finally {
+			this.releaseIndexSearcher(searcher);
 		}
 		return results;
 	}
@@ -32,6 +32,7 @@ import org.jamwiki.WikiConfiguration;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.authentication.WikiUserDetailsImpl;
+import org.jamwiki.db.TopicMetadataRebuilder;
 import org.jamwiki.db.WikiDatabase;
 import org.jamwiki.mail.WikiMail;
 import org.jamwiki.model.Role;
@@ -94,6 +95,8 @@ public class AdminServlet extends JAMWikiServlet {
 			namespaces(request, next, pageInfo);
 		} else if (function.equals("links")) {
 			links(request, next, pageInfo);
+		} else if (function.equals("versions")) {
+			compressTopicVersions(request, next, pageInfo);
 		}
 		return next;
 	}
@@ -155,11 +158,23 @@ public class AdminServlet extends JAMWikiServlet {
 	/**
 	 *
 	 */
-	private void links(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
-		int[] resultArray = WikiDatabase.rebuildTopicMetadata();
-		pageInfo.addMessage(new WikiMessage("admin.maintenance.message.metadata", Integer.toString(resultArray[0])));
+	private void compressTopicVersions(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
+		int[] resultArray = WikiDatabase.compressTopicVersions();
+		pageInfo.addMessage(new WikiMessage("admin.maintenance.message.versions", Integer.toString(resultArray[0])));
 		if (resultArray[1] != 0) {
-			pageInfo.addError(new WikiMessage("admin.maintenance.error.metadata", Integer.toString(resultArray[1])));
+			pageInfo.addError(new WikiMessage("admin.maintenance.error.versions", Integer.toString(resultArray[1])));
+		}
+		viewAdminSystem(request, next, pageInfo);
+	}
+
+	/**
+	 *
+	 */
+	private void links(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
+		if (TopicMetadataRebuilder.start()) {
+			pageInfo.addMessage(new WikiMessage("admin.maintenance.message.metadatastarted"));
+		} else {
+			pageInfo.addError(new WikiMessage("admin.maintenance.error.metadatarunning"));
 		}
 		viewAdminSystem(request, next, pageInfo);
 	}
@@ -593,5 +608,6 @@ public class AdminServlet extends JAMWikiServlet {
 		next.addObject("allowExport", allowExport);
 		List<WikiConfigurationObject> queryHandlers = WikiConfiguration.getInstance().getQueryHandlers();
 		next.addObject("queryHandlers", queryHandlers);
+		next.addObject("metadataRebuild", TopicMetadataRebuilder.getCurrentJob());
 	}
 }
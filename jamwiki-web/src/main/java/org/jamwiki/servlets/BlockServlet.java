@@ -28,7 +28,7 @@ import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.model.UserBlock;
 import org.jamwiki.model.WikiUser;
-import org.jamwiki.utils.Utilities;
+import org.jamwiki.utils.IpAddressRange;
 import org.jamwiki.utils.WikiLogger;
 import org.springframework.web.servlet.ModelAndView;
 
@@ -93,7 +93,7 @@ public class BlockServlet extends JAMWikiServlet {
 	 */
 	private UserBlock initializeBlock(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
 		String username = StringUtils.trim(request.getParameter("user"));
-		String ipAddress = Utilities.isIpAddress(username) ? username : null;
+		String ipAddress = this.initializeIpAddress(username);
 		WikiUser wikiUser = this.initializeWikiUser(request, pageInfo);
 		int durationUnit = NumberUtils.toInt(request.getParameter("durationUnit"), -1);
 		int durationNumber = NumberUtils.toInt(request.getParameter("durationNumber"), -1);
@@ -131,7 +131,7 @@ public class BlockServlet extends JAMWikiServlet {
 	 */
 	private UserBlock initializeUnblock(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
 		String username = StringUtils.trim(request.getParameter("user"));
-		String ipAddress = Utilities.isIpAddress(username) ? username : null;
+		String ipAddress = this.initializeIpAddress(username);
 		WikiUser wikiUser = this.initializeWikiUser(request, pageInfo);
 		Integer wikiUserId = (wikiUser != null) ? wikiUser.getUserId() : null;
 		UserBlock userBlock = null;
@@ -140,6 +140,9 @@ public class BlockServlet extends JAMWikiServlet {
 			if (userBlock == null) {
 				// user is not blocked
 				pageInfo.addError(new WikiMessage("unblock.error.notblocked", username));
+			} else if (wikiUserId == null && !IpAddressRange.parse(ipAddress).equals(IpAddressRange.parse(userBlock.getIpAddress()))) {
+				// the address is covered by a broader range block, which must be removed instead
+				pageInfo.addError(new WikiMessage("unblock.error.rangeblocked", username, userBlock.getIpAddress()));
 			}
 		}
 		if (pageInfo.getErrors().isEmpty()) {
@@ -156,6 +159,20 @@ public class BlockServlet extends JAMWikiServlet {
 		return userBlock;
 	}
 
+	/**
+	 * Shared code for the block & unblock pages used to retrieve the IP address or
+	 * CIDR address range submitted in the form.  Address ranges are converted to
+	 * their canonical form, and <code>null</code> is returned if the value is not
+	 * an IP address or address range.
+	 */
+	private String initializeIpAddress(String username) {
+		IpAddressRange range = IpAddressRange.parse(username);
+		if (range == null) {
+			return null;
+		}
+		return (range.isSingleAddress()) ? username : range.toString();
+	}
+
 	/**
 	 * Shared code for the block & unblock pages used to retrieve a WikiUser from the
 	 * username submitted in the form.  This method returns <code>null</code> if no
@@ -167,7 +184,7 @@ public class BlockServlet extends JAMWikiServlet {
 		WikiUser wikiUser = null;
 		if (StringUtils.isBlank(username)) {
 			pageInfo.addError(new WikiMessage("block.error.user"));
-		} else if (!Utilities.isIpAddress(username)) {
+		} else if (IpAddressRange.parse(username) == null) {
 			wikiUser = WikiBase.getDataHandler().lookupWikiUser(username);
 			if (wikiUser == null) {
 				pageInfo.addError(new WikiMessage("block.error.invaliduser", username));
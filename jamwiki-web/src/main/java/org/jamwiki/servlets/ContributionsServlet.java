@@ -16,6 +16,8 @@
  */
 package org.jamwiki.servlets;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -59,6 +61,13 @@ public class ContributionsServlet extends JAMWikiServlet {
 		List<RecentChange> contributions = WikiBase.getDataHandler().getUserContributions(virtualWiki, userString, pagination, true);
 		next.addObject("contributions", contributions);
 		next.addObject("numContributions", contributions.size());
+		List<Timestamp> dates = new ArrayList<Timestamp>();
+		List<Integer> keys = new ArrayList<Integer>();
+		for (RecentChange contribution : contributions) {
+			dates.add(contribution.getChangeDate());
+			keys.add(contribution.getTopicVersionId());
+		}
+		ServletUtil.loadNextSeek(pagination, dates, keys, next);
 		next.addObject("contributor", userString);
 		pageInfo.setPageTitle(new WikiMessage("contributions.title", userString));
 		pageInfo.setContentJsp(JSP_CONTRIBUTIONS);
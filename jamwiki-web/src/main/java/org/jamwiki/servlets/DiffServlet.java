@@ -88,7 +88,9 @@ public class DiffServlet extends JAMWikiServlet {
 			logger.error(msg);
 			throw new Exception(msg);
 		}
-		List<WikiDiff> diffs = DiffUtil.diff(contents1, contents2);
+		int newTopicVersionId = (version1 != null) ? version1.getTopicVersionId() : 0;
+		int oldTopicVersionId = (version2 != null) ? version2.getTopicVersionId() : 0;
+		List<WikiDiff> diffs = DiffUtil.diff(contents1, contents2, newTopicVersionId, oldTopicVersionId);
 		next.addObject("diffs", diffs);
 		if (version1 != null) {
 			WikiUser user = (version1.getAuthorId() != null) ? WikiBase.getDataHandler().lookupWikiUser(version1.getAuthorId()) : null;
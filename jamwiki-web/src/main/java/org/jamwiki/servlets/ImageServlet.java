@@ -16,6 +16,7 @@
  */
 package org.jamwiki.servlets;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -25,11 +26,13 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.text.ParseException;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.model.ImageData;
@@ -38,11 +41,20 @@ import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiLogger;
 
 /**
- * Get image requests handler.
+ * Get image requests handler.  Responses include <code>ETag</code> and
+ * <code>Last-Modified</code> validators so that clients can re-validate
+ * cached files with a conditional GET, and single byte-range requests are
+ * supported so that large files can be downloaded incrementally.
  */
 public class ImageServlet extends JAMWikiServlet {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageServlet.class.getName());
+	/** Maximum size (in bytes) of database file data buffered in memory before the data is written to a temporary file. */
+	private static final int DATABASE_FILE_MEMORY_THRESHOLD = 256 * 1024;
+	/** Cache lifetime (in seconds) for database file URLs that reference a specific file version and thus never change. */
+	private static final int IMMUTABLE_MAX_AGE = 365 * 24 * 60 * 60;
+	/** Value returned by {@link #parseRange} when the requested range cannot be satisfied. */
+	protected static final long[] RANGE_NOT_SATISFIABLE = new long[0];
 
 	/**
 	 * This servlet requires slightly different initialization parameters from most
@@ -64,11 +76,198 @@ public class ImageServlet extends JAMWikiServlet {
 		if (file == null) {
 			this.streamFileFromDatabase(request, response);
 		} else {
-			this.streamFileFromFileSystem(file, response);
+			this.streamFileFromFileSystem(file, request, response);
 		}
 		return null;
 	}
 
+	/**
+	 * Determine whether the client's cached copy of a file is current, based
+	 * on the <code>If-None-Match</code> and <code>If-Modified-Since</code>
+	 * request headers.  As required by RFC 7232 the
+	 * <code>If-Modified-Since</code> header is ignored if an
+	 * <code>If-None-Match</code> header is present.
+	 */
+	private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return matchesETag(ifNoneMatch, etag, true);
+		}
+		if (lastModified <= 0) {
+			return false;
+		}
+		long ifModifiedSince = retrieveDateHeader(request, "If-Modified-Since");
+		// HTTP dates have a resolution of one second
+		return (ifModifiedSince != -1 && (lastModified / 1000) <= (ifModifiedSince / 1000));
+	}
+
+	/**
+	 * Determine whether a range request should be honored based on the
+	 * <code>If-Range</code> request header, which may contain either an entity
+	 * tag or a date.  If the header is present and does not match the current
+	 * file then the entire file must be returned.
+	 */
+	private boolean isRangeCurrent(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// weak validators cannot be used for range requests
+			return matchesETag(ifRange, etag, false);
+		}
+		long date = retrieveDateHeader(request, "If-Range");
+		return (date != -1 && lastModified > 0 && (lastModified / 1000) == (date / 1000));
+	}
+
+	/**
+	 * Determine whether an <code>If-None-Match</code> or <code>If-Range</code>
+	 * header value matches an entity tag.
+	 *
+	 * @param header The header value, which may be a comma-separated list of
+	 *  entity tags or "*".
+	 * @param etag The entity tag of the current file.
+	 * @param weak If <code>true</code> then weak comparison is used, meaning
+	 *  that an entity tag prefixed by "W/" is considered a match.
+	 * @return <code>true</code> if the header value matches the entity tag.
+	 */
+	protected static boolean matchesETag(String header, String etag, boolean weak) {
+		if (StringUtils.isBlank(header)) {
+			return false;
+		}
+		if (weak && header.trim().equals("*")) {
+			return true;
+		}
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				if (!weak) {
+					continue;
+				}
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parse a <code>Range</code> header.  Only a single byte range is
+	 * supported; requests for multiple ranges are served the entire file,
+	 * which RFC 7233 permits.
+	 *
+	 * @param header The <code>Range</code> header value.
+	 * @param length The total length of the file in bytes.
+	 * @return A two-element array containing the first and last (inclusive)
+	 *  byte positions to return, {@link #RANGE_NOT_SATISFIABLE} if the range
+	 *  does not overlap the file, or <code>null</code> if the header is
+	 *  missing, invalid or unsupported and the entire file should be returned.
+	 */
+	protected static long[] parseRange(String header, long length) {
+		if (header == null || length < 0 || !header.startsWith("bytes=")) {
+			return null;
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		if (!spec.matches("\\d*-\\d*") || spec.equals("-")) {
+			// invalid, or a request for multiple ranges
+			return null;
+		}
+		int pos = spec.indexOf('-');
+		String first = spec.substring(0, pos);
+		String last = spec.substring(pos + 1);
+		long start;
+		long end;
+		try {
+			if (first.length() == 0) {
+				// suffix range, such as "bytes=-500" for the last 500 bytes
+				long suffix = Long.parseLong(last);
+				if (suffix == 0 || length == 0) {
+					return RANGE_NOT_SATISFIABLE;
+				}
+				start = Math.max(length - suffix, 0);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = (last.length() == 0) ? Long.MAX_VALUE : Long.parseLong(last);
+				if (end < start) {
+					// syntactically invalid, so ignore the header
+					return null;
+				}
+				if (start >= length) {
+					return RANGE_NOT_SATISFIABLE;
+				}
+				end = Math.min(end, length - 1);
+			}
+		} catch (NumberFormatException e) {
+			// values too large to represent
+			return null;
+		}
+		return new long[] {start, end};
+	}
+
+	/**
+	 * Set response headers for a file request, returning the byte range of
+	 * the file that should be written to the response, or <code>null</code>
+	 * if no content should be written.
+	 *
+	 * @param etag The entity tag of the file.
+	 * @param lastModified The time (in milliseconds) that the file was last
+	 *  modified, or -1 if not known.
+	 * @param length The length of the file in bytes, or -1 if not known.  Range
+	 *  requests are not supported if the length is unknown.
+	 * @param immutable Set to <code>true</code> if the URL always refers to
+	 *  the same content and can be cached indefinitely.
+	 * @return A two-element array containing the first and last (inclusive)
+	 *  byte positions to write, with a last position of -1 indicating that
+	 *  the entire stream should be written, or <code>null</code> if no content
+	 *  should be written.
+	 */
+	private long[] prepareResponse(HttpServletRequest request, HttpServletResponse response, String mimeType, String etag, long lastModified, long length, boolean immutable) {
+		response.setHeader("ETag", etag);
+		if (lastModified > 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+		response.setHeader("Cache-Control", (immutable) ? "public, max-age=" + IMMUTABLE_MAX_AGE : "public, max-age=0, must-revalidate");
+		if (this.isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
+		response.setContentType(mimeType);
+		if (length < 0) {
+			return new long[] {0, -1};
+		}
+		response.setHeader("Accept-Ranges", "bytes");
+		long[] range = (this.isRangeCurrent(request, etag, lastModified)) ? parseRange(request.getHeader("Range"), length) : null;
+		if (range == RANGE_NOT_SATISFIABLE) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return null;
+		}
+		if (range == null) {
+			range = new long[] {0, length - 1};
+		} else {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+		}
+		response.setHeader("Content-Length", Long.toString(range[1] - range[0] + 1));
+		return range;
+	}
+
+	/**
+	 * Parse a date header, returning -1 if the header is missing or invalid.
+	 */
+	private long retrieveDateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			logger.debug("Invalid " + name + " header: " + request.getHeader(name));
+			return -1;
+		}
+	}
+
 	/**
 	 * If a file corresponding to the request is on the filesystem return it,
 	 * otherwise return <code>null</code>.
@@ -87,7 +286,11 @@ public class ImageServlet extends JAMWikiServlet {
 	/**
 	 * Serve a file from the database.  In some cases users may choose to store
 	 * files directly in the database, and this method provides a way of serving
-	 * those files.
+	 * those files.  The client's cached copy is validated using only the file
+	 * metadata, so the file data is not read at all if the cached copy is
+	 * current.  Otherwise the file data is copied to a buffer (a temporary
+	 * file for large files) before anything is written to the client, so that
+	 * a slow client does not hold a database connection.
 	 */
 	private void streamFileFromDatabase(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		String filename = request.getRequestURI().substring(request.getContextPath().length() + 1);
@@ -102,25 +305,40 @@ public class ImageServlet extends JAMWikiServlet {
 		int fileId = Integer.parseInt(args[1].toString());
 		int fileVersionId = Integer.parseInt(args[2].toString());
 		int resized = Integer.parseInt(args[3].toString());
-		ImageData imageData;
-		if (fileVersionId != 0) {
-			imageData = WikiBase.getDataHandler().getImageVersionData(fileVersionId, resized);
-		} else {
-			imageData = WikiBase.getDataHandler().getImageData(fileId, resized);
-		}
+		// URLs that reference a specific file version never change
+		boolean immutable = (fileVersionId != 0);
+		ImageData imageData = WikiBase.getDataHandler().getImageMetadata(fileId, fileVersionId, resized);
 		if (imageData == null) {
 			logger.debug("Database file does not exist: fileId=" + fileId + " / fileVersionId=" + fileVersionId + " / resized=" + resized + " / request=" + request.getRequestURI());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
-		response.setContentType(imageData.mimeType);
-		response.setContentLength(imageData.data.length);
-		OutputStream os = null;
+		String etag = "\"" + imageData.fileVersionId + "-" + resized + "\"";
+		long[] range = this.prepareResponse(request, response, imageData.mimeType, etag, imageData.lastModified, imageData.fileSize, immutable);
+		if (range == null) {
+			return;
+		}
+		// read the version identified by the metadata so that the data matches the entity tag
+		DeferredFileOutputStream buffer = new DeferredFileOutputStream(DATABASE_FILE_MEMORY_THRESHOLD, "jamwiki-image-", null, null);
+		InputStream in = null;
 		try {
-			os = response.getOutputStream();
-			os.write(imageData.data);
+			boolean found;
+			try {
+				found = WikiBase.getDataHandler().copyImageData(imageData.fileVersionId, resized, buffer);
+			} finally {
+				buffer.close();
+			}
+			if (!found) {
+				// file deleted since the metadata was retrieved
+				response.reset();
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+			in = (buffer.isInMemory()) ? new ByteArrayInputStream(buffer.getData()) : new FileInputStream(buffer.getFile());
+			this.writeRange(in, response.getOutputStream(), range);
 		} finally {
-			IOUtils.closeQuietly(os);
+			IOUtils.closeQuietly(in);
+			FileUtils.deleteQuietly(buffer.getFile());
 		}
 	}
 
@@ -129,9 +347,7 @@ public class ImageServlet extends JAMWikiServlet {
 	 * directly via Tomcat or Apache, but allows files to be stored outside of the
 	 * webapp and thus keeps wiki data (files) separate from application code.
 	 */
-	private void streamFileFromFileSystem(File file, HttpServletResponse response) throws ServletException, IOException {
-		ServletOutputStream out = null;
-		InputStream in = null;
+	private void streamFileFromFileSystem(File file, HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		if (file.isDirectory() || !file.canRead()) {
 			logger.debug("File does not exist: " + file.getAbsolutePath());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -141,16 +357,32 @@ public class ImageServlet extends JAMWikiServlet {
 		if (mimeType == null) {
 			mimeType = WikiFile.UNKNOWN_MIME_TYPE;
 		}
+		long length = file.length();
+		long lastModified = file.lastModified();
+		String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+		long[] range = this.prepareResponse(request, response, mimeType, etag, lastModified, length, false);
+		if (range == null) {
+			return;
+		}
+		InputStream in = null;
 		try {
-			response.setContentType(mimeType);
-			response.setContentLength((int)file.length());
-			out = response.getOutputStream();
 			in = new FileInputStream(file);
-			IOUtils.copy(in, out);
-			out.flush();
+			this.writeRange(in, response.getOutputStream(), range);
 		} finally {
 			IOUtils.closeQuietly(in);
-			IOUtils.closeQuietly(out);
 		}
 	}
+
+	/**
+	 * Write the byte range returned by {@link #prepareResponse} from a file's
+	 * data to the response.
+	 */
+	private void writeRange(InputStream in, OutputStream out, long[] range) throws IOException {
+		if (range[1] == -1) {
+			IOUtils.copyLarge(in, out);
+		} else {
+			IOUtils.copyLarge(in, out, range[0], range[1] - range[0] + 1);
+		}
+		out.flush();
+	}
 }
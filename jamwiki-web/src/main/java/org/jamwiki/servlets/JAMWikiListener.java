@@ -19,6 +19,7 @@ package org.jamwiki.servlets;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import org.jamwiki.db.WikiDatabase;
+import org.jamwiki.parser.image.ThumbnailService;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiUtil;
 
@@ -46,6 +47,7 @@ public class JAMWikiListener implements ServletContextListener {
 	 * @see javax.servlet.ServletContextListener#contextDestroyed(javax.servlet.ServletContextEvent)
 	 */
 	public void contextDestroyed(ServletContextEvent arg0) {
+		ThumbnailService.shutdown();
 		WikiDatabase.shutdown();
 		WikiCache.shutdown();
 	}
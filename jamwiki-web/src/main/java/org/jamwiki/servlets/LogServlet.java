@@ -16,6 +16,8 @@
  */
 package org.jamwiki.servlets;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -59,6 +61,13 @@ public class LogServlet extends JAMWikiServlet {
 		next.addObject("logTypes", LogItem.LOG_TYPES);
 		int numLogs = logItems.size();
 		next.addObject("numLogs", numLogs);
+		List<Timestamp> dates = new ArrayList<Timestamp>();
+		List<Integer> keys = new ArrayList<Integer>();
+		for (LogItem logItem : logItems) {
+			dates.add(logItem.getLogDate());
+			keys.add(logItem.getLogType());
+		}
+		ServletUtil.loadNextSeek(pagination, dates, keys, next);
 		pageInfo.setPageTitle(new WikiMessage("log.title"));
 		pageInfo.setContentJsp(JSP_LOG);
 		pageInfo.setSpecial(true);
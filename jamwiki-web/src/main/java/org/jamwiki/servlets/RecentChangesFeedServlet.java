@@ -16,10 +16,20 @@
  */
 package org.jamwiki.servlets;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import com.sun.syndication.feed.synd.SyndContent;
 import com.sun.syndication.feed.synd.SyndContentImpl;
 import com.sun.syndication.feed.synd.SyndEntry;
@@ -27,12 +37,15 @@ import com.sun.syndication.feed.synd.SyndEntryImpl;
 import com.sun.syndication.feed.synd.SyndFeed;
 import com.sun.syndication.feed.synd.SyndFeedImpl;
 import com.sun.syndication.io.SyndFeedOutput;
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.model.RecentChange;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.Utilities;
+import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 import org.springframework.web.bind.ServletRequestUtils;
@@ -51,23 +64,38 @@ import org.springframework.web.servlet.mvc.AbstractController;
  * {@link WikiUtil#buildPagination(HttpServletRequest)})</li>
  * </ul>
  *
+ * Generated feeds are cached until a newer recent change is recorded, and
+ * responses include <code>ETag</code> and <code>Last-Modified</code>
+ * validators so that feed readers polling for changes receive a
+ * <code>304 Not Modified</code> response when nothing has changed.
+ *
  * @author Rainer Schmitz
  * @since 22.12.2006
  */
 public class RecentChangesFeedServlet extends AbstractController {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(RecentChangesFeedServlet.class.getName());
+	/** Cache of generated feeds, keyed by virtual wiki, feed type and request parameters. */
+	private static final WikiCache<String, CachedFeed> CACHE_FEEDS = new WikiCache<String, CachedFeed>("org.jamwiki.servlets.RecentChangesFeedServlet.CACHE_FEEDS");
 	private static final String MIME_TYPE = "application/xml";
 	private static final String FEED_ENCODING = "UTF-8";
 	private static final String DEFAULT_FEED_TYPE = "rss_2.0";
 	private static final String FEED_TYPE = "feedType";
+	private static final String FEED_TYPE_ATOM_1 = "atom_1.0";
+	private static final String FEED_TYPE_RSS_2 = "rss_2.0";
 	private static final String MINOR_EDITS = "minorEdits";
 	private static final String LINK_TO_VERSION = "linkToVersion";
+	private static final String NAMESPACE_ATOM = "http://www.w3.org/2005/Atom";
+	private static final String NAMESPACE_DC = "http://purl.org/dc/elements/1.1/";
+	/** RFC 822 date format used by RSS 2.0. */
+	private static final FastDateFormat RFC822_DATE_FORMAT = FastDateFormat.getInstance("EEE, dd MMM yyyy HH:mm:ss 'GMT'", TimeZone.getTimeZone("GMT"), Locale.US);
+	/** RFC 3339 date format used by Atom 1.0. */
+	private static final FastDateFormat RFC3339_DATE_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss'Z'", TimeZone.getTimeZone("GMT"), Locale.US);
+	private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
 	private String defaultFeedType = DEFAULT_FEED_TYPE;
 	private boolean defaultIncludeMinorEdits = false;
 	private boolean defaultLinkToVersion = false;
 	private String feedUrlPrefix = "";
-
 	/**
 	 * Sets the default feed type.
 	 *
@@ -132,40 +160,246 @@ public class RecentChangesFeedServlet extends AbstractController {
 	 *      javax.servlet.http.HttpServletResponse)
 	 */
 	protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		CachedFeed feed;
 		try {
 			String feedType = ServletRequestUtils.getStringParameter(request, FEED_TYPE, defaultFeedType);
 			logger.trace("Serving xml feed of type " + feedType);
-			SyndFeed feed = getFeed(request);
-			feed.setFeedType(feedType);
-			response.setContentType(MIME_TYPE);
-			response.setCharacterEncoding(FEED_ENCODING);
-			SyndFeedOutput output = new SyndFeedOutput();
-			output.output(feed, response.getWriter());
+			String virtualWiki = WikiUtil.getVirtualWikiFromURI(request);
+			Pagination pagination = WikiUtil.buildPagination(request);
+			boolean includeMinorEdits = ServletRequestUtils.getBooleanParameter(request, MINOR_EDITS, defaultIncludeMinorEdits);
+			boolean linkToVersion = ServletRequestUtils.getBooleanParameter(request, LINK_TO_VERSION, defaultLinkToVersion);
+			String feedURL = this.buildFeedURL(request);
+			String cacheKey = virtualWiki + "|" + feedType + "|" + includeMinorEdits + "|" + linkToVersion + "|" + pagination.getNumResults() + "|" + pagination.getOffset() + "|" + pagination.getSeek() + "|" + feedURL;
+			// the newest recent change identifies the feed content, so cached feeds
+			// (and client copies) are current until a newer change is recorded
+			List<RecentChange> newest = WikiBase.getDataHandler().getRecentChanges(virtualWiki, new Pagination(1, 0), true);
+			RecentChange newestChange = (newest.isEmpty()) ? null : newest.get(0);
+			String version = buildVersion(newestChange);
+			String etag = "\"" + Integer.toHexString(cacheKey.hashCode()) + "-" + version + "\"";
+			long lastModified = (newestChange == null) ? -1 : newestChange.getChangeDate().getTime();
+			response.setHeader("ETag", etag);
+			if (lastModified > 0) {
+				response.setDateHeader("Last-Modified", lastModified);
+			}
+			response.setHeader("Cache-Control", "public, max-age=0, must-revalidate");
+			if (this.isNotModified(request, etag, lastModified)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return null;
+			}
+			feed = CACHE_FEEDS.retrieveFromCache(cacheKey);
+			if (feed == null || !feed.getVersion().equals(version)) {
+				List<RecentChange> changes = WikiBase.getDataHandler().getRecentChanges(virtualWiki, pagination, true);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				this.writeFeed(out, feedType, feedURL, changes, includeMinorEdits, linkToVersion);
+				feed = new CachedFeed(version, out.toByteArray());
+				CACHE_FEEDS.addToCache(cacheKey, feed);
+			}
 		} catch (Exception e) {
 			logger.error("Could not generate feed: " + e.getMessage(), e);
 			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not generate feed: "
 					+ e.getMessage());
+			return null;
 		}
+		response.setContentType(MIME_TYPE);
+		response.setCharacterEncoding(FEED_ENCODING);
+		response.setContentLength(feed.getContent().length);
+		response.getOutputStream().write(feed.getContent());
 		return null;
 	}
 
 	/**
-	 * TODO cache feed to avoid high load caused by RSS aggregators
+	 * Return a value that changes whenever a recent change is added, used to
+	 * determine whether a cached feed is still current.
+	 *
+	 * @param newestChange The most recent change for the virtual wiki, or
+	 *  <code>null</code> if there are no recent changes.
+	 */
+	private static String buildVersion(RecentChange newestChange) {
+		if (newestChange == null) {
+			return "0";
+		}
+		// log entries do not always have a topic version ID, so include the topic
+		// and log type to distinguish changes made at the same time
+		return Long.toHexString(newestChange.getChangeDate().getTime())
+				+ "-" + ObjectUtils.toString(newestChange.getTopicVersionId())
+				+ "-" + ObjectUtils.toString(newestChange.getTopicId())
+				+ "-" + ObjectUtils.toString(newestChange.getLogType());
+	}
+
+	/**
+	 *
+	 */
+	private String buildFeedURL(HttpServletRequest request) {
+		StringBuffer requestURL = request.getRequestURL();
+		return feedUrlPrefix + requestURL.substring(0, requestURL.length() - WikiUtil.getTopicFromURI(request).length());
+	}
+
+	/**
+	 * Determine whether the client's cached copy of the feed is current,
+	 * ignoring the <code>If-Modified-Since</code> header if an
+	 * <code>If-None-Match</code> header is present.
+	 */
+	private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return ImageServlet.matchesETag(ifNoneMatch, etag, true);
+		}
+		if (lastModified <= 0) {
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		// HTTP dates have a resolution of one second
+		return (ifModifiedSince != -1 && (lastModified / 1000) <= (ifModifiedSince / 1000));
+	}
+
+	/**
+	 * Write a feed for a list of recent changes.  RSS 2.0 and Atom 1.0 feeds
+	 * are written directly as they are generated, while other (legacy) feed
+	 * types are generated using ROME.
+	 *
+	 * @param out The stream to which the feed is written.
+	 * @param feedType The feed type, such as rss_2.0 or atom_1.0.
+	 * @param feedURL The base URL for the feed and feed entry links.
+	 * @param changes The changes to include in the feed.
+	 * @param includeMinorEdits Set to <code>true</code> if minor edits should
+	 *  be included in the feed.
+	 * @param linkToVersion Set to <code>true</code> if feed entries should
+	 *  link to the changed version rather than to the current version.
+	 */
+	protected void writeFeed(OutputStream out, String feedType, String feedURL, List<RecentChange> changes, boolean includeMinorEdits, boolean linkToVersion) throws Exception {
+		Writer writer = new OutputStreamWriter(out, FEED_ENCODING);
+		if (!FEED_TYPE_RSS_2.equals(feedType) && !FEED_TYPE_ATOM_1.equals(feedType)) {
+			SyndFeed feed = getFeed(feedURL, changes, includeMinorEdits, linkToVersion);
+			feed.setFeedType(feedType);
+			SyndFeedOutput output = new SyndFeedOutput();
+			output.output(feed, writer);
+			writer.flush();
+			return;
+		}
+		XMLStreamWriter xml = XML_OUTPUT_FACTORY.createXMLStreamWriter(writer);
+		try {
+			xml.writeStartDocument(FEED_ENCODING, "1.0");
+			if (FEED_TYPE_RSS_2.equals(feedType)) {
+				this.writeRss(xml, feedURL, changes, includeMinorEdits, linkToVersion);
+			} else {
+				this.writeAtom(xml, feedURL, changes, includeMinorEdits, linkToVersion);
+			}
+			xml.writeEndDocument();
+			xml.flush();
+		} finally {
+			xml.close();
+		}
+		writer.flush();
+	}
+
+	/**
+	 *
+	 */
+	private void writeAtom(XMLStreamWriter xml, String feedURL, List<RecentChange> changes, boolean includeMinorEdits, boolean linkToVersion) throws XMLStreamException {
+		xml.writeStartElement("feed");
+		xml.writeDefaultNamespace(NAMESPACE_ATOM);
+		writeElement(xml, "title", Environment.getValue(Environment.PROP_RSS_TITLE));
+		writeLink(xml, feedURL);
+		writeElement(xml, "subtitle", buildFeedDescription(changes));
+		writeElement(xml, "id", feedURL);
+		if (!changes.isEmpty()) {
+			writeElement(xml, "updated", RFC3339_DATE_FORMAT.format(changes.get(0).getChangeDate()));
+		}
+		for (RecentChange change : changes) {
+			if (!isFeedEntry(change, includeMinorEdits)) {
+				continue;
+			}
+			xml.writeStartElement("entry");
+			writeElement(xml, "title", change.getTopicName());
+			writeLink(xml, buildEntryLink(change, linkToVersion, feedURL));
+			xml.writeStartElement("author");
+			writeElement(xml, "name", change.getAuthorName());
+			xml.writeEndElement();
+			writeElement(xml, "id", buildEntryUri(change, feedURL));
+			writeElement(xml, "updated", RFC3339_DATE_FORMAT.format(change.getChangeDate()));
+			writeElement(xml, "published", RFC3339_DATE_FORMAT.format(change.getChangeDate()));
+			xml.writeStartElement("summary");
+			xml.writeAttribute("type", "text");
+			xml.writeCharacters(buildEntryDescription(change));
+			xml.writeEndElement();
+			xml.writeEndElement();
+		}
+		xml.writeEndElement();
+	}
+
+	/**
+	 *
+	 */
+	private void writeRss(XMLStreamWriter xml, String feedURL, List<RecentChange> changes, boolean includeMinorEdits, boolean linkToVersion) throws XMLStreamException {
+		xml.writeStartElement("rss");
+		xml.writeAttribute("version", "2.0");
+		xml.writeNamespace("dc", NAMESPACE_DC);
+		xml.writeStartElement("channel");
+		writeElement(xml, "title", Environment.getValue(Environment.PROP_RSS_TITLE));
+		writeElement(xml, "link", feedURL);
+		writeElement(xml, "description", buildFeedDescription(changes));
+		for (RecentChange change : changes) {
+			if (!isFeedEntry(change, includeMinorEdits)) {
+				continue;
+			}
+			xml.writeStartElement("item");
+			writeElement(xml, "title", change.getTopicName());
+			writeElement(xml, "link", buildEntryLink(change, linkToVersion, feedURL));
+			writeElement(xml, "description", buildEntryDescription(change));
+			writeElement(xml, "pubDate", RFC822_DATE_FORMAT.format(change.getChangeDate()));
+			xml.writeStartElement("guid");
+			xml.writeAttribute("isPermaLink", "false");
+			xml.writeCharacters(buildEntryUri(change, feedURL));
+			xml.writeEndElement();
+			xml.writeStartElement("dc", "creator", NAMESPACE_DC);
+			xml.writeCharacters(StringUtils.defaultString(change.getAuthorName()));
+			xml.writeEndElement();
+			xml.writeEndElement();
+		}
+		xml.writeEndElement();
+		xml.writeEndElement();
+	}
+
+	/**
+	 * Write a simple text element, omitting the element if the value is
+	 * <code>null</code>.
+	 */
+	private static void writeElement(XMLStreamWriter xml, String name, String value) throws XMLStreamException {
+		if (value == null) {
+			return;
+		}
+		xml.writeStartElement(name);
+		xml.writeCharacters(value);
+		xml.writeEndElement();
+	}
+
+	/**
+	 * Write an Atom link element, omitting the element if the link is
+	 * <code>null</code>.
+	 */
+	private static void writeLink(XMLStreamWriter xml, String href) throws XMLStreamException {
+		if (href == null) {
+			return;
+		}
+		xml.writeEmptyElement("link");
+		xml.writeAttribute("rel", "alternate");
+		xml.writeAttribute("href", href);
+	}
+
+	/**
 	 *
-	 * @throws Exception
 	 */
-	private SyndFeed getFeed(HttpServletRequest request) throws Exception {
-		List<RecentChange> changes = getChanges(request);
+	private SyndFeed getFeed(String feedURL, List<RecentChange> changes, boolean includeMinorEdits, boolean linkToVersion) {
 		SyndFeed feed = new SyndFeedImpl();
 		feed.setEncoding(FEED_ENCODING);
 		feed.setTitle(Environment.getValue(Environment.PROP_RSS_TITLE));
-		StringBuffer requestURL = request.getRequestURL();
-		String feedURL = feedUrlPrefix + requestURL.substring(0, requestURL.length() - WikiUtil.getTopicFromURI(request).length());
 		feed.setLink(feedURL);
-		feed.setDescription("List of the last " + changes.size() + " changed wiki pages.");
-		boolean includeMinorEdits = ServletRequestUtils.getBooleanParameter(request, MINOR_EDITS,
-				defaultIncludeMinorEdits);
-		boolean linkToVersion = ServletRequestUtils.getBooleanParameter(request, LINK_TO_VERSION, defaultLinkToVersion);
+		feed.setDescription(buildFeedDescription(changes));
 		feed.setEntries(getFeedEntries(changes, includeMinorEdits, linkToVersion, feedURL));
 		return feed;
 	}
@@ -176,8 +410,7 @@ public class RecentChangesFeedServlet extends AbstractController {
 	private List<SyndEntry> getFeedEntries(List<RecentChange> changes, boolean includeMinorEdits, boolean linkToVersion, String feedURL) {
 		List<SyndEntry> entries = new ArrayList<SyndEntry>();
 		for (RecentChange change : changes) {
-			// FIXME - add support for log item changes
-			if (!StringUtils.isBlank(change.getTopicName()) && (includeMinorEdits || !change.getMinor())) {
+			if (isFeedEntry(change, includeMinorEdits)) {
 				entries.add(getFeedEntry(change, linkToVersion, feedURL));
 			}
 		}
@@ -192,30 +425,35 @@ public class RecentChangesFeedServlet extends AbstractController {
 		entry.setTitle(change.getTopicName());
 		entry.setAuthor(change.getAuthorName());
 		entry.setPublishedDate(change.getChangeDate());
-		entry.setDescription(getEntryDescription(change));
-
-		String topicName = Utilities.encodeAndEscapeTopicName(change.getTopicName());
-		if(!change.isDelete()) {
-			StringBuilder url = new StringBuilder(feedURL);
-			if (linkToVersion) {
-				url.append("Special:History?topicVersionId=");
-				url.append(change.getTopicVersionId());
-				url.append("&topic=");
-			} 
-			url.append(topicName);
-			entry.setLink(url.toString());
-		}
-		// URI is used as GUID in RSS 2.0 and should therefore contain the
-		// version id
-		entry.setUri(feedURL + topicName + "#" + change.getTopicVersionId());
+		SyndContent description = new SyndContentImpl();
+		description.setType("text/plain");
+		description.setValue(buildEntryDescription(change));
+		entry.setDescription(description);
+		entry.setLink(buildEntryLink(change, linkToVersion, feedURL));
+		entry.setUri(buildEntryUri(change, feedURL));
 		return entry;
 	}
 
-	private SyndContent getEntryDescription(RecentChange change) {
-		SyndContent description = new SyndContentImpl();
-		description.setType("text/plain");
+	/**
+	 *
+	 */
+	private static boolean isFeedEntry(RecentChange change, boolean includeMinorEdits) {
+		// FIXME - add support for log item changes
+		return (!StringUtils.isBlank(change.getTopicName()) && (includeMinorEdits || !change.getMinor()));
+	}
+
+	/**
+	 *
+	 */
+	private static String buildFeedDescription(List<RecentChange> changes) {
+		return "List of the last " + changes.size() + " changed wiki pages.";
+	}
 
-		StringBuffer descr = new StringBuffer();
+	/**
+	 *
+	 */
+	private static String buildEntryDescription(RecentChange change) {
+		StringBuilder descr = new StringBuilder();
 		if (!StringUtils.isBlank(change.getChangeComment())) {
 			descr.append(change.getChangeComment());
 		}
@@ -228,17 +466,65 @@ public class RecentChangesFeedServlet extends AbstractController {
 		if (change.getMinor()) {
 			descr.append(" (minor)");
 		}
+		return descr.toString();
+	}
 
-		description.setValue(descr.toString());
-		return description;
+	/**
+	 * Return the link for a feed entry, or <code>null</code> if the change
+	 * was a deletion.
+	 */
+	private static String buildEntryLink(RecentChange change, boolean linkToVersion, String feedURL) {
+		if (change.isDelete()) {
+			return null;
+		}
+		StringBuilder url = new StringBuilder(feedURL);
+		if (linkToVersion) {
+			url.append("Special:History?topicVersionId=");
+			url.append(change.getTopicVersionId());
+			url.append("&topic=");
+		} 
+		url.append(Utilities.encodeAndEscapeTopicName(change.getTopicName()));
+		return url.toString();
 	}
 
 	/**
-	 *
+	 * Return the URI for a feed entry.  The URI is used as GUID in RSS 2.0 and
+	 * should therefore contain the version id.
+	 */
+	private static String buildEntryUri(RecentChange change, String feedURL) {
+		return feedURL + Utilities.encodeAndEscapeTopicName(change.getTopicName()) + "#" + change.getTopicVersionId();
+	}
+
+	/**
+	 * A generated feed along with the version of the recent changes data used
+	 * to generate it.
 	 */
-	private List<RecentChange> getChanges(HttpServletRequest request) throws Exception {
-		String virtualWiki = WikiUtil.getVirtualWikiFromURI(request);
-		Pagination pagination = WikiUtil.buildPagination(request);
-		return WikiBase.getDataHandler().getRecentChanges(virtualWiki, pagination, true);
+	private static class CachedFeed implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+		private final byte[] content;
+		private final String version;
+
+		/**
+		 *
+		 */
+		CachedFeed(String version, byte[] content) {
+			this.version = version;
+			this.content = content;
+		}
+
+		/**
+		 *
+		 */
+		byte[] getContent() {
+			return this.content;
+		}
+
+		/**
+		 *
+		 */
+		String getVersion() {
+			return this.version;
+		}
 	}
 }
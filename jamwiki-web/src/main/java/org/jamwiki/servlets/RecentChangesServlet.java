@@ -16,6 +16,8 @@
  */
 package org.jamwiki.servlets;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -53,6 +55,13 @@ public class RecentChangesServlet extends JAMWikiServlet {
 		List<RecentChange> changes = WikiBase.getDataHandler().getRecentChanges(virtualWiki, pagination, true);
 		next.addObject("changes", changes);
 		next.addObject("numChanges", changes.size());
+		List<Timestamp> dates = new ArrayList<Timestamp>();
+		List<Integer> keys = new ArrayList<Integer>();
+		for (RecentChange change : changes) {
+			dates.add(change.getChangeDate());
+			keys.add(change.getTopicVersionId());
+		}
+		ServletUtil.loadNextSeek(pagination, dates, keys, next);
 		pageInfo.setPageTitle(new WikiMessage("recentchanges.title"));
 		pageInfo.setContentJsp(JSP_RECENT_CHANGES);
 		pageInfo.setSpecial(true);
@@ -17,7 +17,9 @@
 package org.jamwiki.servlets;
 
 import java.io.File;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -48,6 +50,7 @@ import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.parser.LinkUtil;
+import org.jamwiki.parser.ParsedTopicCache;
 import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
@@ -440,36 +443,52 @@ public class ServletUtil {
 	protected static void loadCategoryContent(HttpServletRequest request, ModelAndView next, String virtualWiki, String topicName) throws WikiException {
 		String categoryName = topicName.substring(Namespace.namespace(Namespace.CATEGORY_ID).getLabel(virtualWiki).length() + Namespace.SEPARATOR.length());
 		next.addObject("categoryName", categoryName);
-		List<Category> categoryTopics = WikiBase.getDataHandler().lookupCategoryTopics(virtualWiki, topicName);
 		Pagination pagination = ServletUtil.loadPagination(request, next);
+		// only the current page of each type of category member is loaded, so
+		// retrieve the per-type counts separately
+		Map<TopicType, Integer> counts = WikiBase.getDataHandler().lookupCategoryTopicCounts(virtualWiki, topicName);
+		int numCategoryImages = 0;
+		int numSubCategories = 0;
+		int numCategoryTopics = 0;
+		List<TopicType> topicTypes = new ArrayList<TopicType>();
+		for (TopicType topicType : TopicType.values()) {
+			Integer count = counts.get(topicType);
+			if (topicType == TopicType.IMAGE) {
+				numCategoryImages = (count == null) ? 0 : count;
+			} else if (topicType == TopicType.CATEGORY) {
+				numSubCategories = (count == null) ? 0 : count;
+			} else if (count != null) {
+				numCategoryTopics += count;
+				topicTypes.add(topicType);
+			}
+		}
+		List<Category> categoryTopics = new ArrayList<Category>();
+		if (numCategoryTopics > 0) {
+			categoryTopics = WikiBase.getDataHandler().lookupCategoryTopics(virtualWiki, topicName, topicTypes, pagination);
+		}
 		List<Category> categoryImages = new ArrayList<Category>();
+		if (numCategoryImages > 0) {
+			categoryImages = WikiBase.getDataHandler().lookupCategoryTopics(virtualWiki, topicName, Collections.singletonList(TopicType.IMAGE), pagination);
+		}
 		LinkedHashMap<String, String> subCategories = new LinkedHashMap<String, String>();
-		int i = 0;
-		// loop through the results and split out images and sub-categories
-		while (i < categoryTopics.size()) {
-			Category category = categoryTopics.get(i);
-			if (category.getTopicType() == TopicType.IMAGE) {
-				categoryTopics.remove(i);
-				categoryImages.add(category);
-				continue;
-			}
-			if (category.getTopicType() == TopicType.CATEGORY) {
-				categoryTopics.remove(i);
+		if (numSubCategories > 0) {
+			for (Category category : WikiBase.getDataHandler().lookupCategoryTopics(virtualWiki, topicName, Collections.singletonList(TopicType.CATEGORY), pagination)) {
 				String value = category.getChildTopicName().substring(Namespace.namespace(Namespace.CATEGORY_ID).getLabel(virtualWiki).length() + Namespace.SEPARATOR.length());
 				subCategories.put(category.getChildTopicName(), value);
-				continue;
 			}
-			i++;
 		}
-		// manually process pagination
-		List<Category> paginatedCategories = Pagination.retrievePaginatedSubset(pagination, categoryTopics);
-		next.addObject("categoryTopics", paginatedCategories);
-		next.addObject("numCategoryTopics", categoryTopics.size());
+		next.addObject("categoryTopics", categoryTopics);
+		next.addObject("numCategoryTopics", numCategoryTopics);
 		next.addObject("categoryImages", categoryImages);
-		next.addObject("numCategoryImages", categoryImages.size());
+		next.addObject("numCategoryImages", numCategoryImages);
+		next.addObject("displayCategoryImageCount", categoryImages.size());
 		next.addObject("subCategories", subCategories);
-		next.addObject("numSubCategories", subCategories.size());
-		next.addObject("displayCategoryCount", paginatedCategories.size());
+		next.addObject("numSubCategories", numSubCategories);
+		next.addObject("displaySubCategoryCount", subCategories.size());
+		next.addObject("displayCategoryCount", categoryTopics.size());
+		// the same pagination applies to topics, images and sub-categories, so
+		// allow paging while any of them has more results
+		next.addObject("categoryPageCount", Math.max(categoryTopics.size(), Math.max(categoryImages.size(), subCategories.size())));
 	}
 
 	/**
@@ -517,6 +536,25 @@ public class ServletUtil {
 		return pagination;
 	}
 
+	/**
+	 * Load the seek position for the page following the current page of
+	 * date-ordered results into the request, allowing the pagination tag to
+	 * link to the next page without requiring the database to skip over all
+	 * preceding results.
+	 *
+	 * @param pagination The Pagination object used to retrieve the current
+	 *  page of results.
+	 * @param dates The dates of the results on the current page, most recent
+	 *  first.
+	 * @param keys The secondary ordering keys of the results on the current
+	 *  page, in the same order as the dates.
+	 * @param next A ModelAndView object corresponding to the page being
+	 *  constructed.
+	 */
+	public static void loadNextSeek(Pagination pagination, List<Timestamp> dates, List<Integer> keys, ModelAndView next) {
+		next.addObject("seek", pagination.nextSeek(dates, keys));
+	}
+
 	/**
 	 * Utility method for parsing a multipart servlet request.  This method returns
 	 * a list of FileItem objects that corresponds to the request.
@@ -745,7 +783,7 @@ public class ServletUtil {
 		ParserOutput parserOutput = new ParserOutput();
 		String content = null;
 		try {
-			content = ParserUtil.parse(parserInput, parserOutput, topic.getTopicContent());
+			content = ParsedTopicCache.parse(parserInput, parserOutput, topic);
 		} catch (ParserException e) {
 			throw new WikiException(new WikiMessage("error.unknown", e.getMessage()), e);
 		}
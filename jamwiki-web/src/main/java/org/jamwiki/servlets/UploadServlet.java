@@ -166,6 +166,10 @@ public class UploadServlet extends JAMWikiServlet {
 		WikiFileVersion wikiFileVersion = new WikiFileVersion();
 		wikiFileVersion.setUploadComment(topic.getTopicContent());
 		ImageUtil.writeWikiFile(topic, wikiFileVersion, user, ipAddress, filename, url, contentType, fileSize, imageData);
+		if (isImage) {
+			// generate commonly used thumbnails in the background
+			ImageUtil.generateThumbnails(virtualWiki, topic.getName());
+		}
 		ServletUtil.redirect(next, virtualWiki, topic.getName());
 	}
 
@@ -20,6 +20,7 @@ import java.io.IOException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.BodyTagSupport;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.parser.LinkUtil;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.WikiLogger;
@@ -35,6 +36,7 @@ public class PaginationTag extends BodyTagSupport {
 	private static final WikiLogger logger = WikiLogger.getLogger(PaginationTag.class.getName());
 
 	private String rootUrl = null;
+	private String seek = null;
 	private String total = null;
 
 	/**
@@ -80,6 +82,13 @@ public class PaginationTag extends BodyTagSupport {
 		return this.rootUrl;
 	}
 
+	/**
+	 *
+	 */
+	public String getSeek() {
+		return this.seek;
+	}
+
 	/**
 	 *
 	 */
@@ -115,6 +124,10 @@ public class PaginationTag extends BodyTagSupport {
 		}
 		String query = LinkUtil.appendQueryParam(wikiLink.getQuery(), "num", Integer.toString(pagination.getNumResults()));
 		query += "&amp;offset=" + offset;
+		if (!previous && !StringUtils.isBlank(this.seek)) {
+			// the offset is still included so that the "previous" link of the next page works
+			query += "&amp;seek=" + this.seek;
+		}
 		wikiLink.setQuery(query);
 		output.append(LinkUtil.buildTopicUrl(wikiLink));
 		output.append("\">");
@@ -171,6 +184,13 @@ public class PaginationTag extends BodyTagSupport {
 		this.rootUrl = rootUrl;
 	}
 
+	/**
+	 *
+	 */
+	public void setSeek(String seek) {
+		this.seek = seek;
+	}
+
 	/**
 	 *
 	 */
@@ -33,7 +33,8 @@ public class UserBlockValidator implements RequestValidator {
 
 	/**
 	 * Determine if the specified request represents a user or IP
-	 * address block using the wiki block list.
+	 * address block using the wiki block list.  IP addresses are checked
+	 * against both single address blocks and CIDR address range blocks.
 	 *
 	 * @param request The current servlet request.
 	 * @return Returns a non-null {@link UserBlockValidatorInfo} object that
@@ -17,17 +17,21 @@
 package org.jamwiki.web.utils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
-import org.incava.util.diff.Diff;
 import org.incava.util.diff.Difference;
+import org.jamwiki.utils.MyersDiff;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.web.model.WikiDiff;
 
 /**
  * Utility class for processing the difference between two topics and returing a list
- * of WikiDiff objects that can be used to display the diff.
+ * of WikiDiff objects that can be used to display the diff.  Lines are mapped to integer
+ * IDs and compared using {@link MyersDiff}, and changed lines are then compared character
+ * by character to identify the exact text that changed.
  */
 public class DiffUtil {
 
@@ -35,7 +39,7 @@ public class DiffUtil {
 	/** The number of lines of unchanged text to display before and after each diff. */
 	// FIXME - make this a property value
 	private static final int DIFF_UNCHANGED_LINE_DISPLAY = 2;
-	/** Cache name for the cache of diff information. */
+	/** Cache name for the cache of diff information, keyed by the IDs of the topic versions being compared. */
 	private static final WikiCache<String, List<WikiDiff>> CACHE_DIFF_INFORMATION = new WikiCache<String, List<WikiDiff>>("org.jamwiki.utils.DiffUtil.CACHE_DIFF_INFORMATION");
 
 	/**
@@ -44,14 +48,6 @@ public class DiffUtil {
 	private DiffUtil() {
 	}
 
-	/**
-	 *
-	 */
-	private static void addToCache(String newVersion, String oldVersion, List<WikiDiff> results) {
-		String key = generateCacheKey(newVersion, oldVersion);
-		CACHE_DIFF_INFORMATION.addToCache(key, results);
-	}
-
 	/**
 	 * Utility method for determining whether or not to append lines of context around a diff.
 	 */
@@ -113,10 +109,6 @@ public class DiffUtil {
 	 * @return Returns a list of WikiDiff objects that correspond to the changed text.
 	 */
 	public static List<WikiDiff> diff(String newVersion, String oldVersion) {
-		List<WikiDiff> result = DiffUtil.retrieveFromCache(newVersion, oldVersion);
-		if (result != null) {
-			return result;
-		}
 		String version1 = newVersion;
 		String version2 = oldVersion;
 		if (version2 == null) {
@@ -129,34 +121,48 @@ public class DiffUtil {
 		// cut & paste or other issues
 		version2 = StringUtils.remove(version2, '\r');
 		version1 = StringUtils.remove(version1, '\r');
-		result = DiffUtil.process(version1, version2);
-		DiffUtil.addToCache(newVersion, oldVersion, result);
-		return result;
+		return DiffUtil.process(version1, version2);
 	}
 
 	/**
-	 * Generate a mostly-unique key to use for the cache.  This key uses the first ten characters
-	 * of the string and a hash of the full string, which is not guaranteed to be unique but should
-	 * be unique enough.
+	 * Return a list of WikiDiff objects that can be used to create a display of the
+	 * diff content between two saved topic versions.  Since the content of a topic
+	 * version never changes the result is cached using the topic version IDs.
+	 *
+	 * @param newVersion The String that is to be compared to, ie the later version of a topic.
+	 * @param oldVersion The String that is to be considered as having changed, ie the earlier
+	 *  version of a topic.
+	 * @param newTopicVersionId The ID of the topic version that <code>newVersion</code> was
+	 *  loaded from, or zero if there is no such version.
+	 * @param oldTopicVersionId The ID of the topic version that <code>oldVersion</code> was
+	 *  loaded from, or zero if there is no such version.
+	 * @return Returns a list of WikiDiff objects that correspond to the changed text.
 	 */
-	private static String generateCacheKey(String newVersion, String oldVersion) {
-		StringBuilder result = new StringBuilder();
-		if (newVersion == null) {
-			result.append(-1);
-		} else if (newVersion.length() <= 10) {
-			result.append(newVersion);
-		} else {
-			result.append(newVersion.substring(0, 10)).append(newVersion.hashCode());
+	public static List<WikiDiff> diff(String newVersion, String oldVersion, int newTopicVersionId, int oldTopicVersionId) {
+		String key = oldTopicVersionId + "-" + newTopicVersionId;
+		List<WikiDiff> result = CACHE_DIFF_INFORMATION.retrieveFromCache(key);
+		if (result == null) {
+			result = DiffUtil.diff(newVersion, oldVersion);
+			CACHE_DIFF_INFORMATION.addToCache(key, result);
 		}
-		result.append('-');
-		if (oldVersion == null) {
-			result.append(-1);
-		} else if (oldVersion.length() <= 10) {
-			result.append(oldVersion);
-		} else {
-			result.append(oldVersion.substring(0, 10)).append(oldVersion.hashCode());
+		return result;
+	}
+
+	/**
+	 * Compare two arrays of line or character IDs using the shared Myers engine,
+	 * converting the resulting changes into Difference objects so that they can
+	 * be processed in the same way as differences generated by the java-diff
+	 * library.
+	 */
+	private static List<Difference> diff(int[] oldIds, int[] newIds) {
+		List<MyersDiff.Change> changes = MyersDiff.diff(oldIds, newIds);
+		List<Difference> diffs = new ArrayList<Difference>(changes.size());
+		for (MyersDiff.Change change : changes) {
+			int deletedEnd = (change.getDeletedCount() > 0) ? change.getDeletedStart() + change.getDeletedCount() - 1 : Difference.NONE;
+			int addedEnd = (change.getAddedCount() > 0) ? change.getAddedStart() + change.getAddedCount() - 1 : Difference.NONE;
+			diffs.add(new Difference(change.getDeletedStart(), deletedEnd, change.getAddedStart(), addedEnd));
 		}
-		return result.toString();
+		return diffs;
 	}
 
 	/**
@@ -169,11 +175,6 @@ public class DiffUtil {
 		Difference previousDiff = null;
 		Difference nextDiff = null;
 		List<WikiDiff> changedLineWikiDiffs = null;
-		String[] oldLineArray = null;
-		String[] newLineArray = null;
-		List<Difference> changedLineDiffs = null;
-		List<WikiDiff> wikiSubDiffs = null;
-		Difference nextLineDiff = null;
 		int i = 0;
 		for (Difference currentDiff : diffs) {
 			i++;
@@ -182,25 +183,7 @@ public class DiffUtil {
 			// loop through the difference and diff the individual lines so that it is possible to highlight the exact
 			// text that was changed
 			for (WikiDiff changedLineWikiDiff : changedLineWikiDiffs) {
-				oldLineArray = DiffUtil.stringToArray(changedLineWikiDiff.getOldText());
-				newLineArray = DiffUtil.stringToArray(changedLineWikiDiff.getNewText());
-				changedLineDiffs = new Diff<String>(oldLineArray, newLineArray).diff();
-				wikiSubDiffs = new ArrayList<WikiDiff>();
-				int j = 0;
-				for (Difference changedLineDiff : changedLineDiffs) {
-					// build sub-diff list, which is the difference for the individual
-					// line item
-					j++;
-					if (j == 1) {
-						// pre-buffering is only necessary for the first element as post-buffering
-						// will handle all further buffering when bufferAmount is -1.
-						wikiSubDiffs.addAll(DiffUtil.preBufferDifference(changedLineDiff, null, oldLineArray, newLineArray, -1));
-					}
-					wikiSubDiffs.addAll(DiffUtil.processDifference(changedLineDiff, oldLineArray, newLineArray));
-					nextLineDiff = (j < changedLineDiffs.size()) ? changedLineDiffs.get(j) : null;
-					wikiSubDiffs.addAll(DiffUtil.postBufferDifference(changedLineDiff, nextLineDiff, oldLineArray, newLineArray, -1));
-				}
-				changedLineWikiDiff.setSubDiffs(wikiSubDiffs);
+				changedLineWikiDiff.setSubDiffs(DiffUtil.generateSubDiffs(changedLineWikiDiff.getOldText(), changedLineWikiDiff.getNewText()));
 			}
 			wikiDiffs.addAll(changedLineWikiDiffs);
 			nextDiff = (i < diffs.size()) ? diffs.get(i) : null;
@@ -210,6 +193,38 @@ public class DiffUtil {
 		return wikiDiffs;
 	}
 
+	/**
+	 * Compare the old and new text of a changed line character by character and return
+	 * a list of WikiDiff objects for the line.  Each WikiDiff object contains either a run
+	 * of unchanged text or a run of changed text, rather than a single character.
+	 */
+	private static List<WikiDiff> generateSubDiffs(String oldLine, String newLine) {
+		String oldText = StringUtils.defaultString(oldLine);
+		String newText = StringUtils.defaultString(newLine);
+		List<Difference> diffs = DiffUtil.diff(DiffUtil.toCharacterIds(oldText), DiffUtil.toCharacterIds(newText));
+		List<WikiDiff> wikiSubDiffs = new ArrayList<WikiDiff>();
+		int deletedCurrent = 0;
+		int addedCurrent = 0;
+		for (Difference diff : diffs) {
+			if (diff.getDeletedStart() > deletedCurrent) {
+				String unchanged = oldText.substring(deletedCurrent, diff.getDeletedStart());
+				wikiSubDiffs.add(new WikiDiff(unchanged, unchanged, deletedCurrent));
+			}
+			int deletedEnd = (diff.getDeletedEnd() == Difference.NONE) ? diff.getDeletedStart() : (diff.getDeletedEnd() + 1);
+			int addedEnd = (diff.getAddedEnd() == Difference.NONE) ? diff.getAddedStart() : (diff.getAddedEnd() + 1);
+			String deleted = (deletedEnd > diff.getDeletedStart()) ? oldText.substring(diff.getDeletedStart(), deletedEnd) : null;
+			String added = (addedEnd > diff.getAddedStart()) ? newText.substring(diff.getAddedStart(), addedEnd) : null;
+			wikiSubDiffs.add(new WikiDiff(deleted, added, diff.getDeletedStart()));
+			deletedCurrent = deletedEnd;
+			addedCurrent = addedEnd;
+		}
+		if (deletedCurrent < oldText.length() && addedCurrent < newText.length()) {
+			String unchanged = oldText.substring(deletedCurrent);
+			wikiSubDiffs.add(new WikiDiff(unchanged, unchanged, deletedCurrent));
+		}
+		return wikiSubDiffs;
+	}
+
 	/**
 	 *
 	 */
@@ -343,8 +358,10 @@ public class DiffUtil {
 		}
 		String[] oldArray = DiffUtil.split(oldVersion);
 		String[] newArray = DiffUtil.split(newVersion);
-		Diff<String> diffObject = new Diff<String>(oldArray, newArray);
-		List<Difference> diffs = diffObject.diff();
+		// map each distinct line to an integer ID so that lines are compared by value
+		// only once rather than on every step of the diff
+		Map<String, Integer> lineIds = new HashMap<String, Integer>();
+		List<Difference> diffs = DiffUtil.diff(DiffUtil.toLineIds(oldArray, lineIds), DiffUtil.toLineIds(newArray, lineIds));
 		return DiffUtil.generateWikiDiffs(diffs, oldArray, newArray);
 	}
 
@@ -391,15 +408,6 @@ public class DiffUtil {
 		return wikiDiffs;
 	}
 
-	/**
-	 * Determine if diff information is available in the cache.  If so return it,
-	 * otherwise return <code>null</code>.
-	 */
-	private static List<WikiDiff> retrieveFromCache(String newVersion, String oldVersion) {
-		String key = generateCacheKey(newVersion, oldVersion);
-		return CACHE_DIFF_INFORMATION.retrieveFromCache(key);
-	}
-
 	/**
 	 * Split up a String into an array of values using the specified string pattern.
 	 *
@@ -413,17 +421,36 @@ public class DiffUtil {
 	}
 
 	/**
-	 * Convert a string to a string array of characters.
+	 * Convert a string to an array of character values.
 	 *
-	 * @param original The value that is being split.
+	 * @param original The value that is being converted.
 	 */
-	private static String[] stringToArray(String original) {
-		if (original == null) {
-			return new String[0];
+	private static int[] toCharacterIds(String original) {
+		int[] result = new int[original.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = original.charAt(i);
 		}
-		String[] result = new String[original.length()];
+		return result;
+	}
+
+	/**
+	 * Convert an array of lines to an array of line IDs, where identical lines are
+	 * assigned the same ID.
+	 *
+	 * @param lines The lines that are being converted.
+	 * @param lineIds A map of lines to line IDs, which is updated with the IDs of any
+	 *  lines that have not previously been assigned an ID.
+	 */
+	private static int[] toLineIds(String[] lines, Map<String, Integer> lineIds) {
+		int[] result = new int[lines.length];
+		Integer lineId;
 		for (int i = 0; i < result.length; i++) {
-			result[i] = String.valueOf(original.charAt(i));
+			lineId = lineIds.get(lines[i]);
+			if (lineId == null) {
+				lineId = lineIds.size();
+				lineIds.put(lines[i], lineId);
+			}
+			result[i] = lineId;
 		}
 		return result;
 	}
@@ -0,0 +1,159 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicVersion;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the Lucene search engine implementation.
+ */
+public class LuceneSearchEngineTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRefreshIndex() throws Throwable {
+		for (int i = 0; i < 5; i++) {
+			this.setupTopic(null, "Search Rebuild Test " + i, "quixotic rebuild content " + i);
+		}
+		int batchSize = Environment.getIntValue(Environment.PROP_SEARCH_REBUILD_BATCH_SIZE);
+		LuceneSearchEngine searchEngine = new LuceneSearchEngine();
+		try {
+			// use a small batch size to verify that all batches are indexed
+			Environment.setIntValue(Environment.PROP_SEARCH_REBUILD_BATCH_SIZE, 2);
+			searchEngine.refreshIndex();
+			List<SearchResultEntry> results = searchEngine.findResults("en", "quixotic", null);
+			assertEquals("Incorrect number of results after index rebuild", 5, results.size());
+			// updates after the rebuild should be visible once committed
+			Topic topic = WikiBase.getDataHandler().lookupTopic("en", "Search Rebuild Test 0", false);
+			topic.setTopicContent("no longer matching");
+			searchEngine.setAutoCommit(false);
+			searchEngine.updateInIndex(topic);
+			searchEngine.commit("en");
+			results = searchEngine.findResults("en", "quixotic", null);
+			assertEquals("Incorrect number of results after index update", 4, results.size());
+		} finally {
+			Environment.setIntValue(Environment.PROP_SEARCH_REBUILD_BATCH_SIZE, batchSize);
+			searchEngine.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResumeRebuild() throws Throwable {
+		Topic topic = null;
+		for (int i = 0; i < 4; i++) {
+			topic = this.setupTopic(null, "Search Resume Test " + i, "obstreperous resume content " + i);
+		}
+		final int lastTopicId = topic.getTopicId();
+		int batchSize = Environment.getIntValue(Environment.PROP_SEARCH_REBUILD_BATCH_SIZE);
+		LuceneSearchEngine interruptedSearchEngine = new LuceneSearchEngine() {
+			void rebuildBatchCommitted(String virtualWiki, int topicId) throws IOException {
+				if (topicId >= lastTopicId) {
+					// simulate a restart after all topics are indexed but before the swap
+					throw new IOException("Rebuild interrupted");
+				}
+			}
+		};
+		LuceneSearchEngine searchEngine = new LuceneSearchEngine();
+		try {
+			Environment.setIntValue(Environment.PROP_SEARCH_REBUILD_BATCH_SIZE, 2);
+			interruptedSearchEngine.refreshIndex();
+			interruptedSearchEngine.shutdown();
+			// edit and delete topics that are already in the interrupted rebuild
+			topic = WikiBase.getDataHandler().lookupTopic("en", "Search Resume Test 0", false);
+			topic.setTopicContent("no longer matching");
+			this.setupTopic(topic);
+			topic = WikiBase.getDataHandler().lookupTopic("en", "Search Resume Test 1", false);
+			topic.setTopicContent("");
+			TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, "", 0);
+			topicVersion.setEditType(TopicVersion.EDIT_DELETE);
+			WikiBase.getDataHandler().deleteTopic(topic, topicVersion);
+			// a new search engine instance resumes the rebuild from its checkpoint
+			searchEngine.refreshIndex();
+			List<SearchResultEntry> results = searchEngine.findResults("en", "obstreperous", null);
+			assertEquals("Incorrect number of results after resumed index rebuild", 2, results.size());
+		} finally {
+			Environment.setIntValue(Environment.PROP_SEARCH_REBUILD_BATCH_SIZE, batchSize);
+			searchEngine.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSearchDuringRebuild() throws Throwable {
+		for (int i = 0; i < 3; i++) {
+			this.setupTopic(null, "Search Swap Test " + i, "zanzibarian swap content " + i);
+		}
+		final LuceneSearchEngine searchEngine = new LuceneSearchEngine();
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger searches = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		try {
+			searchEngine.refreshIndex();
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+					public void run() {
+						try {
+							while (!done.get()) {
+								// searches must succeed while the index is being swapped
+								assertEquals(3, searchEngine.findResults("en", "zanzibarian", null).size());
+								searches.incrementAndGet();
+							}
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (int i = 0; i < 3; i++) {
+				searchEngine.refreshIndex();
+			}
+		} finally {
+			done.set(true);
+			for (Thread thread : threads) {
+				if (thread != null) {
+					thread.join();
+				}
+			}
+			searchEngine.shutdown();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		assertTrue("No searches completed", searches.get() > 0);
+	}
+}
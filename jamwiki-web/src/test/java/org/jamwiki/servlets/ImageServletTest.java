@@ -0,0 +1,60 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the HTTP header handling in ImageServlet.
+ */
+public class ImageServletTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMatchesETag() throws Throwable {
+		assertTrue(ImageServlet.matchesETag("\"12-0\"", "\"12-0\"", true));
+		assertTrue(ImageServlet.matchesETag("\"1-0\", W/\"12-0\"", "\"12-0\"", true));
+		assertFalse(ImageServlet.matchesETag("W/\"12-0\"", "\"12-0\"", false));
+		assertTrue(ImageServlet.matchesETag("*", "\"12-0\"", true));
+		assertFalse(ImageServlet.matchesETag("\"13-0\"", "\"12-0\"", true));
+		assertFalse(ImageServlet.matchesETag("", "\"12-0\"", true));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseRange() throws Throwable {
+		assertArrayEquals(new long[] {0, 99}, ImageServlet.parseRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] {500, 999}, ImageServlet.parseRange("bytes=500-", 1000));
+		assertArrayEquals(new long[] {900, 999}, ImageServlet.parseRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] {0, 999}, ImageServlet.parseRange("bytes=-5000", 1000));
+		assertArrayEquals(new long[] {990, 999}, ImageServlet.parseRange("bytes=990-5000", 1000));
+		assertSame(ImageServlet.RANGE_NOT_SATISFIABLE, ImageServlet.parseRange("bytes=1000-", 1000));
+		assertSame(ImageServlet.RANGE_NOT_SATISFIABLE, ImageServlet.parseRange("bytes=-0", 1000));
+		// invalid or unsupported ranges return the entire file
+		assertNull(ImageServlet.parseRange(null, 1000));
+		assertNull(ImageServlet.parseRange("bytes=100-50", 1000));
+		assertNull(ImageServlet.parseRange("bytes=0-1,5-9", 1000));
+		assertNull(ImageServlet.parseRange("items=0-1", 1000));
+		assertNull(ImageServlet.parseRange("bytes=-", 1000));
+		assertNull(ImageServlet.parseRange("bytes=0-99", -1));
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.jamwiki.model.RecentChange;
+import org.jamwiki.model.TopicVersion;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the feed output generated by RecentChangesFeedServlet.
+ */
+public class RecentChangesFeedServletTest {
+
+	private static final String FEED_URL = "http://localhost/wiki/en/";
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteAtom() throws Throwable {
+		Document document = this.writeFeed("atom_1.0", false);
+		Element root = document.getDocumentElement();
+		assertEquals("feed", root.getLocalName());
+		assertEquals("http://www.w3.org/2005/Atom", root.getNamespaceURI());
+		NodeList entries = document.getElementsByTagNameNS("http://www.w3.org/2005/Atom", "entry");
+		assertEquals(1, entries.getLength());
+		Element entry = (Element)entries.item(0);
+		assertEquals("Topic <One>", entry.getElementsByTagName("title").item(0).getTextContent());
+		assertEquals("2001-09-09T01:46:40Z", entry.getElementsByTagName("updated").item(0).getTextContent());
+		assertEquals("Comment & more", entry.getElementsByTagName("summary").item(0).getTextContent());
+		assertEquals("Author", ((Element)entry.getElementsByTagName("author").item(0)).getElementsByTagName("name").item(0).getTextContent());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteRss() throws Throwable {
+		Document document = this.writeFeed("rss_2.0", true);
+		assertEquals("rss", document.getDocumentElement().getLocalName());
+		assertEquals("2.0", document.getDocumentElement().getAttribute("version"));
+		NodeList items = document.getElementsByTagName("item");
+		assertEquals(2, items.getLength());
+		Element item = (Element)items.item(0);
+		assertEquals(FEED_URL + "Special:History?topicVersionId=12&topic=Topic_%3COne%3E", item.getElementsByTagName("link").item(0).getTextContent());
+		assertEquals("Sun, 09 Sep 2001 01:46:40 GMT", item.getElementsByTagName("pubDate").item(0).getTextContent());
+		assertEquals(FEED_URL + "Topic_%3COne%3E#12", item.getElementsByTagName("guid").item(0).getTextContent());
+		assertEquals("Author", item.getElementsByTagNameNS("http://purl.org/dc/elements/1.1/", "creator").item(0).getTextContent());
+		assertEquals("Minor change (minor)", ((Element)items.item(1)).getElementsByTagName("description").item(0).getTextContent());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteLegacyFeed() throws Throwable {
+		Document document = this.writeFeed("rss_0.92", true);
+		assertEquals("rss", document.getDocumentElement().getLocalName());
+		assertEquals(2, document.getElementsByTagName("item").getLength());
+	}
+
+	/**
+	 *
+	 */
+	private Document writeFeed(String feedType, boolean includeMinorEdits) throws Exception {
+		List<RecentChange> changes = new ArrayList<RecentChange>();
+		changes.add(this.buildChange("Topic <One>", 12, TopicVersion.EDIT_NORMAL, "Comment & more"));
+		changes.add(this.buildChange("Topic Two", 11, TopicVersion.EDIT_MINOR, "Minor change"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new RecentChangesFeedServlet().writeFeed(out, feedType, FEED_URL, changes, includeMinorEdits, true);
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	/**
+	 *
+	 */
+	private RecentChange buildChange(String topicName, int topicVersionId, int editType, String comment) {
+		RecentChange change = new RecentChange();
+		change.setTopicName(topicName);
+		change.setTopicVersionId(topicVersionId);
+		change.setEditType(editType);
+		change.setChangeComment(comment);
+		change.setAuthorName("Author");
+		change.setChangeDate(new Timestamp(1000000000000L));
+		return change;
+	}
+}
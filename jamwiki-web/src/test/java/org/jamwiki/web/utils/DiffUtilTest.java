@@ -19,6 +19,7 @@
 package org.jamwiki.web.utils;
 
 import java.util.List;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.web.model.WikiDiff;
 import org.junit.Test;
@@ -145,5 +146,40 @@ public class DiffUtilTest extends JAMWikiUnitTest {
 		List<WikiDiff> result = DiffUtil.diff("testString", "testString");
 		assertEquals("result.size()", 0, result.size());
 	}
+
+	/**
+	 * Verify that changed text within a line is grouped into runs of characters.
+	 */
+	@Test
+	public void testDiffSubDiffs() throws Throwable {
+		List<WikiDiff> result = DiffUtil.diff("first\nthe quick red fox\nlast", "first\nthe slow red dog\nlast");
+		assertEquals("result.size()", 3, result.size());
+		WikiDiff changed = result.get(1);
+		assertEquals("the slow red dog", changed.getOldText());
+		assertEquals("the quick red fox", changed.getNewText());
+		StringBuilder oldText = new StringBuilder();
+		StringBuilder newText = new StringBuilder();
+		for (WikiDiff subDiff : changed.getSubDiffs()) {
+			oldText.append(StringUtils.defaultString(subDiff.getOldText()));
+			newText.append(StringUtils.defaultString(subDiff.getNewText()));
+		}
+		assertEquals("the slow red dog", oldText.toString());
+		assertEquals("the quick red fox", newText.toString());
+		assertEquals("the ", changed.getSubDiffs().get(0).getOldText());
+		assertFalse(changed.getSubDiffs().get(0).getChange());
+		assertTrue(changed.getSubDiffs().get(1).getChange());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDiffTopicVersions() throws Throwable {
+		List<WikiDiff> result = DiffUtil.diff("testDiffUtil\nNewVersion", "testDiffUtilOldVersion", 102, 101);
+		assertEquals("result.size()", 2, result.size());
+		// results are cached by topic version ID
+		assertSame(result, DiffUtil.diff("testDiffUtil\nNewVersion", "testDiffUtilOldVersion", 102, 101));
+		assertNotSame(result, DiffUtil.diff("testDiffUtil\nNewVersion", "testDiffUtilOldVersion", 103, 101));
+	}
 }
 